@@ -0,0 +1,42 @@
+package com.example.storage_app.benchmark;
+
+import com.example.storage_app.util.FileIds;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Id generation throughput with every core generating at once, as under concurrent uploads: {@code
+ * UUID.randomUUID()}, which shares one {@code SecureRandom} across threads, against {@link
+ * FileIds}, which gives each thread its own. Compare with {@code -t 1} for the uncontended cost.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(Threads.MAX)
+public class IdGenerationBenchmark {
+
+  @Benchmark
+  public UUID randomUuid() {
+    return UUID.randomUUID();
+  }
+
+  @Benchmark
+  public UUID timeOrdered() {
+    return FileIds.timeOrdered();
+  }
+
+  @Benchmark
+  public UUID token() {
+    return FileIds.token();
+  }
+}
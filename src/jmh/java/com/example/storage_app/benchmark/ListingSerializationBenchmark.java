@@ -0,0 +1,129 @@
+package com.example.storage_app.benchmark;
+
+import com.example.storage_app.controller.dto.FileResponse;
+import com.example.storage_app.controller.dto.PagedResponse;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.TotalMode;
+import com.example.storage_app.util.FileIds;
+import com.example.storage_app.util.FileMapper;
+import com.example.storage_app.util.RawFileJsonWriter;
+import com.example.storage_app.util.TagDictionary;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.types.ObjectId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+/**
+ * Cost per listing row of the mapped path (BSON to {@code Document} to {@code FileRecord} to {@code
+ * FileResponse} to JSON) versus {@link RawFileJsonWriter}. Both start from the bytes the driver
+ * receives. Run with {@code -prof gc}; {@code gc.alloc.rate.norm} is then bytes allocated per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@OperationsPerInvocation(ListingSerializationBenchmark.ROWS)
+public class ListingSerializationBenchmark {
+  static final int ROWS = 100;
+
+  private static final OutputStream DISCARD =
+      new OutputStream() {
+        @Override
+        public void write(int b) {}
+
+        @Override
+        public void write(byte[] b, int off, int len) {}
+      };
+
+  private static final List<String> TAGS = List.of("work", "finance", "q0", "q1", "q2", "q3");
+
+  private final DocumentCodec codec = new DocumentCodec();
+  private List<RawBsonDocument> rows;
+  private ObjectMapper objectMapper;
+  private MappingMongoConverter converter;
+  private FileMapper fileMapper;
+  private RawFileJsonWriter writer;
+
+  @Setup
+  public void setUp() {
+    objectMapper =
+        Jackson2ObjectMapperBuilder.json()
+            .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+    // Ids 1..6 as a warm dictionary cache would hold them.
+    TagDictionary tags =
+        new TagDictionary(null) {
+          @Override
+          public String name(int id) {
+            return TAGS.get(id - 1);
+          }
+        };
+    converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+    converter.setCustomConversions(TagDictionary.conversions(tags));
+    converter.afterPropertiesSet();
+    fileMapper = new FileMapper();
+    writer = new RawFileJsonWriter(objectMapper, tags);
+    rows = new ArrayList<>(ROWS);
+    for (int i = 0; i < ROWS; i++) {
+      // Unprojected, as stored: the mapped path reads the whole document.
+      Document doc =
+          new Document("_id", new ObjectId())
+              .append("f", FileIds.toBson(FileIds.timeOrdered().toString()))
+              .append("s", 1024L * i)
+              .append("n", "report-" + i + ".pdf")
+              .append("d", new Date())
+              .append("c", "application/pdf")
+              .append("o", "user-" + (i % 7))
+              .append("v", "PUBLIC")
+              .append("t", List.of(1, 3 + i % 4, 2))
+              .append("t0", "finance")
+              .append("t1", "work")
+              .append("k", "report-" + i + ".pdf")
+              .append("h", "a".repeat(64))
+              .append("tk", FileIds.toBson(FileIds.token().toString()));
+      rows.add(new RawBsonDocument(doc, codec));
+    }
+  }
+
+  @Benchmark
+  public void mapped() throws IOException {
+    List<FileResponse> content = new ArrayList<>(ROWS);
+    for (RawBsonDocument row : rows) {
+      Document doc = row.decode(codec);
+      content.add(fileMapper.fromEntity(converter.read(FileRecord.class, doc)));
+    }
+    objectMapper.writeValue(
+        DISCARD,
+        new PagedResponse<>(content, 0, ROWS, 1, (long) ROWS, true, true, ROWS, "exact"));
+  }
+
+  @Benchmark
+  public void raw() throws IOException {
+    writer.writePage(DISCARD, rows.iterator(), 0, ROWS, (long) ROWS, TotalMode.EXACT, null);
+  }
+}
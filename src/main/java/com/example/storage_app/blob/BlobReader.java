@@ -0,0 +1,27 @@
+package com.example.storage_app.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import org.bson.types.ObjectId;
+
+/**
+ * Where a file's content is read from, by the file's {@code _id}. A {@link BlobStore} also takes
+ * uploads; the {@link PackBlobStore} only serves what the archiver packed.
+ */
+public interface BlobReader {
+
+  /** Recorded with every file this store holds. */
+  String name();
+
+  /**
+   * Reads {@code length} bytes of the blob from {@code offset}, fewer if it ends first; a negative
+   * {@code length} reads to the end.
+   */
+  InputStream get(ObjectId id, long offset, long length) throws IOException;
+
+  /** Removes the blob, if there is one. */
+  void delete(ObjectId id);
+
+  Optional<BlobStat> stat(ObjectId id);
+}
@@ -0,0 +1,6 @@
+package com.example.storage_app.blob;
+
+import java.time.Instant;
+
+/** Size and write time of a stored blob. */
+public record BlobStat(long length, Instant modified) {}
@@ -0,0 +1,22 @@
+package com.example.storage_app.blob;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+/**
+ * A backend for file content that uploads can be written to. Blobs are keyed by the file's {@code
+ * _id}, which its catalogue entry and its {@code fs.files} descriptor share; together with the
+ * store's {@link #name()}, recorded with the file, that is the file's locator. See {@link
+ * BlobStores}.
+ */
+public interface BlobStore extends BlobReader {
+
+  /**
+   * Stores {@code content} under {@code id}. The filename, content type and metadata describe the
+   * file; a store may keep them with the content or leave them to the {@code fs.files} descriptor.
+   */
+  void put(ObjectId id, String filename, String contentType, Document metadata, InputStream content)
+      throws IOException;
+}
@@ -0,0 +1,197 @@
+package com.example.storage_app.blob;
+
+import com.example.storage_app.config.BlobStoreProperties;
+import com.example.storage_app.exception.StorageException;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+/**
+ * The configured {@link BlobStore}s. New uploads go to the {@code storage.blob.store} one; every
+ * file stays readable from the store it was uploaded to, so the setting can change at any time.
+ * {@value #STRIPED} is not a store of its own but spreads uploads over the {@link GridFsStripes}.
+ *
+ * <p>Every file keeps an {@code fs.files} document whatever its store: a store other than the
+ * default GridFS bucket gets a descriptor without chunks ({@code chunkSize} 0) naming it in {@code
+ * metadata.store}. Signed downloads, the trash marker, derivative links and the scavenger all work
+ * on that document the same way for every store.
+ */
+@Component
+public class BlobStores {
+  /** The {@code fs.files} metadata field naming a store other than GridFS. */
+  public static final String METADATA_STORE = "store";
+
+  /** The upload setting that spreads uploads over the {@link GridFsStripes}. */
+  public static final String STRIPED = "striped";
+
+  private static final String GRIDFS_FILES = "fs.files";
+
+  private final Map<String, BlobStore> stores;
+  private final Map<String, BlobReader> readers;
+  private final GridFsStripes stripes;
+  private final String active;
+  private final String large;
+  private final long largeFileThreshold;
+  private final MongoTemplate mongoTemplate;
+
+  public BlobStores(
+      List<BlobStore> stores,
+      PackBlobStore packBlobStore,
+      GridFsStripes stripes,
+      MongoTemplate mongoTemplate,
+      BlobStoreProperties properties) {
+    this.stores = stores.stream().collect(Collectors.toMap(BlobStore::name, Function.identity()));
+    this.readers = new HashMap<>(this.stores);
+    this.readers.put(packBlobStore.name(), packBlobStore);
+    this.stripes = stripes;
+    this.mongoTemplate = mongoTemplate;
+    this.active = writable("storage.blob.store", properties.store());
+    this.large =
+        properties.largeStore().isBlank()
+            ? active
+            : writable("storage.blob.large-store", properties.largeStore());
+    this.largeFileThreshold = properties.largeFileThreshold().toBytes();
+  }
+
+  /** Checks that uploads can be written to {@code name}. */
+  private String writable(String property, String name) {
+    if (name.equals(STRIPED)) {
+      return name;
+    }
+    if (!stores.containsKey(name)) {
+      throw new IllegalStateException(
+          "Unknown "
+              + property
+              + " '"
+              + name
+              + "'; expected "
+              + GridFsBlobStore.NAME
+              + ", "
+              + STRIPED
+              + ", "
+              + LocalFsBlobStore.NAME
+              + " or "
+              + ErasureCodedBlobStore.NAME);
+    }
+    return name;
+  }
+
+  /** The store an upload of {@code size} bytes with this id is written to. */
+  private BlobStore target(long size, ObjectId id) {
+    String name = size >= largeFileThreshold ? large : active;
+    return name.equals(STRIPED) ? stripes.forUpload(id) : stores.get(name);
+  }
+
+  /** The store of that name; {@code null} is GridFS, which catalogue entries leave unnamed. */
+  public BlobReader named(String name) {
+    BlobReader store = readers.get(name == null ? GridFsBlobStore.NAME : name);
+    if (store == null) {
+      store = stripes.named(name);
+    }
+    if (store == null) {
+      throw new StorageException("Content is in unknown store '" + name + "'");
+    }
+    return store;
+  }
+
+  /**
+   * The GridFS bucket of a striped file described by {@code fs.files} metadata, so its chunks can
+   * be read like the default bucket's; {@code null} for any other file.
+   */
+  public String stripeBucket(Document metadata) {
+    GridFsBlobStore stripe =
+        metadata == null ? null : stripes.named(metadata.getString(METADATA_STORE));
+    return stripe == null ? null : stripe.bucket();
+  }
+
+  /** The store holding a file described by {@code fs.files} metadata, if it is not GridFS. */
+  public BlobReader external(Document metadata) {
+    String name = metadata == null ? null : metadata.getString(METADATA_STORE);
+    return name == null ? null : named(name);
+  }
+
+  /** Opens a file described by its {@code fs.files} document, from whichever store holds it. */
+  public InputStream open(GridFSFile file) throws IOException {
+    BlobReader store = external(file.getMetadata());
+    return (store == null ? named(null) : store).get(file.getObjectId(), 0, -1);
+  }
+
+  /**
+   * Stores {@code size} bytes of content in the active store, or the large-file store from its
+   * threshold, and unless that is the default GridFS bucket writes its {@code fs.files} descriptor.
+   * Returns the name of the store for the catalogue entry, {@code null} for the default bucket.
+   */
+  public String put(
+      ObjectId id,
+      String filename,
+      String contentType,
+      Document metadata,
+      long size,
+      InputStream content)
+      throws IOException {
+    BlobStore store = target(size, id);
+    store.put(id, filename, contentType, metadata, content);
+    if (store.name().equals(GridFsBlobStore.NAME)) {
+      return null;
+    }
+    try {
+      BlobStat stat =
+          store.stat(id).orElseThrow(() -> new IOException("Stored content " + id + " is gone"));
+      Document described = new Document(metadata).append(METADATA_STORE, store.name());
+      if (contentType != null) {
+        described.append("_contentType", contentType);
+      }
+      mongoTemplate.insert(
+          new Document("_id", id)
+              .append("filename", filename)
+              .append("length", stat.length())
+              .append("chunkSize", 0)
+              .append("uploadDate", new Date())
+              .append("metadata", described),
+          GRIDFS_FILES);
+    } catch (IOException | RuntimeException e) {
+      store.delete(id);
+      throw e;
+    }
+    return store.name();
+  }
+
+  /** Removes content stored by {@link #put}, with its descriptor. */
+  public void delete(String name, ObjectId id) {
+    named(name).delete(id);
+    if (name != null && !name.equals(GridFsBlobStore.NAME)) {
+      mongoTemplate.remove(Query.query(Criteria.where("_id").is(id)), GRIDFS_FILES);
+    }
+  }
+
+  /**
+   * Removes the content of those files that are held outside GridFS, by their {@code fs.files}
+   * descriptors; the descriptors themselves are left to the caller.
+   */
+  public void deleteExternal(Collection<ObjectId> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    mongoTemplate
+        .getCollection(GRIDFS_FILES)
+        .find(
+            new Document("_id", new Document("$in", ids))
+                .append("metadata." + METADATA_STORE, new Document("$exists", true)))
+        .projection(new Document("metadata." + METADATA_STORE, 1))
+        .forEach(
+            file -> external(file.get("metadata", Document.class)).delete(file.getObjectId("_id")));
+  }
+}
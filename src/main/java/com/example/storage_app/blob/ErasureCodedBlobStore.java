@@ -0,0 +1,463 @@
+package com.example.storage_app.blob;
+
+import com.example.storage_app.config.ErasureCodingProperties;
+import com.example.storage_app.exception.StorageException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32C;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Content split into {@code dataShards} data and {@code parityShards} parity shards with {@link
+ * ReedSolomon}, each shard a file in a different one of {@code directories}. Any {@code dataShards}
+ * shards give the file back, so {@code parityShards} directories (disks) can be lost, for {@code
+ * (data + parity) / data} times the file's size on disk rather than a full copy per replica-set
+ * member.
+ *
+ * <p>Uploads are encoded a stripe at a time: {@code dataShards} cells of {@code cellSize} bytes are
+ * read, the parity cells computed and every cell written at its position in its shard, so an upload
+ * holds one stripe in memory whatever its size. Each cell is followed by its CRC32C and each shard
+ * starts with a header carrying the file's length and coding parameters. Shards are written to
+ * temporary files and renamed into place once all are complete; if a rename fails, the shards
+ * already renamed are removed again.
+ *
+ * <p>Reads take each stripe from the data shards when they are all there and intact, and otherwise
+ * decode it from the first {@code dataShards} readable cells; a shard that is missing, truncated or
+ * fails its checksum is skipped for the rest of the read. Lost shards are not rewritten; a file
+ * stays readable until more than {@code parityShards} of its shards are gone.
+ *
+ * <p>Shard {@code i} of a file goes to directory {@code (i + r) % directories}, where {@code r} is
+ * the low byte of the file's id, so with more directories than shards the load spreads over all of
+ * them. The list of directories must not change once files are stored. The shard counts may: a file
+ * is read and deleted by the counts in its own header.
+ */
+@Component
+public class ErasureCodedBlobStore implements BlobStore {
+  private static final Logger log = LoggerFactory.getLogger(ErasureCodedBlobStore.class);
+  public static final String NAME = "erasure";
+  static final String PARTIAL_SUFFIX = ".part";
+  static final int HEADER_SIZE = 64;
+  private static final int MAGIC = 0x52534231; // "RSB1"
+  private static final int CHECKSUM_SIZE = 4;
+  // ReedSolomon works over GF(256) with at most this many shards in all.
+  private static final int MAX_SHARDS = 64;
+
+  private final List<Path> directories;
+  private final ReedSolomon codec;
+  private final int cellSize;
+  private final boolean fsync;
+  private final Map<Integer, ReedSolomon> codecs = new ConcurrentHashMap<>();
+
+  public ErasureCodedBlobStore(ErasureCodingProperties properties) {
+    this.directories = List.copyOf(properties.directories());
+    this.codec = new ReedSolomon(properties.dataShards(), properties.parityShards());
+    this.cellSize = (int) properties.cellSize().toBytes();
+    this.fsync = properties.fsync();
+    if (!directories.isEmpty() && directories.size() < codec.totalShards()) {
+      throw new IllegalStateException(
+          "storage.blob.erasure.directories needs at least "
+              + codec.totalShards()
+              + " directories, one per shard; got "
+              + directories.size());
+    }
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public void put(
+      ObjectId id, String filename, String contentType, Document metadata, InputStream content)
+      throws IOException {
+    if (directories.isEmpty()) {
+      throw new IllegalStateException("storage.blob.erasure.directories is not set");
+    }
+    int total = codec.totalShards();
+    int data = codec.dataShards();
+    Path[] targets = new Path[total];
+    Path[] partials = new Path[total];
+    FileChannel[] channels = new FileChannel[total];
+    String suffix = "-" + UUID.randomUUID() + PARTIAL_SUFFIX;
+    try {
+      for (int i = 0; i < total; i++) {
+        targets[i] = shardPath(id, i);
+        Files.createDirectories(targets[i].getParent());
+        partials[i] = targets[i].resolveSibling(targets[i].getFileName() + suffix);
+        channels[i] =
+            FileChannel.open(partials[i], StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+      }
+
+      byte[][] cells = new byte[total][cellSize + CHECKSUM_SIZE];
+      long length = 0;
+      boolean end = false;
+      for (long stripe = 0; !end; stripe++) {
+        int stripeBytes = 0;
+        for (int d = 0; d < data; d++) {
+          int read = end ? 0 : content.readNBytes(cells[d], 0, cellSize);
+          if (read < cellSize) {
+            Arrays.fill(cells[d], read, cellSize, (byte) 0);
+            end = true;
+          }
+          stripeBytes += read;
+        }
+        if (stripeBytes == 0) {
+          break;
+        }
+        length += stripeBytes;
+        codec.encodeParity(cells, 0, cellSize);
+        long position = HEADER_SIZE + stripe * (cellSize + CHECKSUM_SIZE);
+        for (int i = 0; i < total; i++) {
+          ByteBuffer.wrap(cells[i]).putInt(cellSize, checksum(cells[i], 0, cellSize));
+          writeFully(channels[i], ByteBuffer.wrap(cells[i]), position);
+        }
+      }
+
+      for (int i = 0; i < total; i++) {
+        writeFully(channels[i], header(data, total - data, length, i), 0);
+        if (fsync) {
+          channels[i].force(false);
+        }
+        channels[i].close();
+      }
+      Set<Path> parents = new LinkedHashSet<>();
+      int moved = 0;
+      try {
+        for (; moved < total; moved++) {
+          Files.move(partials[moved], targets[moved], StandardCopyOption.ATOMIC_MOVE);
+          parents.add(targets[moved].getParent());
+        }
+      } catch (IOException | RuntimeException e) {
+        // Leave no mix of these shards and those of an earlier write of the same id.
+        for (int i = 0; i < moved; i++) {
+          try {
+            Files.deleteIfExists(targets[i]);
+          } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+          }
+        }
+        throw e;
+      }
+      if (fsync) {
+        for (Path parent : parents) {
+          try (FileChannel directory = FileChannel.open(parent, StandardOpenOption.READ)) {
+            directory.force(true);
+          }
+        }
+      }
+    } finally {
+      for (int i = 0; i < total; i++) {
+        if (channels[i] != null) {
+          channels[i].close();
+        }
+        if (partials[i] != null) {
+          Files.deleteIfExists(partials[i]);
+        }
+      }
+    }
+  }
+
+  @Override
+  public InputStream get(ObjectId id, long offset, long length) throws IOException {
+    return new RangeInputStream(new StripeInputStream(id, offset), length);
+  }
+
+  @Override
+  public void delete(ObjectId id) {
+    // Without a readable header the file's shard count is unknown, so every possible shard goes.
+    int total = findHeader(id).map(Header::totalShards).orElse(MAX_SHARDS);
+    try {
+      for (int i = 0; i < total; i++) {
+        Files.deleteIfExists(shardPath(id, i));
+      }
+    } catch (IOException e) {
+      throw new StorageException("Could not delete stored content " + id, e);
+    }
+  }
+
+  @Override
+  public Optional<BlobStat> stat(ObjectId id) {
+    return findHeader(id)
+        .map(
+            header -> {
+              try {
+                return new BlobStat(
+                    header.length(), Files.getLastModifiedTime(header.path()).toInstant());
+              } catch (IOException e) {
+                throw new StorageException("Could not read stored content " + id, e);
+              }
+            });
+  }
+
+  Path shardPath(ObjectId id, int shard) {
+    String hex = id.toHexString();
+    int rotation = Integer.parseInt(hex.substring(22), 16);
+    return directories
+        .get((shard + rotation) % directories.size())
+        .resolve(hex.substring(22, 24))
+        .resolve(hex.substring(20, 22))
+        .resolve(hex + "." + shard);
+  }
+
+  /**
+   * The header of the first readable shard. Files written before a change of the shard counts may
+   * have more shards than the current counts give, so the search goes on past them.
+   */
+  private Optional<Header> findHeader(ObjectId id) {
+    if (directories.isEmpty()) {
+      return Optional.empty();
+    }
+    for (int i = 0; i < MAX_SHARDS; i++) {
+      Path path = shardPath(id, i);
+      try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+        Header header = readHeader(channel, path, i);
+        if (header != null) {
+          return Optional.of(header);
+        }
+      } catch (NoSuchFileException e) {
+        // Try the next shard.
+      } catch (IOException e) {
+        log.warn("Could not read shard {}: {}", path, e.getMessage());
+      }
+    }
+    return Optional.empty();
+  }
+
+  private ByteBuffer header(int dataShards, int parityShards, long length, int shard) {
+    ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+    header
+        .putInt(MAGIC)
+        .putInt(dataShards)
+        .putInt(parityShards)
+        .putInt(cellSize)
+        .putLong(length)
+        .putInt(shard);
+    header.putInt(checksum(header.array(), 0, header.position()));
+    return header.clear();
+  }
+
+  /** The shard's header, or {@code null} if it is not a valid header for shard {@code shard}. */
+  private Header readHeader(FileChannel channel, Path path, int shard) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+    if (!readFully(channel, buffer, 0)) {
+      return null;
+    }
+    buffer.flip();
+    int magic = buffer.getInt();
+    int data = buffer.getInt();
+    int parity = buffer.getInt();
+    int cell = buffer.getInt();
+    long length = buffer.getLong();
+    int index = buffer.getInt();
+    int checksum = buffer.getInt();
+    if (magic != MAGIC
+        || checksum != checksum(buffer.array(), 0, 28)
+        || index != shard
+        || data < 1
+        || parity < 0
+        || data + parity > MAX_SHARDS
+        || cell < 1
+        || length < 0) {
+      return null;
+    }
+    return new Header(path, data, parity, cell, length);
+  }
+
+  private static int checksum(byte[] bytes, int offset, int length) {
+    CRC32C crc = new CRC32C();
+    crc.update(bytes, offset, length);
+    return (int) crc.getValue();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+  }
+
+  /** Fills {@code buffer} from {@code position}; false if the file ends first. */
+  private static boolean readFully(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0) {
+        return false;
+      }
+      position += read;
+    }
+    return true;
+  }
+
+  private record Header(Path path, int dataShards, int parityShards, int cellSize, long length) {
+    int totalShards() {
+      return dataShards + parityShards;
+    }
+
+    boolean sameFile(Header other) {
+      return dataShards == other.dataShards
+          && parityShards == other.parityShards
+          && cellSize == other.cellSize
+          && length == other.length;
+    }
+  }
+
+  /** Decodes a file stripe by stripe from whichever of its shards are readable. */
+  private final class StripeInputStream extends InputStream {
+    private final ObjectId id;
+    private final FileChannel[] channels;
+    private final ReedSolomon stripeCodec;
+    private final int cell;
+    private final long length;
+    private final byte[][] cells;
+    private final boolean[] present;
+    private long stripe = -1;
+    private long position;
+
+    StripeInputStream(ObjectId id, long offset) throws IOException {
+      this.id = id;
+      Header header =
+          findHeader(id)
+              .orElseThrow(() -> new IOException("No shard of " + id + " has a readable header"));
+      this.channels = new FileChannel[header.totalShards()];
+      int readable = 0;
+      try {
+        for (int i = 0; i < channels.length; i++) {
+          Path path = shardPath(id, i);
+          try {
+            channels[i] = FileChannel.open(path, StandardOpenOption.READ);
+          } catch (NoSuchFileException e) {
+            log.warn("Shard {} of {} is missing", i, id);
+            continue;
+          }
+          Header shardHeader = readHeader(channels[i], path, i);
+          if (shardHeader == null || !shardHeader.sameFile(header)) {
+            fail(i, "its header is invalid or does not match the other shards");
+          } else {
+            readable++;
+          }
+        }
+        if (readable < header.dataShards()) {
+          throw new IOException(
+              "Only "
+                  + readable
+                  + " shards of "
+                  + id
+                  + " are readable, "
+                  + header.dataShards()
+                  + " are needed");
+        }
+      } catch (IOException | RuntimeException e) {
+        close();
+        throw e;
+      }
+      this.stripeCodec =
+          header.dataShards() == codec.dataShards() && header.parityShards() == codec.parityShards()
+              ? codec
+              : codecs.computeIfAbsent(
+                  header.dataShards() * 64 + header.parityShards(),
+                  key -> new ReedSolomon(key / 64, key % 64));
+      this.cell = header.cellSize();
+      this.length = header.length();
+      this.cells = new byte[channels.length][cell + CHECKSUM_SIZE];
+      this.present = new boolean[channels.length];
+      this.position = Math.min(offset, length);
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (position >= length) {
+        return -1;
+      }
+      if (len == 0) {
+        return 0;
+      }
+      long stripeBytes = (long) cell * stripeCodec.dataShards();
+      long wanted = position / stripeBytes;
+      if (wanted != stripe) {
+        load(wanted);
+      }
+      int within = (int) (position - wanted * stripeBytes);
+      int shard = within / cell;
+      int inCell = within % cell;
+      int n = (int) Math.min(Math.min(len, cell - inCell), length - position);
+      System.arraycopy(cells[shard], inCell, b, off, n);
+      position += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, length - position));
+      position += skipped;
+      return skipped;
+    }
+
+    private void load(long wanted) throws IOException {
+      int needed = stripeCodec.dataShards();
+      int have = 0;
+      Arrays.fill(present, false);
+      long cellPosition = HEADER_SIZE + wanted * (cell + CHECKSUM_SIZE);
+      for (int i = 0; i < channels.length && have < needed; i++) {
+        if (channels[i] == null) {
+          continue;
+        }
+        if (!readFully(channels[i], ByteBuffer.wrap(cells[i]), cellPosition)) {
+          fail(i, "it is truncated");
+        } else if (ByteBuffer.wrap(cells[i]).getInt(cell) != checksum(cells[i], 0, cell)) {
+          fail(i, "a cell fails its checksum");
+        } else {
+          present[i] = true;
+          have++;
+        }
+      }
+      if (have < needed) {
+        throw new IOException(
+            "Stripe " + wanted + " of " + id + " has only " + have + " readable cells");
+      }
+      stripeCodec.decodeData(cells, present, 0, cell);
+      stripe = wanted;
+    }
+
+    private void fail(int shard, String reason) throws IOException {
+      log.warn("Skipping shard {} of {}: {}", shard, id, reason);
+      channels[shard].close();
+      channels[shard] = null;
+    }
+
+    @Override
+    public void close() throws IOException {
+      for (FileChannel channel : channels) {
+        if (channel != null) {
+          channel.close();
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package com.example.storage_app.blob;
+
+import com.mongodb.client.gridfs.GridFSBuckets;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Optional;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.data.mongodb.gridfs.GridFsUpload;
+import org.springframework.stereotype.Component;
+
+/**
+ * Content in the default GridFS bucket: {@code fs.chunks} holds the bytes and the {@code fs.files}
+ * document it writes is the file's descriptor. Downloads read GridFS through {@link
+ * com.example.storage_app.service.ReadRouting} instead, on the download read preference.
+ */
+@Component
+public class GridFsBlobStore implements BlobStore {
+  public static final String NAME = "gridfs";
+
+  private final GridFsTemplate gridFsTemplate;
+  private final MongoTemplate mongoTemplate;
+  private final String bucket;
+  private final String name;
+
+  @Autowired
+  public GridFsBlobStore(MongoDatabaseFactory mongoDatabaseFactory, MongoTemplate mongoTemplate) {
+    this(mongoDatabaseFactory, mongoTemplate, "fs");
+  }
+
+  /** Content in another bucket, for blobs that are not files of their own, e.g. packs. */
+  public GridFsBlobStore(
+      MongoDatabaseFactory mongoDatabaseFactory, MongoTemplate mongoTemplate, String bucket) {
+    this(mongoDatabaseFactory, mongoTemplate, bucket, NAME);
+  }
+
+  /** Content in another bucket under a store name of its own, e.g. a {@link GridFsStripes} one. */
+  public GridFsBlobStore(
+      MongoDatabaseFactory mongoDatabaseFactory,
+      MongoTemplate mongoTemplate,
+      String bucket,
+      String name) {
+    this.gridFsTemplate =
+        new GridFsTemplate(mongoDatabaseFactory, mongoTemplate.getConverter(), bucket);
+    this.mongoTemplate = mongoTemplate;
+    this.bucket = bucket;
+    this.name = name;
+  }
+
+  @Override
+  public String name() {
+    return name;
+  }
+
+  public String bucket() {
+    return bucket;
+  }
+
+  @Override
+  public void put(
+      ObjectId id, String filename, String contentType, Document metadata, InputStream content) {
+    gridFsTemplate.store(
+        GridFsUpload.fromStream(content)
+            .id(id)
+            .filename(filename)
+            .contentType(contentType)
+            .metadata(metadata)
+            .build());
+  }
+
+  @Override
+  public InputStream get(ObjectId id, long offset, long length) throws IOException {
+    // The download stream skips whole chunks without fetching them.
+    InputStream in = GridFSBuckets.create(mongoTemplate.getDb(), bucket).openDownloadStream(id);
+    RangeInputStream.skipFully(in, offset);
+    return new RangeInputStream(in, length);
+  }
+
+  @Override
+  public void delete(ObjectId id) {
+    gridFsTemplate.delete(Query.query(Criteria.where("_id").is(id)));
+  }
+
+  @Override
+  public Optional<BlobStat> stat(ObjectId id) {
+    Document file =
+        mongoTemplate.findOne(
+            Query.query(Criteria.where("_id").is(id)), Document.class, bucket + ".files");
+    return Optional.ofNullable(file)
+        .map(
+            f ->
+                new BlobStat(
+                    ((Number) f.get("length")).longValue(), f.getDate("uploadDate").toInstant()));
+  }
+}
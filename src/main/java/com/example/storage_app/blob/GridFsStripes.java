@@ -0,0 +1,87 @@
+package com.example.storage_app.blob;
+
+import com.example.storage_app.config.BlobStoreProperties;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * GridFS buckets {@code fs_0 .. fs_K-1} that striped uploads are spread over, so that no single
+ * {@code chunks} collection and its {@code files_id_1_n_1} index takes every insert. A file goes to
+ * stripe {@code hash(id) mod K} and keeps the stripe's store name, {@code gridfs-<n>}, in its
+ * catalogue entry and {@code fs.files} descriptor. Reads resolve that name rather than the hash, so
+ * {@code storage.blob.stripes} can grow at any time: new uploads spread over the new count and
+ * stored files stay where they are.
+ */
+@Component
+public class GridFsStripes {
+  public static final String NAME_PREFIX = "gridfs-";
+  public static final String BUCKET_PREFIX = "fs_";
+
+  private static final Pattern NAME = Pattern.compile(Pattern.quote(NAME_PREFIX) + "(\\d+)");
+  private static final Pattern FILES =
+      Pattern.compile(Pattern.quote(BUCKET_PREFIX) + "\\d+\\.files");
+
+  private final MongoDatabaseFactory mongoDatabaseFactory;
+  private final MongoTemplate mongoTemplate;
+  private final int count;
+  private final ConcurrentMap<Integer, GridFsBlobStore> stripes = new ConcurrentHashMap<>();
+
+  public GridFsStripes(
+      MongoDatabaseFactory mongoDatabaseFactory,
+      MongoTemplate mongoTemplate,
+      BlobStoreProperties properties) {
+    if (properties.stripes() < 1) {
+      throw new IllegalStateException(
+          "storage.blob.stripes must be at least 1, was " + properties.stripes());
+    }
+    this.mongoDatabaseFactory = mongoDatabaseFactory;
+    this.mongoTemplate = mongoTemplate;
+    this.count = properties.stripes();
+  }
+
+  /** The stripe a new upload with this id goes to. */
+  public GridFsBlobStore forUpload(ObjectId id) {
+    return stripe(Math.floorMod(id.hashCode(), count));
+  }
+
+  /** The stripe of that store name, also one past the current count; {@code null} if none. */
+  public GridFsBlobStore named(String name) {
+    Matcher matcher = name == null ? null : NAME.matcher(name);
+    if (matcher == null || !matcher.matches()) {
+      return null;
+    }
+    try {
+      return stripe(Integer.parseInt(matcher.group(1)));
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /** The stripe buckets that hold or held files, whatever the current count. */
+  public List<String> buckets() {
+    List<String> buckets = new ArrayList<>();
+    for (String collection : mongoTemplate.getCollectionNames()) {
+      if (FILES.matcher(collection).matches()) {
+        buckets.add(collection.substring(0, collection.length() - ".files".length()));
+      }
+    }
+    buckets.sort(null);
+    return buckets;
+  }
+
+  private GridFsBlobStore stripe(int n) {
+    return stripes.computeIfAbsent(
+        n,
+        i ->
+            new GridFsBlobStore(
+                mongoDatabaseFactory, mongoTemplate, BUCKET_PREFIX + i, NAME_PREFIX + i));
+  }
+}
@@ -0,0 +1,237 @@
+package com.example.storage_app.blob;
+
+import com.example.storage_app.config.BlobStoreProperties;
+import com.example.storage_app.exception.StorageException;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+/**
+ * Content as plain files under {@code localRoot}, at {@code ab/cd/<id>} where {@code ab} and {@code
+ * cd} are the last two bytes of the id. Those are the low bytes of the ObjectId counter, so
+ * consecutive uploads land in different directories and no directory grows past a few hundred
+ * entries before the tree holds tens of millions of files.
+ *
+ * <p>An upload is written to a temporary file in the target directory with positional writes from a
+ * {@code localWriteBuffer}-sized buffer, synced, renamed into place and then its directory is
+ * synced, so a blob is either absent or complete after a crash. The syncs go through one thread
+ * that takes up to {@code localSyncBatchSize} waiting requests at a time and syncs each directory
+ * in a batch once, however many uploads renamed into it; concurrent uploads share the wait instead
+ * of queueing behind each other's syncs. With {@code localFsync} off nothing is synced and the page
+ * cache decides when content reaches the disk.
+ */
+@Component
+public class LocalFsBlobStore implements BlobStore {
+  private static final Logger log = LoggerFactory.getLogger(LocalFsBlobStore.class);
+  public static final String NAME = "local";
+  static final String PARTIAL_SUFFIX = ".part";
+
+  private final Path root;
+  private final BlobStoreProperties properties;
+  private SyncBatcher syncBatcher;
+
+  public LocalFsBlobStore(BlobStoreProperties properties) {
+    this.root = properties.localRoot();
+    this.properties = properties;
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  @Override
+  public void put(
+      ObjectId id, String filename, String contentType, Document metadata, InputStream content)
+      throws IOException {
+    Path target = path(id);
+    Path directory = target.getParent();
+    Files.createDirectories(directory);
+    Path partial = directory.resolve(id.toHexString() + "-" + UUID.randomUUID() + PARTIAL_SUFFIX);
+    try {
+      try (FileChannel channel =
+          FileChannel.open(partial, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+        ByteBuffer buffer =
+            ByteBuffer.allocate((int) Math.max(4096, properties.localWriteBuffer().toBytes()));
+        long position = 0;
+        int read;
+        while ((read = content.read(buffer.array(), buffer.position(), buffer.remaining())) >= 0) {
+          buffer.position(buffer.position() + read);
+          if (!buffer.hasRemaining()) {
+            position = writeAt(channel, buffer, position);
+          }
+        }
+        writeAt(channel, buffer, position);
+        sync(channel, null);
+      }
+      Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+      sync(null, directory);
+    } finally {
+      Files.deleteIfExists(partial);
+    }
+  }
+
+  @Override
+  public InputStream get(ObjectId id, long offset, long length) throws IOException {
+    FileChannel channel = FileChannel.open(path(id), StandardOpenOption.READ);
+    channel.position(offset);
+    return new RangeInputStream(Channels.newInputStream(channel), length);
+  }
+
+  @Override
+  public void delete(ObjectId id) {
+    try {
+      Files.deleteIfExists(path(id));
+    } catch (IOException e) {
+      throw new StorageException("Could not delete stored content " + id, e);
+    }
+  }
+
+  @Override
+  public Optional<BlobStat> stat(ObjectId id) {
+    Path path = path(id);
+    try {
+      return Optional.of(
+          new BlobStat(Files.size(path), Files.getLastModifiedTime(path).toInstant()));
+    } catch (NoSuchFileException e) {
+      return Optional.empty();
+    } catch (IOException e) {
+      throw new StorageException("Could not read stored content " + id, e);
+    }
+  }
+
+  Path path(ObjectId id) {
+    String hex = id.toHexString();
+    return root.resolve(hex.substring(22, 24)).resolve(hex.substring(20, 22)).resolve(hex);
+  }
+
+  /** Writes what {@code buffer} holds at {@code position}; returns the position after it. */
+  private static long writeAt(FileChannel channel, ByteBuffer buffer, long position)
+      throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) {
+      position += channel.write(buffer, position);
+    }
+    buffer.clear();
+    return position;
+  }
+
+  /** Syncs the file's data or the directory, whichever is given, through the batcher. */
+  private void sync(FileChannel file, Path directory) throws IOException {
+    if (!properties.localFsync()) {
+      return;
+    }
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    syncBatcher().requests.add(new SyncRequest(file, directory, done));
+    try {
+      done.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while syncing " + directory);
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+    }
+  }
+
+  private synchronized SyncBatcher syncBatcher() {
+    if (syncBatcher == null) {
+      syncBatcher = new SyncBatcher(Math.max(1, properties.localSyncBatchSize()));
+      syncBatcher.start();
+    }
+    return syncBatcher;
+  }
+
+  @PreDestroy
+  public synchronized void close() {
+    if (syncBatcher != null) {
+      syncBatcher.interrupt();
+    }
+  }
+
+  private record SyncRequest(FileChannel file, Path directory, CompletableFuture<Void> done) {}
+
+  private static final class SyncBatcher extends Thread {
+    private final LinkedBlockingQueue<SyncRequest> requests = new LinkedBlockingQueue<>();
+    private final int batchSize;
+
+    SyncBatcher(int batchSize) {
+      super("blob-fsync");
+      setDaemon(true);
+      this.batchSize = batchSize;
+    }
+
+    @Override
+    public void run() {
+      List<SyncRequest> batch = new ArrayList<>(batchSize);
+      while (!isInterrupted()) {
+        try {
+          batch.add(requests.take());
+        } catch (InterruptedException e) {
+          break;
+        }
+        requests.drainTo(batch, batchSize - 1);
+        syncAll(batch);
+        batch.clear();
+      }
+      IOException closed = new IOException("Blob store is closed");
+      requests.forEach(request -> request.done().completeExceptionally(closed));
+    }
+
+    private static void syncAll(List<SyncRequest> batch) {
+      Set<Path> directories = new LinkedHashSet<>();
+      for (SyncRequest request : batch) {
+        if (request.file() != null) {
+          try {
+            request.file().force(false);
+            request.done().complete(null);
+          } catch (IOException e) {
+            request.done().completeExceptionally(e);
+          }
+        } else {
+          directories.add(request.directory());
+        }
+      }
+      for (Path directory : directories) {
+        IOException failure = null;
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+          channel.force(true);
+        } catch (IOException e) {
+          log.warn("Could not sync {}: {}", directory, e.getMessage());
+          failure = e;
+        }
+        for (SyncRequest request : batch) {
+          if (directory.equals(request.directory())) {
+            if (failure == null) {
+              request.done().complete(null);
+            } else {
+              request.done().completeExceptionally(failure);
+            }
+          }
+        }
+      }
+    }
+  }
+}
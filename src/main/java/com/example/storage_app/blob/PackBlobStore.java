@@ -0,0 +1,138 @@
+package com.example.storage_app.blob;
+
+import com.example.storage_app.config.ArchiveProperties;
+import com.example.storage_app.model.Pack;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.Optional;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+/**
+ * Files archived into {@link Pack}s. A member's {@code fs.files} descriptor holds the pack's id
+ * ({@code metadata.pack}), the store the pack is in ({@code metadata.packStore}) and the member's
+ * offset in it ({@code metadata.packOffset}); a read is one positional read of the pack.
+ *
+ * <p>Only {@link com.example.storage_app.service.PackArchiver} writes packs, so this is a {@link
+ * BlobReader} and not an upload target. Deleting a member only counts it out of its pack; the bytes
+ * stay until the pack is compacted.
+ */
+@Component
+public class PackBlobStore implements BlobReader {
+  public static final String NAME = "pack";
+  public static final String BUCKET = "packs";
+  public static final String METADATA_PACK = "pack";
+  public static final String METADATA_PACK_STORE = "packStore";
+  public static final String METADATA_PACK_OFFSET = "packOffset";
+
+  private static final String GRIDFS_FILES = "fs.files";
+
+  private final MongoTemplate mongoTemplate;
+  private final Map<String, BlobStore> holders;
+  private final BlobStore packStore;
+
+  public PackBlobStore(
+      MongoDatabaseFactory mongoDatabaseFactory,
+      MongoTemplate mongoTemplate,
+      LocalFsBlobStore localFsBlobStore,
+      ArchiveProperties properties) {
+    this.mongoTemplate = mongoTemplate;
+    // Packs in GridFS get a bucket of their own, so nothing that walks fs.files mistakes them for
+    // files.
+    this.holders =
+        Map.of(
+            GridFsBlobStore.NAME,
+            new GridFsBlobStore(mongoDatabaseFactory, mongoTemplate, BUCKET),
+            LocalFsBlobStore.NAME,
+            localFsBlobStore);
+    this.packStore = holder(properties.packStore());
+  }
+
+  @Override
+  public String name() {
+    return NAME;
+  }
+
+  /** Where new packs are written. */
+  public BlobStore packStore() {
+    return packStore;
+  }
+
+  /** The store holding packs recorded under {@code name}. */
+  public BlobStore holder(String name) {
+    BlobStore holder = holders.get(name);
+    if (holder == null) {
+      throw new IllegalStateException("Unknown pack store '" + name + "'");
+    }
+    return holder;
+  }
+
+  @Override
+  public InputStream get(ObjectId id, long offset, long length) throws IOException {
+    Document file = descriptor(id);
+    Document metadata = file == null ? null : file.get("metadata", Document.class);
+    if (metadata == null || metadata.get(METADATA_PACK) == null) {
+      throw new IOException("File " + id + " is not in a pack");
+    }
+    long size = ((Number) file.get("length")).longValue();
+    long start = Math.min(offset, size);
+    long remaining = size - start;
+    return holder(metadata.getString(METADATA_PACK_STORE))
+        .get(
+            metadata.getObjectId(METADATA_PACK),
+            ((Number) metadata.get(METADATA_PACK_OFFSET)).longValue() + start,
+            length < 0 ? remaining : Math.min(length, remaining));
+  }
+
+  @Override
+  public void delete(ObjectId id) {
+    // Unset and read the pack in one step: a compaction may move the member between a read and a
+    // separate unset, which would count it out of the old pack but leave the new one counting it.
+    // Only a delete that unset the pointer counts the member out, so a repeated one, e.g. by a
+    // reaper run that stopped half way, does not count it twice.
+    Query member =
+        Query.query(Criteria.where("_id").is(id).and("metadata." + METADATA_PACK).exists(true));
+    member.fields().include("length").include("metadata." + METADATA_PACK);
+    Document before =
+        mongoTemplate.findAndModify(
+            member,
+            new Update().unset("metadata." + METADATA_PACK),
+            FindAndModifyOptions.options().returnNew(false),
+            Document.class,
+            GRIDFS_FILES);
+    if (before == null) {
+      return;
+    }
+    mongoTemplate.updateFirst(
+        Query.query(
+            Criteria.where("_id").is(before.get("metadata", Document.class).get(METADATA_PACK))),
+        new Update()
+            .inc("liveMembers", -1)
+            .inc("liveBytes", -((Number) before.get("length")).longValue()),
+        Pack.class);
+  }
+
+  @Override
+  public Optional<BlobStat> stat(ObjectId id) {
+    return Optional.ofNullable(descriptor(id))
+        .filter(file -> file.get("metadata", Document.class).get(METADATA_PACK) != null)
+        .map(
+            file ->
+                new BlobStat(
+                    ((Number) file.get("length")).longValue(),
+                    file.getDate("uploadDate").toInstant()));
+  }
+
+  private Document descriptor(ObjectId id) {
+    return mongoTemplate.findOne(
+        Query.query(Criteria.where("_id").is(id)), Document.class, GRIDFS_FILES);
+  }
+}
@@ -0,0 +1,204 @@
+package com.example.storage_app.blob;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Systematic Reed-Solomon code over GF(2^8): {@code dataShards} shards hold the data as is and
+ * {@code parityShards} more are computed from them, and any {@code dataShards} of the lot give the
+ * data back. The parity rows of the encoding matrix are a Cauchy matrix, so every square submatrix
+ * of {@code [I; C]} is invertible.
+ *
+ * <p>Multiplication goes through a full 256 by 256 product table, so the inner loops are one table
+ * lookup and one XOR per byte. Decoding matrices are cached per set of shards used.
+ */
+public final class ReedSolomon {
+  private static final int FIELD = 256;
+  private static final int POLYNOMIAL = 0x11d;
+  private static final int[] LOG = new int[FIELD];
+  private static final int[] EXP = new int[2 * FIELD];
+  private static final byte[][] MUL = new byte[FIELD][FIELD];
+
+  static {
+    int x = 1;
+    for (int i = 0; i < FIELD - 1; i++) {
+      EXP[i] = x;
+      LOG[x] = i;
+      x <<= 1;
+      if ((x & FIELD) != 0) {
+        x ^= POLYNOMIAL;
+      }
+    }
+    for (int i = FIELD - 1; i < EXP.length; i++) {
+      EXP[i] = EXP[i - (FIELD - 1)];
+    }
+    for (int a = 0; a < FIELD; a++) {
+      for (int b = 0; b < FIELD; b++) {
+        MUL[a][b] = (byte) multiply(a, b);
+      }
+    }
+  }
+
+  private final int dataShards;
+  private final int parityShards;
+  private final int[][] parityRows;
+  private final Map<Long, int[][]> decodeMatrices = new ConcurrentHashMap<>();
+
+  public ReedSolomon(int dataShards, int parityShards) {
+    if (dataShards < 1 || parityShards < 0 || dataShards + parityShards > 64) {
+      throw new IllegalArgumentException(
+          "Need at least one data shard and at most 64 shards, got "
+              + dataShards
+              + "+"
+              + parityShards);
+    }
+    this.dataShards = dataShards;
+    this.parityShards = parityShards;
+    this.parityRows = new int[parityShards][dataShards];
+    for (int p = 0; p < parityShards; p++) {
+      for (int d = 0; d < dataShards; d++) {
+        parityRows[p][d] = inverse((dataShards + p) ^ d);
+      }
+    }
+  }
+
+  public int dataShards() {
+    return dataShards;
+  }
+
+  public int parityShards() {
+    return parityShards;
+  }
+
+  public int totalShards() {
+    return dataShards + parityShards;
+  }
+
+  /**
+   * Computes the parity shards, {@code shards[dataShards..]}, from the data shards over {@code
+   * length} bytes from {@code offset}.
+   */
+  public void encodeParity(byte[][] shards, int offset, int length) {
+    for (int p = 0; p < parityShards; p++) {
+      combine(parityRows[p], shards, identity(), shards[dataShards + p], offset, length);
+    }
+  }
+
+  /**
+   * Rebuilds the data shards that are not {@code present} from {@code dataShards} that are, over
+   * {@code length} bytes from {@code offset}. Parity shards are not rebuilt.
+   *
+   * @throws IllegalArgumentException if fewer than {@code dataShards} shards are present
+   */
+  public void decodeData(byte[][] shards, boolean[] present, int offset, int length) {
+    int[] used = new int[dataShards];
+    int count = 0;
+    long key = 0;
+    boolean complete = true;
+    for (int i = 0; i < totalShards() && count < dataShards; i++) {
+      if (present[i]) {
+        used[count++] = i;
+        key |= 1L << i;
+      } else if (i < dataShards) {
+        complete = false;
+      }
+    }
+    if (count < dataShards) {
+      throw new IllegalArgumentException(
+          "Only " + count + " of the " + dataShards + " shards needed are present");
+    }
+    if (complete) {
+      return;
+    }
+    int[][] decode = decodeMatrices.computeIfAbsent(key, k -> invert(rowsOf(used)));
+    for (int d = 0; d < dataShards; d++) {
+      if (!present[d]) {
+        combine(decode[d], shards, used, shards[d], offset, length);
+      }
+    }
+  }
+
+  /** {@code out = sum(coefficients[j] * shards[sources[j]])} over the given bytes. */
+  private static void combine(
+      int[] coefficients, byte[][] shards, int[] sources, byte[] out, int offset, int length) {
+    int end = offset + length;
+    byte[] row = MUL[coefficients[0]];
+    byte[] in = shards[sources[0]];
+    for (int i = offset; i < end; i++) {
+      out[i] = row[in[i] & 0xff];
+    }
+    for (int j = 1; j < coefficients.length; j++) {
+      row = MUL[coefficients[j]];
+      in = shards[sources[j]];
+      for (int i = offset; i < end; i++) {
+        out[i] ^= row[in[i] & 0xff];
+      }
+    }
+  }
+
+  private int[] identity() {
+    int[] sources = new int[dataShards];
+    Arrays.setAll(sources, i -> i);
+    return sources;
+  }
+
+  /** The encoding matrix rows that produce the given shards. */
+  private int[][] rowsOf(int[] shards) {
+    int[][] rows = new int[dataShards][];
+    for (int r = 0; r < dataShards; r++) {
+      int shard = shards[r];
+      if (shard < dataShards) {
+        rows[r] = new int[dataShards];
+        rows[r][shard] = 1;
+      } else {
+        rows[r] = parityRows[shard - dataShards].clone();
+      }
+    }
+    return rows;
+  }
+
+  /** Gauss-Jordan inversion over GF(2^8); the matrix is square and, by construction, invertible. */
+  private static int[][] invert(int[][] matrix) {
+    int n = matrix.length;
+    int[][] work = new int[n][2 * n];
+    for (int r = 0; r < n; r++) {
+      System.arraycopy(matrix[r], 0, work[r], 0, n);
+      work[r][n + r] = 1;
+    }
+    for (int c = 0; c < n; c++) {
+      int pivot = c;
+      while (work[pivot][c] == 0) {
+        pivot++;
+      }
+      int[] swap = work[c];
+      work[c] = work[pivot];
+      work[pivot] = swap;
+      int scale = inverse(work[c][c]);
+      for (int k = 0; k < 2 * n; k++) {
+        work[c][k] = multiply(work[c][k], scale);
+      }
+      for (int r = 0; r < n; r++) {
+        int factor = work[r][c];
+        if (r != c && factor != 0) {
+          for (int k = 0; k < 2 * n; k++) {
+            work[r][k] ^= multiply(factor, work[c][k]);
+          }
+        }
+      }
+    }
+    int[][] inverse = new int[n][];
+    for (int r = 0; r < n; r++) {
+      inverse[r] = Arrays.copyOfRange(work[r], n, 2 * n);
+    }
+    return inverse;
+  }
+
+  private static int multiply(int a, int b) {
+    return a == 0 || b == 0 ? 0 : EXP[LOG[a] + LOG[b]];
+  }
+
+  private static int inverse(int a) {
+    return EXP[FIELD - 1 - LOG[a]];
+  }
+}
@@ -0,0 +1,17 @@
+package com.example.storage_app.config;
+
+import java.util.Set;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * Who may call the {@code /api/v1/admin} endpoints.
+ *
+ * @param users the {@code X-User-Id}s allowed to; nobody by default
+ */
+@ConfigurationProperties(prefix = "storage.admin")
+public record AdminProperties(Set<String> users) {
+
+  public AdminProperties {
+    users = users == null ? Set.of() : Set.copyOf(users);
+  }
+}
@@ -0,0 +1,34 @@
+package com.example.storage_app.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for the archival tier that packs cold small files into large pack blobs.
+ *
+ * @param enabled run the archiver periodically
+ * @param interval delay between runs; a retired pack is deleted one interval after it is retired
+ * @param coldAfter files neither uploaded nor downloaded for this long are cold
+ * @param maxFileSize only files up to this size are packed
+ * @param packSize packs are cut at this size
+ * @param packStore where packs are kept: {@code gridfs} (a {@code packs} bucket) or {@code local}
+ * @param filesPerRun most files one run packs
+ * @param compactBelow packs whose live bytes fall below this fraction of their size are rewritten
+ * @param accessResolution downloads record their time at most this often per file
+ * @param lease how long a run holds the archiver lease without renewing it; a run renews it before
+ *     each pack, so this must exceed the time to write one pack
+ */
+@ConfigurationProperties(prefix = "storage.archive")
+public record ArchiveProperties(
+    @DefaultValue("true") boolean enabled,
+    @DefaultValue("24h") Duration interval,
+    @DefaultValue("90d") Duration coldAfter,
+    @DefaultValue("64KB") DataSize maxFileSize,
+    @DefaultValue("64MB") DataSize packSize,
+    @DefaultValue("gridfs") String packStore,
+    @DefaultValue("100000") int filesPerRun,
+    @DefaultValue("0.5") double compactBelow,
+    @DefaultValue("1d") Duration accessResolution,
+    @DefaultValue("10m") Duration lease) {}
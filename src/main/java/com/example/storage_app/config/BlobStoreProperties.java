@@ -0,0 +1,33 @@
+package com.example.storage_app.config;
+
+import java.nio.file.Path;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Where file content is stored.
+ *
+ * @param store backend new uploads go to, {@code gridfs}, {@code striped}, {@code local} or {@code
+ *     erasure}; stored files stay in the backend they were uploaded to
+ * @param localRoot directory of the local backend
+ * @param localFsync whether a local upload completes only once the file and its directory entry are
+ *     on disk
+ * @param localSyncBatchSize most fsyncs the local backend issues in one batch
+ * @param localWriteBuffer buffer each local upload is written through
+ * @param largeStore backend for uploads of at least {@code largeFileThreshold}, e.g. {@code
+ *     erasure}; blank sends them to {@code store} as well
+ * @param largeFileThreshold size from which uploads go to {@code largeStore}
+ * @param stripes number of GridFS buckets the {@code striped} backend spreads new uploads over; it
+ *     can grow without moving stored files
+ */
+@ConfigurationProperties(prefix = "storage.blob")
+public record BlobStoreProperties(
+    @DefaultValue("gridfs") String store,
+    @DefaultValue("data/blobs") Path localRoot,
+    @DefaultValue("true") boolean localFsync,
+    @DefaultValue("256") int localSyncBatchSize,
+    @DefaultValue("256KB") DataSize localWriteBuffer,
+    @DefaultValue("") String largeStore,
+    @DefaultValue("8MB") DataSize largeFileThreshold,
+    @DefaultValue("8") int stripes) {}
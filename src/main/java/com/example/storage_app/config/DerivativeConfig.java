@@ -0,0 +1,8 @@
+package com.example.storage_app.config;
+
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(DerivativeProperties.class)
+public class DerivativeConfig {}
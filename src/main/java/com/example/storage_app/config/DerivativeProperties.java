@@ -0,0 +1,31 @@
+package com.example.storage_app.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for the background thumbnail and preview pipeline.
+ *
+ * @param enabled enqueue derivative jobs for uploaded images and PDFs
+ * @param workerThreads maximum number of jobs rendered concurrently
+ * @param pollInterval how often the durable queue is polled for due and abandoned jobs
+ * @param lease how long a claimed job stays invisible to other workers before it is retried
+ * @param maxAttempts attempts before a job is parked as FAILED
+ * @param retryBackoff delay before the first retry; doubled on every further attempt
+ * @param thumbnailSize longest edge of a thumbnail, in pixels
+ * @param previewSize longest edge of a preview, in pixels
+ * @param maxSourceSize sources larger than this are skipped
+ */
+@ConfigurationProperties(prefix = "storage.derivatives")
+public record DerivativeProperties(
+    @DefaultValue("true") boolean enabled,
+    @DefaultValue("2") int workerThreads,
+    @DefaultValue("5s") Duration pollInterval,
+    @DefaultValue("2m") Duration lease,
+    @DefaultValue("5") int maxAttempts,
+    @DefaultValue("10s") Duration retryBackoff,
+    @DefaultValue("256") int thumbnailSize,
+    @DefaultValue("1024") int previewSize,
+    @DefaultValue("64MB") DataSize maxSourceSize) {}
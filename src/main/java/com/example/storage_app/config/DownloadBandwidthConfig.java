@@ -0,0 +1,23 @@
+package com.example.storage_app.config;
+
+import com.example.storage_app.controller.DownloadBandwidthFilter;
+import com.example.storage_app.service.DownloadBandwidthScheduler;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(DownloadBandwidthProperties.class)
+public class DownloadBandwidthConfig {
+
+  @Bean
+  public FilterRegistrationBean<DownloadBandwidthFilter> downloadBandwidthFilter(
+      DownloadBandwidthScheduler scheduler) {
+    FilterRegistrationBean<DownloadBandwidthFilter> registration =
+        new FilterRegistrationBean<>(new DownloadBandwidthFilter(scheduler));
+    registration.addUrlPatterns("/api/v1/files/download/*");
+    registration.setName("downloadBandwidthFilter");
+    return registration;
+  }
+}
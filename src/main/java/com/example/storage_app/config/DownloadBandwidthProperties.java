@@ -0,0 +1,37 @@
+package com.example.storage_app.config;
+
+import java.time.Duration;
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the fair-share download scheduler.
+ *
+ * @param bytesPerSecond total egress budget shared by all downloads; {@code 0} disables shaping and
+ *     only meters per-tenant throughput
+ * @param quantumBytes bytes granted to a weight-1 tenant on each deficit-round-robin visit
+ * @param tickInterval how often the scheduler hands out credits
+ * @param defaultWeight weight of identified users without an explicit entry in {@code userWeights}
+ * @param anonymousWeight weight of anonymous requesters, which are metered per client IP
+ * @param userWeights per-user weights keyed by {@code X-User-Id}
+ * @param idleEviction how long an idle tenant's counters are kept before being dropped
+ */
+@ConfigurationProperties(prefix = "storage.download.bandwidth")
+public record DownloadBandwidthProperties(
+    @DefaultValue("0") long bytesPerSecond,
+    @DefaultValue("65536") int quantumBytes,
+    @DefaultValue("10ms") Duration tickInterval,
+    @DefaultValue("1") int defaultWeight,
+    @DefaultValue("1") int anonymousWeight,
+    Map<String, Integer> userWeights,
+    @DefaultValue("5m") Duration idleEviction) {
+
+  public DownloadBandwidthProperties {
+    userWeights = userWeights == null ? Map.of() : Map.copyOf(userWeights);
+  }
+
+  public int weightForUser(String userId) {
+    return Math.max(1, userWeights.getOrDefault(userId, defaultWeight));
+  }
+}
@@ -0,0 +1,28 @@
+package com.example.storage_app.config;
+
+import java.time.Duration;
+import java.util.Map;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for stateless signed download links.
+ *
+ * @param enabled mint signed links in anonymous PUBLIC listings; verification of already issued
+ *     links works whenever keys are configured
+ * @param activeKeyId key used to sign new links
+ * @param keys Base64-encoded HMAC secrets by key id. Keep retired keys here until every link they
+ *     signed has expired, then remove them.
+ * @param ttl lifetime of a newly minted link
+ */
+@ConfigurationProperties(prefix = "storage.download.signing")
+public record DownloadSigningProperties(
+    @DefaultValue("false") boolean enabled,
+    String activeKeyId,
+    Map<String, String> keys,
+    @DefaultValue("15m") Duration ttl) {
+
+  public DownloadSigningProperties {
+    keys = keys == null ? Map.of() : Map.copyOf(keys);
+  }
+}
@@ -0,0 +1,25 @@
+package com.example.storage_app.config;
+
+import java.nio.file.Path;
+import java.util.List;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for the erasure-coded backend.
+ *
+ * @param directories one per disk, at least {@code dataShards + parityShards} of them; each shard
+ *     of a file goes to a different one
+ * @param dataShards shards a file's data is split into; any this many shards give the file back
+ * @param parityShards shards added to them; this many directories can be lost
+ * @param cellSize bytes of each shard per stripe; an upload holds one stripe in memory
+ * @param fsync whether an upload completes only once its shards are on disk
+ */
+@ConfigurationProperties(prefix = "storage.blob.erasure")
+public record ErasureCodingProperties(
+    @DefaultValue List<Path> directories,
+    @DefaultValue("4") int dataShards,
+    @DefaultValue("2") int parityShards,
+    @DefaultValue("64KB") DataSize cellSize,
+    @DefaultValue("true") boolean fsync) {}
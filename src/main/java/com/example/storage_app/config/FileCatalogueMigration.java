@@ -0,0 +1,406 @@
+package com.example.storage_app.config;
+
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.TrashedFile;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.service.TrashService;
+import com.example.storage_app.util.FileIds;
+import com.example.storage_app.util.FilenameSearchKeys;
+import com.example.storage_app.util.TagDictionary;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * Moves the file catalogue out of {@code fs.files}: copies each GridFS file's listing and auth
+ * fields into {@link FileRecord#COLLECTION}, then drops the listing, search and uniqueness indexes
+ * that served them on {@code fs.files} and reports the index space that saved. It runs before
+ * {@link MongoIndexEnsurer}, which then builds the catalogue's indexes and those {@code fs.files}
+ * keeps.
+ *
+ * <p>The copy is online: one server-side {@code $merge} per {@code _id} range of {@link
+ * #BATCH_SIZE} files, so no single operation holds the collection for long and other writers carry
+ * on. Entries already catalogued are kept, so it runs again whenever {@code fs.files} holds more
+ * files than the catalogue, e.g. after nodes of the previous version uploaded during a rolling
+ * deploy; files in the trash are neither copied nor counted as missing. Files that predate the tag
+ * sort keys or filename search keys get them on the way, ids and tokens still stored as strings are
+ * rewritten as binary UUIDs (see {@link FileIds}), and tags still stored as strings are replaced by
+ * their dictionary ids (see {@link TagDictionary}).
+ */
+@Component
+public class FileCatalogueMigration {
+  private static final Logger log = LoggerFactory.getLogger(FileCatalogueMigration.class);
+  static final int BATCH_SIZE = 1000;
+  static final String GRIDFS_FILES = "fs.files";
+
+  /**
+   * The indexes the catalogue kept on {@code fs.files}, under the names {@link MongoIndexEnsurer}
+   * and the mapping annotations gave them, or the server's default for the single-field ones. Only
+   * these are dropped: GridFS's own indexes and those added to {@code fs.files} since, e.g. the
+   * archiver's, stay.
+   */
+  static final Set<String> RETIRED_INDEXES = retiredIndexes();
+
+  /**
+   * What a run did and what it saved. Sizes are storage bytes as reported by {@code $collStats}.
+   *
+   * @param droppedIndexBytes the {@code fs.files} indexes dropped, before they were dropped
+   * @param catalogueIndexBytes all catalogue indexes, which replace them
+   */
+  public record Report(
+      long copied,
+      long convertedIds,
+      long internedTagFiles,
+      List<String> droppedIndexes,
+      long droppedIndexBytes,
+      long catalogueIndexBytes,
+      long gridFsAvgDocumentBytes,
+      long catalogueAvgDocumentBytes) {
+    public long savedIndexBytes() {
+      return droppedIndexBytes - catalogueIndexBytes;
+    }
+  }
+
+  private final MongoTemplate mongoTemplate;
+  private final TagDictionary tagDictionary;
+
+  public FileCatalogueMigration(MongoTemplate mongoTemplate, TagDictionary tagDictionary) {
+    this.mongoTemplate = mongoTemplate;
+    this.tagDictionary = tagDictionary;
+  }
+
+  @EventListener(ContextRefreshedEvent.class)
+  @Order(0)
+  public void onStartup() {
+    migrate();
+  }
+
+  /** Runs the migration; {@code null} when there was nothing left to do. */
+  public Report migrate() {
+    MongoPersistentEntity<?> files =
+        mongoTemplate
+            .getConverter()
+            .getMappingContext()
+            .getRequiredPersistentEntity(FileRecord.class);
+    MongoCollection<Document> gridFsFiles = mongoTemplate.getCollection(GRIDFS_FILES);
+    MongoCollection<Document> catalogue = mongoTemplate.getCollection(FileRecord.COLLECTION);
+
+    long copied = 0;
+    long trashed = mongoTemplate.getCollection(TrashedFile.COLLECTION).estimatedDocumentCount();
+    if (gridFsFiles.estimatedDocumentCount() > catalogue.estimatedDocumentCount() + trashed) {
+      long before = catalogue.countDocuments();
+      copy(gridFsFiles, catalogueFields(files));
+      copied = catalogue.countDocuments() - before;
+      fillSearchKeys(catalogue, files);
+    }
+    long convertedIds = convertIds(catalogue, files);
+    long internedTagFiles = internTags(catalogue, files);
+
+    List<String> legacyIndexes = new ArrayList<>();
+    for (Document index : gridFsFiles.listIndexes()) {
+      if (RETIRED_INDEXES.contains(index.getString("name"))) {
+        legacyIndexes.add(index.getString("name"));
+      }
+    }
+    if (copied == 0 && convertedIds == 0 && internedTagFiles == 0 && legacyIndexes.isEmpty()) {
+      return null;
+    }
+
+    long droppedIndexBytes = indexBytes(GRIDFS_FILES, legacyIndexes);
+    legacyIndexes.forEach(gridFsFiles::dropIndex);
+    Report report =
+        new Report(
+            copied,
+            convertedIds,
+            internedTagFiles,
+            legacyIndexes,
+            droppedIndexBytes,
+            indexBytes(FileRecord.COLLECTION, null),
+            avgDocumentBytes(GRIDFS_FILES),
+            avgDocumentBytes(FileRecord.COLLECTION));
+    log.info(
+        "File catalogue: copied {} files, converted {} ids and tokens, interned the tags of {} files;"
+            + " dropped fs.files indexes {} ({} bytes), catalogue indexes take {} bytes, saving {}"
+            + " bytes; average document {} bytes in fs.files, {} in the catalogue",
+        report.copied(),
+        report.convertedIds(),
+        report.internedTagFiles(),
+        report.droppedIndexes(),
+        report.droppedIndexBytes(),
+        report.catalogueIndexBytes(),
+        report.savedIndexBytes(),
+        report.gridFsAvgDocumentBytes(),
+        report.catalogueAvgDocumentBytes());
+    return report;
+  }
+
+  private static Set<String> retiredIndexes() {
+    Set<String> names =
+        new HashSet<>(
+            Set.of(
+                "owner_filename_idx",
+                "owner_sha256_idx",
+                "download_token_idx",
+                "search_owner_prefix",
+                "search_owner_contains",
+                "search_public_prefix",
+                "search_public_contains"));
+    for (String key :
+        List.of(
+            "filename",
+            "length",
+            "metadata.uploadDate",
+            "metadata.contentType",
+            "metadata.visibility",
+            "metadata.tags")) {
+      names.add(key);
+      names.add(key + "_1");
+    }
+    for (String scope : List.of("owner", "public")) {
+      for (String tagged : List.of("_", "_tag_")) {
+        for (String sortKey : MongoIndexEnsurer.LISTING_SORT_KEYS) {
+          names.add("list_" + scope + tagged + sortKey);
+        }
+      }
+    }
+    return Set.copyOf(names);
+  }
+
+  private void copy(MongoCollection<Document> gridFsFiles, Document catalogueFields) {
+    Object after = null;
+    while (true) {
+      List<Object> ids =
+          gridFsFiles
+              .find(
+                  after == null ? new Document() : new Document("_id", new Document("$gt", after)))
+              .projection(new Document("_id", 1))
+              .sort(new Document("_id", 1))
+              .limit(BATCH_SIZE)
+              .map(d -> d.get("_id"))
+              .into(new ArrayList<>());
+      if (ids.isEmpty()) {
+        return;
+      }
+      after = ids.get(ids.size() - 1);
+      gridFsFiles
+          .aggregate(
+              List.of(
+                  new Document(
+                      "$match",
+                      new Document("_id", new Document("$gte", ids.get(0)).append("$lte", after))
+                          .append(
+                              "metadata." + TrashService.GRIDFS_DELETED_AT,
+                              new Document("$exists", false))),
+                  new Document("$project", catalogueFields),
+                  new Document(
+                      "$merge",
+                      new Document("into", FileRecord.COLLECTION)
+                          .append("on", "_id")
+                          .append("whenMatched", "keepExisting")
+                          .append("whenNotMatched", "insert"))))
+          .toCollection();
+    }
+  }
+
+  /** {@code $project} from an {@code fs.files} document to its catalogue entry. */
+  static Document catalogueFields(MongoPersistentEntity<?> files) {
+    Document fields = new Document("_id", 1);
+    for (MongoPersistentProperty property : files) {
+      if (!property.isIdProperty()) {
+        fields.append(property.getFieldName(), gridFsValue(property.getName()));
+      }
+    }
+    return fields;
+  }
+
+  private static Object gridFsValue(String property) {
+    return switch (property) {
+      case "filename" -> "$filename";
+      case "size" -> "$length";
+      case "uploadDate" -> ifNull("$metadata.uploadDate", "$uploadDate");
+      case "firstTag" ->
+          ifNull("$metadata.firstTag", ifNull(new Document("$min", "$metadata.tags"), ""));
+      case "lastTag" ->
+          ifNull("$metadata.lastTag", ifNull(new Document("$max", "$metadata.tags"), ""));
+      default -> "$metadata." + property;
+    };
+  }
+
+  private static Document ifNull(Object value, Object replacement) {
+    return new Document("$ifNull", List.of(value, replacement));
+  }
+
+  /** Unicode normalisation has no server-side equivalent, so these keys are computed here. */
+  private void fillSearchKeys(MongoCollection<Document> catalogue, MongoPersistentEntity<?> files) {
+    String name = files.getRequiredPersistentProperty("originalFilename").getFieldName();
+    String key = files.getRequiredPersistentProperty("filenameKey").getFieldName();
+    String grams = files.getRequiredPersistentProperty("filenameGrams").getFieldName();
+    List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+    long updated = 0;
+    try (MongoCursor<Document> cursor =
+        catalogue
+            .find(new Document(key, new Document("$exists", false)))
+            .projection(new Document(name, 1))
+            .batchSize(BATCH_SIZE)
+            .iterator()) {
+      while (cursor.hasNext()) {
+        Document file = cursor.next();
+        String filenameKey = FilenameSearchKeys.normalize(file.getString(name));
+        batch.add(
+            new UpdateOneModel<>(
+                new Document("_id", file.get("_id")),
+                Updates.combine(
+                    Updates.set(key, filenameKey),
+                    Updates.set(grams, FilenameSearchKeys.grams(filenameKey)))));
+        if (batch.size() == BATCH_SIZE) {
+          updated += catalogue.bulkWrite(batch).getModifiedCount();
+          batch.clear();
+        }
+      }
+    }
+    if (!batch.isEmpty()) {
+      updated += catalogue.bulkWrite(batch).getModifiedCount();
+    }
+    if (updated > 0) {
+      log.info("Filled filename search keys of {} catalogued files", updated);
+    }
+  }
+
+  /**
+   * Rewrites string ids and tokens as binary UUIDs. Both fields are indexed, so finding the string
+   * ones is an index range over the string type bracket, also when there are none left.
+   */
+  private long convertIds(MongoCollection<Document> catalogue, MongoPersistentEntity<?> files) {
+    List<String> fields =
+        List.of(
+            files.getRequiredPersistentProperty("filename").getFieldName(),
+            files.getRequiredPersistentProperty("token").getFieldName());
+    List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+    long converted = 0;
+    for (String field : fields) {
+      try (MongoCursor<Document> cursor =
+          catalogue
+              .find(new Document(field, new Document("$type", "string")))
+              .projection(new Document(field, 1))
+              .batchSize(BATCH_SIZE)
+              .iterator()) {
+        while (cursor.hasNext()) {
+          Document file = cursor.next();
+          Object stored = FileIds.toBson(file.getString(field));
+          if (stored instanceof String) {
+            continue;
+          }
+          batch.add(
+              new UpdateOneModel<>(
+                  new Document("_id", file.get("_id")), Updates.set(field, stored)));
+          if (batch.size() == BATCH_SIZE) {
+            converted += catalogue.bulkWrite(batch).getModifiedCount();
+            batch.clear();
+          }
+        }
+      }
+      if (!batch.isEmpty()) {
+        converted += catalogue.bulkWrite(batch).getModifiedCount();
+        batch.clear();
+      }
+    }
+    return converted;
+  }
+
+  /**
+   * Replaces string tags by their dictionary ids. An array matches {@code $type} when any element
+   * does, so a partly converted file is picked up again; with every visibility listed, the {@code
+   * list_public_tag_*} indexes serve the search as a range over the string type bracket.
+   */
+  private long internTags(MongoCollection<Document> catalogue, MongoPersistentEntity<?> files) {
+    String visibility = files.getRequiredPersistentProperty("visibility").getFieldName();
+    String tags = files.getRequiredPersistentProperty("tags").getFieldName();
+    List<WriteModel<Document>> batch = new ArrayList<>(BATCH_SIZE);
+    long interned = 0;
+    try (MongoCursor<Document> cursor =
+        catalogue
+            .find(
+                new Document(
+                        visibility,
+                        new Document(
+                            "$in", Arrays.stream(Visibility.values()).map(Enum::name).toList()))
+                    .append(tags, new Document("$type", "string")))
+            .projection(new Document(tags, 1))
+            .batchSize(BATCH_SIZE)
+            .iterator()) {
+      while (cursor.hasNext()) {
+        Document file = cursor.next();
+        List<Object> ids = new ArrayList<>();
+        for (Object tag : file.getList(tags, Object.class)) {
+          ids.add(tag instanceof String name ? tagDictionary.intern(name) : tag);
+        }
+        batch.add(
+            new UpdateOneModel<>(new Document("_id", file.get("_id")), Updates.set(tags, ids)));
+        if (batch.size() == BATCH_SIZE) {
+          interned += catalogue.bulkWrite(batch).getModifiedCount();
+          batch.clear();
+        }
+      }
+    }
+    if (!batch.isEmpty()) {
+      interned += catalogue.bulkWrite(batch).getModifiedCount();
+    }
+    return interned;
+  }
+
+  /** Storage size of the named indexes, or of all of them for {@code null}, summed over shards. */
+  private long indexBytes(String collection, List<String> names) {
+    long bytes = 0;
+    for (Document storage : storageStats(collection)) {
+      Document sizes = storage.get("indexSizes", Document.class);
+      if (sizes != null) {
+        for (String name : names == null ? sizes.keySet() : names) {
+          bytes += sizes.get(name) instanceof Number n ? n.longValue() : 0;
+        }
+      }
+    }
+    return bytes;
+  }
+
+  private long avgDocumentBytes(String collection) {
+    long bytes = 0;
+    long count = 0;
+    for (Document storage : storageStats(collection)) {
+      bytes += storage.get("size") instanceof Number n ? n.longValue() : 0;
+      count += storage.get("count") instanceof Number n ? n.longValue() : 0;
+    }
+    return count == 0 ? 0 : bytes / count;
+  }
+
+  private List<Document> storageStats(String collection) {
+    List<Document> stats = new ArrayList<>();
+    for (Document shard :
+        mongoTemplate
+            .getCollection(collection)
+            .aggregate(
+                List.of(
+                    new Document("$collStats", new Document("storageStats", new Document()))))) {
+      if (shard.get("storageStats") instanceof Document storage) {
+        stats.add(storage);
+      }
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,24 @@
+package com.example.storage_app.config;
+
+import com.example.storage_app.controller.PublicListingCacheFilter;
+import com.example.storage_app.service.PublicListingCache;
+import com.example.storage_app.util.DownloadLinkSigner;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(ListingProperties.class)
+public class ListingConfig {
+
+  @Bean
+  public FilterRegistrationBean<PublicListingCacheFilter> publicListingCacheFilter(
+      PublicListingCache cache, DownloadLinkSigner downloadLinkSigner) {
+    FilterRegistrationBean<PublicListingCacheFilter> registration =
+        new FilterRegistrationBean<>(new PublicListingCacheFilter(cache, downloadLinkSigner));
+    registration.addUrlPatterns("/api/v1/files");
+    registration.setName("publicListingCacheFilter");
+    return registration;
+  }
+}
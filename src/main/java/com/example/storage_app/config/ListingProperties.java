@@ -0,0 +1,30 @@
+package com.example.storage_app.config;
+
+import jakarta.validation.constraints.Positive;
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+import org.springframework.validation.annotation.Validated;
+
+/**
+ * Settings for file listings.
+ *
+ * @param countCacheTtl how long a listing total is reused for {@code totals=estimated}
+ * @param countCacheMaxEntries number of distinct (scope, tag) totals kept in memory
+ * @param exportBatchSize documents the export cursor fetches per round trip
+ * @param exportFlushEvery rows written to the export response between flushes; at least 1
+ * @param publicCacheEnabled cache anonymous PUBLIC listing responses, invalidated by a change
+ *     stream
+ * @param publicCacheMaxEntries number of distinct cached PUBLIC listing responses
+ * @param publicCacheRetryDelay wait before reopening a failed change stream; no hits meanwhile
+ */
+@ConfigurationProperties(prefix = "storage.listing")
+@Validated
+public record ListingProperties(
+    @DefaultValue("30s") Duration countCacheTtl,
+    @DefaultValue("10000") int countCacheMaxEntries,
+    @DefaultValue("1000") int exportBatchSize,
+    @DefaultValue("1000") @Positive int exportFlushEvery,
+    @DefaultValue("true") boolean publicCacheEnabled,
+    @DefaultValue("1000") int publicCacheMaxEntries,
+    @DefaultValue("5s") Duration publicCacheRetryDelay) {}
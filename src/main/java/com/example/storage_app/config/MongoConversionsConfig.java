@@ -0,0 +1,16 @@
+package com.example.storage_app.config;
+
+import com.example.storage_app.util.TagDictionary;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+
+/** Replaces Boot's default conversions so that file tags are stored as dictionary ids. */
+@Configuration
+public class MongoConversionsConfig {
+
+  @Bean
+  public MongoCustomConversions mongoCustomConversions(TagDictionary tagDictionary) {
+    return TagDictionary.conversions(tagDictionary);
+  }
+}
@@ -1,10 +1,25 @@
 package com.example.storage_app.config;
 
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.blob.PackBlobStore;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.service.DerivativeService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.core.annotation.Order;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mapping.context.MappingContext;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
 import org.springframework.data.mongodb.core.index.IndexOperations;
 import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
 import org.springframework.data.mongodb.core.mapping.Document;
@@ -14,13 +29,30 @@ import org.springframework.stereotype.Component;
 
 @Component
 public class MongoIndexEnsurer {
+  private static final Logger log = LoggerFactory.getLogger(MongoIndexEnsurer.class);
+
+  /** Listing scopes: a user's own files ({@code ownerId}) or all PUBLIC files. */
+  static final List<String> LISTING_SCOPES = List.of("ownerId", "visibility");
+
+  /** Properties a listing sorts on; tag order uses the scalar {@code firstTag}/{@code lastTag}. */
+  static final List<String> LISTING_SORT_KEYS =
+      List.of("originalFilename", "uploadDate", "contentType", "size", "firstTag", "lastTag");
+
+  /**
+   * Range-filterable properties ({@code RangeFilter}); carried by every listing index after {@code
+   * _id} unless it sorts on them.
+   */
+  static final List<String> LISTING_RANGE_KEYS = List.of("size", "uploadDate", "contentType");
+
   private final MongoTemplate mongoTemplate;
 
   public MongoIndexEnsurer(MongoTemplate mongoTemplate) {
     this.mongoTemplate = mongoTemplate;
   }
 
+  /** Runs after {@link FileCatalogueMigration}, which drops retired {@code fs.files} indexes. */
   @EventListener(ContextRefreshedEvent.class)
+  @Order(1)
   public void ensureIndexes() {
     MappingContext<? extends MongoPersistentEntity<?>, MongoPersistentProperty> mappingContext =
         mongoTemplate.getConverter().getMappingContext();
@@ -33,5 +65,118 @@ public class MongoIndexEnsurer {
               IndexOperations indexOps = mongoTemplate.indexOps(entity.getType());
               resolver.resolveIndexFor(entity.getType()).forEach(indexOps::ensureIndex);
             });
+
+    IndexOperations files = mongoTemplate.indexOps(FileRecord.class);
+    MongoPersistentEntity<?> fileEntity =
+        mappingContext.getRequiredPersistentEntity(FileRecord.class);
+    List<Index> listingIndexes = listingIndexes(fileEntity);
+    dropRedefinedIndexes(files, listingIndexes);
+    listingIndexes.forEach(files::ensureIndex);
+    searchIndexes(fileEntity).forEach(files::ensureIndex);
+
+    // The derivatives bucket has no mapped entity; derivatives are looked up by their source.
+    mongoTemplate
+        .indexOps(DerivativeService.BUCKET + ".files")
+        .ensureIndex(
+            new Index()
+                .on("metadata.sourceId", Sort.Direction.ASC)
+                .on("metadata.variant", Sort.Direction.ASC)
+                .named("source_variant_idx"));
+
+    // The archiver looks for cold files still in GridFS and for the members of a pack.
+    IndexOperations gridFsFiles = mongoTemplate.indexOps("fs.files");
+    gridFsFiles.ensureIndex(
+        new Index()
+            .on("metadata." + BlobStores.METADATA_STORE, Sort.Direction.ASC)
+            .on("uploadDate", Sort.Direction.ASC)
+            .named("archive_candidates_idx"));
+    gridFsFiles.ensureIndex(
+        new Index()
+            .on("metadata." + PackBlobStore.METADATA_PACK, Sort.Direction.ASC)
+            .sparse()
+            .named("pack_members_idx"));
+  }
+
+  /**
+   * One index per listing query shape: scope equality, optional tag equality, then the sort key and
+   * {@code _id} tie-breaker. Each serves its shape as a bounded IXSCAN in either direction with no
+   * blocking SORT; the repository's sort without {@code _id} uses the same index as a prefix.
+   *
+   * <p>The range-filterable fields follow, equality-sort-range: a range on the sort key bounds the
+   * scan, the others are checked on the index keys so excluded files are never fetched. Ranges
+   * before the sort key would bound the scan tighter but need a blocking SORT.
+   */
+  public static List<Index> listingIndexes(MongoPersistentEntity<?> files) {
+    List<Index> indexes = new ArrayList<>();
+    String tags = files.getRequiredPersistentProperty("tags").getFieldName();
+    for (String scope : LISTING_SCOPES) {
+      String scopeField = files.getRequiredPersistentProperty(scope).getFieldName();
+      String scopeName = scope.equals("ownerId") ? "owner" : "public";
+      for (boolean tagged : new boolean[] {false, true}) {
+        for (String sortKey : LISTING_SORT_KEYS) {
+          Index index = new Index().on(scopeField, Sort.Direction.ASC);
+          if (tagged) {
+            index.on(tags, Sort.Direction.ASC);
+          }
+          index
+              .on(files.getRequiredPersistentProperty(sortKey).getFieldName(), Sort.Direction.ASC)
+              .on("_id", Sort.Direction.ASC);
+          for (String rangeKey : LISTING_RANGE_KEYS) {
+            if (!rangeKey.equals(sortKey)) {
+              index.on(
+                  files.getRequiredPersistentProperty(rangeKey).getFieldName(), Sort.Direction.ASC);
+            }
+          }
+          indexes.add(index.named("list_" + scopeName + (tagged ? "_tag_" : "_") + sortKey));
+        }
+      }
+    }
+    return indexes;
+  }
+
+  /**
+   * Filename search per scope: the normalised name serves prefix ranges in name order; the multikey
+   * trigrams followed by the name serve substring candidates in the same order.
+   */
+  public static List<Index> searchIndexes(MongoPersistentEntity<?> files) {
+    List<Index> indexes = new ArrayList<>();
+    String key = files.getRequiredPersistentProperty("filenameKey").getFieldName();
+    String grams = files.getRequiredPersistentProperty("filenameGrams").getFieldName();
+    for (String scope : LISTING_SCOPES) {
+      String scopeField = files.getRequiredPersistentProperty(scope).getFieldName();
+      String scopeName = scope.equals("ownerId") ? "owner" : "public";
+      indexes.add(
+          new Index()
+              .on(scopeField, Sort.Direction.ASC)
+              .on(key, Sort.Direction.ASC)
+              .on("_id", Sort.Direction.ASC)
+              .named("search_" + scopeName + "_prefix"));
+      indexes.add(
+          new Index()
+              .on(scopeField, Sort.Direction.ASC)
+              .on(grams, Sort.Direction.ASC)
+              .on(key, Sort.Direction.ASC)
+              .on("_id", Sort.Direction.ASC)
+              .named("search_" + scopeName + "_contains"));
+    }
+    return indexes;
+  }
+
+  /** Drops indexes whose name is taken by a definition with other keys; they can't be updated. */
+  private void dropRedefinedIndexes(IndexOperations indexOps, List<Index> definitions) {
+    Map<String, List<String>> keysByName = new HashMap<>();
+    for (Index definition : definitions) {
+      keysByName.put(
+          definition.getIndexOptions().getString("name"),
+          new ArrayList<>(definition.getIndexKeys().keySet()));
+    }
+    for (IndexInfo info : indexOps.getIndexInfo()) {
+      List<String> keys = keysByName.get(info.getName());
+      if (keys != null
+          && !keys.equals(info.getIndexFields().stream().map(IndexField::getKey).toList())) {
+        log.info("Dropping index {}, redefined with keys {}", info.getName(), keys);
+        indexOps.dropIndex(info.getName());
+      }
+    }
   }
 }
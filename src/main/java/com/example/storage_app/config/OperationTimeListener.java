@@ -0,0 +1,43 @@
+package com.example.storage_app.config;
+
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandSucceededEvent;
+import java.util.Set;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+
+/**
+ * Remembers, per thread, the cluster time of the latest write the thread made. The synchronous
+ * driver reports a command on the thread that ran it, so after a request's writes this is the point
+ * a causally consistent read has to wait for to see them.
+ */
+public class OperationTimeListener implements CommandListener {
+  private static final Set<String> WRITE_COMMANDS =
+      Set.of("insert", "update", "delete", "findAndModify");
+
+  /** A write's {@code operationTime} and the {@code $clusterTime} that vouches for it. */
+  public record WriteTime(BsonTimestamp operationTime, BsonDocument clusterTime) {}
+
+  private final ThreadLocal<WriteTime> lastWrite = new ThreadLocal<>();
+
+  @Override
+  public void commandSucceeded(CommandSucceededEvent event) {
+    if (!WRITE_COMMANDS.contains(event.getCommandName())) {
+      return;
+    }
+    BsonDocument reply = event.getResponse();
+    // Standalone servers have no cluster time; there is nothing to order reads after.
+    if (reply.isTimestamp("operationTime") && reply.isDocument("$clusterTime")) {
+      WriteTime previous = lastWrite.get();
+      BsonTimestamp operationTime = reply.getTimestamp("operationTime");
+      if (previous == null || previous.operationTime().compareTo(operationTime) < 0) {
+        lastWrite.set(new WriteTime(operationTime, reply.getDocument("$clusterTime").clone()));
+      }
+    }
+  }
+
+  /** The latest write on this thread, or {@code null} if it made none against a replica set. */
+  public WriteTime lastWrite() {
+    return lastWrite.get();
+  }
+}
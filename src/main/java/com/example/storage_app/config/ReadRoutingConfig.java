@@ -0,0 +1,22 @@
+package com.example.storage_app.config;
+
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableConfigurationProperties(ReadRoutingProperties.class)
+public class ReadRoutingConfig {
+
+  @Bean
+  public OperationTimeListener operationTimeListener() {
+    return new OperationTimeListener();
+  }
+
+  @Bean
+  public MongoClientSettingsBuilderCustomizer operationTimeListenerCustomizer(
+      OperationTimeListener operationTimeListener) {
+    return settings -> settings.addCommandListener(operationTimeListener);
+  }
+}
@@ -0,0 +1,32 @@
+package com.example.storage_app.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Where reads go and how long they may run.
+ *
+ * @param listingReadPreference read preference of listings, search and export, e.g. {@code
+ *     secondaryPreferred} or {@code nearest}
+ * @param downloadReadPreference read preference of download content; lookups read the primary
+ * @param maxStaleness excludes secondaries lagging more than this; zero for no bound, else at least
+ *     90s
+ * @param causalWindow how long an owner's reads are ordered after that owner's last write
+ * @param causalMaxOwners number of owners whose last write is remembered
+ * @param listingMaxTime server-side time budget of a listing query, zero for none
+ * @param searchMaxTime server-side time budget of a filename search, zero for none
+ * @param downloadMaxTime server-side time budget of a download lookup, zero for none
+ * @param exportMaxTime server-side time budget of a whole export cursor, zero for none
+ */
+@ConfigurationProperties(prefix = "storage.reads")
+public record ReadRoutingProperties(
+    @DefaultValue("secondaryPreferred") String listingReadPreference,
+    @DefaultValue("secondaryPreferred") String downloadReadPreference,
+    @DefaultValue("0s") Duration maxStaleness,
+    @DefaultValue("5m") Duration causalWindow,
+    @DefaultValue("100000") int causalMaxOwners,
+    @DefaultValue("2s") Duration listingMaxTime,
+    @DefaultValue("2s") Duration searchMaxTime,
+    @DefaultValue("1s") Duration downloadMaxTime,
+    @DefaultValue("10m") Duration exportMaxTime) {}
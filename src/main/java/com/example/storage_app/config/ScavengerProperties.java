@@ -0,0 +1,23 @@
+package com.example.storage_app.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the consistency scavenger that removes content and metadata left behind by failed
+ * uploads and interrupted deletes.
+ *
+ * @param enabled run the scavenger periodically
+ * @param interval delay between runs
+ * @param gracePeriod content younger than this is left alone; must exceed the slowest upload
+ * @param purgeBatchSize orphans re-checked and removed per batch
+ * @param purgeBatchPause pause between two batches
+ */
+@ConfigurationProperties(prefix = "storage.scavenger")
+public record ScavengerProperties(
+    @DefaultValue("true") boolean enabled,
+    @DefaultValue("24h") Duration interval,
+    @DefaultValue("12h") Duration gracePeriod,
+    @DefaultValue("500") int purgeBatchSize,
+    @DefaultValue("100ms") Duration purgeBatchPause) {}
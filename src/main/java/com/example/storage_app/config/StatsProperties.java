@@ -0,0 +1,16 @@
+package com.example.storage_app.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for the per-owner statistics.
+ *
+ * @param reconcileEnabled periodically recompute all stats from the file catalogue
+ * @param reconcileInterval delay between reconciliation runs
+ */
+@ConfigurationProperties(prefix = "storage.stats")
+public record StatsProperties(
+    @DefaultValue("true") boolean reconcileEnabled,
+    @DefaultValue("6h") Duration reconcileInterval) {}
@@ -0,0 +1,24 @@
+package com.example.storage_app.config;
+
+import java.time.Duration;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+/**
+ * Settings for deleted files and the background reaper that purges their content.
+ *
+ * @param retention how long a deleted file can be restored before its content is purged
+ * @param reapInterval delay between reaper runs
+ * @param reapBatchSize deleted files purged per reaper run
+ * @param chunkBatchSize GridFS chunks removed per delete while purging a file
+ * @param chunkBatchPause pause between two chunk deletes, to leave the disks to other work
+ * @param bulkDeleteBatchSize catalogue entries moved to the trash per write in a delete by filter
+ */
+@ConfigurationProperties(prefix = "storage.trash")
+public record TrashProperties(
+    @DefaultValue("7d") Duration retention,
+    @DefaultValue("1m") Duration reapInterval,
+    @DefaultValue("100") int reapBatchSize,
+    @DefaultValue("256") int chunkBatchSize,
+    @DefaultValue("20ms") Duration chunkBatchPause,
+    @DefaultValue("1000") int bulkDeleteBatchSize) {}
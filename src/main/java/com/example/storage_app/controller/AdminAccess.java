@@ -0,0 +1,21 @@
+package com.example.storage_app.controller;
+
+import com.example.storage_app.config.AdminProperties;
+import com.example.storage_app.exception.UnauthorizedOperationException;
+import org.springframework.stereotype.Component;
+
+/** Lets only the users in {@code storage.admin.users} through to the admin endpoints. */
+@Component
+public class AdminAccess {
+  private final AdminProperties properties;
+
+  public AdminAccess(AdminProperties properties) {
+    this.properties = properties;
+  }
+
+  public void require(String userId) {
+    if (userId == null || !properties.users().contains(userId)) {
+      throw new UnauthorizedOperationException("Only administrators may do this");
+    }
+  }
+}
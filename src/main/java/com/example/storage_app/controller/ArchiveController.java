@@ -0,0 +1,33 @@
+package com.example.storage_app.controller;
+
+import com.example.storage_app.service.PackArchiver;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class ArchiveController {
+
+  private final PackArchiver packArchiver;
+  private final AdminAccess adminAccess;
+
+  public ArchiveController(PackArchiver packArchiver, AdminAccess adminAccess) {
+    this.packArchiver = packArchiver;
+    this.adminAccess = adminAccess;
+  }
+
+  /**
+   * Starts a run in the background: 202, or 409 while another run holds the lease. Administrators
+   * only, as a run holds the lease the scheduled runs need.
+   */
+  @PostMapping("/api/v1/admin/archive")
+  public ResponseEntity<Void> archive(
+      @RequestHeader(name = "X-User-Id", required = false) String userId) {
+    adminAccess.require(userId);
+    return packArchiver.archiveInBackground()
+        ? ResponseEntity.accepted().build()
+        : ResponseEntity.status(HttpStatus.CONFLICT).build();
+  }
+}
@@ -0,0 +1,99 @@
+package com.example.storage_app.controller;
+
+import com.example.storage_app.service.DownloadBandwidthScheduler;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.ServletOutputStream;
+import jakarta.servlet.WriteListener;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+/**
+ * Routes every byte written by a download response through the {@link DownloadBandwidthScheduler},
+ * so the scheduler sees real network egress rather than GridFS reads. Registered for the download
+ * path only (see {@code DownloadBandwidthConfig}).
+ */
+public class DownloadBandwidthFilter extends OncePerRequestFilter {
+  private final DownloadBandwidthScheduler scheduler;
+
+  public DownloadBandwidthFilter(DownloadBandwidthScheduler scheduler) {
+    this.scheduler = scheduler;
+  }
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    try (DownloadBandwidthScheduler.Lease lease =
+        scheduler.open(request.getHeader("X-User-Id"), request.getRemoteAddr())) {
+      filterChain.doFilter(request, new MeteredResponse(response, lease));
+    }
+  }
+
+  private static final class MeteredResponse extends HttpServletResponseWrapper {
+    private final DownloadBandwidthScheduler.Lease lease;
+    private MeteredOutputStream outputStream;
+
+    MeteredResponse(HttpServletResponse response, DownloadBandwidthScheduler.Lease lease) {
+      super(response);
+      this.lease = lease;
+    }
+
+    @Override
+    public ServletOutputStream getOutputStream() throws IOException {
+      if (outputStream == null) {
+        outputStream = new MeteredOutputStream(super.getOutputStream(), lease);
+      }
+      return outputStream;
+    }
+  }
+
+  private static final class MeteredOutputStream extends ServletOutputStream {
+    private final ServletOutputStream delegate;
+    private final DownloadBandwidthScheduler.Lease lease;
+
+    MeteredOutputStream(ServletOutputStream delegate, DownloadBandwidthScheduler.Lease lease) {
+      this.delegate = delegate;
+      this.lease = lease;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      lease.acquire(1);
+      delegate.write(b);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        int granted = lease.acquire(len);
+        delegate.write(b, off, granted);
+        off += granted;
+        len -= granted;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      delegate.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      delegate.close();
+    }
+
+    @Override
+    public boolean isReady() {
+      return delegate.isReady();
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+      delegate.setWriteListener(writeListener);
+    }
+  }
+}
@@ -0,0 +1,32 @@
+package com.example.storage_app.controller;
+
+import com.example.storage_app.controller.dto.DownloadTenantStats;
+import com.example.storage_app.service.DownloadBandwidthScheduler;
+import java.util.List;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+@RequestMapping("/api/v1/admin/downloads")
+public class DownloadStatsController {
+
+  private final DownloadBandwidthScheduler downloadBandwidthScheduler;
+  private final AdminAccess adminAccess;
+
+  public DownloadStatsController(
+      DownloadBandwidthScheduler downloadBandwidthScheduler, AdminAccess adminAccess) {
+    this.downloadBandwidthScheduler = downloadBandwidthScheduler;
+    this.adminAccess = adminAccess;
+  }
+
+  /** Lists user ids, so only administrators may. */
+  @GetMapping("/tenants")
+  public ResponseEntity<List<DownloadTenantStats>> tenantThroughput(
+      @RequestHeader(name = "X-User-Id", required = false) String userId) {
+    adminAccess.require(userId);
+    return ResponseEntity.ok(downloadBandwidthScheduler.snapshot());
+  }
+}
@@ -1,17 +1,30 @@
 package com.example.storage_app.controller;
 
+import com.example.storage_app.controller.dto.BulkDeleteResponse;
+import com.example.storage_app.controller.dto.BulkUpdateRequest;
+import com.example.storage_app.controller.dto.BulkUpdateResponse;
+import com.example.storage_app.controller.dto.CursorPagedResponse;
 import com.example.storage_app.controller.dto.FileResponse;
 import com.example.storage_app.controller.dto.FileUpdateRequest;
 import com.example.storage_app.controller.dto.FileUploadRequest;
 import com.example.storage_app.controller.dto.PagedResponse;
+import com.example.storage_app.exception.InvalidRequestArgumentException;
+import com.example.storage_app.exception.PreconditionFailedException;
+import com.example.storage_app.model.FilenameMatch;
+import com.example.storage_app.model.TotalMode;
 import com.example.storage_app.service.FileService;
+import com.example.storage_app.util.RangeFilter;
+import jakarta.servlet.http.HttpServletResponse;
 import jakarta.validation.Valid;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import org.springframework.data.domain.Page;
 import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.DeleteMapping;
 import org.springframework.web.bind.annotation.GetMapping;
@@ -25,10 +38,12 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @RestController
 @RequestMapping("/api/v1/files")
 public class FileController {
+  static final String NDJSON = "application/x-ndjson";
 
   private final FileService fileService;
 
@@ -45,7 +60,7 @@ public class FileController {
     FileResponse responseDto = fileService.uploadFile(userId, file, request);
     try {
       URI location = new URI(responseDto.downloadLink());
-      return ResponseEntity.created(location).body(responseDto);
+      return ResponseEntity.created(location).eTag(eTag(responseDto)).body(responseDto);
     } catch (URISyntaxException e) {
       throw new RuntimeException(
           "Error creating location URI from download link: " + e.getMessage(), e);
@@ -56,12 +71,24 @@ public class FileController {
   public ResponseEntity<PagedResponse<FileResponse>> listFiles(
       @RequestHeader(name = "X-User-Id", required = false) String userId,
       @RequestParam(required = false) String tag,
+      @RequestParam(required = false) Long minSize,
+      @RequestParam(required = false) Long maxSize,
+      @RequestParam(required = false) String from,
+      @RequestParam(required = false) String to,
+      @RequestParam(required = false) String contentType,
       @RequestParam(defaultValue = "uploadDate") String sortBy,
       @RequestParam(defaultValue = "desc") String sortDir,
       @RequestParam(defaultValue = "0") int page,
-      @RequestParam(defaultValue = "10") int size) {
+      @RequestParam(defaultValue = "10") int size,
+      @RequestParam(required = false) String totals) {
+    RangeFilter ranges = RangeFilter.of(minSize, maxSize, from, to, contentType);
+    if (totals != null && !totals.isBlank()) {
+      return ResponseEntity.ok(
+          fileService.listFiles(
+              userId, tag, ranges, sortBy, sortDir, page, size, TotalMode.fromParam(totals)));
+    }
     Page<FileResponse> responsePage =
-        fileService.listFiles(userId, tag, sortBy, sortDir, page, size);
+        fileService.listFiles(userId, tag, ranges, sortBy, sortDir, page, size);
     PagedResponse<FileResponse> dto =
         new PagedResponse<>(
             responsePage.getContent(),
@@ -71,13 +98,92 @@ public class FileController {
             responsePage.getTotalElements(),
             responsePage.isLast(),
             responsePage.isFirst(),
-            responsePage.getNumberOfElements());
+            responsePage.getNumberOfElements(),
+            TotalMode.EXACT.key());
     return ResponseEntity.ok(dto);
   }
 
-  @GetMapping("/download/{token}")
-  public ResponseEntity<GridFsResource> downloadFile(@PathVariable String token)
+  /**
+   * Streaming variant of {@link #listFiles}, selected with {@code stream=true}: same JSON, written
+   * directly from the driver's raw BSON. Defaults to an exact total like the mapped listing.
+   */
+  @GetMapping(params = {"stream=true", "!cursor"})
+  public ResponseEntity<StreamingResponseBody> streamFiles(
+      @RequestHeader(name = "X-User-Id", required = false) String userId,
+      @RequestParam(required = false) String tag,
+      @RequestParam(required = false) Long minSize,
+      @RequestParam(required = false) Long maxSize,
+      @RequestParam(required = false) String from,
+      @RequestParam(required = false) String to,
+      @RequestParam(required = false) String contentType,
+      @RequestParam(defaultValue = "uploadDate") String sortBy,
+      @RequestParam(defaultValue = "desc") String sortDir,
+      @RequestParam(defaultValue = "0") int page,
+      @RequestParam(defaultValue = "10") int size,
+      @RequestParam(defaultValue = "exact") String totals) {
+    StreamingResponseBody body =
+        fileService.streamFiles(
+            userId,
+            tag,
+            RangeFilter.of(minSize, maxSize, from, to, contentType),
+            sortBy,
+            sortDir,
+            page,
+            size,
+            TotalMode.fromParam(totals));
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+  }
+
+  /**
+   * Case-insensitive filename search within the caller's files, or PUBLIC files without {@code
+   * X-User-Id}. {@code match} is {@code prefix} (default) or {@code contains}.
+   */
+  @GetMapping("/search")
+  public ResponseEntity<List<FileResponse>> searchFiles(
+      @RequestHeader(name = "X-User-Id", required = false) String userId,
+      @RequestParam String q,
+      @RequestParam(defaultValue = "prefix") String match,
+      @RequestParam(defaultValue = "20") int limit) {
+    return ResponseEntity.ok(
+        fileService.searchFiles(userId, q, FilenameMatch.fromParam(match), limit));
+  }
+
+  /** The caller's whole catalogue as NDJSON, streamed from one cursor on the request thread. */
+  @GetMapping(value = "/export", produces = NDJSON)
+  public void exportFiles(@RequestHeader("X-User-Id") String userId, HttpServletResponse response)
       throws IOException {
+    response.setContentType(NDJSON);
+    fileService.exportFiles(userId, response.getOutputStream());
+  }
+
+  /**
+   * Keyset-paginated variant of {@link #listFiles}, selected by the presence of {@code cursor}.
+   * Send it empty for the first page and then pass back each response's {@code nextCursor}.
+   */
+  @GetMapping(params = "cursor")
+  public ResponseEntity<CursorPagedResponse<FileResponse>> listFilesByCursor(
+      @RequestHeader(name = "X-User-Id", required = false) String userId,
+      @RequestParam(required = false) String tag,
+      @RequestParam(required = false) Long minSize,
+      @RequestParam(required = false) Long maxSize,
+      @RequestParam(required = false) String from,
+      @RequestParam(required = false) String to,
+      @RequestParam(required = false) String contentType,
+      @RequestParam(defaultValue = "uploadDate") String sortBy,
+      @RequestParam(defaultValue = "desc") String sortDir,
+      @RequestParam String cursor,
+      @RequestParam(defaultValue = "10") int size) {
+    RangeFilter ranges = RangeFilter.of(minSize, maxSize, from, to, contentType);
+    return ResponseEntity.ok(
+        fileService.listFiles(userId, tag, ranges, sortBy, sortDir, cursor, size));
+  }
+
+  @GetMapping("/download/{token}")
+  public ResponseEntity<GridFsResource> downloadFile(
+      @PathVariable String token, @RequestParam(required = false) String size) throws IOException {
+    if (size != null && !size.isBlank()) {
+      return fileService.downloadDerivative(token, size);
+    }
     return fileService.downloadFile(token);
   }
 
@@ -85,15 +191,76 @@ public class FileController {
   public ResponseEntity<FileResponse> updateFileDetails(
       @RequestHeader("X-User-Id") String userId,
       @PathVariable String fileId,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch,
       @Valid @RequestBody FileUpdateRequest request) {
-    FileResponse responseDto = fileService.updateFileDetails(userId, fileId, request);
-    return ResponseEntity.ok(responseDto);
+    FileResponse responseDto =
+        fileService.updateFileDetails(userId, fileId, request, expectedVersion(ifMatch));
+    return ResponseEntity.ok().eTag(eTag(responseDto)).body(responseDto);
+  }
+
+  @PostMapping(value = "/bulk", consumes = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<BulkUpdateResponse> updateFiles(
+      @RequestHeader("X-User-Id") String userId, @Valid @RequestBody BulkUpdateRequest request) {
+    return ResponseEntity.ok(fileService.updateFiles(userId, request));
   }
 
   @DeleteMapping("/{fileId}")
   public ResponseEntity<Void> deleteFile(
-      @RequestHeader("X-User-Id") String userId, @PathVariable String fileId) {
-    fileService.deleteFile(userId, fileId);
+      @RequestHeader("X-User-Id") String userId,
+      @PathVariable String fileId,
+      @RequestHeader(name = HttpHeaders.IF_MATCH, required = false) String ifMatch) {
+    fileService.deleteFile(userId, fileId, expectedVersion(ifMatch));
     return ResponseEntity.noContent().build();
   }
+
+  /**
+   * Deletes all of the user's files matching the listing filters given, like {@link #deleteFile}.
+   */
+  @DeleteMapping
+  public ResponseEntity<BulkDeleteResponse> deleteFiles(
+      @RequestHeader("X-User-Id") String userId,
+      @RequestParam(required = false) String tag,
+      @RequestParam(required = false) Long minSize,
+      @RequestParam(required = false) Long maxSize,
+      @RequestParam(required = false) String from,
+      @RequestParam(required = false) String to,
+      @RequestParam(required = false) String contentType) {
+    RangeFilter ranges = RangeFilter.of(minSize, maxSize, from, to, contentType);
+    return ResponseEntity.ok(fileService.deleteFiles(userId, tag, ranges));
+  }
+
+  @PostMapping("/{fileId}/restore")
+  public ResponseEntity<FileResponse> restoreFile(
+      @RequestHeader("X-User-Id") String userId, @PathVariable String fileId) {
+    FileResponse responseDto = fileService.restoreFile(userId, fileId);
+    return ResponseEntity.ok().eTag(eTag(responseDto)).body(responseDto);
+  }
+
+  private static String eTag(FileResponse response) {
+    return "\"" + response.version() + "\"";
+  }
+
+  /**
+   * The version an {@code If-Match} header asks for: {@code "3"} for version 3, or null for no
+   * header or {@code *}, which any existing file matches.
+   */
+  static Long expectedVersion(String ifMatch) {
+    if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+      return null;
+    }
+    String tag = ifMatch.trim();
+    if (tag.startsWith("W/")) {
+      // If-Match compares strongly, so a weak tag matches nothing.
+      throw new PreconditionFailedException("Weak entity tags never match: " + tag);
+    }
+    if (tag.length() >= 2 && tag.startsWith("\"") && tag.endsWith("\"")) {
+      tag = tag.substring(1, tag.length() - 1);
+    }
+    try {
+      return Long.parseLong(tag);
+    } catch (NumberFormatException e) {
+      throw new InvalidRequestArgumentException(
+          "If-Match must be a single entity tag from this API, e.g. \"3\": " + ifMatch);
+    }
+  }
 }
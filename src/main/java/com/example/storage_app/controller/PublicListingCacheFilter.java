@@ -0,0 +1,83 @@
+package com.example.storage_app.controller;
+
+import com.example.storage_app.service.PublicListingCache;
+import com.example.storage_app.util.DownloadLinkSigner;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.List;
+import org.springframework.http.HttpMethod;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+/**
+ * Answers anonymous {@code GET /api/v1/files} from the {@link PublicListingCache} and fills it on a
+ * miss with the serialized response. Requests with {@code X-User-Id} or any parameter beyond the
+ * page-based listing ones (cursor, stream, ...) pass straight through, as do all requests while
+ * download links are signed: a cached signed link would outlive its expiry. Registered for the
+ * listing path only (see {@code ListingConfig}).
+ */
+public class PublicListingCacheFilter extends OncePerRequestFilter {
+  static final String CACHE_HEADER = "X-Cache";
+  private static final List<String> CACHEABLE_PARAMS =
+      List.of(
+          "tag",
+          "minSize",
+          "maxSize",
+          "from",
+          "to",
+          "contentType",
+          "sortBy",
+          "sortDir",
+          "page",
+          "size",
+          "totals");
+
+  private final PublicListingCache cache;
+  private final DownloadLinkSigner downloadLinkSigner;
+
+  public PublicListingCacheFilter(PublicListingCache cache, DownloadLinkSigner downloadLinkSigner) {
+    this.cache = cache;
+    this.downloadLinkSigner = downloadLinkSigner;
+  }
+
+  @Override
+  protected boolean shouldNotFilter(HttpServletRequest request) {
+    return !HttpMethod.GET.matches(request.getMethod())
+        || request.getHeader("X-User-Id") != null
+        || !CACHEABLE_PARAMS.containsAll(request.getParameterMap().keySet())
+        || downloadLinkSigner.isEnabled()
+        || !cache.isServing();
+  }
+
+  @Override
+  protected void doFilterInternal(
+      HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+      throws ServletException, IOException {
+    String key =
+        PublicListingCache.key(
+            CACHEABLE_PARAMS.stream().map(request::getParameter).toArray(String[]::new));
+    PublicListingCache.Entry hit = cache.get(key);
+    if (hit != null) {
+      response.setHeader(CACHE_HEADER, "HIT");
+      response.setContentType(hit.contentType());
+      response.setContentLength(hit.body().length);
+      response.getOutputStream().write(hit.body());
+      return;
+    }
+
+    long generation = cache.generation();
+    ContentCachingResponseWrapper wrapper = new ContentCachingResponseWrapper(response);
+    wrapper.setHeader(CACHE_HEADER, "MISS");
+    filterChain.doFilter(request, wrapper);
+    if (wrapper.getStatus() == HttpServletResponse.SC_OK && wrapper.getContentType() != null) {
+      cache.put(
+          key,
+          generation,
+          new PublicListingCache.Entry(wrapper.getContentAsByteArray(), wrapper.getContentType()));
+    }
+    wrapper.copyBodyToResponse();
+  }
+}
@@ -0,0 +1,28 @@
+package com.example.storage_app.controller;
+
+import com.example.storage_app.controller.dto.ScavengeReport;
+import com.example.storage_app.service.ConsistencyScavenger;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class ScavengerController {
+
+  private final ConsistencyScavenger consistencyScavenger;
+  private final AdminAccess adminAccess;
+
+  public ScavengerController(ConsistencyScavenger consistencyScavenger, AdminAccess adminAccess) {
+    this.consistencyScavenger = consistencyScavenger;
+    this.adminAccess = adminAccess;
+  }
+
+  /** Scans every bucket and deletes what it finds, so only administrators may start it. */
+  @PostMapping("/api/v1/admin/scavenge")
+  public ResponseEntity<ScavengeReport> scavenge(
+      @RequestHeader(name = "X-User-Id", required = false) String userId) {
+    adminAccess.require(userId);
+    return ResponseEntity.ok(consistencyScavenger.scavenge());
+  }
+}
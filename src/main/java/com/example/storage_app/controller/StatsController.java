@@ -0,0 +1,37 @@
+package com.example.storage_app.controller;
+
+import com.example.storage_app.controller.dto.OwnerStatsResponse;
+import com.example.storage_app.controller.dto.StatsDrift;
+import com.example.storage_app.service.OwnerStatsService;
+import java.util.List;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RestController;
+
+@RestController
+public class StatsController {
+
+  private final OwnerStatsService ownerStatsService;
+  private final AdminAccess adminAccess;
+
+  public StatsController(OwnerStatsService ownerStatsService, AdminAccess adminAccess) {
+    this.ownerStatsService = ownerStatsService;
+    this.adminAccess = adminAccess;
+  }
+
+  @GetMapping("/api/v1/stats")
+  public ResponseEntity<OwnerStatsResponse> stats(
+      @RequestHeader(name = "X-User-Id", required = false) String userId) {
+    return ResponseEntity.ok(ownerStatsService.stats(userId));
+  }
+
+  /** Rewrites every owner's counters and lists their drift, so only administrators may. */
+  @PostMapping("/api/v1/admin/stats/reconcile")
+  public ResponseEntity<List<StatsDrift>> reconcile(
+      @RequestHeader(name = "X-User-Id", required = false) String userId) {
+    adminAccess.require(userId);
+    return ResponseEntity.ok(ownerStatsService.reconcileAll());
+  }
+}
@@ -1,15 +1,19 @@
 package com.example.storage_app.controller.advice;
 
+import com.example.storage_app.exception.DownloadLinkExpiredException;
 import com.example.storage_app.exception.FileAlreadyExistsException;
 import com.example.storage_app.exception.InvalidRequestArgumentException;
+import com.example.storage_app.exception.PreconditionFailedException;
 import com.example.storage_app.exception.ResourceNotFoundException;
 import com.example.storage_app.exception.UnauthorizedOperationException;
+import com.mongodb.MongoExecutionTimeoutException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 import lombok.Generated;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.UncategorizedMongoDbException;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.MethodArgumentNotValidException;
@@ -57,6 +61,18 @@ public class GlobalExceptionHandler {
     return buildErrorResponse(ex, HttpStatus.FORBIDDEN, request);
   }
 
+  @ExceptionHandler(PreconditionFailedException.class)
+  public ResponseEntity<Object> handlePreconditionFailedException(
+      PreconditionFailedException ex, WebRequest request) {
+    return buildErrorResponse(ex, HttpStatus.PRECONDITION_FAILED, request);
+  }
+
+  @ExceptionHandler(DownloadLinkExpiredException.class)
+  public ResponseEntity<Object> handleDownloadLinkExpiredException(
+      DownloadLinkExpiredException ex, WebRequest request) {
+    return buildErrorResponse(ex, HttpStatus.GONE, request);
+  }
+
   @ExceptionHandler(InvalidRequestArgumentException.class)
   public ResponseEntity<Object> handleInvalidRequestArgumentException(
       InvalidRequestArgumentException ex, WebRequest request) {
@@ -69,6 +85,20 @@ public class GlobalExceptionHandler {
     return buildErrorResponse(ex, HttpStatus.BAD_REQUEST, request);
   }
 
+  /**
+   * Reads that exceed their per-endpoint time budget. The template does not translate the server's
+   * time-limit error, so it arrives wrapped in an {@link UncategorizedMongoDbException}.
+   */
+  @ExceptionHandler({MongoExecutionTimeoutException.class, UncategorizedMongoDbException.class})
+  public ResponseEntity<Object> handleMongoTimeout(Exception ex, WebRequest request) {
+    if (ex instanceof MongoExecutionTimeoutException
+        || ex.getCause() instanceof MongoExecutionTimeoutException) {
+      return buildErrorResponse(
+          ex, "The query exceeded its time budget.", HttpStatus.SERVICE_UNAVAILABLE, request);
+    }
+    return handleAllOtherExceptions(ex, request);
+  }
+
   @ExceptionHandler(Exception.class)
   public ResponseEntity<Object> handleAllOtherExceptions(Exception ex, WebRequest request) {
     return buildErrorResponse(ex, ex.getMessage(), HttpStatus.INTERNAL_SERVER_ERROR, request);
@@ -0,0 +1,17 @@
+package com.example.storage_app.controller.dto;
+
+/**
+ * What one archiver run did.
+ *
+ * @param packedFiles cold files moved into new packs
+ * @param packsWritten packs written, by packing and by compaction
+ * @param compactedPacks packs whose live members were rewritten into a new pack
+ * @param deletedPacks retired packs deleted
+ * @param reclaimedBytes content bytes freed by deleting retired packs
+ */
+public record ArchiveReport(
+    long packedFiles,
+    long packsWritten,
+    long compactedPacks,
+    long deletedPacks,
+    long reclaimedBytes) {}
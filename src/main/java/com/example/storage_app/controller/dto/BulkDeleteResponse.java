@@ -0,0 +1,10 @@
+package com.example.storage_app.controller.dto;
+
+import java.util.Date;
+
+/**
+ * Result of a delete by filter.
+ *
+ * @param restorableUntil when the deleted files start being purged; {@code null} if none matched
+ */
+public record BulkDeleteResponse(long deleted, Date restorableUntil) {}
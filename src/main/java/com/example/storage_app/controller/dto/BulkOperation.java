@@ -0,0 +1,23 @@
+package com.example.storage_app.controller.dto;
+
+import com.example.storage_app.model.Visibility;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.PositiveOrZero;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+
+/**
+ * Changes to one file; any combination of a new name, a new visibility and tags to add or remove.
+ * Fields left {@code null} are kept. With {@code expectedVersion} the changes apply only if the
+ * file is still at that version, as with {@code If-Match} on a single rename.
+ */
+public record BulkOperation(
+    @NotBlank(message = "File id must not be blank") String fileId,
+    String newFilename,
+    Visibility visibility,
+    List<
+            @NotBlank(message = "Tags must not be blank")
+            @Size(max = 20, message = "Each tag must be at most 20 characters long") String>
+        addTags,
+    List<@NotBlank(message = "Tags must not be blank") String> removeTags,
+    @PositiveOrZero(message = "Expected version must not be negative") Long expectedVersion) {}
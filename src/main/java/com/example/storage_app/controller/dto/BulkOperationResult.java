@@ -0,0 +1,6 @@
+package com.example.storage_app.controller.dto;
+
+import com.example.storage_app.model.BulkOperationStatus;
+
+/** The outcome of one {@link BulkOperation}; {@code message} explains any status but UPDATED. */
+public record BulkOperationResult(String fileId, BulkOperationStatus status, String message) {}
@@ -0,0 +1,12 @@
+package com.example.storage_app.controller.dto;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Size;
+import java.util.List;
+
+public record BulkUpdateRequest(
+    @NotEmpty(message = "At least one operation is required")
+        @Size(max = 5000, message = "A maximum of 5000 operations are allowed")
+        List<@Valid @NotNull BulkOperation> operations) {}
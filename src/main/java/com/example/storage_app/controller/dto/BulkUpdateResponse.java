@@ -0,0 +1,6 @@
+package com.example.storage_app.controller.dto;
+
+import java.util.List;
+
+/** One result per operation, in request order. */
+public record BulkUpdateResponse(int updated, int failed, List<BulkOperationResult> results) {}
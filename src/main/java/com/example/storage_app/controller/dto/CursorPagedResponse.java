@@ -0,0 +1,6 @@
+package com.example.storage_app.controller.dto;
+
+import java.util.List;
+
+public record CursorPagedResponse<T>(
+    List<T> content, int size, int numberOfElements, boolean hasNext, String nextCursor) {}
@@ -0,0 +1,4 @@
+package com.example.storage_app.controller.dto;
+
+public record DownloadTenantStats(
+    String tenant, int weight, int activeStreams, long bytesServed, long bytesPerSecond) {}
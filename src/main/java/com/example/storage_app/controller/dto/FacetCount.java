@@ -0,0 +1,3 @@
+package com.example.storage_app.controller.dto;
+
+public record FacetCount(String value, long count) {}
@@ -12,4 +12,5 @@ public record FileResponse(
     Date uploadDate,
     String contentType,
     long size,
-    String downloadLink) {}
+    String downloadLink,
+    long version) {}
@@ -0,0 +1,10 @@
+package com.example.storage_app.controller.dto;
+
+import java.util.List;
+
+public record OwnerStatsResponse(
+    String scope,
+    long fileCount,
+    long totalBytes,
+    List<FacetCount> tags,
+    List<FacetCount> contentTypes) {}
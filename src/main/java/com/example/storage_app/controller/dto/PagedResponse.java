@@ -2,12 +2,18 @@ package com.example.storage_app.controller.dto;
 
 import java.util.List;
 
+/**
+ * One page of an offset-paginated listing. {@code totalType} says how {@code totalElements} and
+ * {@code totalPages} were obtained: {@code exact}, {@code estimated} (a recently cached count), or
+ * {@code none}, in which case both are null.
+ */
 public record PagedResponse<T>(
     List<T> content,
     int page,
     int size,
-    int totalPages,
-    long totalElements,
+    Integer totalPages,
+    Long totalElements,
     boolean last,
     boolean first,
-    int numberOfElements) {}
+    int numberOfElements,
+    String totalType) {}
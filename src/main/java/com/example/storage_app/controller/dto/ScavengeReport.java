@@ -0,0 +1,17 @@
+package com.example.storage_app.controller.dto;
+
+/**
+ * What one scavenger run removed.
+ *
+ * @param orphanedFiles GridFS files that never got a catalogue entry, e.g. after a crash mid-upload
+ * @param orphanedChunkSets files whose chunks were left without an {@code fs.files} document
+ * @param danglingEntries catalogue entries whose content was gone
+ * @param orphanedDerivatives source files whose thumbnails and previews outlived them
+ * @param reclaimedBytes content bytes freed, chunks of both GridFS buckets included
+ */
+public record ScavengeReport(
+    long orphanedFiles,
+    long orphanedChunkSets,
+    long danglingEntries,
+    long orphanedDerivatives,
+    long reclaimedBytes) {}
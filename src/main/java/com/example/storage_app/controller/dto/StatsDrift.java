@@ -0,0 +1,10 @@
+package com.example.storage_app.controller.dto;
+
+/** A scope whose stored stats disagreed with the file catalogue when it was reconciled. */
+public record StatsDrift(
+    String scope,
+    long storedFiles,
+    long actualFiles,
+    long storedBytes,
+    long actualBytes,
+    boolean facetsDiffered) {}
@@ -0,0 +1,10 @@
+package com.example.storage_app.exception;
+
+import lombok.Generated;
+
+@Generated
+public class DownloadLinkExpiredException extends RuntimeException {
+  public DownloadLinkExpiredException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,10 @@
+package com.example.storage_app.exception;
+
+import lombok.Generated;
+
+@Generated
+public class PreconditionFailedException extends RuntimeException {
+  public PreconditionFailedException(String message) {
+    super(message);
+  }
+}
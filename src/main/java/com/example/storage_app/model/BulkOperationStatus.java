@@ -0,0 +1,20 @@
+package com.example.storage_app.model;
+
+/** How one operation of a bulk update ended. */
+public enum BulkOperationStatus {
+  UPDATED,
+  /** The file already had every requested value. */
+  UNCHANGED,
+  NOT_FOUND,
+  FORBIDDEN,
+  /**
+   * The new name is taken by another of the owner's files, or the file changed after the bulk
+   * update read it.
+   */
+  CONFLICT,
+  /** The file is not at the operation's {@code expectedVersion}. */
+  PRECONDITION_FAILED,
+  /** The change is not allowed for this file, e.g. it would exceed the tag limit. */
+  INVALID,
+  FAILED
+}
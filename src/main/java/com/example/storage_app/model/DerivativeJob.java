@@ -0,0 +1,49 @@
+package com.example.storage_app.model;
+
+import java.util.Date;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/** Durable work item for the preview pipeline; one per uploaded image or PDF. */
+@Document("derivative_jobs")
+@CompoundIndexes({
+  @CompoundIndex(name = "status_next_attempt_idx", def = "{'status': 1, 'nextAttemptAt': 1}"),
+  @CompoundIndex(name = "status_locked_until_idx", def = "{'status': 1, 'lockedUntil': 1}")
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class DerivativeJob {
+  @Id private String id;
+
+  @Indexed private ObjectId sourceId;
+
+  private String contentType;
+
+  private Status status;
+
+  private int attempts;
+
+  private Date nextAttemptAt;
+
+  private Date lockedUntil;
+
+  private String lastError;
+
+  private Date createdAt;
+
+  public enum Status {
+    PENDING,
+    RUNNING,
+    FAILED
+  }
+}
@@ -0,0 +1,26 @@
+package com.example.storage_app.model;
+
+import java.util.Locale;
+
+public enum DerivativeVariant {
+  THUMBNAIL("thumbnail"),
+  PREVIEW("preview");
+
+  private final String key;
+
+  DerivativeVariant(String key) {
+    this.key = key;
+  }
+
+  public String key() {
+    return key;
+  }
+
+  public static DerivativeVariant fromParam(String value) {
+    return switch (value.toLowerCase(Locale.ROOT)) {
+      case "thumbnail", "thumb", "small" -> THUMBNAIL;
+      case "preview", "medium" -> PREVIEW;
+      default -> throw new IllegalArgumentException("Invalid size: " + value);
+    };
+  }
+}
@@ -1,5 +1,6 @@
 package com.example.storage_app.model;
 
+import com.example.storage_app.util.FileIds;
 import java.util.Date;
 import java.util.List;
 import lombok.AllArgsConstructor;
@@ -7,63 +8,103 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.convert.ValueConverter;
 import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
-@Document("fs.files")
+/**
+ * A file's catalogue entry: the fields listings, search and authorization need, under short field
+ * names, in its own collection. The content stays in GridFS under the same {@code _id}; the upload
+ * inserts the entry once the content is stored, and that insert is what makes the file exist.
+ *
+ * <p>The indexes behind listings are compound ones matching each listing's filter and sort; {@link
+ * com.example.storage_app.config.MongoIndexEnsurer} maintains them.
+ */
+@Document(FileRecord.COLLECTION)
 @CompoundIndexes({
-  @CompoundIndex(
-      name = "owner_filename_idx",
-      def = "{'metadata.ownerId': 1, 'metadata.originalFilename': 1}",
-      unique = true),
-  @CompoundIndex(
-      name = "owner_sha256_idx",
-      def = "{'metadata.ownerId': 1, 'metadata.sha256': 1}",
-      unique = true,
-      sparse = true)
+  @CompoundIndex(name = "owner_filename_idx", def = "{'o': 1, 'n': 1}", unique = true),
+  @CompoundIndex(name = "owner_sha256_idx", def = "{'o': 1, 'h': 1}", unique = true, sparse = true)
 })
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
-@Builder
+@Builder(toBuilder = true)
 public class FileRecord {
+  public static final String COLLECTION = "file_catalogue";
+
+  /** The GridFS {@code _id} of the content. */
   @Id private String id;
 
-  @Indexed private String filename;
+  /**
+   * System UUID, the id clients use. Time-ordered for new files (see {@link FileIds}); stored, like
+   * the token, as binary subtype 4.
+   */
+  @Field("f")
+  @Indexed(name = "system_filename_idx")
+  @ValueConverter(FileIds.BinaryUuid.class)
+  private String filename;
 
-  @Field("length")
-  @Indexed
+  @Field("s")
   private long size;
 
-  @Field("metadata.originalFilename")
+  @Field("n")
   private String originalFilename;
 
-  @Field("metadata.uploadDate")
-  @Indexed
+  @Field("d")
   private Date uploadDate;
 
-  @Field("metadata.contentType")
-  @Indexed
+  @Field("c")
   private String contentType;
 
-  @Field("metadata.ownerId")
+  @Field("o")
   private String ownerId;
 
-  @Field("metadata.visibility")
-  @Indexed
+  @Field("v")
   private Visibility visibility;
 
-  @Field("metadata.tags")
-  @Indexed
+  @Field("t")
   private List<String> tags;
 
-  @Field("metadata.sha256")
+  /**
+   * Smallest and largest tag ({@code ""} when untagged). MongoDB sorts an array field by its
+   * smallest element ascending and its largest element descending; these scalar copies let tag
+   * sorted listings be paged by keyset, which needs a comparable single value per document.
+   */
+  @Field("t0")
+  private String firstTag;
+
+  @Field("t1")
+  private String lastTag;
+
+  /** Normalised name and its trigrams for filename search; see {@code FilenameSearchKeys}. */
+  @Field("k")
+  private String filenameKey;
+
+  @Field("g")
+  private List<String> filenameGrams;
+
+  @Field("h")
   private String sha256;
 
-  @Field("metadata.token")
+  @Field("tk")
   @Indexed(unique = true, name = "download_token_idx")
+  @ValueConverter(FileIds.BinaryUuid.class)
   private String token;
+
+  /**
+   * Bumped by every change to the entry; clients send it back in {@code If-Match}. Entries written
+   * before it existed have none, which counts as 0.
+   */
+  @Field("e")
+  private long version;
+
+  /**
+   * The {@link com.example.storage_app.blob.BlobStore} holding the content, which with {@link #id}
+   * locates it, e.g. {@code gridfs-3} for a GridFS stripe; absent for the default GridFS bucket.
+   */
+  @Field("b")
+  private String blobStore;
 }
@@ -0,0 +1,17 @@
+package com.example.storage_app.model;
+
+import java.util.Locale;
+
+/** How a filename search matches the query against file names. */
+public enum FilenameMatch {
+  PREFIX,
+  CONTAINS;
+
+  public static FilenameMatch fromParam(String value) {
+    return switch (value.toLowerCase(Locale.ROOT)) {
+      case "prefix" -> PREFIX;
+      case "contains", "substring" -> CONTAINS;
+      default -> throw new IllegalArgumentException("Invalid match: " + value);
+    };
+  }
+}
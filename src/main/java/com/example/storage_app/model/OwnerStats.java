@@ -0,0 +1,39 @@
+package com.example.storage_app.model;
+
+import java.util.Date;
+import java.util.Map;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Running totals for one listing scope: an owner ({@code owner:<userId>}) or all PUBLIC files
+ * ({@code public}). Maintained with {@code $inc} on every upload, delete and metadata change.
+ *
+ * <p>Facet keys are tags and content types escaped with {@code OwnerStatsService.encodeKey}, since
+ * both may contain dots.
+ */
+@Document("owner_stats")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class OwnerStats {
+  @Id private String id;
+
+  private long fileCount;
+
+  private long totalBytes;
+
+  private Map<String, Long> tags;
+
+  private Map<String, Long> contentTypes;
+
+  /** Bumped by every incremental update; lets reconciliation detect concurrent writes. */
+  private long revision;
+
+  private Date reconciledAt;
+}
@@ -0,0 +1,49 @@
+package com.example.storage_app.model;
+
+import java.util.Date;
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * An append-only blob holding the content of many cold small files back to back. Each member's
+ * {@code fs.files} descriptor records the pack and its offset in it; the live counts here are what
+ * compaction decides on.
+ */
+@Document(Pack.COLLECTION)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class Pack {
+  public static final String COLLECTION = "packs";
+
+  /** The id of the pack blob in {@link #store}. */
+  @Id private ObjectId id;
+
+  private String store;
+
+  private long length;
+
+  private int members;
+
+  private int liveMembers;
+
+  private long liveBytes;
+
+  private Date createdAt;
+
+  /**
+   * The members packed out of GridFS whose chunks are still there; they are removed an interval
+   * after the pack was written. Ids rather than a flag, as deleted members lose their link.
+   */
+  private List<ObjectId> pendingChunks;
+
+  /** Set once the members have moved to another pack; the blob is deleted an interval later. */
+  private Date retiredAt;
+}
@@ -0,0 +1,29 @@
+package com.example.storage_app.model;
+
+import java.util.Locale;
+
+/** How a paged listing reports its total; echoed back as {@code totalType}. */
+public enum TotalMode {
+  EXACT("exact"),
+  ESTIMATED("estimated"),
+  NONE("none");
+
+  private final String key;
+
+  TotalMode(String key) {
+    this.key = key;
+  }
+
+  public String key() {
+    return key;
+  }
+
+  public static TotalMode fromParam(String value) {
+    return switch (value.toLowerCase(Locale.ROOT)) {
+      case "exact" -> EXACT;
+      case "estimated", "estimate" -> ESTIMATED;
+      case "none" -> NONE;
+      default -> throw new IllegalArgumentException("Invalid totals: " + value);
+    };
+  }
+}
@@ -0,0 +1,53 @@
+package com.example.storage_app.model;
+
+import com.example.storage_app.util.FileIds;
+import java.util.Date;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.convert.ValueConverter;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.Field;
+
+/**
+ * A deleted file waiting for its content to be purged. The entry is the file's whole catalogue
+ * document, moved here unchanged apart from the fields below, so a restore can move it back as it
+ * was; only the fields the trash itself needs are mapped.
+ */
+@Document(TrashedFile.COLLECTION)
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class TrashedFile {
+  public static final String COLLECTION = "file_trash";
+
+  /** The GridFS {@code _id} of the content, as in the catalogue. */
+  @Id private String id;
+
+  @Field("f")
+  @Indexed(name = "trash_filename_idx")
+  @ValueConverter(FileIds.BinaryUuid.class)
+  private String filename;
+
+  @Field("o")
+  private String ownerId;
+
+  @Field("n")
+  private String originalFilename;
+
+  @Field("x")
+  private Date deletedAt;
+
+  /** When the reaper may purge the content; until then the file can be restored. */
+  @Field("p")
+  @Indexed(name = "trash_purge_idx")
+  private Date purgeAt;
+
+  /** Set by the reaper once it has started purging; such a file can no longer be restored. */
+  @Field("r")
+  private boolean reaping;
+}
@@ -0,0 +1,332 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.blob.BlobStore;
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.blob.GridFsStripes;
+import com.example.storage_app.config.ScavengerProperties;
+import com.example.storage_app.controller.dto.ScavengeReport;
+import com.example.storage_app.exception.StorageException;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.TrashedFile;
+import com.mongodb.client.MongoCursor;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Finds and removes what failed uploads and interrupted deletes leave behind: GridFS files that
+ * never got a catalogue entry, chunks without their {@code fs.files} document, catalogue entries
+ * whose content is gone, and derivatives (and derivative chunks) whose source is gone. Content in
+ * another {@link BlobStore} is found and removed through its {@code fs.files} descriptor; files in
+ * such a store that have no descriptor at all are not looked for, except in the {@link
+ * GridFsStripes} buckets, whose files and chunks are checked like the default bucket's.
+ *
+ * <p>Each check streams two {@code _id}-ordered index scans, e.g. the {@code files_id} of {@code
+ * fs.chunks} and the {@code _id} of {@code fs.files}, and merges them: a key the other side skips
+ * past is an orphan. That is one pass over each side in constant memory, however many files there
+ * are. Orphans are collected in batches of {@code purgeBatchSize}, checked again by {@code _id}
+ * (the scans are not a snapshot) and removed, with a pause between batches. Content younger than
+ * {@code gracePeriod}, judged by the ObjectId timestamp, may belong to an upload in progress and is
+ * skipped.
+ */
+@Service
+public class ConsistencyScavenger {
+  private static final Logger log = LoggerFactory.getLogger(ConsistencyScavenger.class);
+  private static final String FILES = ".files";
+  private static final String CHUNKS = ".chunks";
+  private static final String GRIDFS = "fs";
+
+  private final MongoTemplate mongoTemplate;
+  private final DerivativeService derivativeService;
+  private final OwnerStatsService ownerStatsService;
+  private final ScavengerProperties properties;
+  private final BlobStores blobStores;
+  private final GridFsStripes stripes;
+
+  public ConsistencyScavenger(
+      MongoTemplate mongoTemplate,
+      DerivativeService derivativeService,
+      OwnerStatsService ownerStatsService,
+      ScavengerProperties properties,
+      BlobStores blobStores,
+      GridFsStripes stripes) {
+    this.mongoTemplate = mongoTemplate;
+    this.derivativeService = derivativeService;
+    this.ownerStatsService = ownerStatsService;
+    this.properties = properties;
+    this.blobStores = blobStores;
+    this.stripes = stripes;
+  }
+
+  @Scheduled(
+      fixedDelayString = "${storage.scavenger.interval:24h}",
+      initialDelayString = "${storage.scavenger.interval:24h}")
+  public void scheduledScavenge() {
+    if (!properties.enabled()) {
+      return;
+    }
+    try {
+      scavenge();
+    } catch (RuntimeException e) {
+      log.warn("Scavenging orphaned files failed: {}", e.getMessage());
+    }
+  }
+
+  public ScavengeReport scavenge() {
+    ObjectId graceBound =
+        ObjectId.getSmallestWithDate(
+            new Date(System.currentTimeMillis() - properties.gracePeriod().toMillis()));
+    long[] reclaimed = new long[1];
+
+    // Trashed files keep their content until the reaper purges it, and have no catalogue entry.
+    Document uploadsFilter =
+        new Document("_id", new Document("$lt", graceBound))
+            .append("metadata." + TrashService.GRIDFS_DELETED_AT, new Document("$exists", false));
+    long orphanedFiles =
+        purgeOrphans(
+            ids(GRIDFS + FILES, uploadsFilter, "_id"),
+            ids(FileRecord.COLLECTION, new Document(), "_id"),
+            batch -> {
+              List<ObjectId> orphans =
+                  absent(absent(batch, FileRecord.COLLECTION), TrashedFile.COLLECTION);
+              reclaimed[0] += fileBytes(GRIDFS, "_id", orphans);
+              blobStores.deleteExternal(orphans);
+              removeContent(GRIDFS, orphans);
+              orphans.forEach(derivativeService::deleteFor);
+              return orphans.size();
+            });
+
+    // A striped upload writes its content before its fs.files descriptor.
+    List<String> stripeBuckets = stripes.buckets();
+    for (String bucket : stripeBuckets) {
+      orphanedFiles +=
+          purgeOrphans(
+              ids(bucket + FILES, new Document("_id", new Document("$lt", graceBound)), "_id"),
+              ids(GRIDFS + FILES, new Document(), "_id"),
+              batch -> {
+                List<ObjectId> orphans = absent(batch, GRIDFS + FILES);
+                reclaimed[0] += fileBytes(bucket, "_id", orphans);
+                removeContent(bucket, orphans);
+                return orphans.size();
+              });
+    }
+
+    List<String> buckets = new ArrayList<>(List.of(GRIDFS, DerivativeService.BUCKET));
+    buckets.addAll(stripeBuckets);
+    long orphanedChunkSets = 0;
+    for (String bucket : buckets) {
+      orphanedChunkSets +=
+          purgeOrphans(
+              ids(
+                  bucket + CHUNKS,
+                  new Document("files_id", new Document("$lt", graceBound)),
+                  "files_id"),
+              ids(bucket + FILES, new Document(), "_id"),
+              batch -> {
+                List<ObjectId> orphans = absent(batch, bucket + FILES);
+                reclaimed[0] += chunkBytes(bucket, orphans);
+                mongoTemplate.remove(
+                    Query.query(Criteria.where("files_id").in(orphans)), bucket + CHUNKS);
+                return orphans.size();
+              });
+    }
+
+    // The catalogue entry is written after the content and removed before it, so an entry
+    // without content is never an upload or delete in progress.
+    long danglingEntries =
+        purgeOrphans(
+            ids(FileRecord.COLLECTION, new Document(), "_id"),
+            ids(GRIDFS + FILES, new Document(), "_id"),
+            batch -> {
+              List<ObjectId> orphans = absent(batch, GRIDFS + FILES);
+              if (orphans.isEmpty()) {
+                return 0;
+              }
+              Query byIds = Query.query(Criteria.where("_id").in(orphans));
+              List<FileRecord> records = mongoTemplate.find(byIds, FileRecord.class);
+              mongoTemplate.remove(byIds, FileRecord.class);
+              ownerStatsService.recordDeletes(records);
+              return records.size();
+            });
+
+    String sourceId = "metadata.sourceId";
+    long orphanedDerivatives =
+        purgeOrphans(
+            ids(
+                DerivativeService.BUCKET + FILES,
+                new Document(sourceId, new Document("$lt", graceBound)),
+                sourceId),
+            ids(GRIDFS + FILES, new Document(), "_id"),
+            batch -> {
+              List<ObjectId> orphans = absent(batch, GRIDFS + FILES);
+              reclaimed[0] += fileBytes(DerivativeService.BUCKET, sourceId, orphans);
+              orphans.forEach(derivativeService::deleteFor);
+              return orphans.size();
+            });
+
+    ScavengeReport report =
+        new ScavengeReport(
+            orphanedFiles, orphanedChunkSets, danglingEntries, orphanedDerivatives, reclaimed[0]);
+    log.info("Scavenger: {}", report);
+    return report;
+  }
+
+  /**
+   * Merges the ascending {@code keys} against the ascending {@code members} and hands each key
+   * missing from {@code members} to {@code orphan}. Repeated keys are reported once.
+   */
+  static void antiJoin(
+      Iterator<ObjectId> keys, Iterator<ObjectId> members, Consumer<ObjectId> orphan) {
+    ObjectId member = members.hasNext() ? members.next() : null;
+    ObjectId previous = null;
+    while (keys.hasNext()) {
+      ObjectId key = keys.next();
+      if (key.equals(previous)) {
+        continue;
+      }
+      previous = key;
+      while (member != null && member.compareTo(key) < 0) {
+        member = members.hasNext() ? members.next() : null;
+      }
+      if (!key.equals(member)) {
+        orphan.accept(key);
+      }
+    }
+  }
+
+  /** Runs {@link #antiJoin} and feeds the orphans to {@code purge} in batches; sums its results. */
+  private long purgeOrphans(
+      MongoCursor<ObjectId> keys,
+      MongoCursor<ObjectId> members,
+      Function<List<ObjectId>, Integer> purge) {
+    int batchSize = Math.max(1, properties.purgeBatchSize());
+    List<ObjectId> batch = new ArrayList<>(batchSize);
+    long[] purged = new long[1];
+    try (keys;
+        members) {
+      antiJoin(
+          keys,
+          members,
+          orphan -> {
+            batch.add(orphan);
+            if (batch.size() == batchSize) {
+              purged[0] += purge.apply(List.copyOf(batch));
+              batch.clear();
+              pause();
+            }
+          });
+    }
+    if (!batch.isEmpty()) {
+      purged[0] += purge.apply(List.copyOf(batch));
+    }
+    return purged[0];
+  }
+
+  /**
+   * Values of {@code field} in ascending order. Only ObjectIds are streamed: the merge compares
+   * them, and GridFS and the catalogue use nothing else.
+   */
+  private MongoCursor<ObjectId> ids(String collection, Document filter, String field) {
+    Document typed = new Document(filter);
+    Document condition = typed.get(field, Document.class);
+    typed.put(
+        field,
+        (condition == null ? new Document() : new Document(condition)).append("$type", "objectId"));
+    return mongoTemplate
+        .getCollection(collection)
+        .find(typed)
+        .projection(new Document(field, 1).append("_id", field.equals("_id") ? 1 : 0))
+        .sort(new Document(field, 1))
+        .batchSize(10_000)
+        .map(document -> value(document, field))
+        .iterator();
+  }
+
+  private static ObjectId value(Document document, String path) {
+    Object value = document;
+    for (String part : path.split("\\.")) {
+      value = ((Document) value).get(part);
+    }
+    return (ObjectId) value;
+  }
+
+  /** The ids in {@code batch} with no document in {@code collection}. */
+  private List<ObjectId> absent(List<ObjectId> batch, String collection) {
+    if (batch.isEmpty()) {
+      return batch;
+    }
+    Set<Object> present = new HashSet<>();
+    mongoTemplate
+        .getCollection(collection)
+        .find(new Document("_id", new Document("$in", batch)))
+        .projection(new Document("_id", 1))
+        .forEach(document -> present.add(document.get("_id")));
+    return batch.stream().filter(id -> !present.contains(id)).toList();
+  }
+
+  private long fileBytes(String bucket, String field, List<ObjectId> ids) {
+    if (ids.isEmpty()) {
+      return 0;
+    }
+    return sum(bucket + FILES, new Document(field, new Document("$in", ids)), "$length");
+  }
+
+  private long chunkBytes(String bucket, List<ObjectId> filesIds) {
+    if (filesIds.isEmpty()) {
+      return 0;
+    }
+    return sum(
+        bucket + CHUNKS,
+        new Document("files_id", new Document("$in", filesIds)),
+        new Document("$binarySize", "$data"));
+  }
+
+  private long sum(String collection, Document match, Object value) {
+    Document total =
+        mongoTemplate
+            .getCollection(collection)
+            .aggregate(
+                List.of(
+                    new Document("$match", match),
+                    new Document(
+                        "$group",
+                        new Document("_id", null).append("bytes", new Document("$sum", value)))))
+            .first();
+    return total == null ? 0 : ((Number) total.get("bytes")).longValue();
+  }
+
+  private void removeContent(String bucket, List<ObjectId> ids) {
+    if (ids.isEmpty()) {
+      return;
+    }
+    mongoTemplate.remove(Query.query(Criteria.where("files_id").in(ids)), bucket + CHUNKS);
+    mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), bucket + FILES);
+  }
+
+  private void pause() {
+    long millis = properties.purgeBatchPause().toMillis();
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("Interrupted while scavenging orphaned files", e);
+    }
+  }
+}
@@ -0,0 +1,358 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.config.DerivativeProperties;
+import com.example.storage_app.model.DerivativeJob;
+import com.example.storage_app.model.DerivativeVariant;
+import com.example.storage_app.util.DerivativeRenderer;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import jakarta.annotation.PreDestroy;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Date;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Generates thumbnails and first-page previews for uploaded images and PDFs in the background.
+ *
+ * <p>Jobs live in the {@code derivative_jobs} collection, so they survive restarts. A worker claims
+ * a job with a single findAndModify that also sets a lease; a crashed worker's job becomes visible
+ * again when the lease runs out. Failures are retried with exponential backoff up to {@code
+ * maxAttempts}; a job whose worker died during its last attempt is marked FAILED once its lease has
+ * run out. Derivatives are stored in a separate {@code derivatives} GridFS bucket without catalogue
+ * entries so they never show up in file listings, and their ids are linked from the source's {@code
+ * metadata.derivatives} in {@code fs.files}.
+ */
+@Service
+public class DerivativeService {
+  private static final Logger log = LoggerFactory.getLogger(DerivativeService.class);
+  public static final String BUCKET = "derivatives";
+
+  private final MongoTemplate mongoTemplate;
+  private final GridFsTemplate gridFsTemplate;
+  private final GridFsTemplate derivativeGridFs;
+  private final DerivativeRenderer renderer;
+  private final DerivativeProperties properties;
+  private final BlobStores blobStores;
+  private final Semaphore freeWorkers;
+  private final ThreadPoolExecutor workers;
+  private final ThreadPoolExecutor dispatcher;
+
+  public DerivativeService(
+      MongoTemplate mongoTemplate,
+      GridFsTemplate gridFsTemplate,
+      MongoDatabaseFactory mongoDatabaseFactory,
+      DerivativeRenderer renderer,
+      DerivativeProperties properties,
+      BlobStores blobStores) {
+    this.mongoTemplate = mongoTemplate;
+    this.gridFsTemplate = gridFsTemplate;
+    this.derivativeGridFs =
+        new GridFsTemplate(mongoDatabaseFactory, mongoTemplate.getConverter(), BUCKET);
+    this.renderer = renderer;
+    this.properties = properties;
+    this.blobStores = blobStores;
+    int threads = Math.max(1, properties.workerThreads());
+    this.freeWorkers = new Semaphore(threads);
+    this.workers =
+        new ThreadPoolExecutor(
+            threads,
+            threads,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(threads),
+            namedThreads("derivative-worker"));
+    // A single dispatcher with a one-slot queue coalesces bursts of wake-ups into one poll.
+    this.dispatcher =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1),
+            namedThreads("derivative-dispatcher"),
+            new ThreadPoolExecutor.DiscardPolicy());
+  }
+
+  /**
+   * Records a durable job for the uploaded file. When called inside a transaction the workers are
+   * only woken after it commits, so they never look for a source that is not visible yet.
+   */
+  public void enqueue(ObjectId sourceId, String contentType) {
+    if (!properties.enabled() || sourceId == null || !DerivativeRenderer.supports(contentType)) {
+      return;
+    }
+    Date now = new Date();
+    mongoTemplate.insert(
+        DerivativeJob.builder()
+            .sourceId(sourceId)
+            .contentType(contentType)
+            .status(DerivativeJob.Status.PENDING)
+            .attempts(0)
+            .nextAttemptAt(now)
+            .createdAt(now)
+            .build());
+    if (TransactionSynchronizationManager.isSynchronizationActive()) {
+      TransactionSynchronizationManager.registerSynchronization(
+          new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+              wakeUp();
+            }
+          });
+    } else {
+      wakeUp();
+    }
+  }
+
+  public void wakeUp() {
+    dispatcher.execute(this::dispatch);
+  }
+
+  @Scheduled(
+      fixedDelayString = "${storage.derivatives.poll-interval:5s}",
+      initialDelayString = "${storage.derivatives.poll-interval:5s}")
+  public void pollQueue() {
+    if (properties.enabled()) {
+      try {
+        failAbandoned();
+      } catch (RuntimeException e) {
+        log.warn("Could not fail abandoned derivative jobs: {}", e.getMessage());
+      }
+      wakeUp();
+    }
+  }
+
+  /** Returns the stored derivative, or {@code null} if it has not been generated (yet). */
+  public GridFsResource openDerivative(String derivativeId) {
+    if (derivativeId == null || !ObjectId.isValid(derivativeId)) {
+      return null;
+    }
+    GridFSFile file =
+        derivativeGridFs.findOne(Query.query(Criteria.where("_id").is(new ObjectId(derivativeId))));
+    return file == null ? null : derivativeGridFs.getResource(file);
+  }
+
+  /** Removes derivatives and pending jobs of a deleted source file. */
+  public void deleteFor(ObjectId sourceId) {
+    derivativeGridFs.delete(Query.query(Criteria.where("metadata.sourceId").is(sourceId)));
+    mongoTemplate.remove(Query.query(Criteria.where("sourceId").is(sourceId)), DerivativeJob.class);
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    dispatcher.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  void dispatch() {
+    while (freeWorkers.tryAcquire()) {
+      DerivativeJob job;
+      try {
+        job = claimNext();
+      } catch (RuntimeException e) {
+        freeWorkers.release();
+        log.warn("Could not claim derivative job: {}", e.getMessage());
+        return;
+      }
+      if (job == null) {
+        freeWorkers.release();
+        return;
+      }
+      workers.execute(
+          () -> {
+            try {
+              process(job);
+            } finally {
+              freeWorkers.release();
+            }
+          });
+    }
+  }
+
+  DerivativeJob claimNext() {
+    Date now = new Date();
+    Criteria due =
+        new Criteria()
+            .orOperator(
+                Criteria.where("status")
+                    .is(DerivativeJob.Status.PENDING)
+                    .and("nextAttemptAt")
+                    .lte(now),
+                Criteria.where("status")
+                    .is(DerivativeJob.Status.RUNNING)
+                    .and("lockedUntil")
+                    .lte(now));
+    Query query =
+        Query.query(due.and("attempts").lt(properties.maxAttempts()))
+            .with(Sort.by(Sort.Direction.ASC, "nextAttemptAt"));
+    Update claim =
+        new Update()
+            .set("status", DerivativeJob.Status.RUNNING)
+            .set("lockedUntil", new Date(now.getTime() + properties.lease().toMillis()))
+            .inc("attempts", 1);
+    return mongoTemplate.findAndModify(
+        query, claim, FindAndModifyOptions.options().returnNew(true), DerivativeJob.class);
+  }
+
+  /**
+   * Marks FAILED the jobs whose lease ran out during their last attempt: no worker will claim them
+   * again, and without this they would stay RUNNING.
+   */
+  void failAbandoned() {
+    Date now = new Date();
+    var result =
+        mongoTemplate.updateMulti(
+            Query.query(
+                Criteria.where("status")
+                    .is(DerivativeJob.Status.RUNNING)
+                    .and("lockedUntil")
+                    .lte(now)
+                    .and("attempts")
+                    .gte(properties.maxAttempts())),
+            new Update()
+                .set("status", DerivativeJob.Status.FAILED)
+                .set("lastError", "Worker stopped during the last attempt")
+                .set("nextAttemptAt", now)
+                .unset("lockedUntil"),
+            DerivativeJob.class);
+    if (result.getModifiedCount() > 0) {
+      log.error(
+          "{} derivative jobs failed permanently: their worker stopped during the last attempt",
+          result.getModifiedCount());
+    }
+  }
+
+  void process(DerivativeJob job) {
+    ObjectId sourceId = job.getSourceId();
+    try {
+      GridFSFile source = gridFsTemplate.findOne(Query.query(Criteria.where("_id").is(sourceId)));
+      if (source == null) {
+        log.info("Source {} was deleted before its derivatives were generated", sourceId);
+        complete(job);
+        return;
+      }
+      if (source.getLength() > properties.maxSourceSize().toBytes()) {
+        log.info(
+            "Skipping derivatives for {}: {} bytes is too large", sourceId, source.getLength());
+        complete(job);
+        return;
+      }
+
+      BufferedImage decoded;
+      try (InputStream in = blobStores.open(source)) {
+        decoded = renderer.decode(in, job.getContentType(), properties.previewSize());
+      }
+
+      Update links = new Update();
+      for (DerivativeVariant variant : DerivativeVariant.values()) {
+        DerivativeRenderer.Rendered rendered = renderer.encode(decoded, maxDimension(variant));
+        // A retry may follow a partially successful attempt; replace rather than accumulate.
+        derivativeGridFs.delete(
+            Query.query(
+                Criteria.where("metadata.sourceId")
+                    .is(sourceId)
+                    .and("metadata.variant")
+                    .is(variant.key())));
+        ObjectId derivativeId =
+            derivativeGridFs.store(
+                new ByteArrayInputStream(rendered.bytes()),
+                source.getFilename() + "-" + variant.key(),
+                rendered.contentType(),
+                new Document("sourceId", sourceId)
+                    .append("variant", variant.key())
+                    .append("width", rendered.width())
+                    .append("height", rendered.height()));
+        links.set("metadata.derivatives." + variant.key(), derivativeId.toHexString());
+      }
+
+      var result =
+          mongoTemplate.updateFirst(
+              Query.query(Criteria.where("_id").is(sourceId)), links, "fs.files");
+      if (result.getMatchedCount() == 0) {
+        // The source was deleted while we were rendering.
+        deleteFor(sourceId);
+        return;
+      }
+      complete(job);
+      log.info("Generated derivatives for {}", sourceId);
+    } catch (Exception e) {
+      fail(job, e);
+    }
+  }
+
+  private void complete(DerivativeJob job) {
+    mongoTemplate.remove(Query.query(Criteria.where("_id").is(job.getId())), DerivativeJob.class);
+  }
+
+  private void fail(DerivativeJob job, Exception e) {
+    boolean exhausted = job.getAttempts() >= properties.maxAttempts();
+    Duration backoff =
+        properties
+            .retryBackoff()
+            .multipliedBy(1L << Math.min(Math.max(0, job.getAttempts() - 1), 16));
+    Update update =
+        new Update()
+            .set("status", exhausted ? DerivativeJob.Status.FAILED : DerivativeJob.Status.PENDING)
+            .set("lastError", String.valueOf(e.getMessage()))
+            .set("nextAttemptAt", new Date(System.currentTimeMillis() + backoff.toMillis()))
+            .unset("lockedUntil");
+    mongoTemplate.updateFirst(
+        Query.query(Criteria.where("_id").is(job.getId())), update, DerivativeJob.class);
+    if (exhausted) {
+      log.error(
+          "Derivative job {} for {} failed permanently after {} attempts",
+          job.getId(),
+          job.getSourceId(),
+          job.getAttempts(),
+          e);
+    } else {
+      log.warn(
+          "Derivative job {} for {} failed (attempt {}), retrying in {}: {}",
+          job.getId(),
+          job.getSourceId(),
+          job.getAttempts(),
+          backoff,
+          e.getMessage());
+    }
+  }
+
+  private int maxDimension(DerivativeVariant variant) {
+    return variant == DerivativeVariant.THUMBNAIL
+        ? properties.thumbnailSize()
+        : properties.previewSize();
+  }
+
+  private static ThreadFactory namedThreads(String prefix) {
+    AtomicInteger counter = new AtomicInteger();
+    return r -> {
+      Thread t = new Thread(r, prefix + "-" + counter.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    };
+  }
+}
@@ -0,0 +1,321 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.config.DownloadBandwidthProperties;
+import com.example.storage_app.controller.dto.DownloadTenantStats;
+import jakarta.annotation.PreDestroy;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+/**
+ * Shares the download egress budget between requesters using deficit round robin.
+ *
+ * <p>Every download stream belongs to a tenant (the {@code X-User-Id}, or the client IP for
+ * anonymous requests, kept only as a keyed hash that changes with every restart). Streams spend
+ * byte credits from their tenant's deficit counter with a CAS, so the write path never takes a lock
+ * shared with other tenants. A single ticker thread walks the queue of backlogged tenants, tops
+ * each one up by {@code quantum * weight} until the per-tick budget is spent, and wakes that
+ * tenant's waiting streams. Tenants that are not served in one tick stay at the head of the queue
+ * for the next, which keeps the long-run split proportional to the weights no matter how many
+ * streams a single tenant opens.
+ *
+ * <p>With {@code bytesPerSecond = 0} no shaping happens and the scheduler only meters throughput.
+ */
+@Service
+public class DownloadBandwidthScheduler {
+  private static final Logger log = LoggerFactory.getLogger(DownloadBandwidthScheduler.class);
+  private static final long SAMPLE_INTERVAL_MS = 1000;
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final DownloadBandwidthProperties properties;
+  private final ConcurrentHashMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+  private final ConcurrentLinkedQueue<Tenant> backlog = new ConcurrentLinkedQueue<>();
+  private final ScheduledExecutorService ticker;
+  // Mac is not thread-safe; one initialised instance per download thread.
+  private final ThreadLocal<Mac> addressMac;
+  private final boolean shaping;
+  private final long bytesPerTick;
+  private final long tickNanos;
+  // Overdraft from the previous tick; only touched by the ticker thread.
+  private long carry;
+
+  public DownloadBandwidthScheduler(DownloadBandwidthProperties properties) {
+    this.properties = properties;
+    byte[] key = new byte[32];
+    new SecureRandom().nextBytes(key);
+    SecretKeySpec addressKey = new SecretKeySpec(key, "HmacSHA256");
+    this.addressMac =
+        ThreadLocal.withInitial(
+            () -> {
+              try {
+                Mac mac = Mac.getInstance("HmacSHA256");
+                mac.init(addressKey);
+                return mac;
+              } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 is not available", e);
+              }
+            });
+    this.shaping = properties.bytesPerSecond() > 0;
+    this.tickNanos = Math.max(1, properties.tickInterval().toNanos());
+    this.bytesPerTick =
+        Math.max(1, (long) (properties.bytesPerSecond() * (tickNanos / 1_000_000_000d)));
+    this.ticker =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread t = new Thread(r, "download-bandwidth-scheduler");
+              t.setDaemon(true);
+              return t;
+            });
+    if (shaping) {
+      ticker.scheduleAtFixedRate(this::tick, tickNanos, tickNanos, TimeUnit.NANOSECONDS);
+    }
+    ticker.scheduleAtFixedRate(
+        this::sample, SAMPLE_INTERVAL_MS, SAMPLE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    log.info(
+        "Download scheduler started: {} bytes/s ({}), quantum {} bytes, tick {}",
+        properties.bytesPerSecond(),
+        shaping ? "shaping" : "metering only",
+        properties.quantumBytes(),
+        properties.tickInterval());
+  }
+
+  /** Opens a metered stream for a requester; anonymous requests are keyed by client address. */
+  public Lease open(String userId, String remoteAddress) {
+    String key;
+    int weight;
+    if (userId != null && !userId.isBlank()) {
+      key = "user:" + userId;
+      weight = properties.weightForUser(userId);
+    } else {
+      key = "ip:" + hashAddress(remoteAddress);
+      weight = Math.max(1, properties.anonymousWeight());
+    }
+    Tenant tenant =
+        tenants.compute(
+            key,
+            (k, existing) -> {
+              Tenant t = existing != null ? existing : new Tenant(k, weight);
+              t.activeStreams.incrementAndGet();
+              t.lastActiveNanos = System.nanoTime();
+              return t;
+            });
+    return new Lease(tenant);
+  }
+
+  /** Whether a stream of that tenant has spent its credits and is parked until the next grant. */
+  boolean isParked(String tenantKey) {
+    Tenant tenant = tenants.get(tenantKey);
+    if (tenant == null) {
+      return false;
+    }
+    tenant.lock.lock();
+    try {
+      return tenant.lock.hasWaiters(tenant.refilled);
+    } finally {
+      tenant.lock.unlock();
+    }
+  }
+
+  public List<DownloadTenantStats> snapshot() {
+    return tenants.values().stream()
+        .map(
+            t ->
+                new DownloadTenantStats(
+                    t.key, t.weight, t.activeStreams.get(), t.bytesServed.sum(), t.bytesPerSecond))
+        .sorted(Comparator.comparingLong(DownloadTenantStats::bytesPerSecond).reversed())
+        .toList();
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    ticker.shutdownNow();
+  }
+
+  /**
+   * One DRR round: visit each backlogged tenant at most once, until the tick budget is spent. Every
+   * visit grants a full quantum; an overdraft is paid back from the next tick's budget so weights
+   * hold even when a quantum is larger than a tick.
+   */
+  void tick() {
+    long budget = bytesPerTick + carry;
+    int visits = backlog.size();
+    while (visits-- > 0 && budget > 0) {
+      Tenant tenant = backlog.poll();
+      if (tenant == null) {
+        break;
+      }
+      if (tenant.waiters.get() == 0) {
+        // An idle flow forfeits its deficit, as in classic DRR.
+        tenant.deficit.set(0);
+        tenant.queued.set(false);
+        if (tenant.waiters.get() > 0) {
+          enqueue(tenant);
+        }
+        continue;
+      }
+      long quantum = (long) properties.quantumBytes() * tenant.weight;
+      long cap = 2 * quantum;
+      tenant.deficit.accumulateAndGet(quantum, (current, add) -> Math.min(cap, current + add));
+      budget -= quantum;
+      tenant.signalAll();
+      backlog.offer(tenant);
+    }
+    // Unused budget is not banked: idle bandwidth must not turn into a later burst.
+    carry = Math.min(0, budget);
+  }
+
+  private void sample() {
+    long now = System.nanoTime();
+    long idleNanos = properties.idleEviction().toNanos();
+    for (Tenant tenant : tenants.values()) {
+      long total = tenant.bytesServed.sum();
+      long elapsed = now - tenant.sampledAtNanos;
+      if (elapsed > 0) {
+        tenant.bytesPerSecond = (total - tenant.sampledBytes) * 1_000_000_000L / elapsed;
+      }
+      tenant.sampledBytes = total;
+      tenant.sampledAtNanos = now;
+      tenants.computeIfPresent(
+          tenant.key,
+          (k, t) ->
+              t.activeStreams.get() == 0
+                      && t.waiters.get() == 0
+                      && now - t.lastActiveNanos > idleNanos
+                  ? null
+                  : t);
+    }
+  }
+
+  private String hashAddress(String remoteAddress) {
+    byte[] digest =
+        addressMac.get().doFinal(String.valueOf(remoteAddress).getBytes(StandardCharsets.UTF_8));
+    return HEX.formatHex(digest, 0, 8);
+  }
+
+  private void enqueue(Tenant tenant) {
+    if (tenant.queued.compareAndSet(false, true)) {
+      backlog.offer(tenant);
+    }
+  }
+
+  private int acquire(Tenant tenant, int requested) throws InterruptedIOException {
+    if (!shaping) {
+      return requested;
+    }
+    long granted = tenant.take(requested);
+    if (granted > 0) {
+      return (int) granted;
+    }
+    tenant.waiters.incrementAndGet();
+    tenant.lock.lock();
+    try {
+      while ((granted = tenant.take(requested)) == 0) {
+        enqueue(tenant);
+        tenant.refilled.awaitNanos(tickNanos * 4);
+      }
+      return (int) granted;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for download bandwidth");
+    } finally {
+      tenant.lock.unlock();
+      tenant.waiters.decrementAndGet();
+    }
+  }
+
+  /** A single download stream's handle on its tenant's share. */
+  public final class Lease implements AutoCloseable {
+    private final Tenant tenant;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    private Lease(Tenant tenant) {
+      this.tenant = tenant;
+    }
+
+    /**
+     * Blocks until at least one byte may be sent and returns how many bytes (at most {@code
+     * requested}) the caller is allowed to write now.
+     */
+    public int acquire(int requested) throws InterruptedIOException {
+      if (requested <= 0) {
+        return 0;
+      }
+      int granted = DownloadBandwidthScheduler.this.acquire(tenant, requested);
+      tenant.bytesServed.add(granted);
+      tenant.lastActiveNanos = System.nanoTime();
+      return granted;
+    }
+
+    @Override
+    public void close() {
+      if (closed.compareAndSet(false, true)) {
+        tenant.activeStreams.decrementAndGet();
+        tenant.lastActiveNanos = System.nanoTime();
+      }
+    }
+  }
+
+  private static final class Tenant {
+    final String key;
+    final int weight;
+    final AtomicLong deficit = new AtomicLong();
+    final AtomicBoolean queued = new AtomicBoolean();
+    final AtomicInteger waiters = new AtomicInteger();
+    final AtomicInteger activeStreams = new AtomicInteger();
+    final LongAdder bytesServed = new LongAdder();
+    final ReentrantLock lock = new ReentrantLock();
+    final Condition refilled = lock.newCondition();
+    volatile long lastActiveNanos = System.nanoTime();
+    volatile long bytesPerSecond;
+    // Only touched by the ticker thread.
+    long sampledBytes;
+    long sampledAtNanos = System.nanoTime();
+
+    Tenant(String key, int weight) {
+      this.key = key;
+      this.weight = weight;
+    }
+
+    long take(long wanted) {
+      while (true) {
+        long available = deficit.get();
+        if (available <= 0) {
+          return 0;
+        }
+        long granted = Math.min(available, wanted);
+        if (deficit.compareAndSet(available, available - granted)) {
+          return granted;
+        }
+      }
+    }
+
+    void signalAll() {
+      lock.lock();
+      try {
+        refilled.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+}
@@ -1,26 +1,132 @@
 package com.example.storage_app.service;
 
+import com.example.storage_app.controller.dto.BulkDeleteResponse;
+import com.example.storage_app.controller.dto.BulkUpdateRequest;
+import com.example.storage_app.controller.dto.BulkUpdateResponse;
+import com.example.storage_app.controller.dto.CursorPagedResponse;
 import com.example.storage_app.controller.dto.FileResponse;
 import com.example.storage_app.controller.dto.FileUpdateRequest;
 import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.controller.dto.PagedResponse;
+import com.example.storage_app.model.FilenameMatch;
+import com.example.storage_app.model.TotalMode;
+import com.example.storage_app.util.RangeFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.List;
 import org.springframework.data.domain.Page;
 import org.springframework.data.mongodb.gridfs.GridFsResource;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 public interface FileService {
 
   FileResponse uploadFile(String userId, MultipartFile file, FileUploadRequest request)
       throws IOException, NoSuchAlgorithmException;
 
+  /**
+   * Offset-paginated listing of the user's files, or PUBLIC ones without a user, filtered by a tag
+   * expression and by {@code ranges} (either may be {@code null}).
+   */
   Page<FileResponse> listFiles(
-      String userId, String tag, String sortBy, String sortDir, int page, int size);
+      String userId,
+      String tag,
+      RangeFilter ranges,
+      String sortBy,
+      String sortDir,
+      int page,
+      int size);
+
+  /**
+   * Offset-paginated listing fetched in a single round trip, with the total computed exactly (via
+   * {@code $facet}), taken from a recently cached count, or skipped, as {@code totals} asks.
+   */
+  PagedResponse<FileResponse> listFiles(
+      String userId,
+      String tag,
+      RangeFilter ranges,
+      String sortBy,
+      String sortDir,
+      int page,
+      int size,
+      TotalMode totals);
+
+  /**
+   * Same page and JSON as {@link #listFiles(String, String, RangeFilter, String, String, int, int,
+   * TotalMode)}, streamed from raw BSON without mapping rows to entities or DTOs. Arguments are
+   * validated and the total is counted before the body is returned; rows are only read while it is
+   * written.
+   */
+  StreamingResponseBody streamFiles(
+      String userId,
+      String tag,
+      RangeFilter ranges,
+      String sortBy,
+      String sortDir,
+      int page,
+      int size,
+      TotalMode totals);
+
+  /**
+   * Files in the listing scope (the user's own, or PUBLIC ones) whose name starts with or contains
+   * {@code query}, ignoring case, ordered by name. At most {@code limit} results are returned.
+   */
+  List<FileResponse> searchFiles(String userId, String query, FilenameMatch match, int limit);
+
+  /**
+   * Writes all of the user's files to {@code out} as NDJSON, one {@code FileResponse} per line,
+   * from a single cursor. Memory use does not grow with the number of files, and a failed write
+   * closes the cursor.
+   *
+   * @return the number of files written
+   */
+  long exportFiles(String userId, OutputStream out) throws IOException;
+
+  /**
+   * Keyset-paginated listing: returns the page following {@code cursor} (the first page when it is
+   * blank) and the cursor for the next one.
+   */
+  CursorPagedResponse<FileResponse> listFiles(
+      String userId,
+      String tag,
+      RangeFilter ranges,
+      String sortBy,
+      String sortDir,
+      String cursor,
+      int size);
 
   ResponseEntity<GridFsResource> downloadFile(String token) throws IOException;
 
-  FileResponse updateFileDetails(String userId, String fileId, FileUpdateRequest request);
+  ResponseEntity<GridFsResource> downloadDerivative(String token, String size) throws IOException;
+
+  /**
+   * Renames the file. With an {@code expectedVersion}, only if the file is still at that version;
+   * otherwise a {@link com.example.storage_app.exception.PreconditionFailedException}.
+   */
+  FileResponse updateFileDetails(
+      String userId, String fileId, FileUpdateRequest request, Long expectedVersion);
+
+  /**
+   * Applies many renames, visibility changes and tag changes to the user's files at once. A failed
+   * operation does not stop the others; each gets its own result.
+   */
+  BulkUpdateResponse updateFiles(String userId, BulkUpdateRequest request);
+
+  /**
+   * Moves the file to the trash: it disappears from listings and downloads at once and its content
+   * is purged in the background once it can no longer be restored. With an {@code expectedVersion},
+   * only if the file is still at that version.
+   */
+  void deleteFile(String userId, String fileId, Long expectedVersion);
+
+  /**
+   * Moves all of the user's files matching the tag expression and ranges to the trash, like {@link
+   * #deleteFile}. At least one filter is required.
+   */
+  BulkDeleteResponse deleteFiles(String userId, String filterTag, RangeFilter ranges);
 
-  void deleteFile(String userId, String fileId);
+  /** Puts a file from the trash back, as long as it has not been purged yet. */
+  FileResponse restoreFile(String userId, String fileId);
 }
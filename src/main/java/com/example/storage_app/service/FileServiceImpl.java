@@ -1,23 +1,69 @@
 package com.example.storage_app.service;
 
+import com.example.storage_app.blob.BlobReader;
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.config.ListingProperties;
+import com.example.storage_app.config.TrashProperties;
+import com.example.storage_app.controller.dto.BulkDeleteResponse;
+import com.example.storage_app.controller.dto.BulkOperation;
+import com.example.storage_app.controller.dto.BulkOperationResult;
+import com.example.storage_app.controller.dto.BulkUpdateRequest;
+import com.example.storage_app.controller.dto.BulkUpdateResponse;
+import com.example.storage_app.controller.dto.CursorPagedResponse;
 import com.example.storage_app.controller.dto.FileResponse;
 import com.example.storage_app.controller.dto.FileUpdateRequest;
 import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.controller.dto.PagedResponse;
 import com.example.storage_app.exception.FileAlreadyExistsException;
 import com.example.storage_app.exception.InvalidRequestArgumentException;
+import com.example.storage_app.exception.PreconditionFailedException;
 import com.example.storage_app.exception.ResourceNotFoundException;
 import com.example.storage_app.exception.StorageException;
 import com.example.storage_app.exception.UnauthorizedOperationException;
+import com.example.storage_app.model.BulkOperationStatus;
+import com.example.storage_app.model.DerivativeVariant;
 import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.FilenameMatch;
+import com.example.storage_app.model.TotalMode;
+import com.example.storage_app.model.TrashedFile;
 import com.example.storage_app.repository.FileRecordRepository;
+import com.example.storage_app.util.DownloadLinkSigner;
 import com.example.storage_app.util.FileMapper;
 import com.example.storage_app.util.FileMetadataBuilder;
 import com.example.storage_app.util.FileStorageResult;
+import com.example.storage_app.util.FilenameSearchKeys;
+import com.example.storage_app.util.FilenameValidator;
 import com.example.storage_app.util.GridFsHelper;
+import com.example.storage_app.util.ListingCursor;
+import com.example.storage_app.util.RangeFilter;
+import com.example.storage_app.util.RawFileJsonWriter;
+import com.example.storage_app.util.TagDictionary;
+import com.example.storage_app.util.TagFilter;
 import com.mongodb.MongoWriteException;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.MongoCursor;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.CountOptions;
+import com.mongodb.client.model.Filters;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.dao.DataAccessException;
@@ -26,12 +72,19 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsResource;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.data.support.PageableExecutionUtils;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.InvalidMediaTypeException;
@@ -40,10 +93,18 @@ import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 @Service
 public class FileServiceImpl implements FileService {
   private static final Logger log = LoggerFactory.getLogger(FileServiceImpl.class);
+  static final int MAX_SEARCH_RESULTS = 100;
+
+  /** Tags per file, as an upload allows. */
+  static final int MAX_TAGS = 5;
+
+  /** Writes a rename or delete makes before giving up on a file that keeps changing. */
+  static final int MAX_WRITE_ATTEMPTS = 3;
 
   private final GridFsTemplate gridFsTemplate;
   private final FileMetadataBuilder fileMetadataBuilder;
@@ -51,6 +112,18 @@ public class FileServiceImpl implements FileService {
   private final GridFsHelper gridFsHelper;
   private final FileRecordRepository fileRecordRepository;
   private final MongoTemplate mongoTemplate;
+  private final DownloadLinkSigner downloadLinkSigner;
+  private final DerivativeService derivativeService;
+  private final ListingCountCache listingCountCache;
+  private final OwnerStatsService ownerStatsService;
+  private final RawFileJsonWriter rawFileJsonWriter;
+  private final ListingProperties listingProperties;
+  private final ReadRouting readRouting;
+  private final TagDictionary tagDictionary;
+  private final TrashService trashService;
+  private final TrashProperties trashProperties;
+  private final BlobStores blobStores;
+  private final PackArchiver packArchiver;
 
   public FileServiceImpl(
       GridFsTemplate gridFsTemplate,
@@ -58,13 +131,37 @@ public class FileServiceImpl implements FileService {
       FileMapper fileMapper,
       GridFsHelper gridFsHelper,
       FileRecordRepository fileRecordRepository,
-      MongoTemplate mongoTemplate) {
+      MongoTemplate mongoTemplate,
+      DownloadLinkSigner downloadLinkSigner,
+      DerivativeService derivativeService,
+      ListingCountCache listingCountCache,
+      OwnerStatsService ownerStatsService,
+      RawFileJsonWriter rawFileJsonWriter,
+      ListingProperties listingProperties,
+      ReadRouting readRouting,
+      TagDictionary tagDictionary,
+      TrashService trashService,
+      TrashProperties trashProperties,
+      BlobStores blobStores,
+      PackArchiver packArchiver) {
     this.gridFsTemplate = gridFsTemplate;
     this.fileMetadataBuilder = fileMetadataBuilder;
     this.fileMapper = fileMapper;
     this.gridFsHelper = gridFsHelper;
     this.fileRecordRepository = fileRecordRepository;
     this.mongoTemplate = mongoTemplate;
+    this.downloadLinkSigner = downloadLinkSigner;
+    this.derivativeService = derivativeService;
+    this.listingCountCache = listingCountCache;
+    this.ownerStatsService = ownerStatsService;
+    this.rawFileJsonWriter = rawFileJsonWriter;
+    this.listingProperties = listingProperties;
+    this.readRouting = readRouting;
+    this.tagDictionary = tagDictionary;
+    this.trashService = trashService;
+    this.trashProperties = trashProperties;
+    this.blobStores = blobStores;
+    this.packArchiver = packArchiver;
   }
 
   @Override
@@ -145,6 +242,11 @@ public class FileServiceImpl implements FileService {
     record.setContentType(storageResult.contentType);
     record.setSize(storageResult.size);
     record.setSha256(storageResult.sha256);
+    ownerStatsService.recordUpload(record);
+    readRouting.recordWrite(userId);
+
+    // Thumbnails and previews are rendered in the background once the upload is committed.
+    derivativeService.enqueue(storageResult.id, storageResult.contentType);
 
     log.info(
         "FileRecord state before mapping to response: id={}, ownerId={}, originalFilename={}, sha256={}, contentType={}, size={}, token={}",
@@ -176,64 +278,570 @@ public class FileServiceImpl implements FileService {
 
   @Override
   public Page<FileResponse> listFiles(
-      String userId, String filterTag, String sortBy, String sortDir, int pageNum, int pageSize) {
+      String userId,
+      String filterTag,
+      RangeFilter ranges,
+      String sortBy,
+      String sortDir,
+      int pageNum,
+      int pageSize) {
     Sort.Direction direction =
         (sortDir != null && sortDir.equalsIgnoreCase("desc"))
             ? Sort.Direction.DESC
             : Sort.Direction.ASC;
-    String sortField = mapSortField(sortBy);
+    String sortField = sortKeyField(mapSortField(sortBy), direction.isAscending());
     Pageable pageable = PageRequest.of(pageNum, pageSize, Sort.by(direction, sortField));
 
+    Criteria criteria = listingCriteria(userId, TagFilter.parse(filterTag), ranges);
     Page<FileRecord> pageOfRecords;
-    if (userId != null) {
-      if (filterTag != null && !filterTag.isBlank()) {
-        pageOfRecords =
-            fileRecordRepository.findByOwnerIdAndTagsContaining(
-                userId, filterTag.toLowerCase(), pageable);
+    try (ReadRouting.Reads reads = readRouting.listings(userId)) {
+      List<FileRecord> records =
+          reads
+              .operations()
+              .find(reads.query(Query.query(criteria).with(pageable)), FileRecord.class);
+      // Like a derived repository query: the count is skipped when this page reveals the total.
+      pageOfRecords =
+          PageableExecutionUtils.getPage(
+              records,
+              pageable,
+              () -> reads.operations().count(reads.query(Query.query(criteria)), FileRecord.class));
+    }
+    if (userId == null && downloadLinkSigner.isEnabled()) {
+      // Anonymous PUBLIC listings hand out short-lived signed links instead of permanent tokens.
+      return pageOfRecords.map(r -> fileMapper.fromEntity(r, signedDownloadLink(r)));
+    }
+    return pageOfRecords.map(fileMapper::fromEntity);
+  }
+
+  @Override
+  public CursorPagedResponse<FileResponse> listFiles(
+      String userId,
+      String filterTag,
+      RangeFilter ranges,
+      String sortBy,
+      String sortDir,
+      String cursor,
+      int pageSize) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("Page size must not be less than one");
+    }
+    boolean ascending = sortDir == null || !sortDir.equalsIgnoreCase("desc");
+    String sortField = sortKeyField(mapSortField(sortBy), ascending);
+    Sort.Direction direction = ascending ? Sort.Direction.ASC : Sort.Direction.DESC;
+
+    Criteria criteria = listingCriteria(userId, TagFilter.parse(filterTag), ranges);
+    if (cursor != null && !cursor.isBlank()) {
+      ListingCursor after = ListingCursor.decode(cursor);
+      if (!after.field().equals(sortField) || after.ascending() != ascending) {
+        throw new InvalidRequestArgumentException("Cursor does not match the requested sort");
+      }
+      criteria = afterCursor(criteria, after);
+    }
+
+    // The _id tie-breaker makes the order total, so a cursor identifies exactly one position.
+    Query query =
+        Query.query(criteria).with(Sort.by(direction, sortField, "_id")).limit(pageSize + 1);
+    List<FileRecord> records;
+    try (ReadRouting.Reads reads = readRouting.listings(userId)) {
+      records = reads.operations().find(reads.query(query), FileRecord.class);
+    }
+    boolean hasNext = records.size() > pageSize;
+    if (hasNext) {
+      records = records.subList(0, pageSize);
+    }
+    String nextCursor = null;
+    if (hasNext) {
+      FileRecord last = records.get(records.size() - 1);
+      nextCursor =
+          new ListingCursor(
+                  sortField, ascending, sortValue(last, sortField), new ObjectId(last.getId()))
+              .encode();
+    }
+    List<FileResponse> content = toResponses(records, userId);
+    return new CursorPagedResponse<>(content, pageSize, content.size(), hasNext, nextCursor);
+  }
+
+  @Override
+  public PagedResponse<FileResponse> listFiles(
+      String userId,
+      String filterTag,
+      RangeFilter ranges,
+      String sortBy,
+      String sortDir,
+      int pageNum,
+      int pageSize,
+      TotalMode totals) {
+    Pageable pageable = PageRequest.of(pageNum, pageSize);
+    Sort.Direction direction =
+        (sortDir != null && sortDir.equalsIgnoreCase("desc"))
+            ? Sort.Direction.DESC
+            : Sort.Direction.ASC;
+    String sortField = sortKeyField(mapSortField(sortBy), direction.isAscending());
+    TagFilter tagFilter = TagFilter.parse(filterTag);
+    Criteria criteria = listingCriteria(userId, tagFilter, ranges);
+    String countKey = countKey(userId, tagFilter, ranges);
+    Long cachedTotal = null;
+    if (totals == TotalMode.ESTIMATED) {
+      cachedTotal = listingCountCache.get(countKey);
+      if (cachedTotal == null) {
+        cachedTotal = estimateCount(userId, tagFilter, ranges);
+      }
+    }
+
+    List<FileRecord> records;
+    Long total;
+    boolean last;
+    TotalMode reported;
+    try (ReadRouting.Reads reads = readRouting.listings(userId)) {
+      if (totals == TotalMode.NONE || cachedTotal != null) {
+        // No count at all; one extra row tells whether another page follows.
+        Query query =
+            Query.query(criteria)
+                .with(Sort.by(direction, sortField, "_id"))
+                .skip(pageable.getOffset())
+                .limit(pageSize + 1);
+        records = reads.operations().find(reads.query(query), FileRecord.class);
+        last = records.size() <= pageSize;
+        if (!last) {
+          records = records.subList(0, pageSize);
+        }
+        total = cachedTotal;
+        reported = totals;
       } else {
-        pageOfRecords = fileRecordRepository.findByOwnerId(userId, pageable);
+        // The page and the count in a single round trip instead of a find followed by a count.
+        Document filter = mappedFilter(criteria);
+        Document sort = mappedSort(sortField, direction);
+        // Sorting before $facet lets the sort run on the listing index; inside it would be in
+        // memory.
+        Aggregation aggregation =
+            Aggregation.newAggregation(
+                    Aggregation.stage(new Document("$match", filter)),
+                    Aggregation.stage(new Document("$sort", sort)),
+                    Aggregation.facet(
+                            Aggregation.skip(pageable.getOffset()), Aggregation.limit(pageSize))
+                        .as("page")
+                        .and(Aggregation.count().as("n"))
+                        .as("total"))
+                .withOptions(reads.aggregationOptions());
+        Document result =
+            reads
+                .operations()
+                .aggregate(aggregation, FileRecord.COLLECTION, Document.class)
+                .getUniqueMappedResult();
+        records =
+            result == null
+                ? List.of()
+                : result.getList("page", Document.class).stream()
+                    .map(d -> reads.operations().getConverter().read(FileRecord.class, d))
+                    .toList();
+        List<Document> counted =
+            result == null ? List.of() : result.getList("total", Document.class);
+        total = counted.isEmpty() ? 0L : ((Number) counted.get(0).get("n")).longValue();
+        listingCountCache.put(countKey, total);
+        last = pageable.getOffset() + records.size() >= total;
+        reported = TotalMode.EXACT;
       }
+    }
+    Integer totalPages = total == null ? null : (int) ((total + pageSize - 1) / pageSize);
+    return new PagedResponse<>(
+        toResponses(records, userId),
+        pageNum,
+        pageSize,
+        totalPages,
+        total,
+        last,
+        pageNum == 0,
+        records.size(),
+        reported.key());
+  }
+
+  @Override
+  public StreamingResponseBody streamFiles(
+      String userId,
+      String filterTag,
+      RangeFilter ranges,
+      String sortBy,
+      String sortDir,
+      int pageNum,
+      int pageSize,
+      TotalMode totals) {
+    Pageable pageable = PageRequest.of(pageNum, pageSize);
+    Sort.Direction direction =
+        (sortDir != null && sortDir.equalsIgnoreCase("desc"))
+            ? Sort.Direction.DESC
+            : Sort.Direction.ASC;
+    TagFilter tagFilter = TagFilter.parse(filterTag);
+    Document filter = mappedFilter(listingCriteria(userId, tagFilter, ranges));
+    Document sort =
+        mappedSort(sortKeyField(mapSortField(sortBy), direction.isAscending()), direction);
+    // Everything that can fail with a client error happens before the response is committed.
+    Long total = null;
+    if (totals != TotalMode.NONE) {
+      String countKey = countKey(userId, tagFilter, ranges);
+      if (totals == TotalMode.ESTIMATED) {
+        total = listingCountCache.get(countKey);
+        if (total == null) {
+          total = estimateCount(userId, tagFilter, ranges);
+        }
+      }
+      if (total == null) {
+        try (ReadRouting.Reads reads = readRouting.listings(userId)) {
+          total =
+              reads
+                  .rawFiles()
+                  .countDocuments(
+                      filter,
+                      new CountOptions().maxTime(reads.maxTimeMillis(), TimeUnit.MILLISECONDS));
+        }
+        listingCountCache.put(countKey, total);
+      }
+    }
+    Long reportedTotal = total;
+    Function<ObjectId, String> linkForId =
+        userId == null && downloadLinkSigner.isEnabled()
+            ? id -> FileMapper.DOWNLOAD_PATH + downloadLinkSigner.sign(id)
+            : null;
+    return out -> {
+      // Closing the cursor on a failed write (e.g. client disconnect) also kills it server-side.
+      try (ReadRouting.Reads reads = readRouting.listings(userId);
+          MongoCursor<RawBsonDocument> cursor =
+              reads
+                  .rawFiles()
+                  .find(filter)
+                  .projection(RawFileJsonWriter.PROJECTION)
+                  .sort(sort)
+                  .skip((int) pageable.getOffset())
+                  .limit(pageSize + 1)
+                  .batchSize(pageSize + 1)
+                  .maxTime(reads.maxTimeMillis(), TimeUnit.MILLISECONDS)
+                  .iterator()) {
+        rawFileJsonWriter.writePage(
+            out, cursor, pageNum, pageSize, reportedTotal, totals, linkForId);
+      }
+    };
+  }
+
+  @Override
+  public List<FileResponse> searchFiles(
+      String userId, String query, FilenameMatch match, int limit) {
+    if (limit < 1 || limit > MAX_SEARCH_RESULTS) {
+      throw new IllegalArgumentException(
+          "Search limit must be between 1 and " + MAX_SEARCH_RESULTS);
+    }
+    String key = FilenameSearchKeys.normalize(query);
+    if (key.isBlank()) {
+      throw new IllegalArgumentException("Search query must not be empty");
+    }
+    Criteria criteria = listingCriteria(userId, null, null);
+    if (match == FilenameMatch.PREFIX) {
+      criteria = criteria.and("filenameKey").gte(key).lt(FilenameSearchKeys.prefixUpperBound(key));
     } else {
-      if (filterTag != null && !filterTag.isBlank()) {
-        pageOfRecords =
-            fileRecordRepository.findByVisibilityAndTagsContaining(
-                "PUBLIC", filterTag.toLowerCase(), pageable);
-      } else {
-        pageOfRecords = fileRecordRepository.findByVisibility("PUBLIC", pageable);
+      List<String> grams = FilenameSearchKeys.grams(key);
+      if (grams.isEmpty()) {
+        throw new IllegalArgumentException(
+            "Substring search needs at least " + FilenameSearchKeys.GRAM_LENGTH + " characters");
       }
+      // The grams select candidates through the index; the regex checks they are adjacent.
+      criteria =
+          criteria.and("filenameGrams").all(grams).and("filenameKey").regex(Pattern.quote(key));
+    }
+    Query search =
+        Query.query(criteria).with(Sort.by(Sort.Direction.ASC, "filenameKey", "_id")).limit(limit);
+    try (ReadRouting.Reads reads = readRouting.search(userId)) {
+      return toResponses(reads.operations().find(reads.query(search), FileRecord.class), userId);
     }
-    return pageOfRecords.map(fileMapper::fromEntity);
+  }
+
+  @Override
+  public long exportFiles(String userId, OutputStream out) throws IOException {
+    Document filter = mappedFilter(Criteria.where("ownerId").is(userId));
+    // Served in order by owner_filename_idx, so the server never has to sort the catalogue.
+    Document sort =
+        new Document(
+            fileRecordEntity().getRequiredPersistentProperty("originalFilename").getFieldName(), 1);
+    // Closing the cursor on a failed write (e.g. client disconnect) also kills it server-side.
+    try (ReadRouting.Reads reads = readRouting.export(userId);
+        MongoCursor<RawBsonDocument> cursor =
+            reads
+                .rawFiles()
+                .find(filter)
+                .projection(RawFileJsonWriter.PROJECTION)
+                .sort(sort)
+                .batchSize(listingProperties.exportBatchSize())
+                .maxTime(reads.maxTimeMillis(), TimeUnit.MILLISECONDS)
+                .iterator()) {
+      long exported =
+          rawFileJsonWriter.writeNdjson(out, cursor, listingProperties.exportFlushEvery(), null);
+      log.info("Exported {} files for user {}", exported, userId);
+      return exported;
+    } catch (IOException e) {
+      log.info("Export for user {} aborted: {}", userId, e.getMessage());
+      throw e;
+    }
+  }
+
+  /** The listing filter with entity property names mapped to catalogue field names. */
+  private Document mappedFilter(Criteria criteria) {
+    return new QueryMapper(mongoTemplate.getConverter())
+        .getMappedObject(criteria.getCriteriaObject(), fileRecordEntity());
+  }
+
+  /** A {@code $sort} document on the mapped field, with {@code _id} as tie-breaker. */
+  private Document mappedSort(String sortField, Sort.Direction direction) {
+    int order = direction.isAscending() ? 1 : -1;
+    return new Document(
+            fileRecordEntity().getRequiredPersistentProperty(sortField).getFieldName(), order)
+        .append("_id", order);
+  }
+
+  private MongoPersistentEntity<?> fileRecordEntity() {
+    return mongoTemplate
+        .getConverter()
+        .getMappingContext()
+        .getRequiredPersistentEntity(FileRecord.class);
+  }
+
+  private Criteria listingCriteria(String userId, TagFilter tagFilter, RangeFilter ranges) {
+    Criteria criteria =
+        userId != null
+            ? Criteria.where("ownerId").is(userId)
+            : Criteria.where("visibility").is("PUBLIC");
+    List<Criteria> conditions = new ArrayList<>();
+    if (tagFilter != null && tagFilter.singleTag() != null) {
+      criteria.and("tags").is(tagFilter.singleTag());
+    } else if (tagFilter != null) {
+      // Per-tag counts put the rarest required tag first, where it bounds the index scan.
+      Map<String, Long> tagCounts =
+          tagFilter.ranksTags() ? ownerStatsService.tagCounts(userId) : Map.of();
+      conditions.add(tagFilter.toCriteria(tagCounts));
+    }
+    if (ranges != null) {
+      // Under $and, so a cursor's own bound on the same field does not collide with them.
+      conditions.addAll(ranges.toCriteria());
+    }
+    return conditions.isEmpty() ? criteria : criteria.andOperator(conditions);
+  }
+
+  private static String countKey(String userId, TagFilter tagFilter, RangeFilter ranges) {
+    String filter = tagFilter == null ? "" : tagFilter.toString();
+    return ListingCountCache.key(userId, ranges == null ? filter : filter + "|" + ranges);
+  }
+
+  /**
+   * Files matching the scope and tag filter per the stats; only known for at most one tag and no
+   * range filter.
+   */
+  private Long estimateCount(String userId, TagFilter tagFilter, RangeFilter ranges) {
+    if (ranges != null || (tagFilter != null && tagFilter.singleTag() == null)) {
+      return null;
+    }
+    return ownerStatsService.estimateCount(
+        userId, tagFilter == null ? null : tagFilter.singleTag());
+  }
+
+  private List<FileResponse> toResponses(List<FileRecord> records, String userId) {
+    // Anonymous PUBLIC listings hand out short-lived signed links instead of permanent tokens.
+    boolean signed = userId == null && downloadLinkSigner.isEnabled();
+    return records.stream()
+        .map(
+            r ->
+                signed ? fileMapper.fromEntity(r, signedDownloadLink(r)) : fileMapper.fromEntity(r))
+        .toList();
+  }
+
+  /**
+   * Tag order is defined by the array's smallest tag ascending and its largest descending. Sorting
+   * on those scalar copies rather than the array gives the same order, and an index can serve it.
+   */
+  private static String sortKeyField(String sortField, boolean ascending) {
+    if (!sortField.equals("tags")) {
+      return sortField;
+    }
+    return ascending ? "firstTag" : "lastTag";
+  }
+
+  /**
+   * Rows strictly after the cursor position in (field, _id) order. The outer range on the sort
+   * field bounds the index scan; the {@code $or} only trims the rows that share the cursor's key.
+   */
+  private static Criteria afterCursor(Criteria criteria, ListingCursor after) {
+    String field = after.field();
+    Object value = after.value();
+    if (value == null) {
+      // Missing values sort lowest; comparison operators never match across BSON types.
+      return after.ascending()
+          ? criteria.orOperator(
+              Criteria.where(field).ne(null),
+              Criteria.where(field).is(null).and("_id").gt(after.id()))
+          : criteria.and(field).is(null).and("_id").lt(after.id());
+    }
+    if (after.ascending()) {
+      return criteria
+          .and(field)
+          .gte(value)
+          .orOperator(Criteria.where(field).gt(value), Criteria.where("_id").gt(after.id()));
+    }
+    return criteria
+        .and(field)
+        .lte(value)
+        .orOperator(Criteria.where(field).lt(value), Criteria.where("_id").lt(after.id()));
+  }
+
+  private static Object sortValue(FileRecord record, String sortField) {
+    return switch (sortField) {
+      case "originalFilename" -> record.getOriginalFilename();
+      case "uploadDate" -> record.getUploadDate();
+      case "contentType" -> record.getContentType();
+      case "size" -> record.getSize();
+      case "firstTag" -> record.getFirstTag();
+      case "lastTag" -> record.getLastTag();
+      default -> throw new IllegalStateException("Unexpected sort field: " + sortField);
+    };
+  }
+
+  private String signedDownloadLink(FileRecord record) {
+    if (!ObjectId.isValid(record.getId())) {
+      return FileMapper.DOWNLOAD_PATH + record.getToken();
+    }
+    return FileMapper.DOWNLOAD_PATH + downloadLinkSigner.sign(new ObjectId(record.getId()));
   }
 
   @Override
   public ResponseEntity<GridFsResource> downloadFile(String token) throws IOException {
-    FileRecord record =
-        fileRecordRepository
-            .findByToken(token)
-            .orElseThrow(() -> new ResourceNotFoundException("File not found for token: " + token));
+    if (DownloadLinkSigner.isSignedToken(token)) {
+      return downloadBySignedToken(token);
+    }
+    try (ReadRouting.Reads reads = readRouting.downloads()) {
+      FileRecord record =
+          reads
+              .findByToken(token)
+              .orElseThrow(
+                  () -> new ResourceNotFoundException("File not found for token: " + token));
+
+      GridFSFile gridFSFile = reads.findFile(Filters.eq("filename", record.getFilename()));
+
+      if (gridFSFile == null) {
+        throw new ResourceNotFoundException(
+            "File content not found in GridFS for system file: " + record.getFilename());
+      }
+
+      return buildDownloadResponse(
+          open(reads, gridFSFile), record.getOriginalFilename(), record.getContentType());
+    }
+  }
+
+  /**
+   * Signed tokens carry the GridFS {@code _id}: after the HMAC check the file is fetched by primary
+   * key and the response headers come from the GridFS metadata, so no token index lookup is needed.
+   */
+  private ResponseEntity<GridFsResource> downloadBySignedToken(String token) {
+    ObjectId gridFsId = downloadLinkSigner.verify(token);
+    try (ReadRouting.Reads reads = readRouting.downloads()) {
+      GridFSFile gridFSFile = reads.findFile(Filters.eq("_id", gridFsId));
+      Document metadata = gridFSFile == null ? null : gridFSFile.getMetadata();
+      if (gridFSFile == null || isDeleted(metadata)) {
+        throw new ResourceNotFoundException("File not found for token: " + token);
+      }
+      String originalFilename =
+          metadata != null && metadata.getString("originalFilename") != null
+              ? metadata.getString("originalFilename")
+              : gridFSFile.getFilename();
+      String contentType = metadata != null ? metadata.getString("contentType") : null;
+      return buildDownloadResponse(open(reads, gridFSFile), originalFilename, contentType);
+    }
+  }
+
+  /**
+   * Opens the content from the store holding it; GridFS content is read on the routed session. The
+   * download counts as an access for the archiver.
+   */
+  private GridFsResource open(ReadRouting.Reads reads, GridFSFile file) {
+    packArchiver.recordAccess(file);
+    String stripe = blobStores.stripeBucket(file.getMetadata());
+    if (stripe != null) {
+      return reads.open(file, stripe);
+    }
+    BlobReader store = blobStores.external(file.getMetadata());
+    if (store == null) {
+      return reads.open(file);
+    }
+    try {
+      return new GridFsResource(file, store.get(file.getObjectId(), 0, -1));
+    } catch (IOException e) {
+      throw new StorageException("Could not read stored content " + file.getObjectId(), e);
+    }
+  }
 
-    Query query = Query.query(Criteria.where("filename").is(record.getFilename()));
-    GridFSFile gridFSFile = gridFsTemplate.findOne(query);
+  @Override
+  public ResponseEntity<GridFsResource> downloadDerivative(String token, String size)
+      throws IOException {
+    DerivativeVariant variant = DerivativeVariant.fromParam(size);
+    String originalFilename;
+    String derivativeId;
+    if (DownloadLinkSigner.isSignedToken(token)) {
+      ObjectId gridFsId = downloadLinkSigner.verify(token);
+      GridFSFile gridFSFile =
+          gridFsTemplate.findOne(Query.query(Criteria.where("_id").is(gridFsId)));
+      if (gridFSFile == null
+          || gridFSFile.getMetadata() == null
+          || isDeleted(gridFSFile.getMetadata())) {
+        throw new ResourceNotFoundException("File not found for token: " + token);
+      }
+      Document metadata = gridFSFile.getMetadata();
+      Document derivatives = metadata.get("derivatives", Document.class);
+      originalFilename = metadata.getString("originalFilename");
+      derivativeId = derivatives != null ? derivatives.getString(variant.key()) : null;
+    } else {
+      FileRecord record =
+          fileRecordRepository
+              .findByToken(token)
+              .orElseThrow(
+                  () -> new ResourceNotFoundException("File not found for token: " + token));
+      originalFilename = record.getOriginalFilename();
+      // Derivative links are kept with the content, not in the catalogue.
+      GridFSFile gridFSFile =
+          gridFsTemplate.findOne(Query.query(Criteria.where("filename").is(record.getFilename())));
+      Document derivatives =
+          gridFSFile == null || gridFSFile.getMetadata() == null
+              ? null
+              : gridFSFile.getMetadata().get("derivatives", Document.class);
+      derivativeId = derivatives != null ? derivatives.getString(variant.key()) : null;
+    }
 
-    if (gridFSFile == null) {
+    GridFsResource resource = derivativeService.openDerivative(derivativeId);
+    if (resource == null) {
       throw new ResourceNotFoundException(
-          "File content not found in GridFS for system file: " + record.getFilename());
+          "No " + variant.key() + " available for: " + originalFilename);
     }
+    HttpHeaders headers = new HttpHeaders();
+    headers.add(
+        HttpHeaders.CONTENT_DISPOSITION,
+        "inline; filename=\"" + originalFilename + "-" + variant.key() + "\"");
+    try {
+      headers.setContentType(MediaType.parseMediaType(resource.getContentType()));
+    } catch (InvalidMediaTypeException e) {
+      headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+    }
+    return new ResponseEntity<>(resource, headers, HttpStatus.OK);
+  }
+
+  /** Signed links bypass the catalogue, so a file in the trash is recognised by its marker. */
+  private static boolean isDeleted(Document metadata) {
+    return metadata != null && metadata.get(TrashService.GRIDFS_DELETED_AT) != null;
+  }
 
-    GridFsResource resource = gridFsTemplate.getResource(gridFSFile);
+  private ResponseEntity<GridFsResource> buildDownloadResponse(
+      GridFsResource resource, String originalFilename, String contentType) {
     if (resource == null || !resource.exists() || !resource.isReadable()) {
       throw new StorageException(
-          "Failed to retrieve file content for: "
-              + record.getOriginalFilename()
-              + " or file is not readable.");
+          "Failed to retrieve file content for: " + originalFilename + " or file is not readable.");
     }
 
     HttpHeaders headers = new HttpHeaders();
     headers.add(
-        HttpHeaders.CONTENT_DISPOSITION,
-        "attachment; filename=\"" + record.getOriginalFilename() + "\"");
+        HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + originalFilename + "\"");
     try {
-      headers.setContentType(MediaType.parseMediaType(record.getContentType()));
+      headers.setContentType(MediaType.parseMediaType(contentType));
     } catch (InvalidMediaTypeException e) {
       headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
     }
@@ -241,124 +849,484 @@ public class FileServiceImpl implements FileService {
     return new ResponseEntity<>(resource, headers, HttpStatus.OK);
   }
 
+  /**
+   * One {@code findAndModify} whose filter carries the owner, the expected version and the new name
+   * (as "not already set"), so the check and the write are a single atomic step. Only when nothing
+   * matches is the entry read, to tell the caller why.
+   */
   @Override
-  @Transactional
-  public FileResponse updateFileDetails(String userId, String fileId, FileUpdateRequest request) {
-    log.info("Attempting to find file by system UUID (filename): {}", fileId);
+  public FileResponse updateFileDetails(
+      String userId, String fileId, FileUpdateRequest request, Long expectedVersion) {
+    String newOriginalFilename = request.newFilename();
+    if (newOriginalFilename == null || newOriginalFilename.isBlank()) {
+      return fileMapper.fromEntity(
+          checkedRecord(userId, fileId, expectedVersion, "update")); // Invalid new name
+    }
+
+    log.info("Updating originalFilename for fileId {} to '{}'", fileId, newOriginalFilename);
+    String filenameKey = FilenameSearchKeys.normalize(newOriginalFilename);
+    Update update =
+        new Update()
+            .set("originalFilename", newOriginalFilename)
+            .set("filenameKey", filenameKey)
+            .set("filenameGrams", FilenameSearchKeys.grams(filenameKey))
+            .inc("version", 1);
+
+    FileRecord updated = null;
+    for (int attempt = 1; updated == null; attempt++) {
+      try {
+        updated =
+            mongoTemplate.findAndModify(
+                Query.query(
+                    ownedAtVersion(userId, fileId, expectedVersion)
+                        .and("originalFilename")
+                        .ne(newOriginalFilename)),
+                update,
+                FindAndModifyOptions.options().returnNew(true),
+                FileRecord.class);
+      } catch (DuplicateKeyException e) {
+        log.warn(
+            "DuplicateKeyException on updating originalFilename for fileId {}: {}",
+            fileId,
+            e.getMessage());
+        throw new FileAlreadyExistsException(
+            "Filename '"
+                + newOriginalFilename
+                + "' already exists for this user (filename conflict during update).",
+            e);
+      } catch (DataAccessException e) {
+        log.error(
+            "DataAccessException on updating originalFilename for fileId {}: {}",
+            fileId,
+            e.getMessage(),
+            e);
+        throw new StorageException("Failed to update file metadata: " + e.getMessage(), e);
+      }
+
+      if (updated == null) {
+        FileRecord current = checkedRecord(userId, fileId, expectedVersion, "update");
+        if (newOriginalFilename.equals(current.getOriginalFilename())) {
+          return fileMapper.fromEntity(current); // No change needed
+        }
+        // Renamed or restored between the two reads; the filter decides again.
+        giveUpAfter(attempt, fileId, "update");
+      }
+    }
+
+    mongoTemplate.updateFirst(gridFsFile(fileId), mirroredName(newOriginalFilename), "fs.files");
+    readRouting.recordWrite(userId);
+    log.info("File originalFilename updated. New originalFilename: {}", newOriginalFilename);
+    return fileMapper.fromEntity(updated);
+  }
+
+  /** The {@code fs.files} document of the file with that system filename. */
+  private static Query gridFsFile(String fileId) {
+    return Query.query(Criteria.where("filename").is(fileId));
+  }
+
+  /**
+   * Copies a new name to the file's {@code fs.files} document. Downloads by signed link read only
+   * that document, not the catalogue, and name the attachment from it, so every rename goes there
+   * too.
+   */
+  private static Update mirroredName(String originalFilename) {
+    return new Update().set("metadata.originalFilename", originalFilename);
+  }
+
+  /**
+   * Matches the file if the user owns it and, when a version is expected, it is at that version.
+   */
+  private static Criteria ownedAtVersion(String userId, String fileId, Long expectedVersion) {
+    Criteria criteria = Criteria.where("filename").is(fileId).and("ownerId").is(userId);
+    return expectedVersion == null ? criteria : atVersion(criteria, expectedVersion);
+  }
+
+  /** Narrows {@code criteria} to the entry at {@code version}. */
+  private static Criteria atVersion(Criteria criteria, long version) {
+    // Entries from before versioning have no version field, which reads as 0.
+    return version == 0
+        ? criteria.and("version").in(0L, null)
+        : criteria.and("version").is(version);
+  }
+
+  /**
+   * Stops retrying a write whose filter kept missing a file that kept changing back between the
+   * write and the read explaining the miss.
+   */
+  private static void giveUpAfter(int attempt, String fileId, String action) {
+    if (attempt >= MAX_WRITE_ATTEMPTS) {
+      throw new StorageException(
+          "Could not " + action + " file " + fileId + ": it kept changing; try again");
+    }
+  }
+
+  /**
+   * Explains why {@link #ownedAtVersion} matched nothing, by reading the entry: not found, another
+   * user's file or another version. Returns the entry if it matches after all.
+   */
+  private FileRecord checkedRecord(
+      String userId, String fileId, Long expectedVersion, String action) {
     FileRecord record =
         fileRecordRepository
             .findByFilename(fileId) // Use findByFilename (system UUID)
             .orElseThrow(() -> new ResourceNotFoundException("File not found with id: " + fileId));
-
     if (!userId.equals(record.getOwnerId())) {
+      log.warn(
+          "Unauthorized {} attempt: User '{}' on fileId '{}' owned by '{}'",
+          action,
+          userId,
+          fileId,
+          record.getOwnerId());
       throw new UnauthorizedOperationException(
-          "User '" + userId + "' not authorized to update fileId: " + fileId);
+          "User '" + userId + "' not authorized to " + action + " fileId: " + fileId);
+    }
+    if (expectedVersion != null && expectedVersion != record.getVersion()) {
+      throw new PreconditionFailedException(
+          "File "
+              + fileId
+              + " is at version "
+              + record.getVersion()
+              + ", not the expected "
+              + expectedVersion);
     }
+    return record;
+  }
 
-    String newOriginalFilename = request.newFilename();
-    if (newOriginalFilename == null
-        || newOriginalFilename.isBlank()
-        || newOriginalFilename.equals(record.getOriginalFilename())) {
-      return fileMapper.fromEntity(record); // No change needed or invalid new name
+  /**
+   * Loads every named file with one {@code $in} query, checks ownership and computes each file's
+   * new state in memory, then applies all changes with one unordered bulk write. An operation that
+   * fails, e.g. on the owner's unique filename index, does not stop the others; its error is mapped
+   * back to it by its position in the batch. Stats move once per scope for the whole batch.
+   *
+   * <p>Each write is filtered on the version that was read, which is the operation's {@code
+   * expectedVersion} when it gives one, so a file changed or deleted in between is left alone
+   * rather than overwritten with a state computed from the stale read. The bulk result only counts
+   * matches, so when it falls short the written files are read again to tell which operations took
+   * effect; the others are reported as CONFLICT or NOT_FOUND and have no other effect.
+   */
+  @Override
+  public BulkUpdateResponse updateFiles(String userId, BulkUpdateRequest request) {
+    List<BulkOperation> operations = request.operations();
+    validateBulkOperations(operations);
+    Map<String, FileRecord> records = new HashMap<>();
+    for (FileRecord record :
+        mongoTemplate.find(
+            Query.query(
+                Criteria.where("filename")
+                    .in(operations.stream().map(BulkOperation::fileId).toList())),
+            FileRecord.class)) {
+      records.put(record.getFilename(), record);
+    }
+
+    BulkOperationResult[] results = new BulkOperationResult[operations.size()];
+    BulkOperations catalogueUpdates =
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileRecord.class);
+    // Position in the bulk write -> index of the operation, with the file before and after.
+    List<Integer> written = new ArrayList<>();
+    List<FileRecord> before = new ArrayList<>();
+    List<FileRecord> after = new ArrayList<>();
+    for (int i = 0; i < operations.size(); i++) {
+      BulkOperation operation = operations.get(i);
+      FileRecord record = records.get(operation.fileId());
+      if (record == null) {
+        results[i] = bulkResult(operation, BulkOperationStatus.NOT_FOUND, "File not found");
+        continue;
+      }
+      if (!userId.equals(record.getOwnerId())) {
+        results[i] =
+            bulkResult(
+                operation,
+                BulkOperationStatus.FORBIDDEN,
+                "User '" + userId + "' not authorized to update this file");
+        continue;
+      }
+      if (operation.expectedVersion() != null
+          && operation.expectedVersion() != record.getVersion()) {
+        results[i] =
+            bulkResult(
+                operation,
+                BulkOperationStatus.PRECONDITION_FAILED,
+                "File is at version "
+                    + record.getVersion()
+                    + ", not the expected "
+                    + operation.expectedVersion());
+        continue;
+      }
+      FileRecord changed = applyBulkOperation(record, operation);
+      if (changed.getTags().size() > MAX_TAGS) {
+        results[i] =
+            bulkResult(
+                operation,
+                BulkOperationStatus.INVALID,
+                "A maximum of " + MAX_TAGS + " tags are allowed");
+        continue;
+      }
+      Update update = bulkUpdate(record, changed);
+      if (update.getUpdateObject().isEmpty()) {
+        results[i] = bulkResult(operation, BulkOperationStatus.UNCHANGED, "No change");
+        continue;
+      }
+      // Stored tags are dictionary ids, which the converter only looks up.
+      changed.getTags().forEach(tagDictionary::intern);
+      catalogueUpdates.updateOne(
+          Query.query(atVersion(Criteria.where("_id").is(record.getId()), record.getVersion())),
+          update);
+      written.add(i);
+      before.add(record);
+      after.add(changed);
+    }
+
+    Map<Integer, BulkWriteError> errors = new HashMap<>();
+    int matched = 0;
+    if (!written.isEmpty()) {
+      try {
+        matched = catalogueUpdates.execute().getMatchedCount();
+      } catch (BulkOperationException e) {
+        e.getErrors().forEach(error -> errors.put(error.getIndex(), error));
+        matched = e.getResult().getMatchedCount();
+      } catch (DataAccessException e) {
+        throw new StorageException("Failed to update file metadata: " + e.getMessage(), e);
+      }
+    }
+    Map<String, FileRecord> missed =
+        matched < written.size() - errors.size() ? reread(before) : null;
+
+    List<FileRecord> updatedBefore = new ArrayList<>();
+    List<FileRecord> updatedAfter = new ArrayList<>();
+    BulkOperations gridFsRenames = null;
+    for (int position = 0; position < written.size(); position++) {
+      int i = written.get(position);
+      BulkOperation operation = operations.get(i);
+      BulkWriteError error = errors.get(position);
+      if (error != null && error.getCode() == 11000) {
+        results[i] =
+            bulkResult(
+                operation,
+                BulkOperationStatus.CONFLICT,
+                "Filename '" + operation.newFilename() + "' already exists for this user.");
+      } else if (error != null) {
+        results[i] = bulkResult(operation, BulkOperationStatus.FAILED, error.getMessage());
+      } else if (missed != null && !applied(before.get(position), after.get(position), missed)) {
+        results[i] =
+            !missed.containsKey(before.get(position).getId())
+                ? bulkResult(operation, BulkOperationStatus.NOT_FOUND, "File not found")
+                : operation.expectedVersion() != null
+                    ? bulkResult(
+                        operation,
+                        BulkOperationStatus.PRECONDITION_FAILED,
+                        "File changed from the expected version " + operation.expectedVersion())
+                    : bulkResult(
+                        operation,
+                        BulkOperationStatus.CONFLICT,
+                        "File changed while the bulk update ran; read it again and retry");
+      } else {
+        results[i] = bulkResult(operation, BulkOperationStatus.UPDATED, null);
+        FileRecord changed = after.get(position);
+        updatedBefore.add(before.get(position));
+        updatedAfter.add(changed);
+        if (!Objects.equals(
+            changed.getOriginalFilename(), before.get(position).getOriginalFilename())) {
+          if (gridFsRenames == null) {
+            gridFsRenames = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "fs.files");
+          }
+          gridFsRenames.updateOne(
+              gridFsFile(changed.getFilename()), mirroredName(changed.getOriginalFilename()));
+        }
+      }
+    }
+    if (!updatedAfter.isEmpty()) {
+      if (gridFsRenames != null) {
+        gridFsRenames.execute();
+      }
+      ownerStatsService.recordChanges(updatedBefore, updatedAfter);
+      readRouting.recordWrite(userId);
     }
 
+    int updated = updatedAfter.size();
+    int failed = 0;
+    for (BulkOperationResult result : results) {
+      if (result.status() != BulkOperationStatus.UPDATED
+          && result.status() != BulkOperationStatus.UNCHANGED) {
+        failed++;
+      }
+    }
     log.info(
-        "Updating metadata.originalFilename for fileId {} from '{}' to '{}' using MongoTemplate",
-        fileId,
-        record.getOriginalFilename(),
-        newOriginalFilename);
+        "Bulk update by user {}: {} operations, {} updated, {} failed",
+        userId,
+        operations.size(),
+        updated,
+        failed);
+    return new BulkUpdateResponse(updated, failed, List.of(results));
+  }
 
-    Query query =
-        Query.query(Criteria.where("filename").is(fileId)); // Query by system UUID (filename field)
-    Update update = new Update().set("metadata.originalFilename", newOriginalFilename);
+  /** The catalogue entries of {@code records} as they are now, by id. */
+  private Map<String, FileRecord> reread(List<FileRecord> records) {
+    Map<String, FileRecord> current = new HashMap<>();
+    for (FileRecord record :
+        mongoTemplate.find(
+            Query.query(Criteria.where("_id").in(records.stream().map(FileRecord::getId).toList())),
+            FileRecord.class)) {
+      current.put(record.getId(), record);
+    }
+    return current;
+  }
 
-    try {
-      var updateResult = mongoTemplate.updateFirst(query, update, "fs.files");
+  /**
+   * Whether the versioned write from {@code record} to {@code changed} matched: only that write
+   * moves the entry on to the next version with exactly that state.
+   */
+  private static boolean applied(
+      FileRecord record, FileRecord changed, Map<String, FileRecord> current) {
+    FileRecord now = current.get(record.getId());
+    return now != null
+        && now.getVersion() == record.getVersion() + 1
+        && Objects.equals(now.getOriginalFilename(), changed.getOriginalFilename())
+        && now.getVisibility() == changed.getVisibility()
+        && Objects.equals(now.getTags(), changed.getTags());
+  }
 
-      if (updateResult.getModifiedCount() == 0) {
-        log.warn(
-            "Update operation modified 0 documents for fileId: {}. File might have been deleted concurrently.",
-            fileId);
-        FileRecord possiblyDeletedRecord =
-            fileRecordRepository
-                .findByFilename(fileId)
-                .orElseThrow(
-                    () ->
-                        new ResourceNotFoundException(
-                            "File not found after update attempt for id: " + fileId));
-        return fileMapper.fromEntity(possiblyDeletedRecord);
+  /** Rejects the whole request when an operation is malformed, before anything is read. */
+  private static void validateBulkOperations(List<BulkOperation> operations) {
+    Set<String> fileIds = new HashSet<>();
+    FilenameValidator filenameValidator = new FilenameValidator();
+    for (int i = 0; i < operations.size(); i++) {
+      BulkOperation operation = operations.get(i);
+      if (!fileIds.add(operation.fileId())) {
+        throw new InvalidRequestArgumentException(
+            "operations[" + i + "]: file " + operation.fileId() + " appears more than once");
       }
+      if (operation.newFilename() == null
+          && operation.visibility() == null
+          && (operation.addTags() == null || operation.addTags().isEmpty())
+          && (operation.removeTags() == null || operation.removeTags().isEmpty())) {
+        throw new InvalidRequestArgumentException("operations[" + i + "]: nothing to change");
+      }
+      if (operation.newFilename() != null
+          && !filenameValidator.isValid(operation.newFilename(), null)) {
+        throw new InvalidRequestArgumentException(
+            "operations[" + i + "].newFilename: Unsafe filename");
+      }
+    }
+  }
 
-      record.setOriginalFilename(newOriginalFilename);
-      log.info(
-          "File metadata.originalFilename updated via MongoTemplate. New originalFilename: {}",
-          newOriginalFilename);
-      return fileMapper.fromEntity(record);
+  /** The file as it will be once {@code operation} is applied. */
+  private static FileRecord applyBulkOperation(FileRecord record, BulkOperation operation) {
+    FileRecord.FileRecordBuilder changed = record.toBuilder();
+    if (operation.newFilename() != null) {
+      String filenameKey = FilenameSearchKeys.normalize(operation.newFilename());
+      changed
+          .originalFilename(operation.newFilename())
+          .filenameKey(filenameKey)
+          .filenameGrams(FilenameSearchKeys.grams(filenameKey));
+    }
+    if (operation.visibility() != null) {
+      changed.visibility(operation.visibility());
+    }
+    // Tags are lowercase, as on upload.
+    Set<String> tags = new LinkedHashSet<>(record.getTags() == null ? List.of() : record.getTags());
+    if (operation.removeTags() != null) {
+      operation.removeTags().forEach(tag -> tags.remove(tag.toLowerCase()));
+    }
+    if (operation.addTags() != null) {
+      operation.addTags().forEach(tag -> tags.add(tag.toLowerCase()));
+    }
+    return changed
+        .tags(List.copyOf(tags))
+        .firstTag(tags.stream().min(Comparator.naturalOrder()).orElse(""))
+        .lastTag(tags.stream().max(Comparator.naturalOrder()).orElse(""))
+        .build();
+  }
 
-    } catch (DuplicateKeyException e) {
-      log.warn(
-          "DuplicateKeyException on updating metadata.originalFilename for fileId {}: {}",
-          fileId,
-          e.getMessage());
-      throw new FileAlreadyExistsException(
-          "Filename '"
-              + newOriginalFilename
-              + "' already exists for this user (filename conflict during update).",
-          e);
-    } catch (DataAccessException e) {
-      log.error(
-          "DataAccessException on updating metadata.originalFilename for fileId {}: {}",
-          fileId,
-          e.getMessage(),
-          e);
-      throw new StorageException("Failed to update file metadata: " + e.getMessage(), e);
+  /** Sets only what differs between the two states of a file. */
+  private static Update bulkUpdate(FileRecord record, FileRecord changed) {
+    Update update = new Update();
+    if (!Objects.equals(changed.getOriginalFilename(), record.getOriginalFilename())) {
+      update
+          .set("originalFilename", changed.getOriginalFilename())
+          .set("filenameKey", changed.getFilenameKey())
+          .set("filenameGrams", changed.getFilenameGrams());
+    }
+    if (changed.getVisibility() != record.getVisibility()) {
+      update.set("visibility", changed.getVisibility());
     }
+    if (!changed.getTags().equals(record.getTags() == null ? List.of() : record.getTags())) {
+      update
+          .set("tags", changed.getTags())
+          .set("firstTag", changed.getFirstTag())
+          .set("lastTag", changed.getLastTag());
+    }
+    return update.getUpdateObject().isEmpty() ? update : update.inc("version", 1);
+  }
+
+  private static BulkOperationResult bulkResult(
+      BulkOperation operation, BulkOperationStatus status, String message) {
+    return new BulkOperationResult(operation.fileId(), status, message);
   }
 
+  /** Removes the entry with one {@code findAndRemove} filtered like {@link #updateFileDetails}. */
   @Override
-  @Transactional
-  public void deleteFile(String userId, String fileId) {
+  public void deleteFile(String userId, String fileId, Long expectedVersion) {
     log.info("Attempting to delete file with system UUID (filename): {}", fileId);
     FileRecord record =
-        fileRecordRepository
-            .findByFilename(fileId) // Use findByFilename (system UUID)
-            .orElseThrow(() -> new ResourceNotFoundException("File not found with id: " + fileId));
-
-    if (!userId.equals(record.getOwnerId())) {
-      log.warn(
-          "Unauthorized delete attempt: User '{}' on fileId '{}' owned by '{}'",
-          userId,
-          fileId,
-          record.getOwnerId());
-      throw new UnauthorizedOperationException(
-          "User '" + userId + "' not authorized to delete fileId: " + fileId);
-    }
-
-    // IMPORTANT: We must delete by _id (not filename) to ensure all file chunks are removed from
-    // fs.chunks.
-    // Deleting by filename alone may leave orphaned chunks, causing storage leaks and data
-    // inconsistency.
-    // See: https://www.mongodb.com/docs/manual/core/gridfs/#deleting-files-from-gridfs
-    Query gridFsQuery = Query.query(Criteria.where("filename").is(record.getFilename()));
-    GridFSFile gridFSFile = gridFsTemplate.findOne(gridFsQuery);
-
-    if (gridFSFile != null) {
-      log.info(
-          "Found GridFSFile with ObjectId: {} and filename (systemUUID): {}. Deleting from GridFS.",
-          gridFSFile.getObjectId(),
-          gridFSFile.getFilename());
-      gridFsTemplate.delete(Query.query(Criteria.where("_id").is(gridFSFile.getObjectId())));
-    } else {
-      log.warn(
-          "GridFSFile not found for filename (systemUUID): {} during delete operation. FileRecord might be orphaned or GridFS file already deleted.",
-          record.getFilename());
+        mongoTemplate.findAndRemove(
+            Query.query(ownedAtVersion(userId, fileId, expectedVersion)), FileRecord.class);
+    for (int attempt = 1; record == null; attempt++) {
+      checkedRecord(userId, fileId, expectedVersion, "delete");
+      // Restored or changed back between the two reads; the filter decides again.
+      giveUpAfter(attempt, fileId, "delete");
+      record =
+          mongoTemplate.findAndRemove(
+              Query.query(ownedAtVersion(userId, fileId, expectedVersion)), FileRecord.class);
     }
 
-    // Delete the FileRecord itself from the repository.
-    // This should remove the document from fs.files based on its primary key (which is string UUID
-    // if mapping works as expected).
-    log.info("Deleting FileRecord with id (systemUUID): {}", record.getId());
-    fileRecordRepository.delete(record); // Use delete(entity) for safety if ID is complex.
+    // Only the catalogue entry moves; the content is purged in the background once the file can
+    // no longer be restored.
+    trashService.trashRemoved(List.of(record));
+    ownerStatsService.recordDelete(record);
+
+    readRouting.recordWrite(userId);
     log.info("Successfully deleted file with system UUID: {}", fileId);
   }
+
+  @Override
+  public BulkDeleteResponse deleteFiles(String userId, String filterTag, RangeFilter ranges) {
+    TagFilter tagFilter = TagFilter.parse(filterTag);
+    if (tagFilter == null && ranges == null) {
+      throw new InvalidRequestArgumentException(
+          "Deleting by filter requires a tag or range filter.");
+    }
+    Query batchQuery =
+        Query.query(listingCriteria(userId, tagFilter, ranges))
+            .limit(Math.max(1, trashProperties.bulkDeleteBatchSize()));
+    long deleted = 0;
+    Date restorableUntil = null;
+    // Each batch leaves the catalogue, so the same query yields the next one.
+    List<FileRecord> batch;
+    while (!(batch = mongoTemplate.find(batchQuery, FileRecord.class)).isEmpty()) {
+      restorableUntil = trashService.trash(batch);
+      ownerStatsService.recordDeletes(batch);
+      deleted += batch.size();
+    }
+    if (deleted > 0) {
+      readRouting.recordWrite(userId);
+    }
+    log.info("Deleted {} files of user {} by filter", deleted, userId);
+    return new BulkDeleteResponse(deleted, restorableUntil);
+  }
+
+  @Override
+  public FileResponse restoreFile(String userId, String fileId) {
+    TrashedFile trashed =
+        trashService
+            .find(fileId)
+            .orElseThrow(() -> new ResourceNotFoundException("No deleted file with id: " + fileId));
+    if (!userId.equals(trashed.getOwnerId())) {
+      throw new UnauthorizedOperationException(
+          "User '" + userId + "' not authorized to restore fileId: " + fileId);
+    }
+    FileRecord record = trashService.restore(trashed);
+    ownerStatsService.recordUpload(record);
+    readRouting.recordWrite(userId);
+    return fileMapper.fromEntity(record);
+  }
 }
@@ -0,0 +1,54 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.config.ListingProperties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Recently computed listing totals, keyed by listing scope and tag filter. Serves {@code
+ * totals=estimated}: a total may be up to {@code countCacheTtl} old but costs nothing to report.
+ */
+@Component
+public class ListingCountCache {
+  private record Entry(long count, long expiresAtNanos) {}
+
+  private final ConcurrentHashMap<String, Entry> counts = new ConcurrentHashMap<>();
+  private final ListingProperties properties;
+  private final LongSupplier nanoClock;
+
+  @Autowired
+  public ListingCountCache(ListingProperties properties) {
+    this(properties, System::nanoTime);
+  }
+
+  ListingCountCache(ListingProperties properties, LongSupplier nanoClock) {
+    this.properties = properties;
+    this.nanoClock = nanoClock;
+  }
+
+  public static String key(String userId, String tag) {
+    return (userId != null ? "owner:" + userId : "public") + "|" + (tag == null ? "" : tag);
+  }
+
+  /** Returns the cached total, or {@code null} if there is none or it has expired. */
+  public Long get(String key) {
+    Entry entry = counts.get(key);
+    if (entry == null || entry.expiresAtNanos() - nanoClock.getAsLong() < 0) {
+      return null;
+    }
+    return entry.count();
+  }
+
+  public void put(String key, long count) {
+    long now = nanoClock.getAsLong();
+    if (counts.size() >= properties.countCacheMaxEntries()) {
+      counts.values().removeIf(e -> e.expiresAtNanos() - now < 0);
+      if (counts.size() >= properties.countCacheMaxEntries()) {
+        counts.clear();
+      }
+    }
+    counts.put(key, new Entry(count, now + properties.countCacheTtl().toNanos()));
+  }
+}
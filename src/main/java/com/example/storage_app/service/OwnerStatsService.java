@@ -0,0 +1,429 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.config.StatsProperties;
+import com.example.storage_app.controller.dto.FacetCount;
+import com.example.storage_app.controller.dto.OwnerStatsResponse;
+import com.example.storage_app.controller.dto.StatsDrift;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.OwnerStats;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.util.TagDictionary;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Per-owner and PUBLIC file counts, byte totals and tag/content-type facets, kept current with
+ * {@code $inc} so they never need a scan of the file catalogue to answer.
+ *
+ * <p>The increments run right after the write they account for, and inside its transaction when
+ * there is one. A crash between the two, or two racing deletes of the same file, can still leave a
+ * scope off by a file; {@link #reconcileAll()} recomputes every scope from the catalogue
+ * periodically and reports what it had to correct.
+ */
+@Service
+public class OwnerStatsService {
+  private static final Logger log = LoggerFactory.getLogger(OwnerStatsService.class);
+  public static final String PUBLIC_SCOPE = "public";
+  private static final String OWNER_PREFIX = "owner:";
+
+  private final MongoTemplate mongoTemplate;
+  private final StatsProperties properties;
+  private final TagDictionary tagDictionary;
+
+  public OwnerStatsService(
+      MongoTemplate mongoTemplate, StatsProperties properties, TagDictionary tagDictionary) {
+    this.mongoTemplate = mongoTemplate;
+    this.properties = properties;
+    this.tagDictionary = tagDictionary;
+  }
+
+  public static String ownerScope(String userId) {
+    return OWNER_PREFIX + userId;
+  }
+
+  /** Escapes characters MongoDB does not allow in field names ({@code .} and {@code $}). */
+  static String encodeKey(String key) {
+    return key.replace("%", "%25").replace(".", "%2E").replace("$", "%24");
+  }
+
+  static String decodeKey(String key) {
+    return key.replace("%24", "$").replace("%2E", ".").replace("%25", "%");
+  }
+
+  public void recordUpload(FileRecord record) {
+    apply(record, 1);
+  }
+
+  public void recordDelete(FileRecord record) {
+    apply(record, -1);
+  }
+
+  /** Moves a file's contribution when its visibility, tags, content type or size changed. */
+  public void recordChange(FileRecord before, FileRecord after) {
+    if (before.getVisibility() == after.getVisibility()
+        && before.getSize() == after.getSize()
+        && Objects.equals(before.getContentType(), after.getContentType())
+        && Objects.equals(distinctTags(before), distinctTags(after))) {
+      return;
+    }
+    apply(before, -1);
+    apply(after, 1);
+  }
+
+  /**
+   * Like {@link #recordChange} for many files at once, with the increments summed per scope so the
+   * whole batch costs one write per scope it touches.
+   */
+  public void recordChanges(List<FileRecord> before, List<FileRecord> after) {
+    Map<String, Map<String, Long>> deltas = new LinkedHashMap<>();
+    for (int i = 0; i < before.size(); i++) {
+      accumulate(deltas, before.get(i), -1);
+      accumulate(deltas, after.get(i), 1);
+    }
+    upsertAll(deltas);
+  }
+
+  /** Like {@link #recordDelete} for many files at once, in one write per scope. */
+  public void recordDeletes(List<FileRecord> records) {
+    Map<String, Map<String, Long>> deltas = new LinkedHashMap<>();
+    records.forEach(record -> accumulate(deltas, record, -1));
+    upsertAll(deltas);
+  }
+
+  public OwnerStatsResponse stats(String userId) {
+    String scope = userId != null ? ownerScope(userId) : PUBLIC_SCOPE;
+    OwnerStats stats = mongoTemplate.findById(scope, OwnerStats.class);
+    if (stats == null) {
+      return new OwnerStatsResponse(scope, 0, 0, List.of(), List.of());
+    }
+    return new OwnerStatsResponse(
+        scope,
+        stats.getFileCount(),
+        stats.getTotalBytes(),
+        facets(stats.getTags()),
+        facets(stats.getContentTypes()));
+  }
+
+  /**
+   * Number of files a listing with this scope and (lower-case) tag would return, or {@code null}
+   * when the scope has no stats yet.
+   */
+  public Long estimateCount(String userId, String tag) {
+    OwnerStats stats =
+        mongoTemplate.findById(
+            userId != null ? ownerScope(userId) : PUBLIC_SCOPE, OwnerStats.class);
+    if (stats == null) {
+      return null;
+    }
+    if (tag == null) {
+      return Math.max(0, stats.getFileCount());
+    }
+    Long count = stats.getTags() == null ? null : stats.getTags().get(encodeKey(tag));
+    return count == null ? 0L : Math.max(0, count);
+  }
+
+  /** Files per tag in a listing scope, e.g. to order tag filters by selectivity. */
+  public Map<String, Long> tagCounts(String userId) {
+    OwnerStats stats =
+        mongoTemplate.findById(
+            userId != null ? ownerScope(userId) : PUBLIC_SCOPE, OwnerStats.class);
+    Map<String, Long> counts = new HashMap<>();
+    if (stats != null) {
+      nonZero(stats.getTags()).forEach((k, v) -> counts.put(decodeKey(k), v));
+    }
+    return counts;
+  }
+
+  @Scheduled(
+      fixedDelayString = "${storage.stats.reconcile-interval:6h}",
+      initialDelayString = "${storage.stats.reconcile-interval:6h}")
+  public void scheduledReconcile() {
+    if (properties.reconcileEnabled()) {
+      reconcileAll();
+    }
+  }
+
+  /** Recomputes every scope from the catalogue, corrects the stored stats and returns drift. */
+  public List<StatsDrift> reconcileAll() {
+    Set<String> scopes = new LinkedHashSet<>();
+    scopes.add(PUBLIC_SCOPE);
+    mongoTemplate
+        .findDistinct(new Query(), "ownerId", FileRecord.class, String.class)
+        .forEach(owner -> scopes.add(ownerScope(owner)));
+    mongoTemplate
+        .findDistinct(new Query(), "_id", OwnerStats.class, String.class)
+        .forEach(scopes::add);
+
+    List<StatsDrift> drift = new ArrayList<>();
+    for (String scope : scopes) {
+      try {
+        StatsDrift d = reconcile(scope);
+        if (d != null) {
+          drift.add(d);
+        }
+      } catch (RuntimeException e) {
+        log.warn("Could not reconcile stats for {}: {}", scope, e.getMessage());
+      }
+    }
+    if (drift.isEmpty()) {
+      log.info("Reconciled stats for {} scopes, no drift", scopes.size());
+    } else {
+      log.warn("Reconciled stats for {} scopes, corrected drift in {}", scopes.size(), drift);
+    }
+    return drift;
+  }
+
+  StatsDrift reconcile(String scope) {
+    OwnerStats stored = mongoTemplate.findById(scope, OwnerStats.class);
+    OwnerStats actual = compute(scope);
+    boolean facetsDiffer =
+        stored == null
+            ? !actual.getTags().isEmpty() || !actual.getContentTypes().isEmpty()
+            : !nonZero(stored.getTags()).equals(actual.getTags())
+                || !nonZero(stored.getContentTypes()).equals(actual.getContentTypes());
+    long storedFiles = stored == null ? 0 : stored.getFileCount();
+    long storedBytes = stored == null ? 0 : stored.getTotalBytes();
+    boolean drifted =
+        storedFiles != actual.getFileCount()
+            || storedBytes != actual.getTotalBytes()
+            || facetsDiffer;
+
+    Update replace =
+        new Update()
+            .set("fileCount", actual.getFileCount())
+            .set("totalBytes", actual.getTotalBytes())
+            .set("tags", actual.getTags())
+            .set("contentTypes", actual.getContentTypes())
+            .set("reconciledAt", new Date());
+    if (stored == null) {
+      try {
+        mongoTemplate.insert(actual);
+      } catch (DuplicateKeyException e) {
+        // An upload created the document meanwhile; the next run will compare against it.
+        return null;
+      }
+    } else {
+      // Only overwrite if no increment landed since we read the document, or it would be lost.
+      var result =
+          mongoTemplate.updateFirst(
+              Query.query(Criteria.where("_id").is(scope).and("revision").is(stored.getRevision())),
+              replace,
+              OwnerStats.class);
+      if (result.getMatchedCount() == 0) {
+        log.debug("Stats for {} changed while reconciling; retrying next run", scope);
+        return null;
+      }
+    }
+    if (!drifted) {
+      return null;
+    }
+    return new StatsDrift(
+        scope,
+        storedFiles,
+        actual.getFileCount(),
+        storedBytes,
+        actual.getTotalBytes(),
+        facetsDiffer);
+  }
+
+  private OwnerStats compute(String scope) {
+    // Raw pipeline on the catalogue's field names (see FileRecord).
+    Document match =
+        scope.equals(PUBLIC_SCOPE)
+            ? new Document("v", Visibility.PUBLIC.name())
+            : new Document("o", scope.substring(OWNER_PREFIX.length()));
+    Document facet =
+        new Document(
+                "totals",
+                List.of(
+                    new Document(
+                        "$group",
+                        new Document("_id", null)
+                            .append("n", new Document("$sum", 1))
+                            .append("bytes", new Document("$sum", "$s")))))
+            .append(
+                "tags",
+                List.of(
+                    // $setUnion de-duplicates, so a file tagged twice with a tag counts once,
+                    // matching the incremental path.
+                    new Document(
+                        "$project",
+                        new Document(
+                            "tag",
+                            new Document(
+                                "$setUnion",
+                                List.of(new Document("$ifNull", List.of("$t", List.of())))))),
+                    new Document("$unwind", "$tag"),
+                    new Document(
+                        "$group",
+                        new Document("_id", "$tag").append("n", new Document("$sum", 1)))))
+            .append(
+                "contentTypes",
+                List.of(
+                    new Document(
+                        "$group", new Document("_id", "$c").append("n", new Document("$sum", 1)))));
+    Document result =
+        mongoTemplate
+            .aggregate(
+                Aggregation.newAggregation(
+                    Aggregation.stage(new Document("$match", match)),
+                    Aggregation.stage(new Document("$facet", facet))),
+                FileRecord.COLLECTION,
+                Document.class)
+            .getUniqueMappedResult();
+
+    OwnerStats stats =
+        OwnerStats.builder()
+            .id(scope)
+            .tags(new HashMap<>())
+            .contentTypes(new HashMap<>())
+            .reconciledAt(new Date())
+            .build();
+    if (result == null) {
+      return stats;
+    }
+    List<Document> totals = result.getList("totals", Document.class);
+    if (!totals.isEmpty()) {
+      stats.setFileCount(((Number) totals.get(0).get("n")).longValue());
+      stats.setTotalBytes(((Number) totals.get(0).get("bytes")).longValue());
+    }
+    for (Document tag : result.getList("tags", Document.class)) {
+      // Catalogue tags are dictionary ids; strings are files the migration has not reached yet.
+      String value =
+          tag.get("_id") instanceof Integer id
+              ? tagDictionary.name(id)
+              : tag.get("_id") instanceof String name ? name : null;
+      if (value != null) {
+        stats.getTags().merge(encodeKey(value), ((Number) tag.get("n")).longValue(), Long::sum);
+      }
+    }
+    for (Document type : result.getList("contentTypes", Document.class)) {
+      if (type.get("_id") instanceof String value) {
+        stats.getContentTypes().put(encodeKey(value), ((Number) type.get("n")).longValue());
+      }
+    }
+    return stats;
+  }
+
+  private void apply(FileRecord record, int sign) {
+    if (record.getOwnerId() == null) {
+      return;
+    }
+    Update update =
+        new Update()
+            .inc("fileCount", sign)
+            .inc("totalBytes", sign * record.getSize())
+            .inc("revision", 1);
+    for (String tag : distinctTags(record)) {
+      update.inc("tags." + encodeKey(tag), sign);
+    }
+    if (record.getContentType() != null) {
+      update.inc("contentTypes." + encodeKey(record.getContentType()), sign);
+    }
+    mongoTemplate.upsert(
+        Query.query(Criteria.where("_id").is(ownerScope(record.getOwnerId()))),
+        update,
+        OwnerStats.class);
+    if (record.getVisibility() == Visibility.PUBLIC) {
+      mongoTemplate.upsert(
+          Query.query(Criteria.where("_id").is(PUBLIC_SCOPE)), update, OwnerStats.class);
+    }
+  }
+
+  /** Adds what {@link #apply} would increment to the per-scope sums in {@code deltas}. */
+  private static void accumulate(
+      Map<String, Map<String, Long>> deltas, FileRecord record, int sign) {
+    if (record.getOwnerId() == null) {
+      return;
+    }
+    List<String> scopes =
+        record.getVisibility() == Visibility.PUBLIC
+            ? List.of(ownerScope(record.getOwnerId()), PUBLIC_SCOPE)
+            : List.of(ownerScope(record.getOwnerId()));
+    for (String scope : scopes) {
+      Map<String, Long> counts = deltas.computeIfAbsent(scope, k -> new LinkedHashMap<>());
+      counts.merge("fileCount", (long) sign, Long::sum);
+      counts.merge("totalBytes", sign * record.getSize(), Long::sum);
+      for (String tag : distinctTags(record)) {
+        counts.merge("tags." + encodeKey(tag), (long) sign, Long::sum);
+      }
+      if (record.getContentType() != null) {
+        counts.merge("contentTypes." + encodeKey(record.getContentType()), (long) sign, Long::sum);
+      }
+    }
+  }
+
+  private void upsertAll(Map<String, Map<String, Long>> deltas) {
+    BulkOperations upserts = null;
+    for (Map.Entry<String, Map<String, Long>> scope : deltas.entrySet()) {
+      scope.getValue().values().removeIf(delta -> delta == 0);
+      if (scope.getValue().isEmpty()) {
+        continue;
+      }
+      if (upserts == null) {
+        upserts = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, OwnerStats.class);
+      }
+      upserts.upsert(
+          Query.query(Criteria.where("_id").is(scope.getKey())), increments(scope.getValue()));
+    }
+    if (upserts != null) {
+      upserts.execute();
+    }
+  }
+
+  private static Update increments(Map<String, Long> counts) {
+    Update update = new Update();
+    counts.forEach(update::inc);
+    return update.inc("revision", 1);
+  }
+
+  private static Set<String> distinctTags(FileRecord record) {
+    Set<String> tags = new LinkedHashSet<>();
+    if (record.getTags() != null) {
+      record.getTags().stream().filter(Objects::nonNull).forEach(tags::add);
+    }
+    return tags;
+  }
+
+  private static Map<String, Long> nonZero(Map<String, Long> counts) {
+    Map<String, Long> result = new HashMap<>();
+    if (counts != null) {
+      counts.forEach(
+          (k, v) -> {
+            if (v != null && v != 0) {
+              result.put(k, v);
+            }
+          });
+    }
+    return result;
+  }
+
+  private static List<FacetCount> facets(Map<String, Long> counts) {
+    return nonZero(counts).entrySet().stream()
+        .filter(e -> e.getValue() > 0)
+        .map(e -> new FacetCount(decodeKey(e.getKey()), e.getValue()))
+        .sorted(
+            Comparator.comparingLong(FacetCount::count).reversed().thenComparing(FacetCount::value))
+        .toList();
+  }
+}
@@ -0,0 +1,507 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.blob.BlobReader;
+import com.example.storage_app.blob.BlobStore;
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.blob.PackBlobStore;
+import com.example.storage_app.config.ArchiveProperties;
+import com.example.storage_app.controller.dto.ArchiveReport;
+import com.example.storage_app.exception.StorageException;
+import com.example.storage_app.model.Pack;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.result.UpdateResult;
+import jakarta.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Moves cold small files out of GridFS into {@link Pack}s. A file is cold once neither its upload
+ * nor its last download is within {@code coldAfter}; downloads record their time on the {@code
+ * fs.files} document through {@link #recordAccess}. Each run packs up to {@code filesPerRun} cold
+ * files of at most {@code maxFileSize}, back to back, into packs of about {@code packSize}: the
+ * pack is written, each member's descriptor is pointed at its offset in the pack and only then are
+ * the member's chunks removed, an interval later, so a file is always readable from one place or
+ * the other and downloads that started on the chunks can finish.
+ *
+ * <p>Deleted members stay in their pack as dead bytes. A pack whose live bytes drop below {@code
+ * compactBelow} of its size has its live members copied into a new pack and is retired; its blob is
+ * deleted a run later, once downloads that started on it have finished. A pack's counts start at
+ * zero and grow as members move in, so a run that stops half way leaves a pack that is compacted
+ * away rather than one that counts members it does not serve.
+ *
+ * <p>A run first takes a lease, one document in {@link #LEASES}, and renews it before each pack, so
+ * one run at a time packs across all nodes: two runs would pick the same cold files and the second
+ * would find their chunks gone. A run that cannot take the lease does nothing. Runs requested over
+ * HTTP go to a background thread.
+ */
+@Service
+public class PackArchiver {
+  private static final Logger log = LoggerFactory.getLogger(PackArchiver.class);
+  private static final String GRIDFS_FILES = "fs.files";
+  private static final String GRIDFS_CHUNKS = "fs.chunks";
+  private static final String PACK = "metadata." + PackBlobStore.METADATA_PACK;
+
+  /** Collection of the run lease, a single document with id {@link #LEASE_ID}. */
+  static final String LEASES = "leases";
+
+  static final String LEASE_ID = "archiver";
+
+  /** Set on a file's {@code fs.files} document by downloads. */
+  public static final String GRIDFS_ACCESSED_AT = "accessedAt";
+
+  private final MongoTemplate mongoTemplate;
+  private final BlobStores blobStores;
+  private final PackBlobStore packBlobStore;
+  private final ArchiveProperties properties;
+  private final ExecutorService runner =
+      Executors.newSingleThreadExecutor(
+          r -> {
+            Thread t = new Thread(r, "pack-archiver");
+            t.setDaemon(true);
+            return t;
+          });
+
+  public PackArchiver(
+      MongoTemplate mongoTemplate,
+      BlobStores blobStores,
+      PackBlobStore packBlobStore,
+      ArchiveProperties properties) {
+    this.mongoTemplate = mongoTemplate;
+    this.blobStores = blobStores;
+    this.packBlobStore = packBlobStore;
+    this.properties = properties;
+  }
+
+  /**
+   * Records a download on the file's {@code fs.files} document, unless one was recorded within
+   * {@code accessResolution}; a busy file costs one write a day, not one per download.
+   */
+  public void recordAccess(GridFSFile file) {
+    if (file == null || !file.getId().isObjectId()) {
+      return;
+    }
+    Date recent = new Date(System.currentTimeMillis() - properties.accessResolution().toMillis());
+    Date accessedAt =
+        file.getMetadata() == null ? null : file.getMetadata().getDate(GRIDFS_ACCESSED_AT);
+    if (accessedAt != null && accessedAt.after(recent)) {
+      return;
+    }
+    try {
+      mongoTemplate.updateFirst(
+          Query.query(
+              Criteria.where("_id")
+                  .is(file.getObjectId())
+                  .orOperator(
+                      Criteria.where("metadata." + GRIDFS_ACCESSED_AT).exists(false),
+                      Criteria.where("metadata." + GRIDFS_ACCESSED_AT).lte(recent))),
+          Update.update("metadata." + GRIDFS_ACCESSED_AT, new Date()),
+          GRIDFS_FILES);
+    } catch (DataAccessException e) {
+      log.debug("Could not record access to {}: {}", file.getObjectId(), e.getMessage());
+    }
+  }
+
+  @Scheduled(
+      fixedDelayString = "${storage.archive.interval:24h}",
+      initialDelayString = "${storage.archive.interval:24h}")
+  public void scheduledArchive() {
+    if (!properties.enabled()) {
+      return;
+    }
+    try {
+      archive();
+    } catch (RuntimeException e) {
+      log.warn("Archiving cold files failed: {}", e.getMessage());
+    }
+  }
+
+  /** Runs now; {@code null} if another run holds the lease. */
+  public ArchiveReport archive() {
+    String lease = claimLease();
+    if (lease == null) {
+      log.info("Archiver: another run holds the lease");
+      return null;
+    }
+    try {
+      return run(lease);
+    } finally {
+      releaseLease(lease);
+    }
+  }
+
+  /** Starts a run on the archiver's own thread; {@code false} if another run holds the lease. */
+  public boolean archiveInBackground() {
+    String lease = claimLease();
+    if (lease == null) {
+      return false;
+    }
+    try {
+      runner.execute(
+          () -> {
+            try {
+              run(lease);
+            } catch (RuntimeException e) {
+              log.warn("Archiving cold files failed: {}", e.getMessage());
+            } finally {
+              releaseLease(lease);
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      releaseLease(lease);
+      throw e;
+    }
+    return true;
+  }
+
+  @PreDestroy
+  public void shutdown() {
+    runner.shutdownNow();
+  }
+
+  private ArchiveReport run(String lease) {
+    long[] deleted = deleteRetired(lease);
+    removePackedChunks(lease);
+    long[] packed;
+    long[] compacted;
+    try {
+      packed = packColdFiles(lease);
+      compacted = compact(lease);
+    } catch (IOException e) {
+      throw new StorageException("Could not write a pack", e);
+    }
+    ArchiveReport report =
+        new ArchiveReport(
+            packed[0], packed[1] + compacted[1], compacted[0], deleted[0], deleted[1]);
+    log.info("Archiver: {}", report);
+    return report;
+  }
+
+  /**
+   * Takes the lease if it is free or has expired and returns the id this run holds it under, or
+   * {@code null} when another run holds it: the upsert then tries to insert a second document with
+   * the same id.
+   */
+  private String claimLease() {
+    String holder = new ObjectId().toHexString();
+    Date now = new Date();
+    try {
+      mongoTemplate.upsert(
+          Query.query(Criteria.where("_id").is(LEASE_ID).and("until").lte(now)),
+          new Update()
+              .set("holder", holder)
+              .set("until", new Date(now.getTime() + properties.lease().toMillis())),
+          LEASES);
+      return holder;
+    } catch (DuplicateKeyException e) {
+      return null;
+    }
+  }
+
+  /** Extends the lease; stops the run if it expired and another run has taken it since. */
+  private void renewLease(String holder) {
+    UpdateResult renewed =
+        mongoTemplate.updateFirst(
+            Query.query(Criteria.where("_id").is(LEASE_ID).and("holder").is(holder)),
+            Update.update(
+                "until", new Date(System.currentTimeMillis() + properties.lease().toMillis())),
+            LEASES);
+    if (renewed.getMatchedCount() == 0) {
+      throw new StorageException("Archiver lease lost; stopping this run");
+    }
+  }
+
+  private void releaseLease(String holder) {
+    try {
+      mongoTemplate.remove(
+          Query.query(Criteria.where("_id").is(LEASE_ID).and("holder").is(holder)), LEASES);
+    } catch (DataAccessException e) {
+      log.warn("Could not release the archiver lease, it expires by itself: {}", e.getMessage());
+    }
+  }
+
+  /** Deletes packs retired at least an interval ago; returns how many and their bytes. */
+  private long[] deleteRetired(String lease) {
+    Date settled = new Date(System.currentTimeMillis() - properties.interval().toMillis());
+    long[] deleted = new long[2];
+    for (Pack pack :
+        mongoTemplate.find(Query.query(Criteria.where("retiredAt").lte(settled)), Pack.class)) {
+      renewLease(lease);
+      packBlobStore.holder(pack.getStore()).delete(pack.getId());
+      mongoTemplate.remove(Query.query(Criteria.where("_id").is(pack.getId())), Pack.class);
+      deleted[0]++;
+      deleted[1] += pack.getLength();
+    }
+    return deleted;
+  }
+
+  /**
+   * Removes the GridFS chunks of files packed at least an interval ago, when downloads that started
+   * on them before the files moved have finished. Runs before {@link #compact}, which moves the
+   * members of those same packs on.
+   */
+  private void removePackedChunks(String lease) {
+    Date settled = new Date(System.currentTimeMillis() - properties.interval().toMillis());
+    for (Pack pack :
+        mongoTemplate.find(
+            Query.query(Criteria.where("pendingChunks").exists(true).and("createdAt").lte(settled)),
+            Pack.class)) {
+      renewLease(lease);
+      mongoTemplate.remove(
+          Query.query(Criteria.where("files_id").in(pack.getPendingChunks())), GRIDFS_CHUNKS);
+      mongoTemplate.updateFirst(
+          Query.query(Criteria.where("_id").is(pack.getId())),
+          new Update().unset("pendingChunks"),
+          Pack.class);
+    }
+  }
+
+  /** Packs cold GridFS files; returns how many files and how many packs. */
+  private long[] packColdFiles(String lease) throws IOException {
+    Date coldBefore = new Date(System.currentTimeMillis() - properties.coldAfter().toMillis());
+    String accessedAt = "metadata." + GRIDFS_ACCESSED_AT;
+    // Served by archive_candidates_idx: files still in GridFS, oldest first.
+    Document cold =
+        new Document("metadata." + BlobStores.METADATA_STORE, null)
+            .append("uploadDate", new Document("$lt", coldBefore))
+            .append("length", new Document("$lte", properties.maxFileSize().toBytes()))
+            .append("metadata." + TrashService.GRIDFS_DELETED_AT, new Document("$exists", false))
+            .append(
+                "$or",
+                List.of(
+                    new Document(accessedAt, new Document("$exists", false)),
+                    new Document(accessedAt, new Document("$lt", coldBefore))));
+    BlobReader gridFs = blobStores.named(null);
+    long packSize = properties.packSize().toBytes();
+    long[] packed = new long[2];
+    List<Member> batch = new ArrayList<>();
+    long batchBytes = 0;
+    try (MongoCursor<Document> files =
+        mongoTemplate
+            .getCollection(GRIDFS_FILES)
+            .find(cold)
+            .projection(new Document("length", 1))
+            .limit(Math.max(1, properties.filesPerRun()))
+            .batchSize(1000)
+            .iterator()) {
+      while (files.hasNext()) {
+        Document file = files.next();
+        long length = ((Number) file.get("length")).longValue();
+        if (!batch.isEmpty() && batchBytes + length > packSize) {
+          packed[0] += writePack(batch, gridFs, null, lease);
+          packed[1]++;
+          batch.clear();
+          batchBytes = 0;
+        }
+        batch.add(new Member(file.getObjectId("_id"), length, 0));
+        batchBytes += length;
+      }
+    }
+    if (!batch.isEmpty()) {
+      packed[0] += writePack(batch, gridFs, null, lease);
+      packed[1]++;
+    }
+    return packed;
+  }
+
+  /** Rewrites packs with too few live bytes; returns how many and how many packs were written. */
+  private long[] compact(String lease) throws IOException {
+    // Packs younger than an interval may still be filling up.
+    Date settled = new Date(System.currentTimeMillis() - properties.interval().toMillis());
+    long[] compacted = new long[2];
+    for (Pack pack :
+        mongoTemplate.find(
+            Query.query(Criteria.where("retiredAt").exists(false).and("createdAt").lte(settled)),
+            Pack.class)) {
+      if (pack.getLiveBytes() >= pack.getLength() * properties.compactBelow()) {
+        continue;
+      }
+      List<Member> members = new ArrayList<>();
+      mongoTemplate
+          .getCollection(GRIDFS_FILES)
+          .find(new Document(PACK, pack.getId()))
+          .projection(
+              new Document("length", 1).append("metadata." + PackBlobStore.METADATA_PACK_OFFSET, 1))
+          .forEach(
+              file ->
+                  members.add(
+                      new Member(
+                          file.getObjectId("_id"),
+                          ((Number) file.get("length")).longValue(),
+                          ((Number)
+                                  file.get("metadata", Document.class)
+                                      .get(PackBlobStore.METADATA_PACK_OFFSET))
+                              .longValue())));
+      if (!members.isEmpty()) {
+        // Read the old pack front to back.
+        members.sort((a, b) -> Long.compare(a.offset(), b.offset()));
+        writePack(members, packBlobStore.holder(pack.getStore()), pack.getId(), lease);
+        compacted[1]++;
+      }
+      mongoTemplate.updateFirst(
+          Query.query(Criteria.where("_id").is(pack.getId())),
+          Update.update("retiredAt", new Date()),
+          Pack.class);
+      compacted[0]++;
+    }
+    return compacted;
+  }
+
+  /**
+   * Writes the members, read from {@code source}, into a new pack and moves their descriptors to
+   * it. With a {@code fromPack} the members are read from that pack at their offsets and only
+   * descriptors still pointing at it move; otherwise they are read from GridFS, only files still in
+   * GridFS and not deleted move, and their chunks are left for {@link #removePackedChunks}. Returns
+   * how many moved.
+   */
+  private int writePack(List<Member> members, BlobReader source, ObjectId fromPack, String lease)
+      throws IOException {
+    renewLease(lease);
+    BlobStore holder = packBlobStore.packStore();
+    ObjectId packId = new ObjectId();
+    long length = members.stream().mapToLong(Member::length).sum();
+    mongoTemplate.insert(
+        Pack.builder()
+            .id(packId)
+            .store(holder.name())
+            .length(length)
+            .members(members.size())
+            .createdAt(new Date())
+            .build());
+    try (InputStream content = new PackInputStream(members, source, fromPack)) {
+      holder.put(
+          packId,
+          "pack-" + packId,
+          "application/octet-stream",
+          new Document("members", members.size()),
+          content);
+    }
+
+    BulkOperations moves = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, GRIDFS_FILES);
+    long offset = 0;
+    for (Member member : members) {
+      Criteria current = Criteria.where("_id").is(member.id());
+      if (fromPack == null) {
+        current
+            .and("metadata." + BlobStores.METADATA_STORE)
+            .is(null)
+            .and("metadata." + TrashService.GRIDFS_DELETED_AT)
+            .exists(false);
+      } else {
+        current.and(PACK).is(fromPack);
+      }
+      moves.updateOne(
+          Query.query(current),
+          new Update()
+              .set("metadata." + BlobStores.METADATA_STORE, PackBlobStore.NAME)
+              .set(PACK, packId)
+              .set("metadata." + PackBlobStore.METADATA_PACK_STORE, holder.name())
+              .set("metadata." + PackBlobStore.METADATA_PACK_OFFSET, offset)
+              .set("chunkSize", 0));
+      offset += member.length();
+    }
+    moves.execute();
+
+    List<ObjectId> moved = new ArrayList<>();
+    long[] liveBytes = new long[1];
+    mongoTemplate
+        .getCollection(GRIDFS_FILES)
+        .find(new Document(PACK, packId))
+        .projection(new Document("length", 1))
+        .forEach(
+            file -> {
+              moved.add(file.getObjectId("_id"));
+              liveBytes[0] += ((Number) file.get("length")).longValue();
+            });
+    Update counts = new Update().set("liveMembers", moved.size()).set("liveBytes", liveBytes[0]);
+    if (fromPack == null && !moved.isEmpty()) {
+      counts.set("pendingChunks", moved);
+    }
+    mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(packId)), counts, Pack.class);
+    return moved.size();
+  }
+
+  /** A file to pack: its id, its length and where it starts in its source. */
+  record Member(ObjectId id, long length, long offset) {}
+
+  /**
+   * The members' content back to back, each opened when the previous one ends. A member that is
+   * shorter than its recorded length fails the pack rather than shift the offsets after it.
+   */
+  static final class PackInputStream extends InputStream {
+    private final List<Member> members;
+    private final BlobReader source;
+    private final ObjectId fromPack;
+    private int next;
+    private InputStream current;
+    private long remaining;
+
+    PackInputStream(List<Member> members, BlobReader source, ObjectId fromPack) {
+      this.members = members;
+      this.source = source;
+      this.fromPack = fromPack;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (true) {
+        if (current == null) {
+          if (next == members.size()) {
+            return -1;
+          }
+          Member member = members.get(next++);
+          current =
+              fromPack == null
+                  ? source.get(member.id(), 0, member.length())
+                  : source.get(fromPack, member.offset(), member.length());
+          remaining = member.length();
+        }
+        int n = remaining == 0 ? -1 : current.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) {
+          remaining -= n;
+          return n;
+        }
+        if (remaining > 0) {
+          throw new IOException("Content of " + members.get(next - 1).id() + " ended early");
+        }
+        current.close();
+        current = null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (current != null) {
+        current.close();
+      }
+    }
+  }
+}
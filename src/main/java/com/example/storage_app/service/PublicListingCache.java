@@ -0,0 +1,231 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.config.ListingProperties;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.Visibility;
+import com.mongodb.MongoCommandException;
+import com.mongodb.client.ChangeStreamIterable;
+import com.mongodb.client.MongoChangeStreamCursor;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import jakarta.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.stereotype.Component;
+
+/**
+ * Serialized responses of anonymous PUBLIC listings, kept coherent by a change stream on the file
+ * catalogue rather than a TTL: any change that can alter a PUBLIC listing drops every entry, so
+ * each node serves hits without querying MongoDB and stops doing so as soon as it sees a write.
+ *
+ * <p>Entries are only served while the change stream is open. A response computed before an
+ * invalidation is never stored after it: {@link #put} only accepts entries computed under the
+ * current {@link #generation()}.
+ */
+@Component
+public class PublicListingCache {
+  private static final Logger log = LoggerFactory.getLogger(PublicListingCache.class);
+  private static final int CHANGE_STREAM_HISTORY_LOST = 286;
+
+  /** Catalogue field of {@link FileRecord#getVisibility()}. */
+  private static final String VISIBILITY_FIELD = "v";
+
+  public record Entry(byte[] body, String contentType) {}
+
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong generation = new AtomicLong();
+  private final MongoTemplate mongoTemplate;
+  private final ListingProperties properties;
+  private volatile boolean live;
+  private volatile boolean running;
+  private Thread watcher;
+
+  public PublicListingCache(MongoTemplate mongoTemplate, ListingProperties properties) {
+    this.mongoTemplate = mongoTemplate;
+    this.properties = properties;
+  }
+
+  /** Joins the listing's request parameters, in a fixed order, into a cache key. */
+  public static String key(String... params) {
+    return Stream.of(params).map(v -> v == null ? "" : v).collect(Collectors.joining("|"));
+  }
+
+  /** Whether entries may be served and stored: enabled and the change stream is open. */
+  public boolean isServing() {
+    return properties.publicCacheEnabled() && live;
+  }
+
+  /** Read before computing a response and handed back to {@link #put}. */
+  public long generation() {
+    return generation.get();
+  }
+
+  public Entry get(String key) {
+    return isServing() ? entries.get(key) : null;
+  }
+
+  /** Stores a response unless anything was invalidated since {@code generation} was read. */
+  public void put(String key, long generation, Entry entry) {
+    if (!isServing()) {
+      return;
+    }
+    if (entries.size() >= properties.publicCacheMaxEntries()) {
+      entries.clear();
+    }
+    entries.put(key, entry);
+    // An invalidation may have run between the caller's read and the put; undo the put then.
+    if (this.generation.get() != generation) {
+      entries.remove(key, entry);
+    }
+  }
+
+  public void invalidateAll() {
+    generation.incrementAndGet();
+    entries.clear();
+  }
+
+  @EventListener(ApplicationReadyEvent.class)
+  public void start() {
+    if (!properties.publicCacheEnabled() || watcher != null) {
+      return;
+    }
+    running = true;
+    watcher = new Thread(this::watch, "public-listing-watch");
+    watcher.setDaemon(true);
+    watcher.start();
+  }
+
+  @PreDestroy
+  public void stop() {
+    running = false;
+    live = false;
+    if (watcher != null) {
+      watcher.interrupt();
+    }
+  }
+
+  private void watch() {
+    BsonDocument resumeToken = null;
+    boolean warned = false;
+    while (running) {
+      try (MongoChangeStreamCursor<ChangeStreamDocument<Document>> cursor = open(resumeToken)) {
+        opened();
+        warned = false;
+        while (running) {
+          ChangeStreamDocument<Document> event = cursor.tryNext();
+          resumeToken = event != null ? event.getResumeToken() : cursor.getResumeToken();
+          if (event != null && !onChange(event)) {
+            // The collection was dropped or renamed; this stream cannot be resumed.
+            resumeToken = null;
+            break;
+          }
+        }
+      } catch (RuntimeException e) {
+        // Includes interruption on shutdown, surfaced by the driver as a MongoException.
+        closed();
+        if (e instanceof MongoCommandException command
+            && command.getErrorCode() == CHANGE_STREAM_HISTORY_LOST) {
+          resumeToken = null;
+        }
+        if (!running) {
+          return;
+        }
+        if (warned) {
+          log.debug("Public listing change stream still unavailable: {}", e.getMessage());
+        } else {
+          log.warn("Public listing cache bypassed, change stream failed: {}", e.getMessage());
+          warned = true;
+        }
+        try {
+          TimeUnit.MILLISECONDS.sleep(properties.publicCacheRetryDelay().toMillis());
+        } catch (InterruptedException interrupted) {
+          return;
+        }
+      }
+    }
+    closed();
+  }
+
+  /** The change stream is open: from here on every change is seen. */
+  void opened() {
+    // Anything cached before the stream was open may have missed an event.
+    invalidateAll();
+    live = true;
+    log.info("Public listing cache live");
+  }
+
+  /** Applies one change; {@code false} once the stream is invalidated and has to be reopened. */
+  boolean onChange(ChangeStreamDocument<Document> event) {
+    if (affectsPublicListings(event)) {
+      invalidateAll();
+    }
+    if (event.getOperationType() == OperationType.INVALIDATE) {
+      closed();
+      return false;
+    }
+    return true;
+  }
+
+  /** Changes are no longer seen, so nothing may be served. */
+  void closed() {
+    live = false;
+    invalidateAll();
+  }
+
+  private MongoChangeStreamCursor<ChangeStreamDocument<Document>> open(BsonDocument resumeToken) {
+    ChangeStreamIterable<Document> stream =
+        mongoTemplate
+            .getCollection(FileRecord.COLLECTION)
+            .watch()
+            .fullDocument(FullDocument.UPDATE_LOOKUP)
+            .maxAwaitTime(1, TimeUnit.SECONDS);
+    if (resumeToken != null) {
+      stream.resumeAfter(resumeToken);
+    }
+    return stream.cursor();
+  }
+
+  /**
+   * Whether a change can alter some PUBLIC listing. Only changes provably confined to PRIVATE files
+   * are ignored: inserts of PRIVATE files and updates of PRIVATE files that leave visibility alone.
+   * Deletes carry no document, so they always count.
+   */
+  static boolean affectsPublicListings(ChangeStreamDocument<Document> event) {
+    Document file = event.getFullDocument();
+    boolean isPublic =
+        file != null && Visibility.PUBLIC.name().equals(file.getString(VISIBILITY_FIELD));
+    return switch (event.getOperationType()) {
+      case INSERT -> file == null || isPublic;
+      case UPDATE -> file == null || isPublic || touchesVisibility(event.getUpdateDescription());
+      default -> true;
+    };
+  }
+
+  private static boolean touchesVisibility(UpdateDescription update) {
+    if (update == null) {
+      return true;
+    }
+    List<String> fields = new ArrayList<>();
+    if (update.getUpdatedFields() != null) {
+      fields.addAll(update.getUpdatedFields().keySet());
+    }
+    if (update.getRemovedFields() != null) {
+      fields.addAll(update.getRemovedFields());
+    }
+    return fields.contains(VISIBILITY_FIELD);
+  }
+}
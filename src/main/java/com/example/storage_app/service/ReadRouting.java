@@ -0,0 +1,288 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.config.OperationTimeListener;
+import com.example.storage_app.config.OperationTimeListener.WriteTime;
+import com.example.storage_app.config.ReadRoutingProperties;
+import com.example.storage_app.model.FileRecord;
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.gridfs.GridFSBucket;
+import com.mongodb.client.gridfs.GridFSBuckets;
+import com.mongodb.client.gridfs.GridFSFindIterable;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOptions;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsResource;
+import org.springframework.stereotype.Component;
+
+/**
+ * Routes reads per endpoint: listings, search and export on the listing read preference, downloads
+ * on the download one, each with its own server-side time budget.
+ *
+ * <p>Secondaries may lag, so an owner's reads shortly after that owner's own write run in a
+ * causally consistent session advanced to the write's cluster time: whichever member serves them
+ * first waits until it has applied the write. Write times are kept in memory per node, like the
+ * other listing caches.
+ *
+ * <p>Anonymous listings stay on the primary while the {@link PublicListingCache} may store them: a
+ * response read from a secondary that has not applied the change that invalidated the cache would
+ * be cached under the new generation and served until the next PUBLIC change.
+ */
+@Component
+public class ReadRouting {
+  private record OwnerWrite(WriteTime time, long atNanos) {}
+
+  private final ConcurrentHashMap<String, OwnerWrite> ownerWrites = new ConcurrentHashMap<>();
+  private final MongoTemplate mongoTemplate;
+  private final ReadRoutingProperties properties;
+  private final OperationTimeListener operationTimes;
+  private final PublicListingCache publicListingCache;
+  private final LongSupplier nanoClock;
+  private final ReadPreference listingPreference;
+  private final ReadPreference downloadPreference;
+
+  @Autowired
+  public ReadRouting(
+      MongoTemplate mongoTemplate,
+      ReadRoutingProperties properties,
+      OperationTimeListener operationTimes,
+      PublicListingCache publicListingCache) {
+    this(mongoTemplate, properties, operationTimes, publicListingCache, System::nanoTime);
+  }
+
+  ReadRouting(
+      MongoTemplate mongoTemplate,
+      ReadRoutingProperties properties,
+      OperationTimeListener operationTimes,
+      PublicListingCache publicListingCache,
+      LongSupplier nanoClock) {
+    this.mongoTemplate = mongoTemplate;
+    this.properties = properties;
+    this.operationTimes = operationTimes;
+    this.publicListingCache = publicListingCache;
+    this.nanoClock = nanoClock;
+    this.listingPreference =
+        readPreference(properties.listingReadPreference(), properties.maxStaleness());
+    this.downloadPreference =
+        readPreference(properties.downloadReadPreference(), properties.maxStaleness());
+  }
+
+  static ReadPreference readPreference(String name, Duration maxStaleness) {
+    if (name.equalsIgnoreCase("primary")
+        || maxStaleness == null
+        || maxStaleness.isZero()
+        || maxStaleness.isNegative()) {
+      return ReadPreference.valueOf(name);
+    }
+    return ReadPreference.valueOf(name, List.of(), maxStaleness.toMillis(), TimeUnit.MILLISECONDS);
+  }
+
+  /** Call after an owner's writes, on the thread that made them. */
+  public void recordWrite(String userId) {
+    WriteTime time = operationTimes.lastWrite();
+    if (userId == null || time == null) {
+      return;
+    }
+    long now = nanoClock.getAsLong();
+    if (ownerWrites.size() >= properties.causalMaxOwners()) {
+      ownerWrites.values().removeIf(w -> expired(w, now));
+      if (ownerWrites.size() >= properties.causalMaxOwners()) {
+        ownerWrites.clear();
+      }
+    }
+    ownerWrites.put(userId, new OwnerWrite(time, now));
+  }
+
+  public Reads listings(String userId) {
+    if (userId == null && publicListingCache.isServing()) {
+      return new Reads(mongoTemplate, ReadPreference.primary(), properties.listingMaxTime(), null);
+    }
+    return reads(userId, listingPreference, properties.listingMaxTime());
+  }
+
+  public Reads search(String userId) {
+    return reads(userId, listingPreference, properties.searchMaxTime());
+  }
+
+  public Reads export(String userId) {
+    return reads(userId, listingPreference, properties.exportMaxTime());
+  }
+
+  /**
+   * Download reads share one causally consistent session, so the file's chunks are read from a
+   * member that has at least the state its lookup, on the primary, saw.
+   */
+  public Reads downloads() {
+    ClientSession session =
+        downloadPreference.equals(ReadPreference.primary()) ? null : startSession();
+    return new Reads(mongoTemplate, downloadPreference, properties.downloadMaxTime(), session);
+  }
+
+  private Reads reads(String userId, ReadPreference preference, Duration maxTime) {
+    OwnerWrite write = userId == null ? null : ownerWrites.get(userId);
+    if (write == null || expired(write, nanoClock.getAsLong())) {
+      return new Reads(mongoTemplate, preference, maxTime, null);
+    }
+    ClientSession session = startSession();
+    session.advanceClusterTime(write.time().clusterTime());
+    session.advanceOperationTime(write.time().operationTime());
+    return new Reads(mongoTemplate, preference, maxTime, session);
+  }
+
+  private ClientSession startSession() {
+    return mongoTemplate
+        .getMongoDatabaseFactory()
+        .getSession(ClientSessionOptions.builder().causallyConsistent(true).build());
+  }
+
+  private boolean expired(OwnerWrite write, long now) {
+    return now - write.atNanos() > properties.causalWindow().toNanos();
+  }
+
+  /** Reads of one request: where they go, how long they may run and the session they share. */
+  public static final class Reads implements AutoCloseable {
+    private final MongoTemplate mongoTemplate;
+    private final MongoOperations operations;
+    private final ReadPreference preference;
+    private final Duration maxTime;
+    private final ClientSession session;
+    private boolean sessionHandedOff;
+
+    Reads(
+        MongoTemplate mongoTemplate,
+        ReadPreference preference,
+        Duration maxTime,
+        ClientSession session) {
+      this.mongoTemplate = mongoTemplate;
+      this.operations = session == null ? mongoTemplate : mongoTemplate.withSession(session);
+      this.preference = preference;
+      this.maxTime = maxTime;
+      this.session = session;
+    }
+
+    /** Template for these reads; bound to the session when there is one. */
+    public MongoOperations operations() {
+      return operations;
+    }
+
+    /** Applies the read preference and time budget to {@code query}. */
+    public Query query(Query query) {
+      query.withReadPreference(preference);
+      if (hasMaxTime()) {
+        query.maxTime(maxTime);
+      }
+      return query;
+    }
+
+    public AggregationOptions aggregationOptions() {
+      AggregationOptions.Builder options = AggregationOptions.builder().readPreference(preference);
+      if (hasMaxTime()) {
+        options.maxTime(maxTime);
+      }
+      return options.build();
+    }
+
+    /** The file catalogue as raw BSON, on the read preference; apply {@link #maxTimeMillis()}. */
+    public MongoCollection<RawBsonDocument> rawFiles() {
+      return operations
+          .getCollection(FileRecord.COLLECTION)
+          .withDocumentClass(RawBsonDocument.class)
+          .withReadPreference(preference);
+    }
+
+    /** The time budget in milliseconds, zero for none (the driver's convention). */
+    public long maxTimeMillis() {
+      return hasMaxTime() ? maxTime.toMillis() : 0;
+    }
+
+    /** A file by its download token, from the primary so a deleted file is not found. */
+    public Optional<FileRecord> findByToken(String token) {
+      Query query = query(Query.query(Criteria.where("token").is(token)));
+      return Optional.ofNullable(
+          operations.findOne(query.withReadPreference(ReadPreference.primary()), FileRecord.class));
+    }
+
+    /** A GridFS file, from the primary so a deleted or trashed file is seen as such. */
+    public GridFSFile findFile(Bson filter) {
+      return find(bucket(ReadPreference.primary()), filter);
+    }
+
+    /**
+     * Opens the file's content. The stream takes over the session and ends it when closed, so the
+     * chunks are read with the same causal guarantees as the lookup.
+     */
+    public GridFsResource open(GridFSFile file) {
+      return open(file, "fs");
+    }
+
+    /** Opens the file's content from the chunks of another bucket, e.g. a GridFS stripe. */
+    public GridFsResource open(GridFSFile file, String bucketName) {
+      GridFSBucket bucket = bucket(bucketName, preference);
+      InputStream content =
+          session == null
+              ? bucket.openDownloadStream(file.getId())
+              : bucket.openDownloadStream(session, file.getId());
+      if (session != null) {
+        sessionHandedOff = true;
+        content =
+            new FilterInputStream(content) {
+              @Override
+              public void close() throws IOException {
+                try {
+                  super.close();
+                } finally {
+                  session.close();
+                }
+              }
+            };
+      }
+      return new GridFsResource(file, content);
+    }
+
+    private GridFSFile find(GridFSBucket bucket, Bson filter) {
+      GridFSFindIterable files =
+          session == null ? bucket.find(filter) : bucket.find(session, filter);
+      if (hasMaxTime()) {
+        files.maxTime(maxTime.toMillis(), TimeUnit.MILLISECONDS);
+      }
+      return files.first();
+    }
+
+    private GridFSBucket bucket(ReadPreference readPreference) {
+      return bucket("fs", readPreference);
+    }
+
+    private GridFSBucket bucket(String bucketName, ReadPreference readPreference) {
+      return GridFSBuckets.create(mongoTemplate.getDb(), bucketName)
+          .withReadPreference(readPreference);
+    }
+
+    private boolean hasMaxTime() {
+      return maxTime != null && !maxTime.isZero() && !maxTime.isNegative();
+    }
+
+    @Override
+    public void close() {
+      if (session != null && !sessionHandedOff) {
+        session.close();
+      }
+    }
+  }
+}
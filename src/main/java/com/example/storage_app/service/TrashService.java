@@ -0,0 +1,251 @@
+package com.example.storage_app.service;
+
+import com.example.storage_app.blob.BlobReader;
+import com.example.storage_app.blob.BlobStore;
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.config.TrashProperties;
+import com.example.storage_app.exception.FileAlreadyExistsException;
+import com.example.storage_app.exception.ResourceNotFoundException;
+import com.example.storage_app.exception.StorageException;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.TrashedFile;
+import java.util.Date;
+import java.util.List;
+import java.util.Optional;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * Deleted files: a delete moves the catalogue entry to {@link TrashedFile#COLLECTION} and marks the
+ * GridFS file, which takes the same few writes whatever the file's size, and hides it from
+ * listings, search and downloads at once. The file can be restored until its {@code purgeAt}; after
+ * that the reaper removes its chunks in batches of {@code chunkBatchSize} consecutive chunk
+ * numbers, pausing between batches, then the GridFS file and its derivatives. Content held in
+ * another {@link BlobStore} is deleted there in one call instead of the chunk batches.
+ *
+ * <p>A restore removes the trash entry before putting the catalogue entry back and the reaper
+ * claims an entry before purging it, so the two never work on the same file. If {@link #trash}
+ * stops between its writes the file is still catalogued; the reaper then drops the trash entry and
+ * leaves the content alone. A single-file delete removes the catalogue entry first, in the same
+ * step that checks its owner and version, and then calls {@link #trashRemoved}.
+ */
+@Service
+public class TrashService {
+  private static final Logger log = LoggerFactory.getLogger(TrashService.class);
+  static final String GRIDFS_FILES = "fs.files";
+  static final String GRIDFS_CHUNKS = "fs.chunks";
+
+  /** Set on a deleted file's {@code fs.files} document; downloads by GridFS id check it. */
+  public static final String GRIDFS_DELETED_AT = "deletedAt";
+
+  private final MongoTemplate mongoTemplate;
+  private final DerivativeService derivativeService;
+  private final TrashProperties properties;
+  private final BlobStores blobStores;
+
+  public TrashService(
+      MongoTemplate mongoTemplate,
+      DerivativeService derivativeService,
+      TrashProperties properties,
+      BlobStores blobStores) {
+    this.mongoTemplate = mongoTemplate;
+    this.derivativeService = derivativeService;
+    this.properties = properties;
+    this.blobStores = blobStores;
+  }
+
+  /** Moves the files to the trash and returns when they will be purged. */
+  public Date trash(List<FileRecord> records) {
+    Date purgeAt = trashRemoved(records);
+    if (!records.isEmpty()) {
+      List<Object> ids = records.stream().map(r -> contentId(r.getId())).toList();
+      mongoTemplate.remove(Query.query(Criteria.where("_id").in(ids)), FileRecord.class);
+    }
+    return purgeAt;
+  }
+
+  /**
+   * Puts files whose catalogue entries the caller has already removed into the trash and returns
+   * when they will be purged. Should this stop before its writes, the content is left without any
+   * entry and the scavenger purges it without a retention period.
+   */
+  public Date trashRemoved(List<FileRecord> records) {
+    Date now = new Date();
+    Date purgeAt = new Date(now.getTime() + properties.retention().toMillis());
+    if (records.isEmpty()) {
+      return purgeAt;
+    }
+    List<Object> ids = records.stream().map(r -> contentId(r.getId())).toList();
+    // Replaced rather than inserted: an earlier delete of the same file may have stopped before
+    // removing the catalogue entry and left its trash entry behind.
+    BulkOperations entries =
+        mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TrashedFile.COLLECTION);
+    for (FileRecord record : records) {
+      Document entry = new Document();
+      mongoTemplate.getConverter().write(record, entry);
+      entry.append("x", now).append("p", purgeAt).append("r", false);
+      entries.replaceOne(
+          Query.query(Criteria.where("_id").is(entry.get("_id"))),
+          entry,
+          FindAndReplaceOptions.options().upsert());
+    }
+    entries.execute();
+    mongoTemplate.updateMulti(
+        Query.query(Criteria.where("_id").in(ids)),
+        Update.update("metadata." + GRIDFS_DELETED_AT, now),
+        GRIDFS_FILES);
+    return purgeAt;
+  }
+
+  public Optional<TrashedFile> find(String fileId) {
+    return Optional.ofNullable(
+        mongoTemplate.findOne(
+            Query.query(Criteria.where("filename").is(fileId)), TrashedFile.class));
+  }
+
+  /**
+   * Puts a trashed file back into the catalogue.
+   *
+   * @throws ResourceNotFoundException if it is past its retention or already being purged
+   * @throws FileAlreadyExistsException if the owner has since stored a file under the same name or
+   *     with the same content
+   */
+  public FileRecord restore(TrashedFile trashed) {
+    Document entry =
+        mongoTemplate.findAndRemove(
+            Query.query(
+                Criteria.where("_id")
+                    .is(contentId(trashed.getId()))
+                    .and("r")
+                    .is(false)
+                    .and("p")
+                    .gt(new Date())),
+            Document.class,
+            TrashedFile.COLLECTION);
+    if (entry == null) {
+      throw new ResourceNotFoundException("File is no longer restorable: " + trashed.getFilename());
+    }
+    FileRecord record = mongoTemplate.getConverter().read(FileRecord.class, entry);
+    try {
+      mongoTemplate.insert(record);
+    } catch (DuplicateKeyException e) {
+      mongoTemplate.insert(entry, TrashedFile.COLLECTION);
+      throw new FileAlreadyExistsException(
+          "A file with the name '"
+              + record.getOriginalFilename()
+              + "' or the same content already exists for this user.",
+          e);
+    }
+    mongoTemplate.updateFirst(
+        Query.query(Criteria.where("_id").is(contentId(record.getId()))),
+        new Update().unset("metadata." + GRIDFS_DELETED_AT),
+        GRIDFS_FILES);
+    return record;
+  }
+
+  @Scheduled(
+      fixedDelayString = "${storage.trash.reap-interval:1m}",
+      initialDelayString = "${storage.trash.reap-interval:1m}")
+  public void scheduledReap() {
+    try {
+      int purged = reap();
+      if (purged > 0) {
+        log.info("Purged {} deleted files", purged);
+      }
+    } catch (RuntimeException e) {
+      log.warn("Purging deleted files failed: {}", e.getMessage());
+    }
+  }
+
+  /** Purges up to {@code reapBatchSize} files past their retention; returns how many. */
+  public int reap() {
+    int purged = 0;
+    while (purged < properties.reapBatchSize()) {
+      // Entries already claimed are picked up again: their reaper stopped before finishing.
+      TrashedFile claimed =
+          mongoTemplate.findAndModify(
+              Query.query(Criteria.where("purgeAt").lte(new Date()))
+                  .with(Sort.by(Sort.Direction.ASC, "purgeAt")),
+              Update.update("reaping", true),
+              FindAndModifyOptions.options().returnNew(true),
+              TrashedFile.class);
+      if (claimed == null) {
+        break;
+      }
+      purge(claimed);
+      purged++;
+    }
+    return purged;
+  }
+
+  private void purge(TrashedFile trashed) {
+    Object id = contentId(trashed.getId());
+    Query byId = Query.query(Criteria.where("_id").is(id));
+    if (mongoTemplate.exists(byId, FileRecord.class)) {
+      log.warn("Deleted file {} is still catalogued; keeping its content", trashed.getFilename());
+      mongoTemplate.updateFirst(
+          byId, new Update().unset("metadata." + GRIDFS_DELETED_AT), GRIDFS_FILES);
+      mongoTemplate.remove(byId, TrashedFile.class);
+      return;
+    }
+    Document file = mongoTemplate.findOne(byId, Document.class, GRIDFS_FILES);
+    BlobReader external =
+        file == null ? null : blobStores.external(file.get("metadata", Document.class));
+    if (external != null && id instanceof ObjectId objectId) {
+      external.delete(objectId);
+    } else if (file != null) {
+      long length = ((Number) file.get("length")).longValue();
+      int chunkSize = ((Number) file.get("chunkSize")).intValue();
+      deleteChunks(id, chunkSize > 0 ? (length + chunkSize - 1) / chunkSize : 0);
+    }
+    // Catches chunks past the recorded length, and all of them if fs.files was already gone.
+    mongoTemplate.remove(Query.query(Criteria.where("files_id").is(id)), GRIDFS_CHUNKS);
+    mongoTemplate.remove(byId, GRIDFS_FILES);
+    if (id instanceof ObjectId objectId) {
+      derivativeService.deleteFor(objectId);
+    }
+    mongoTemplate.remove(byId, TrashedFile.class);
+  }
+
+  /** Deletes chunks {@code 0..chunks-1} by ranges of {@code n}, which the chunk index serves. */
+  private void deleteChunks(Object filesId, long chunks) {
+    int batch = Math.max(1, properties.chunkBatchSize());
+    for (long from = 0; from < chunks; from += batch) {
+      mongoTemplate.remove(
+          Query.query(Criteria.where("files_id").is(filesId).and("n").gte(from).lt(from + batch)),
+          GRIDFS_CHUNKS);
+      pause();
+    }
+  }
+
+  private void pause() {
+    long millis = properties.chunkBatchPause().toMillis();
+    if (millis <= 0) {
+      return;
+    }
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new StorageException("Interrupted while purging deleted files", e);
+    }
+  }
+
+  /** Catalogue ids are the GridFS {@code _id}s, stored as ObjectIds. */
+  private static Object contentId(String id) {
+    return ObjectId.isValid(id) ? new ObjectId(id) : id;
+  }
+}
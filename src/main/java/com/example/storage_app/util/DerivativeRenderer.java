@@ -0,0 +1,108 @@
+package com.example.storage_app.util;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.stereotype.Component;
+
+/** Decodes images and PDF first pages into bounded-size bitmaps and encodes scaled derivatives. */
+@Component
+public class DerivativeRenderer {
+
+  public record Rendered(byte[] bytes, String contentType, int width, int height) {}
+
+  public static boolean supports(String contentType) {
+    return contentType != null
+        && (contentType.equals("application/pdf")
+            || contentType.equals("image/jpeg")
+            || contentType.equals("image/png")
+            || contentType.equals("image/gif")
+            || contentType.equals("image/bmp"));
+  }
+
+  /**
+   * Decodes the source so its longest edge is at least {@code maxDimension} (when the source is
+   * that large), without ever holding the full-resolution raster: images are subsampled while
+   * decoding and PDFs are rendered straight at the target scale. PDFs are spooled to a temp file
+   * rather than heap.
+   */
+  public BufferedImage decode(InputStream in, String contentType, int maxDimension)
+      throws IOException {
+    if ("application/pdf".equals(contentType)) {
+      return renderFirstPdfPage(in, maxDimension);
+    }
+    return decodeImage(in, maxDimension);
+  }
+
+  /** Scales to fit {@code maxDimension}; JPEG for opaque sources, PNG when there is alpha. */
+  public Rendered encode(BufferedImage source, int maxDimension) throws IOException {
+    double scale =
+        Math.min(1.0, (double) maxDimension / Math.max(source.getWidth(), source.getHeight()));
+    int width = Math.max(1, (int) Math.round(source.getWidth() * scale));
+    int height = Math.max(1, (int) Math.round(source.getHeight() * scale));
+    boolean alpha = source.getColorModel().hasAlpha();
+    BufferedImage scaled =
+        new BufferedImage(
+            width, height, alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+    Graphics2D g = scaled.createGraphics();
+    try {
+      g.setRenderingHint(
+          RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+      g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+      g.drawImage(source, 0, 0, width, height, null);
+    } finally {
+      g.dispose();
+    }
+    String format = alpha ? "png" : "jpeg";
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    if (!ImageIO.write(scaled, format, out)) {
+      throw new IOException("No ImageIO writer for " + format);
+    }
+    return new Rendered(out.toByteArray(), "image/" + format, width, height);
+  }
+
+  private BufferedImage decodeImage(InputStream in, int maxDimension) throws IOException {
+    try (ImageInputStream iis = ImageIO.createImageInputStream(in)) {
+      Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+      if (!readers.hasNext()) {
+        throw new IOException("Unsupported image format");
+      }
+      ImageReader reader = readers.next();
+      try {
+        reader.setInput(iis, true, true);
+        int longest = Math.max(reader.getWidth(0), reader.getHeight(0));
+        ImageReadParam param = reader.getDefaultReadParam();
+        int step = Math.max(1, longest / maxDimension);
+        param.setSourceSubsampling(step, step, 0, 0);
+        return reader.read(0, param);
+      } finally {
+        reader.dispose();
+      }
+    }
+  }
+
+  private BufferedImage renderFirstPdfPage(InputStream in, int maxDimension) throws IOException {
+    try (PDDocument document = PDDocument.load(in, MemoryUsageSetting.setupTempFileOnly())) {
+      if (document.getNumberOfPages() == 0) {
+        throw new IOException("PDF has no pages");
+      }
+      PDPage page = document.getPage(0);
+      float longest = Math.max(page.getCropBox().getWidth(), page.getCropBox().getHeight());
+      float scale = longest > 0 ? maxDimension / longest : 1f;
+      return new PDFRenderer(document).renderImage(0, scale, ImageType.RGB);
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.example.storage_app.util;
+
+import com.example.storage_app.config.DownloadSigningProperties;
+import com.example.storage_app.exception.DownloadLinkExpiredException;
+import com.example.storage_app.exception.ResourceNotFoundException;
+import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+/**
+ * Mints and verifies stateless download tokens of the form {@code
+ * s1.<keyId>.<gridFsObjectId>.<expiryEpochSeconds>.<hmac>}.
+ *
+ * <p>The GridFS {@code _id} is carried in the token itself, so a signed download is resolved with
+ * an HMAC check and a primary-key lookup instead of a {@code download_token_idx} lookup. Random
+ * UUID tokens never contain a dot, so both formats share the download endpoint.
+ */
+@Component
+public class DownloadLinkSigner {
+  public static final String PREFIX = "s1.";
+  private static final String HMAC_ALGO = "HmacSHA256";
+  private static final Pattern KEY_ID = Pattern.compile("[A-Za-z0-9_-]{1,32}");
+  private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder B64_DECODER = Base64.getUrlDecoder();
+
+  private final DownloadSigningProperties properties;
+  private final Map<String, SecretKeySpec> keys = new HashMap<>();
+  private final Clock clock;
+
+  @Autowired
+  public DownloadLinkSigner(DownloadSigningProperties properties) {
+    this(properties, Clock.systemUTC());
+  }
+
+  DownloadLinkSigner(DownloadSigningProperties properties, Clock clock) {
+    this.properties = properties;
+    this.clock = clock;
+    properties
+        .keys()
+        .forEach(
+            (keyId, secret) -> {
+              if (!KEY_ID.matcher(keyId).matches()) {
+                throw new IllegalStateException("Invalid download signing key id: " + keyId);
+              }
+              keys.put(keyId, new SecretKeySpec(Base64.getDecoder().decode(secret), HMAC_ALGO));
+            });
+    if (properties.enabled() && !keys.containsKey(properties.activeKeyId())) {
+      throw new IllegalStateException(
+          "Signed download links are enabled but active key '"
+              + properties.activeKeyId()
+              + "' is not configured");
+    }
+  }
+
+  public boolean isEnabled() {
+    return properties.enabled();
+  }
+
+  public static boolean isSignedToken(String token) {
+    return token != null && token.startsWith(PREFIX);
+  }
+
+  /** Returns a download link for the GridFS file that stops working after the configured TTL. */
+  public String sign(ObjectId gridFsId) {
+    long expiry = clock.instant().plus(properties.ttl()).getEpochSecond();
+    String payload =
+        PREFIX + properties.activeKeyId() + "." + gridFsId.toHexString() + "." + expiry;
+    return payload + "." + B64.encodeToString(hmac(keys.get(properties.activeKeyId()), payload));
+  }
+
+  /**
+   * Checks the token's signature and expiry and returns the GridFS {@code _id} it grants access to.
+   * Malformed tokens, unknown (retired) keys and bad signatures are all reported as not found so
+   * the response does not reveal which check failed.
+   */
+  public ObjectId verify(String token) {
+    String[] parts = token.split("\\.");
+    if (parts.length != 5 || !ObjectId.isValid(parts[2])) {
+      throw new ResourceNotFoundException("File not found for token: " + token);
+    }
+    SecretKeySpec key = keys.get(parts[1]);
+    if (key == null) {
+      throw new ResourceNotFoundException("File not found for token: " + token);
+    }
+    byte[] presented;
+    long expiry;
+    try {
+      presented = B64_DECODER.decode(parts[4]);
+      expiry = Long.parseLong(parts[3]);
+    } catch (IllegalArgumentException e) {
+      throw new ResourceNotFoundException("File not found for token: " + token);
+    }
+    String payload = token.substring(0, token.lastIndexOf('.'));
+    if (!MessageDigest.isEqual(hmac(key, payload), presented)) {
+      throw new ResourceNotFoundException("File not found for token: " + token);
+    }
+    if (Instant.ofEpochSecond(expiry).isBefore(clock.instant())) {
+      throw new DownloadLinkExpiredException("Download link has expired");
+    }
+    return new ObjectId(parts[2]);
+  }
+
+  private static byte[] hmac(SecretKeySpec key, String payload) {
+    try {
+      Mac mac = Mac.getInstance(HMAC_ALGO);
+      mac.init(key);
+      return mac.doFinal(payload.getBytes(StandardCharsets.US_ASCII));
+    } catch (NoSuchAlgorithmException | InvalidKeyException e) {
+      throw new IllegalStateException("Cannot compute download link signature", e);
+    }
+  }
+}
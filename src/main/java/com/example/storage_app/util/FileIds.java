@@ -0,0 +1,124 @@
+package com.example.storage_app.util;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.UUID;
+import org.bson.BsonBinary;
+import org.bson.BsonBinarySubType;
+import org.bson.types.Binary;
+import org.springframework.data.mongodb.core.convert.MongoConversionContext;
+import org.springframework.data.mongodb.core.convert.MongoValueConverter;
+
+/**
+ * Identifiers of stored files. A file id is a UUIDv7: its first 48 bits are the creation time in
+ * milliseconds, so ids created together sort together and their index entries are appended to the
+ * rightmost B-tree pages instead of scattering over all of them. A download token stays fully
+ * random, laid out as a v4 UUID. Both draw from a DRBG per thread, so concurrent uploads share no
+ * lock and never wait on the system entropy pool; each thread takes its random bytes a block at a
+ * time, since a DRBG call costs several hashes however few bytes it returns.
+ *
+ * <p>The catalogue stores both as 16-byte binary subtype 4 instead of 36-character strings; see
+ * {@link BinaryUuid}.
+ */
+public final class FileIds {
+  private static final ThreadLocal<RandomPool> RANDOM = ThreadLocal.withInitial(RandomPool::new);
+  private static final int RANDOM_BLOCK_BYTES = 4096;
+  private static final int UUID_STRING_LENGTH = 36;
+
+  private FileIds() {}
+
+  public static UUID timeOrdered() {
+    return timeOrdered(System.currentTimeMillis());
+  }
+
+  static UUID timeOrdered(long epochMillis) {
+    RandomPool random = RANDOM.get();
+    long msb = (epochMillis << 16) | 0x7000L | (random.nextLong() & 0x0FFFL);
+    long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+    return new UUID(msb, lsb);
+  }
+
+  public static UUID token() {
+    RandomPool random = RANDOM.get();
+    long msb = (random.nextLong() & ~0xF000L) | 0x4000L;
+    long lsb = (random.nextLong() & 0x3FFFFFFFFFFFFFFFL) | 0x8000000000000000L;
+    return new UUID(msb, lsb);
+  }
+
+  /** The stored form of an id: binary subtype 4 for a UUID, anything else unchanged. */
+  public static Object toBson(String id) {
+    if (id == null || id.length() != UUID_STRING_LENGTH) {
+      return id;
+    }
+    UUID uuid;
+    try {
+      uuid = UUID.fromString(id);
+    } catch (IllegalArgumentException e) {
+      return id;
+    }
+    return new Binary(
+        BsonBinarySubType.UUID_STANDARD,
+        ByteBuffer.allocate(16)
+            .putLong(uuid.getMostSignificantBits())
+            .putLong(uuid.getLeastSignificantBits())
+            .array());
+  }
+
+  /** The string form of a stored id, whichever way the driver decoded it. */
+  public static String fromBson(Object stored) {
+    return switch (stored) {
+      case null -> null;
+      case String id -> id;
+      case UUID uuid -> uuid.toString();
+      case Binary binary when isUuid(binary.getType(), binary.getData()) -> uuid(binary.getData());
+      case BsonBinary binary when isUuid(binary.getType(), binary.getData()) ->
+          uuid(binary.getData());
+      default -> null;
+    };
+  }
+
+  private static boolean isUuid(byte subtype, byte[] data) {
+    return subtype == BsonBinarySubType.UUID_STANDARD.getValue() && data.length == 16;
+  }
+
+  private static String uuid(byte[] data) {
+    ByteBuffer bytes = ByteBuffer.wrap(data);
+    return new UUID(bytes.getLong(), bytes.getLong()).toString();
+  }
+
+  private static final class RandomPool {
+    private final SecureRandom drbg;
+    private final ByteBuffer block = ByteBuffer.allocate(RANDOM_BLOCK_BYTES);
+
+    RandomPool() {
+      try {
+        drbg = SecureRandom.getInstance("DRBG");
+      } catch (NoSuchAlgorithmException e) {
+        throw new IllegalStateException("DRBG SecureRandom is not available", e);
+      }
+      block.position(block.limit());
+    }
+
+    long nextLong() {
+      if (!block.hasRemaining()) {
+        drbg.nextBytes(block.array());
+        block.clear();
+      }
+      return block.getLong();
+    }
+  }
+
+  /** Maps a string id property to its binary form, in documents, queries and updates alike. */
+  public static final class BinaryUuid implements MongoValueConverter<String, Object> {
+    @Override
+    public String read(Object value, MongoConversionContext context) {
+      return fromBson(value);
+    }
+
+    @Override
+    public Object write(String value, MongoConversionContext context) {
+      return toBson(value);
+    }
+  }
+}
@@ -10,6 +10,8 @@ import org.springframework.stereotype.Component;
 
 @Component
 public class FileMapper {
+  public static final String DOWNLOAD_PATH = "/api/v1/files/download/";
+
   public FileResponse toResponse(FileStorageResult result) {
     Document metadata = result.metadata;
     return new FileResponse(
@@ -20,7 +22,8 @@ public class FileMapper {
         metadata.getDate("uploadDate"),
         result.contentType,
         result.size,
-        "/api/v1/files/download/" + metadata.getString("token"));
+        DOWNLOAD_PATH + metadata.getString("token"),
+        0L);
   }
 
   public FileResponse fromDocument(Document fsFileDoc) {
@@ -42,7 +45,7 @@ public class FileMapper {
     Date uploadDate = fsFileDoc.getDate("uploadDate");
     String contentType = metadata.getString("contentType");
     long size = metadata.getLong("size") != null ? metadata.getLong("size") : 0L;
-    String downloadLink = "/api/v1/files/download/" + metadata.getString("token");
+    String downloadLink = DOWNLOAD_PATH + metadata.getString("token");
     return new FileResponse(
         systemFileId,
         originalFilename,
@@ -51,10 +54,16 @@ public class FileMapper {
         uploadDate,
         contentType,
         size,
-        downloadLink);
+        downloadLink,
+        0L);
   }
 
   public FileResponse fromEntity(FileRecord fileRecord) {
+    if (fileRecord == null) return null;
+    return fromEntity(fileRecord, DOWNLOAD_PATH + fileRecord.getToken());
+  }
+
+  public FileResponse fromEntity(FileRecord fileRecord, String downloadLink) {
     if (fileRecord == null) return null;
     return new FileResponse(
         fileRecord.getFilename(),
@@ -64,6 +73,7 @@ public class FileMapper {
         fileRecord.getUploadDate(),
         fileRecord.getContentType(),
         fileRecord.getSize(),
-        "/api/v1/files/download/" + fileRecord.getToken());
+        downloadLink,
+        fileRecord.getVersion());
   }
 }
@@ -3,25 +3,34 @@ package com.example.storage_app.util;
 import com.example.storage_app.controller.dto.FileUploadRequest;
 import com.example.storage_app.model.FileRecord;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
-import java.util.UUID;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
 @Component
 public class FileMetadataBuilder {
+  private final TagDictionary tagDictionary;
+
+  public FileMetadataBuilder(TagDictionary tagDictionary) {
+    this.tagDictionary = tagDictionary;
+  }
+
   public FileRecord build(FileUploadRequest request, String userId, MultipartFile file) {
-    String systemFilenameUUID = UUID.randomUUID().toString();
-    String token = UUID.randomUUID().toString();
+    String systemFilenameUUID = FileIds.timeOrdered().toString();
+    String token = FileIds.token().toString();
     List<String> lowercaseTags =
         (request.tags() == null ? new ArrayList<String>() : request.tags())
             .stream().filter(Objects::nonNull).map(String::toLowerCase).toList();
+    // The record is stored with tag ids, which the converter can only look up.
+    lowercaseTags.forEach(tagDictionary::intern);
     String userProvidedFilename = request.filename();
     if (userProvidedFilename == null || userProvidedFilename.isBlank()) {
       userProvidedFilename = file.getOriginalFilename();
     }
+    String filenameKey = FilenameSearchKeys.normalize(userProvidedFilename);
     return FileRecord.builder()
         .id(systemFilenameUUID)
         .filename(systemFilenameUUID)
@@ -31,8 +40,12 @@ public class FileMetadataBuilder {
         .ownerId(userId)
         .visibility(request.visibility())
         .tags(lowercaseTags)
+        .firstTag(lowercaseTags.stream().min(Comparator.naturalOrder()).orElse(""))
+        .lastTag(lowercaseTags.stream().max(Comparator.naturalOrder()).orElse(""))
         .token(token)
         .originalFilename(userProvidedFilename)
+        .filenameKey(filenameKey)
+        .filenameGrams(FilenameSearchKeys.grams(filenameKey))
         .build();
   }
 }
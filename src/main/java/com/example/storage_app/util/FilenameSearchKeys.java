@@ -0,0 +1,44 @@
+package com.example.storage_app.util;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Search keys derived from a file's display name. The key is the name NFKC-normalised and
+ * lower-cased, so a binary index range on it is a case-insensitive prefix search. The grams are its
+ * distinct character trigrams; a substring of at least {@link #GRAM_LENGTH} characters can only
+ * occur in names whose grams include all of its own.
+ */
+public final class FilenameSearchKeys {
+  public static final int GRAM_LENGTH = 3;
+
+  private static final String MAX_CODE_POINT = Character.toString(Character.MAX_CODE_POINT);
+
+  private FilenameSearchKeys() {}
+
+  public static String normalize(String filename) {
+    if (filename == null) {
+      return "";
+    }
+    return Normalizer.normalize(filename, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+  }
+
+  /** Distinct trigrams of an already normalised key, by code point, in order of appearance. */
+  public static List<String> grams(String key) {
+    int[] codePoints = key.codePoints().toArray();
+    Set<String> grams = new LinkedHashSet<>();
+    for (int i = 0; i + GRAM_LENGTH <= codePoints.length; i++) {
+      grams.add(new String(codePoints, i, GRAM_LENGTH));
+    }
+    return new ArrayList<>(grams);
+  }
+
+  /** Exclusive upper bound of the keys starting with {@code prefix}. */
+  public static String prefixUpperBound(String prefix) {
+    return prefix + MAX_CODE_POINT;
+  }
+}
@@ -1,5 +1,6 @@
 package com.example.storage_app.util;
 
+import com.example.storage_app.blob.BlobStores;
 import com.example.storage_app.exception.FileAlreadyExistsException;
 import com.example.storage_app.model.FileRecord;
 import java.io.IOException;
@@ -15,16 +16,12 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
-import org.springframework.data.mongodb.core.query.Query;
-import org.springframework.data.mongodb.core.query.Update;
-import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 
 @Component
 public class GridFsHelper {
-  @Autowired private GridFsTemplate gridFsTemplate;
+  @Autowired private BlobStores blobStores;
   @Autowired private MongoTemplate mongoTemplate;
   private static final String HASH_ALGO = "SHA-256";
   private static final Logger log = LoggerFactory.getLogger(GridFsHelper.class);
@@ -44,44 +41,51 @@ public class GridFsHelper {
 
     MessageDigest md = MessageDigest.getInstance(HASH_ALGO);
 
+    // Only what the content itself needs; listing and auth fields live in the catalogue entry.
     Document gridFsMetadata =
         new Document()
             .append("systemFilenameUUID", record.getFilename())
             .append("ownerId", record.getOwnerId())
             .append("originalFilename", record.getOriginalFilename())
-            .append("tags", record.getTags())
-            .append("visibility", record.getVisibility().name())
-            .append("token", record.getToken())
-            .append("uploadDate", record.getUploadDate())
-            .append("contentType", effectiveMimeType)
-            .append("size", record.getSize());
+            .append("contentType", effectiveMimeType);
 
-    ObjectId storedFileObjectId;
+    ObjectId storedFileObjectId = new ObjectId();
+    String store;
     String hash = null;
     try (DigestInputStream digestIn = new DigestInputStream(actualStream, md)) {
-      storedFileObjectId =
-          gridFsTemplate.store(digestIn, record.getFilename(), effectiveMimeType, gridFsMetadata);
+      store =
+          blobStores.put(
+              storedFileObjectId,
+              record.getFilename(),
+              effectiveMimeType,
+              gridFsMetadata,
+              file.getSize(),
+              digestIn);
       hash = HexFormat.of().formatHex(digestIn.getMessageDigest().digest());
-      if (storedFileObjectId == null) {
-        throw new IOException("Failed to store file, GridFS store operation returned null ID.");
-      }
     }
 
-    Query query = Query.query(Criteria.where("_id").is(storedFileObjectId));
-    Update update = new Update().set("metadata.sha256", hash);
+    // The catalogue insert commits the upload; its unique indexes reject duplicate names and
+    // content, and the content stored for a rejected upload is removed again.
+    record.setId(storedFileObjectId.toHexString());
+    record.setContentType(effectiveMimeType);
+    record.setSize(file.getSize());
+    record.setSha256(hash);
+    record.setBlobStore(store);
     try {
-      mongoTemplate.updateFirst(query, update, "fs.files");
-      log.info(
-          "Successfully updated metadata.sha256 for fileId {} with hash {}",
-          storedFileObjectId,
-          hash);
+      mongoTemplate.insert(record);
+      log.info("Catalogued fileId {} with hash {}", storedFileObjectId, hash);
     } catch (DuplicateKeyException e) {
       log.warn(
-          "Duplicate content (sha256: {}) detected for owner {} during metadata update for fileId {}. Deleting orphaned GridFS file.",
+          "Duplicate name or content (sha256: {}) for owner {}; deleting stored file {}.",
           hash,
           record.getOwnerId(),
           storedFileObjectId);
-      gridFsTemplate.delete(query);
+      blobStores.delete(store, storedFileObjectId);
+      String message = e.getMessage() != null ? e.getMessage() : "";
+      if (message.contains("owner_filename_idx")) {
+        throw new FileAlreadyExistsException(
+            "Filename '" + record.getOriginalFilename() + "' already exists for this user.");
+      }
       throw new FileAlreadyExistsException(
           "Content with hash '" + hash + "' already exists for this user.");
     }
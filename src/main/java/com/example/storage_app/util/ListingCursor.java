@@ -0,0 +1,51 @@
+package com.example.storage_app.util;
+
+import com.example.storage_app.exception.InvalidRequestArgumentException;
+import java.util.Base64;
+import org.bson.BsonBinaryWriter;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.bson.codecs.EncoderContext;
+import org.bson.io.BasicOutputBuffer;
+import org.bson.types.ObjectId;
+
+/**
+ * Continuation token for keyset pagination: the sort field, its direction, and the sort key and
+ * {@code _id} of the last row of the previous page.
+ *
+ * <p>The fields are serialized as a BSON document so the key keeps its exact BSON type (string,
+ * int64 or date) and compares the same way on the way back in. The token is opaque to clients but
+ * not signed: tampering with it can only move the window within the caller's own listing, because
+ * the owner/visibility filter is applied independently.
+ */
+public record ListingCursor(String field, boolean ascending, Object value, ObjectId id) {
+  private static final Base64.Encoder B64 = Base64.getUrlEncoder().withoutPadding();
+  private static final Base64.Decoder B64_DECODER = Base64.getUrlDecoder();
+  private static final DocumentCodec CODEC = new DocumentCodec();
+
+  public String encode() {
+    Document doc =
+        new Document("f", field).append("a", ascending).append("v", value).append("i", id);
+    BasicOutputBuffer out = new BasicOutputBuffer();
+    CODEC.encode(new BsonBinaryWriter(out), doc, EncoderContext.builder().build());
+    return B64.encodeToString(out.toByteArray());
+  }
+
+  public static ListingCursor decode(String token) {
+    try {
+      Document doc = new RawBsonDocument(B64_DECODER.decode(token)).decode(CODEC);
+      String field = doc.getString("f");
+      Boolean ascending = doc.getBoolean("a");
+      ObjectId id = doc.getObjectId("i");
+      if (field == null || ascending == null || id == null || !doc.containsKey("v")) {
+        throw new InvalidRequestArgumentException("Invalid cursor");
+      }
+      return new ListingCursor(field, ascending, doc.get("v"), id);
+    } catch (InvalidRequestArgumentException e) {
+      throw e;
+    } catch (RuntimeException e) {
+      throw new InvalidRequestArgumentException("Invalid cursor");
+    }
+  }
+}
@@ -0,0 +1,124 @@
+package com.example.storage_app.util;
+
+import com.example.storage_app.exception.InvalidRequestArgumentException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * Range filters of a listing: a size window in bytes (both ends inclusive), an upload-date window
+ * ({@code from} inclusive, {@code to} exclusive) and a content type, either exact ({@code
+ * image/png}) or a whole top-level type ({@code image/*}).
+ *
+ * <p>Each compiles to one bounded range, so the listing indexes, which carry these fields after the
+ * sort key, filter on them without fetching the documents they exclude.
+ *
+ * @param contentTypePrefix the content type, or its {@code type/} prefix for a wildcard
+ * @param exact whether {@code contentTypePrefix} is a whole content type rather than a prefix
+ */
+public record RangeFilter(
+    Long minSize, Long maxSize, Instant from, Instant to, String contentTypePrefix, boolean exact) {
+  private static final Pattern CONTENT_TYPE =
+      Pattern.compile("[a-z0-9][a-z0-9!#$&^_.+-]*/(\\*|[a-z0-9][a-z0-9!#$&^_.+-]*)");
+
+  /**
+   * Builds the filter from request parameters; {@code null} when none is given. Dates are ISO-8601
+   * instants ({@code 2025-09-01T00:00:00Z}) or dates ({@code 2025-09-01}, UTC), where a date as
+   * {@code to} includes that whole day.
+   */
+  public static RangeFilter of(
+      Long minSize, Long maxSize, String from, String to, String contentType) {
+    boolean hasContentType = contentType != null && !contentType.isBlank();
+    if (minSize == null
+        && maxSize == null
+        && (from == null || from.isBlank())
+        && (to == null || to.isBlank())
+        && !hasContentType) {
+      return null;
+    }
+    if ((minSize != null && minSize < 0) || (maxSize != null && maxSize < 0)) {
+      throw invalid("sizes must not be negative");
+    }
+    if (minSize != null && maxSize != null && minSize > maxSize) {
+      throw invalid("minSize is greater than maxSize");
+    }
+    Instant start = instant("from", from, false);
+    Instant end = instant("to", to, true);
+    if (start != null && end != null && !start.isBefore(end)) {
+      throw invalid("from is not before to");
+    }
+    String prefix = null;
+    boolean exact = false;
+    if (hasContentType) {
+      String type = contentType.strip().toLowerCase(Locale.ROOT);
+      if (!CONTENT_TYPE.matcher(type).matches()) {
+        throw invalid("contentType must look like 'image/png' or 'image/*'");
+      }
+      exact = !type.endsWith("/*");
+      prefix = exact ? type : type.substring(0, type.length() - 1);
+    }
+    return new RangeFilter(minSize, maxSize, start, end, prefix, exact);
+  }
+
+  private static Instant instant(String name, String value, boolean end) {
+    if (value == null || value.isBlank()) {
+      return null;
+    }
+    String trimmed = value.strip();
+    try {
+      if (trimmed.length() == 10) {
+        LocalDate date = LocalDate.parse(trimmed);
+        return (end ? date.plusDays(1) : date).atStartOfDay(ZoneOffset.UTC).toInstant();
+      }
+      return Instant.parse(trimmed);
+    } catch (DateTimeParseException e) {
+      throw invalid(name + " must be an ISO-8601 date or instant");
+    }
+  }
+
+  private static InvalidRequestArgumentException invalid(String reason) {
+    return new InvalidRequestArgumentException("Invalid range filter: " + reason);
+  }
+
+  /** One criterion per filtered property, on {@code FileRecord} property names. */
+  public List<Criteria> toCriteria() {
+    List<Criteria> criteria = new ArrayList<>();
+    if (minSize != null || maxSize != null) {
+      Criteria size = Criteria.where("size");
+      if (minSize != null) {
+        size.gte(minSize);
+      }
+      if (maxSize != null) {
+        size.lte(maxSize);
+      }
+      criteria.add(size);
+    }
+    if (from != null || to != null) {
+      Criteria uploaded = Criteria.where("uploadDate");
+      if (from != null) {
+        uploaded.gte(Date.from(from));
+      }
+      if (to != null) {
+        uploaded.lt(Date.from(to));
+      }
+      criteria.add(uploaded);
+    }
+    if (contentTypePrefix != null) {
+      criteria.add(
+          exact
+              ? Criteria.where("contentType").is(contentTypePrefix)
+              // "image/" up to, not including, "image0": '0' is the character after '/'.
+              : Criteria.where("contentType")
+                  .gte(contentTypePrefix)
+                  .lt(contentTypePrefix.substring(0, contentTypePrefix.length() - 1) + '0'));
+    }
+    return criteria;
+  }
+}
@@ -0,0 +1,361 @@
+package com.example.storage_app.util;
+
+import com.example.storage_app.model.TotalMode;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.function.Function;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.springframework.stereotype.Component;
+
+/**
+ * Writes a page of file catalogue documents as the same JSON the mapped listing produces ({@code
+ * PagedResponse<FileResponse>}), reading each row straight from its raw BSON bytes into a streaming
+ * JSON generator. Nothing is materialized per row apart from the field values themselves: no {@code
+ * Document}, {@code FileRecord} or {@code FileResponse}. The same rows can also be written as
+ * NDJSON for exports.
+ *
+ * <p>Dates follow the application {@link ObjectMapper}'s settings so both paths render identically,
+ * and tag ids resolve through the same {@link TagDictionary} cache as mapped reads.
+ */
+@Component
+public class RawFileJsonWriter {
+  /**
+   * The catalogue fields a listing row needs (see {@code FileRecord} for the names); everything
+   * else stays on the server.
+   */
+  public static final Document PROJECTION =
+      new Document("f", 1)
+          .append("s", 1)
+          .append("n", 1)
+          .append("v", 1)
+          .append("t", 1)
+          .append("d", 1)
+          .append("c", 1)
+          .append("tk", 1)
+          .append("e", 1);
+
+  private final ObjectMapper objectMapper;
+  private final TagDictionary tagDictionary;
+
+  public RawFileJsonWriter(ObjectMapper objectMapper, TagDictionary tagDictionary) {
+    this.objectMapper = objectMapper;
+    this.tagDictionary = tagDictionary;
+  }
+
+  /**
+   * Writes up to {@code size} rows. One further row, if the iterator has it, only marks the page as
+   * not being the last.
+   *
+   * @param total listing total, or {@code null} when {@code totalType} is {@link TotalMode#NONE}
+   * @param linkForId mints the download link from the GridFS id, or {@code null} for token links
+   */
+  public void writePage(
+      OutputStream out,
+      Iterator<RawBsonDocument> rows,
+      int page,
+      int size,
+      Long total,
+      TotalMode totalType,
+      Function<ObjectId, String> linkForId)
+      throws IOException {
+    RowWriter rowWriter = new RowWriter(linkForId);
+    int written = 0;
+    boolean last = true;
+    try (JsonGenerator g = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+      g.writeStartObject();
+      g.writeArrayFieldStart("content");
+      while (rows.hasNext()) {
+        RawBsonDocument doc = rows.next();
+        if (written == size) {
+          last = false;
+          break;
+        }
+        rowWriter.write(g, doc);
+        written++;
+      }
+      g.writeEndArray();
+      g.writeNumberField("page", page);
+      g.writeNumberField("size", size);
+      if (total == null) {
+        g.writeNullField("totalPages");
+        g.writeNullField("totalElements");
+      } else {
+        g.writeNumberField("totalPages", size == 0 ? 1 : (int) ((total + size - 1) / size));
+        g.writeNumberField("totalElements", total);
+      }
+      g.writeBooleanField("last", last);
+      g.writeBooleanField("first", page == 0);
+      g.writeNumberField("numberOfElements", written);
+      g.writeStringField("totalType", totalType.key());
+      g.writeEndObject();
+    }
+  }
+
+  /**
+   * Writes every row as one {@code FileResponse} JSON object per line (NDJSON), flushing to {@code
+   * out} after every {@code flushEvery} rows so the client sees progress and nothing piles up in
+   * the generator. Returns the number of rows written.
+   */
+  public long writeNdjson(
+      OutputStream out,
+      Iterator<RawBsonDocument> rows,
+      int flushEvery,
+      Function<ObjectId, String> linkForId)
+      throws IOException {
+    RowWriter rowWriter = new RowWriter(linkForId);
+    long written = 0;
+    try (JsonGenerator g = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+      while (rows.hasNext()) {
+        rowWriter.write(g, rows.next());
+        g.writeRaw('\n');
+        if (++written % flushEvery == 0) {
+          g.flush();
+        }
+      }
+    }
+    return written;
+  }
+
+  /** Writes rows as {@code FileResponse} objects, reusing its buffers across rows. */
+  private final class RowWriter {
+    private final boolean timestamps =
+        objectMapper.isEnabled(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    private final boolean isoUtc = !timestamps && usesDefaultIsoUtcFormat();
+    private final DateFormat dateFormat = (DateFormat) objectMapper.getDateFormat().clone();
+    private final Date date = new Date();
+    private final char[] dateChars = new char[ISO_UTC_LENGTH];
+    private final Row row = new Row();
+    private final Function<ObjectId, String> linkForId;
+
+    RowWriter(Function<ObjectId, String> linkForId) {
+      this.linkForId = linkForId;
+    }
+
+    void write(JsonGenerator g, RawBsonDocument doc) throws IOException {
+      row.read(doc);
+      g.writeStartObject();
+      g.writeStringField("id", row.id);
+      g.writeStringField("filename", row.filename);
+      g.writeStringField("visibility", row.visibility);
+      g.writeFieldName("tags");
+      if (row.tags == null) {
+        g.writeNull();
+      } else {
+        g.writeStartArray();
+        for (String tag : row.tags) {
+          g.writeString(tag);
+        }
+        g.writeEndArray();
+      }
+      g.writeFieldName("uploadDate");
+      if (!row.hasUploadDate) {
+        g.writeNull();
+      } else if (timestamps) {
+        g.writeNumber(row.uploadDate);
+      } else {
+        int length = isoUtc ? formatIsoUtc(row.uploadDate, dateChars) : -1;
+        if (length > 0) {
+          g.writeString(dateChars, 0, length);
+        } else {
+          date.setTime(row.uploadDate);
+          g.writeString(dateFormat.format(date));
+        }
+      }
+      g.writeStringField("contentType", row.contentType);
+      g.writeNumberField("size", row.size);
+      g.writeStringField(
+          "downloadLink",
+          linkForId != null && row.objectId != null
+              ? linkForId.apply(row.objectId)
+              : FileMapper.DOWNLOAD_PATH + row.token);
+      g.writeNumberField("version", row.version);
+      g.writeEndObject();
+    }
+  }
+
+  private static final char[] UTC_OFFSET = "+00:00".toCharArray();
+  private static final int ISO_UTC_LENGTH = "yyyy-MM-ddTHH:mm:ss.SSS+00:00".length();
+
+  /**
+   * Jackson's default: {@code StdDateFormat} in UTC, e.g. {@code 2025-05-12T09:16:01.312+00:00}.
+   */
+  private boolean usesDefaultIsoUtcFormat() {
+    if (!(objectMapper.getDateFormat() instanceof StdDateFormat std)
+        || !std.isColonIncludedInTimeZone()) {
+      return false;
+    }
+    // A format without its own zone is rendered in the mapper's (UTC unless configured).
+    TimeZone zone =
+        std.getTimeZone() != null
+            ? std.getTimeZone()
+            : objectMapper.getSerializationConfig().getTimeZone();
+    return zone.getRawOffset() == 0 && !zone.useDaylightTime();
+  }
+
+  /**
+   * Formats epoch millis the way {@code StdDateFormat} does in UTC, into {@code out}, without
+   * allocating. Returns the number of chars written, or -1 for years outside 1..9999, which are
+   * left to the {@code DateFormat}.
+   */
+  static int formatIsoUtc(long epochMillis, char[] out) {
+    long days = Math.floorDiv(epochMillis, 86_400_000L);
+    int millisOfDay = (int) Math.floorMod(epochMillis, 86_400_000L);
+    // Civil-from-days (H. Hinnant), proleptic Gregorian.
+    long z = days + 719_468;
+    long era = Math.floorDiv(z, 146_097);
+    long doe = z - era * 146_097;
+    long yoe = (doe - doe / 1460 + doe / 36_524 - doe / 146_096) / 365;
+    long doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    long mp = (5 * doy + 2) / 153;
+    int day = (int) (doy - (153 * mp + 2) / 5 + 1);
+    int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+    long year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+    if (year < 1583 || year > 9999) {
+      return -1;
+    }
+
+    int pos = 0;
+    pos = digits(out, pos, (int) year, 4);
+    out[pos++] = '-';
+    pos = digits(out, pos, month, 2);
+    out[pos++] = '-';
+    pos = digits(out, pos, day, 2);
+    out[pos++] = 'T';
+    pos = digits(out, pos, millisOfDay / 3_600_000, 2);
+    out[pos++] = ':';
+    pos = digits(out, pos, millisOfDay / 60_000 % 60, 2);
+    out[pos++] = ':';
+    pos = digits(out, pos, millisOfDay / 1000 % 60, 2);
+    out[pos++] = '.';
+    pos = digits(out, pos, millisOfDay % 1000, 3);
+    System.arraycopy(UTC_OFFSET, 0, out, pos, UTC_OFFSET.length);
+    return pos + UTC_OFFSET.length;
+  }
+
+  private static int digits(char[] out, int pos, int value, int width) {
+    for (int i = pos + width - 1; i >= pos; i--) {
+      out[i] = (char) ('0' + value % 10);
+      value /= 10;
+    }
+    return pos + width;
+  }
+
+  /** One row's values, reused across rows. */
+  private final class Row {
+    ObjectId objectId;
+    String id;
+    String filename;
+    String visibility;
+    List<String> tags;
+    final List<String> tagBuffer = new ArrayList<>();
+    long uploadDate;
+    boolean hasUploadDate;
+    String contentType;
+    long size;
+    String token;
+    long version;
+
+    void read(RawBsonDocument doc) {
+      objectId = null;
+      id = filename = visibility = contentType = token = null;
+      tags = null;
+      hasUploadDate = false;
+      size = version = 0;
+      try (BsonBinaryReader reader = new BsonBinaryReader(doc.getByteBuffer().asNIO())) {
+        reader.readStartDocument();
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+          switch (reader.readName()) {
+            case "_id" -> {
+              if (reader.getCurrentBsonType() == BsonType.OBJECT_ID) {
+                objectId = reader.readObjectId();
+              } else {
+                reader.skipValue();
+              }
+            }
+            case "f" -> id = readId(reader);
+            case "s" -> size = readLong(reader);
+            case "n" -> filename = readString(reader);
+            case "v" -> visibility = readString(reader);
+            case "c" -> contentType = readString(reader);
+            case "tk" -> token = readId(reader);
+            case "e" -> version = readLong(reader);
+            case "d" -> {
+              if (reader.getCurrentBsonType() == BsonType.DATE_TIME) {
+                uploadDate = reader.readDateTime();
+                hasUploadDate = true;
+              } else {
+                reader.skipValue();
+              }
+            }
+            case "t" -> readTags(reader);
+            default -> reader.skipValue();
+          }
+        }
+      }
+    }
+
+    private void readTags(BsonBinaryReader reader) {
+      if (reader.getCurrentBsonType() != BsonType.ARRAY) {
+        reader.skipValue();
+        return;
+      }
+      tagBuffer.clear();
+      reader.readStartArray();
+      while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+        if (reader.getCurrentBsonType() == BsonType.INT32) {
+          String tag = tagDictionary.name(reader.readInt32());
+          if (tag != null) {
+            tagBuffer.add(tag);
+          }
+        } else {
+          tagBuffer.add(readString(reader));
+        }
+      }
+      reader.readEndArray();
+      tags = tagBuffer;
+    }
+
+    private static String readString(BsonBinaryReader reader) {
+      if (reader.getCurrentBsonType() == BsonType.STRING) {
+        return reader.readString();
+      }
+      reader.skipValue();
+      return null;
+    }
+
+    /** A file id or token, stored as binary subtype 4 or, before the migration, as a string. */
+    private static String readId(BsonBinaryReader reader) {
+      if (reader.getCurrentBsonType() == BsonType.BINARY) {
+        return FileIds.fromBson(reader.readBinaryData());
+      }
+      return readString(reader);
+    }
+
+    private static long readLong(BsonBinaryReader reader) {
+      return switch (reader.getCurrentBsonType()) {
+        case INT64 -> reader.readInt64();
+        case INT32 -> reader.readInt32();
+        case DOUBLE -> (long) reader.readDouble();
+        default -> {
+          reader.skipValue();
+          yield 0;
+        }
+      };
+    }
+  }
+}
@@ -0,0 +1,167 @@
+package com.example.storage_app.util;
+
+import com.example.storage_app.model.FileRecord;
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import org.bson.Document;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.convert.MongoConversionContext;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.MongoValueConverter;
+import org.springframework.stereotype.Component;
+
+/**
+ * Interned tags. Every distinct tag is stored once in {@link #COLLECTION} under a small integer id,
+ * and the catalogue stores files' tags as arrays of those ids, which shrinks both its documents and
+ * its multikey tag indexes. Java code keeps working with tag names: {@link Ids} translates {@code
+ * FileRecord.tags} whenever documents, queries and updates are mapped, and raw readers go through
+ * {@link #name(int)}.
+ *
+ * <p>An id never changes once assigned, so both directions are cached for the life of the process
+ * in concurrent maps, whose reads take no lock. A miss reads the dictionary; only a tag new to the
+ * whole system writes to it. The dictionary talks to the database directly rather than through
+ * {@code MongoTemplate}, whose converter depends on it.
+ */
+@Component
+public class TagDictionary {
+  public static final String COLLECTION = "tag_dictionary";
+
+  /** Stands in for a tag no file has ever had, so a query for it matches nothing. */
+  public static final int UNKNOWN = -1;
+
+  static final String NAME = "n";
+
+  private final MongoDatabaseFactory databaseFactory;
+  private final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Integer, String> names = new ConcurrentHashMap<>();
+  private volatile boolean indexed;
+
+  public TagDictionary(MongoDatabaseFactory databaseFactory) {
+    this.databaseFactory = databaseFactory;
+  }
+
+  /** Mapping of {@code FileRecord.tags} through {@code dictionary}, for the Mongo converter. */
+  public static MongoCustomConversions conversions(TagDictionary dictionary) {
+    return MongoCustomConversions.create(
+        adapter ->
+            adapter.configurePropertyConversions(
+                registrar ->
+                    registrar.registerConverter(FileRecord.class, "tags", new Ids(dictionary))));
+  }
+
+  /** The tag's id, assigning the next free one if the tag is new. */
+  public int intern(String tag) {
+    int id = find(tag);
+    while (id == UNKNOWN) {
+      id = insert(tag);
+    }
+    return id;
+  }
+
+  /** The tag's id, or {@link #UNKNOWN}. */
+  public int find(String tag) {
+    Integer id = ids.get(tag);
+    if (id != null) {
+      return id;
+    }
+    Document entry = collection().find(new Document(NAME, tag)).first();
+    return entry == null ? UNKNOWN : remember(entry);
+  }
+
+  /** The tag with this id, or {@code null} for an id the dictionary does not have. */
+  public String name(int id) {
+    String name = names.get(id);
+    if (name != null) {
+      return name;
+    }
+    Document entry = collection().find(new Document("_id", id)).first();
+    return entry == null ? null : names.get(remember(entry));
+  }
+
+  /**
+   * Takes the id after the highest one in use. Two nodes racing for the same id or the same tag are
+   * told apart by the unique indexes; the loser returns {@link #UNKNOWN} and looks again.
+   */
+  private int insert(String tag) {
+    MongoCollection<Document> collection = collection();
+    if (!indexed) {
+      collection.createIndex(
+          new Document(NAME, 1), new IndexOptions().name("tag_name_idx").unique(true));
+      indexed = true;
+    }
+    Document last = collection.find().sort(new Document("_id", -1)).limit(1).first();
+    int id = last == null ? 1 : last.getInteger("_id") + 1;
+    try {
+      collection.insertOne(new Document("_id", id).append(NAME, tag));
+    } catch (MongoWriteException e) {
+      if (e.getError().getCategory() != ErrorCategory.DUPLICATE_KEY) {
+        throw e;
+      }
+      return find(tag);
+    }
+    ids.put(tag, id);
+    names.put(id, tag);
+    return id;
+  }
+
+  private int remember(Document entry) {
+    int id = entry.getInteger("_id");
+    String tag = entry.getString(NAME);
+    ids.put(tag, id);
+    names.put(id, tag);
+    return id;
+  }
+
+  private MongoCollection<Document> collection() {
+    return databaseFactory.getMongoDatabase().getCollection(COLLECTION);
+  }
+
+  /**
+   * Stores {@code FileRecord.tags} as ids. The mapping layer hands a converter whole tag lists for
+   * saved records and for {@code $in}/{@code $all} filters alike, so it can only look tags up:
+   * interning on every filter would let any query grow the dictionary. Tags are therefore interned
+   * where they enter the system, by {@code FileMetadataBuilder} for uploads, before a record
+   * carrying them is written. Tags read back as names; string tags of files the migration has not
+   * reached yet pass through unchanged.
+   */
+  public static final class Ids implements MongoValueConverter<Object, Object> {
+    private final TagDictionary dictionary;
+
+    public Ids(TagDictionary dictionary) {
+      this.dictionary = dictionary;
+    }
+
+    @Override
+    public Object write(Object value, MongoConversionContext context) {
+      if (value instanceof Collection<?> tags) {
+        List<Object> stored = new ArrayList<>(tags.size());
+        for (Object tag : tags) {
+          stored.add(tag instanceof String name ? dictionary.find(name) : tag);
+        }
+        return stored;
+      }
+      return value instanceof String tag ? dictionary.find(tag) : value;
+    }
+
+    @Override
+    public Object read(Object value, MongoConversionContext context) {
+      if (!(value instanceof Collection<?> stored)) {
+        return value;
+      }
+      List<String> tags = new ArrayList<>(stored.size());
+      for (Object tag : stored) {
+        String name = tag instanceof Number id ? dictionary.name(id.intValue()) : (String) tag;
+        if (name != null) {
+          tags.add(name);
+        }
+      }
+      return tags;
+    }
+  }
+}
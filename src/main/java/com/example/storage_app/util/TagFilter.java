@@ -0,0 +1,313 @@
+package com.example.storage_app.util;
+
+import com.example.storage_app.exception.InvalidRequestArgumentException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * A boolean filter over a file's tags, e.g. {@code invoice AND 2025 AND NOT draft} or {@code (q1 OR
+ * q2) NOT draft}. Operators are the upper-case words {@code AND}, {@code OR}, {@code NOT} and
+ * parentheses; adjacent terms are ANDed and multi-word tags are quoted. A value that has none of
+ * those words and does not start with a parenthesis or quote is a single tag, exactly as before the
+ * grammar existed.
+ *
+ * <p>Compiles to the shapes a multikey index on {@code tags} can serve: the positive tags of a
+ * conjunction become one {@code $all} with the rarest tag first (the planner bounds the index scan
+ * on that one), its negated tags one {@code $nin}, and plain tag alternatives one {@code $in}.
+ */
+public final class TagFilter {
+  static final int MAX_TERMS = 20;
+
+  /** Parentheses and {@code NOT}s nested in one another; bounds the parser's recursion. */
+  static final int MAX_DEPTH = 32;
+
+  private static final Set<String> KEYWORDS = Set.of("AND", "OR", "NOT");
+
+  sealed interface Node permits Tag, Not, And, Or {}
+
+  record Tag(String value) implements Node {}
+
+  record Not(Node node) implements Node {}
+
+  record And(List<Node> nodes) implements Node {}
+
+  record Or(List<Node> nodes) implements Node {}
+
+  private final Node root;
+
+  private TagFilter(Node root) {
+    this.root = root;
+  }
+
+  /** Parses a {@code tag} request parameter; {@code null} when it is absent or blank. */
+  public static TagFilter parse(String expression) {
+    if (expression == null || expression.isBlank()) {
+      return null;
+    }
+    String trimmed = expression.strip();
+    boolean grammar =
+        trimmed.startsWith("(")
+            || trimmed.startsWith("\"")
+            || Arrays.stream(trimmed.split("[\\s()]+")).anyMatch(KEYWORDS::contains);
+    if (!grammar) {
+      return new TagFilter(new Tag(expression.toLowerCase(Locale.ROOT)));
+    }
+    List<String> tokens = tokenize(expression);
+    Parser parser = new Parser(tokens);
+    Node root = parser.or();
+    if (parser.pos != tokens.size()) {
+      throw invalid("unexpected '" + tokens.get(parser.pos) + "'");
+    }
+    return new TagFilter(root);
+  }
+
+  /** The tag when this filter is just one tag, otherwise {@code null}. */
+  public String singleTag() {
+    return root instanceof Tag tag ? tag.value() : null;
+  }
+
+  /** Whether any conjunction has several positive tags, so their order matters. */
+  public boolean ranksTags() {
+    return ranksTags(root);
+  }
+
+  /**
+   * The filter on the {@code tags} property. {@code tagCounts} gives the number of files in scope
+   * per tag; tags it does not know sort last.
+   */
+  public Criteria toCriteria(Map<String, Long> tagCounts) {
+    return compile(root, tagCounts);
+  }
+
+  /** A normalised rendering, stable for equivalent spellings; used as a cache key. */
+  @Override
+  public String toString() {
+    return root instanceof Tag tag ? tag.value() : render(root, false);
+  }
+
+  private static Criteria compile(Node node, Map<String, Long> counts) {
+    return switch (node) {
+      case Tag tag -> Criteria.where("tags").is(tag.value());
+      case Not not when not.node() instanceof Tag tag -> Criteria.where("tags").ne(tag.value());
+      case Not not -> new Criteria().norOperator(compile(not.node(), counts));
+      case And and -> compileAnd(and, counts);
+      case Or or -> compileOr(or, counts);
+    };
+  }
+
+  private static Criteria compileAnd(And and, Map<String, Long> counts) {
+    List<String> include = new ArrayList<>();
+    List<String> exclude = new ArrayList<>();
+    List<Criteria> rest = new ArrayList<>();
+    for (Node child : and.nodes()) {
+      if (child instanceof Tag tag) {
+        include.add(tag.value());
+      } else if (child instanceof Not not && not.node() instanceof Tag tag) {
+        exclude.add(tag.value());
+      } else {
+        rest.add(compile(child, counts));
+      }
+    }
+    if (include.isEmpty() && exclude.isEmpty()) {
+      return new Criteria().andOperator(rest);
+    }
+    Criteria tags = Criteria.where("tags");
+    if (!include.isEmpty()) {
+      tags.all(
+          include.stream()
+              .distinct()
+              .sorted(Comparator.comparingLong(t -> counts.getOrDefault(t, Long.MAX_VALUE)))
+              .toList());
+    }
+    if (!exclude.isEmpty()) {
+      tags.nin(exclude.stream().distinct().toList());
+    }
+    return rest.isEmpty() ? tags : tags.andOperator(rest);
+  }
+
+  private static Criteria compileOr(Or or, Map<String, Long> counts) {
+    List<String> any = new ArrayList<>();
+    List<Criteria> rest = new ArrayList<>();
+    for (Node child : or.nodes()) {
+      if (child instanceof Tag tag) {
+        any.add(tag.value());
+      } else {
+        rest.add(compile(child, counts));
+      }
+    }
+    if (rest.isEmpty()) {
+      return Criteria.where("tags").in(any.stream().distinct().toList());
+    }
+    if (!any.isEmpty()) {
+      rest.add(0, Criteria.where("tags").in(any.stream().distinct().toList()));
+    }
+    return new Criteria().orOperator(rest);
+  }
+
+  private static boolean ranksTags(Node node) {
+    return switch (node) {
+      case Tag tag -> false;
+      case Not not -> ranksTags(not.node());
+      case And and ->
+          and.nodes().stream().filter(n -> n instanceof Tag).count() > 1
+              || and.nodes().stream().anyMatch(TagFilter::ranksTags);
+      case Or or -> or.nodes().stream().anyMatch(TagFilter::ranksTags);
+    };
+  }
+
+  private static String render(Node node, boolean nested) {
+    return switch (node) {
+      case Tag tag -> tag.value().matches("[^\\s()\"]+") ? tag.value() : '"' + tag.value() + '"';
+      case Not not -> "NOT " + render(not.node(), true);
+      case And and -> group(and.nodes(), " AND ", nested);
+      case Or or -> group(or.nodes(), " OR ", nested);
+    };
+  }
+
+  private static String group(List<Node> nodes, String operator, boolean nested) {
+    String joined = nodes.stream().map(n -> render(n, true)).collect(Collectors.joining(operator));
+    return nested ? "(" + joined + ")" : joined;
+  }
+
+  private static boolean isOperator(String token) {
+    return KEYWORDS.contains(token) || token.equals("(") || token.equals(")");
+  }
+
+  /** Words, parentheses and quoted strings (kept with their opening quote). */
+  private static List<String> tokenize(String expression) {
+    List<String> tokens = new ArrayList<>();
+    int i = 0;
+    while (i < expression.length()) {
+      char c = expression.charAt(i);
+      if (Character.isWhitespace(c)) {
+        i++;
+      } else if (c == '(' || c == ')') {
+        tokens.add(String.valueOf(c));
+        i++;
+      } else if (c == '"') {
+        int end = expression.indexOf('"', i + 1);
+        if (end < 0) {
+          throw invalid("unterminated quote");
+        }
+        tokens.add(expression.substring(i, end));
+        i = end + 1;
+      } else {
+        int start = i;
+        while (i < expression.length()
+            && !Character.isWhitespace(expression.charAt(i))
+            && expression.charAt(i) != '('
+            && expression.charAt(i) != ')') {
+          i++;
+        }
+        tokens.add(expression.substring(start, i));
+      }
+    }
+    return tokens;
+  }
+
+  private static InvalidRequestArgumentException invalid(String reason) {
+    return new InvalidRequestArgumentException("Invalid tag filter: " + reason);
+  }
+
+  /** Recursive descent: OR binds loosest, then AND (explicit or implied), then NOT. */
+  private static final class Parser {
+    private final List<String> tokens;
+    private int pos;
+    private int terms;
+
+    Parser(List<String> tokens) {
+      this.tokens = tokens;
+    }
+
+    private int depth;
+
+    Node or() {
+      List<Node> nodes = new ArrayList<>(List.of(and()));
+      while (accept("OR")) {
+        nodes.add(and());
+      }
+      return nodes.size() == 1 ? nodes.get(0) : new Or(flatten(nodes, Or.class));
+    }
+
+    Node and() {
+      List<Node> nodes = new ArrayList<>(List.of(unary()));
+      while (pos < tokens.size() && !peek("OR") && !peek(")")) {
+        accept("AND");
+        nodes.add(unary());
+      }
+      return nodes.size() == 1 ? nodes.get(0) : new And(flatten(nodes, And.class));
+    }
+
+    Node unary() {
+      if (accept("NOT")) {
+        Node inner = nested(this::unary);
+        return inner instanceof Not not ? not.node() : new Not(inner);
+      }
+      if (accept("(")) {
+        Node inner = nested(this::or);
+        if (!accept(")")) {
+          throw invalid("missing ')'");
+        }
+        return inner;
+      }
+      if (pos >= tokens.size()) {
+        throw invalid("expected a tag");
+      }
+      String token = tokens.get(pos);
+      if (isOperator(token)) {
+        throw invalid("expected a tag before '" + token + "'");
+      }
+      pos++;
+      if (++terms > MAX_TERMS) {
+        throw invalid("more than " + MAX_TERMS + " tags");
+      }
+      String tag = token.startsWith("\"") ? token.substring(1) : token;
+      if (tag.isBlank()) {
+        throw invalid("empty tag");
+      }
+      return new Tag(tag.toLowerCase(Locale.ROOT));
+    }
+
+    private Node nested(Supplier<Node> rule) {
+      if (++depth > MAX_DEPTH) {
+        throw invalid("nested too deeply");
+      }
+      Node node = rule.get();
+      depth--;
+      return node;
+    }
+
+    private boolean peek(String token) {
+      return pos < tokens.size() && tokens.get(pos).equals(token);
+    }
+
+    private boolean accept(String token) {
+      if (peek(token)) {
+        pos++;
+        return true;
+      }
+      return false;
+    }
+
+    /** {@code (a AND b) AND c} is {@code a AND b AND c}. */
+    private static List<Node> flatten(List<Node> nodes, Class<? extends Node> type) {
+      List<Node> flat = new ArrayList<>();
+      for (Node node : nodes) {
+        if (type.isInstance(node)) {
+          flat.addAll(node instanceof And and ? and.nodes() : ((Or) node).nodes());
+        } else {
+          flat.add(node);
+        }
+      }
+      return flat;
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.storage_app.blob.PackBlobStore;
+import com.example.storage_app.controller.dto.ArchiveReport;
+import com.example.storage_app.controller.dto.FileResponse;
+import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.Pack;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.service.PackArchiver;
+import com.example.storage_app.service.TrashService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+/**
+ * Cold files through the archival tier: packed out of GridFS, downloaded from the pack, deleted,
+ * compacted into a smaller pack and the old pack deleted. {@code cold-after} is negative so the
+ * files just uploaded count as cold; pack ages are set by hand instead of waiting an interval.
+ */
+@SpringBootTest(
+    properties = {
+      "storage.derivatives.enabled=false",
+      "storage.archive.cold-after=-1m",
+      "storage.trash.retention=0s"
+    })
+@AutoConfigureMockMvc
+@Import(TestcontainersConfiguration.class)
+class FileStorageArchiveIntegrationTest {
+  private static final String USER = "archive-user";
+
+  @Autowired private MockMvc mockMvc;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private PackArchiver packArchiver;
+  @Autowired private TrashService trashService;
+
+  @Test
+  void coldFiles_arePackedServedCompactedAndTheirOldPackDeleted() throws Exception {
+    FileResponse kept = upload("kept.txt", "kept content");
+    FileResponse gone1 = upload("gone-1.txt", "first deleted content");
+    FileResponse gone2 = upload("gone-2.txt", "second deleted content");
+
+    ArchiveReport packed = packArchiver.archive();
+
+    assertEquals(new ArchiveReport(3, 1, 0, 0, 0), packed);
+    Document descriptor = descriptor(kept);
+    Document metadata = descriptor.get("metadata", Document.class);
+    assertEquals(PackBlobStore.NAME, metadata.getString("store"));
+    ObjectId firstPack = metadata.getObjectId(PackBlobStore.METADATA_PACK);
+    // The chunks stay an interval for downloads that started on them.
+    assertEquals(3, mongoTemplate.getCollection("fs.chunks").countDocuments());
+    assertEquals("kept content", download(kept));
+    assertEquals("second deleted content", download(gone2));
+
+    for (FileResponse gone : List.of(gone1, gone2)) {
+      mockMvc
+          .perform(
+              MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", gone.id())
+                  .header("X-User-Id", USER))
+          .andExpect(status().isNoContent());
+    }
+    assertEquals(2, trashService.reap());
+    Pack sparse = mongoTemplate.findById(firstPack, Pack.class);
+    assertEquals(1, sparse.getLiveMembers());
+    assertEquals("kept content".length(), sparse.getLiveBytes());
+
+    age("createdAt", firstPack);
+    ArchiveReport compacted = packArchiver.archive();
+
+    assertEquals(new ArchiveReport(0, 1, 1, 0, 0), compacted);
+    assertEquals(0, mongoTemplate.getCollection("fs.chunks").countDocuments());
+    ObjectId secondPack =
+        descriptor(kept).get("metadata", Document.class).getObjectId(PackBlobStore.METADATA_PACK);
+    assertNotEquals(firstPack, secondPack);
+    assertEquals(
+        "kept content".length(), mongoTemplate.findById(secondPack, Pack.class).getLength());
+    assertEquals("kept content", download(kept));
+
+    age("retiredAt", firstPack);
+    ArchiveReport deleted = packArchiver.archive();
+
+    assertEquals(new ArchiveReport(0, 0, 0, 1, sparse.getLength()), deleted);
+    assertNull(mongoTemplate.findById(firstPack, Pack.class));
+    assertEquals(
+        0,
+        mongoTemplate
+            .getCollection(PackBlobStore.BUCKET + ".files")
+            .countDocuments(new Document("_id", firstPack)));
+    assertEquals("kept content", download(kept));
+  }
+
+  private void age(String field, ObjectId pack) {
+    mongoTemplate.updateFirst(
+        Query.query(Criteria.where("_id").is(pack)), Update.update(field, new Date(0)), Pack.class);
+  }
+
+  private Document descriptor(FileResponse file) {
+    FileRecord record =
+        mongoTemplate.findOne(
+            Query.query(Criteria.where("filename").is(file.id())), FileRecord.class);
+    return mongoTemplate.findOne(
+        Query.query(Criteria.where("_id").is(new ObjectId(record.getId()))),
+        Document.class,
+        "fs.files");
+  }
+
+  private String download(FileResponse file) throws Exception {
+    return mockMvc
+        .perform(MockMvcRequestBuilders.get(file.downloadLink()))
+        .andExpect(status().isOk())
+        .andReturn()
+        .getResponse()
+        .getContentAsString();
+  }
+
+  private FileResponse upload(String name, String content) throws Exception {
+    MockMultipartFile file =
+        new MockMultipartFile("file", name, MediaType.TEXT_PLAIN_VALUE, content.getBytes());
+    MockMultipartFile properties =
+        new MockMultipartFile(
+            "properties",
+            null,
+            MediaType.APPLICATION_JSON_VALUE,
+            objectMapper.writeValueAsBytes(
+                new FileUploadRequest(name, Visibility.PRIVATE, List.of())));
+    String body =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.multipart("/api/v1/files")
+                    .file(file)
+                    .file(properties)
+                    .header("X-User-Id", USER))
+            .andExpect(status().isCreated())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    return objectMapper.readValue(body, FileResponse.class);
+  }
+}
@@ -0,0 +1,242 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.storage_app.blob.BlobStore;
+import com.example.storage_app.blob.GridFsBlobStore;
+import com.example.storage_app.blob.LocalFsBlobStore;
+import com.example.storage_app.controller.dto.FileResponse;
+import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.service.TrashService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+
+/**
+ * Uploads to the local-filesystem store: a file goes through upload, download, delete and reap with
+ * its content on disk and only a descriptor in GridFS. Then a head-to-head benchmark of the two
+ * stores: {@code blob.puts} blobs of {@code blob.size} bytes (200 of 1 MiB by default) written and
+ * read back from {@code blob.threads} threads, reported as throughput and p99 latency.
+ */
+@SpringBootTest(
+    properties = {
+      "storage.derivatives.enabled=false",
+      "storage.blob.store=local",
+      "storage.trash.retention=0s"
+    })
+@AutoConfigureMockMvc
+@Import(TestcontainersConfiguration.class)
+class FileStorageBlobStoreIntegrationTest {
+  private static final Logger log =
+      LoggerFactory.getLogger(FileStorageBlobStoreIntegrationTest.class);
+  private static final int PUTS = Integer.getInteger("blob.puts", 200);
+  private static final int SIZE = Integer.getInteger("blob.size", 1 << 20);
+  private static final int THREADS = Integer.getInteger("blob.threads", 8);
+
+  @TempDir static Path root;
+
+  @DynamicPropertySource
+  static void localRoot(DynamicPropertyRegistry registry) {
+    registry.add("storage.blob.local-root", () -> root.toString());
+  }
+
+  @Autowired private MockMvc mockMvc;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private TrashService trashService;
+  @Autowired private GridFsBlobStore gridFsBlobStore;
+  @Autowired private LocalFsBlobStore localFsBlobStore;
+
+  @Test
+  void localStore_servesUploadDownloadAndReap() throws Exception {
+    byte[] content = bytes(300_000);
+    FileResponse uploaded = upload("local.bin", content);
+    FileRecord record =
+        mongoTemplate.findOne(
+            Query.query(Criteria.where("filename").is(uploaded.id())), FileRecord.class);
+    ObjectId id = new ObjectId(record.getId());
+
+    assertEquals(LocalFsBlobStore.NAME, record.getBlobStore());
+    assertEquals(content.length, localFsBlobStore.stat(id).orElseThrow().length());
+    Document descriptor =
+        mongoTemplate.findOne(
+            Query.query(Criteria.where("_id").is(id)), Document.class, "fs.files");
+    assertEquals(0, descriptor.getInteger("chunkSize"));
+    assertEquals((long) content.length, descriptor.getLong("length"));
+    assertEquals(
+        0, mongoTemplate.getCollection("fs.chunks").countDocuments(new Document("files_id", id)));
+
+    byte[] downloaded =
+        mockMvc
+            .perform(MockMvcRequestBuilders.get(uploaded.downloadLink()))
+            .andExpect(status().isOk())
+            .andReturn()
+            .getResponse()
+            .getContentAsByteArray();
+    assertArrayEquals(content, downloaded);
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", uploaded.id())
+                .header("X-User-Id", "blob-user"))
+        .andExpect(status().isNoContent());
+    trashService.reap();
+
+    assertTrue(localFsBlobStore.stat(id).isEmpty());
+    assertNull(
+        mongoTemplate.findOne(
+            Query.query(Criteria.where("_id").is(id)), Document.class, "fs.files"));
+  }
+
+  @Test
+  void benchmark_gridFsAgainstLocalFiles() throws Exception {
+    for (BlobStore store : List.of(gridFsBlobStore, localFsBlobStore)) {
+      run(store, Math.max(1, PUTS / 10)); // warm-up
+      run(store, PUTS);
+    }
+  }
+
+  private void run(BlobStore store, int puts) throws Exception {
+    byte[] content = bytes(SIZE);
+    List<ObjectId> ids = new ArrayList<>();
+    for (int i = 0; i < puts; i++) {
+      ids.add(new ObjectId());
+    }
+    long[] putNanos = new long[puts];
+    long[] getNanos = new long[puts];
+    long putWall =
+        timed(
+            puts,
+            i -> {
+              long start = System.nanoTime();
+              store.put(
+                  ids.get(i),
+                  "bench-" + i,
+                  "application/octet-stream",
+                  new Document(),
+                  new ByteArrayInputStream(content));
+              putNanos[i] = System.nanoTime() - start;
+            });
+    long getWall =
+        timed(
+            puts,
+            i -> {
+              long start = System.nanoTime();
+              try (InputStream in = store.get(ids.get(i), 0, -1)) {
+                assertEquals(SIZE, in.transferTo(OutputStream.nullOutputStream()));
+              }
+              getNanos[i] = System.nanoTime() - start;
+            });
+    ids.forEach(store::delete);
+    log.info(
+        "{}: put {} MB/s, p99 {} ms; get {} MB/s, p99 {} ms ({} x {} bytes, {} threads)",
+        store.name(),
+        String.format("%.1f", megabytesPerSecond(puts, putWall)),
+        String.format("%.2f", p99Millis(putNanos)),
+        String.format("%.1f", megabytesPerSecond(puts, getWall)),
+        String.format("%.2f", p99Millis(getNanos)),
+        puts,
+        SIZE,
+        THREADS);
+  }
+
+  private interface Op {
+    void run(int i) throws IOException;
+  }
+
+  /** Runs {@code op} for {@code 0..n-1} on {@link #THREADS} threads; returns the wall time. */
+  private static long timed(int n, Op op) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < n; i++) {
+        int index = i;
+        futures.add(
+            executor.submit(
+                () -> {
+                  op.run(index);
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      return System.nanoTime() - start;
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private static double megabytesPerSecond(int n, long wallNanos) {
+    return (double) n * SIZE / (1 << 20) / (wallNanos / 1e9);
+  }
+
+  private static double p99Millis(long[] nanos) {
+    long[] sorted = nanos.clone();
+    Arrays.sort(sorted);
+    return sorted[(int) Math.ceil(sorted.length * 0.99) - 1] / 1e6;
+  }
+
+  private FileResponse upload(String name, byte[] content) throws Exception {
+    MockMultipartFile file =
+        new MockMultipartFile("file", name, MediaType.APPLICATION_OCTET_STREAM_VALUE, content);
+    MockMultipartFile properties =
+        new MockMultipartFile(
+            "properties",
+            null,
+            MediaType.APPLICATION_JSON_VALUE,
+            objectMapper.writeValueAsBytes(
+                new FileUploadRequest(name, Visibility.PRIVATE, List.of())));
+    String body =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.multipart("/api/v1/files")
+                    .file(file)
+                    .file(properties)
+                    .header("X-User-Id", "blob-user"))
+            .andExpect(status().isCreated())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    return objectMapper.readValue(body, FileResponse.class);
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
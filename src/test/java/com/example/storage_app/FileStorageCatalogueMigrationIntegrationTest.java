@@ -0,0 +1,120 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.config.FileCatalogueMigration;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.repository.FileRecordRepository;
+import com.example.storage_app.util.FileIds;
+import com.example.storage_app.util.FilenameSearchKeys;
+import com.example.storage_app.util.TagDictionary;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Migration of {@code fs.files} as earlier versions wrote it: every file gets a catalogue entry
+ * with derived keys filled in and binary ids, the indexes that served the catalogue on {@code
+ * fs.files} are dropped, and a second run finds nothing to do. Indexes {@code fs.files} has gained
+ * since, the archiver's, survive the migration on every restart.
+ */
+@SpringBootTest(properties = "storage.derivatives.enabled=false")
+@Import(TestcontainersConfiguration.class)
+class FileStorageCatalogueMigrationIntegrationTest {
+  private static final int FILES = 2500;
+
+  @Autowired private ConfigurableApplicationContext applicationContext;
+  @Autowired private FileCatalogueMigration migration;
+  @Autowired private FileRecordRepository fileRecordRepository;
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private TagDictionary tagDictionary;
+
+  @Test
+  void migrate_catalogsEveryLegacyFileAndDropsTheLegacyIndexes() {
+    List<Document> files = new ArrayList<>();
+    for (int i = 0; i < FILES; i++) {
+      files.add(
+          new Document("_id", new ObjectId())
+              .append("filename", UUID.randomUUID().toString())
+              .append("length", (long) i)
+              .append("chunkSize", 261120)
+              .append("uploadDate", new Date())
+              .append(
+                  "metadata",
+                  new Document("ownerId", "owner-" + (i % 7))
+                      .append("originalFilename", "Legacy-" + i + ".TXT")
+                      .append("visibility", "PUBLIC")
+                      .append("tags", List.of("b", "a"))
+                      .append("contentType", "text/plain")
+                      .append("token", UUID.randomUUID().toString())
+                      .append("sha256", UUID.randomUUID().toString())));
+    }
+    mongoTemplate.getCollection("fs.files").insertMany(files);
+    mongoTemplate.getCollection("fs.files").createIndex(new Document("metadata.visibility", 1));
+
+    FileCatalogueMigration.Report report = migration.migrate();
+
+    assertNotNull(report);
+    assertEquals(FILES, report.copied());
+    assertEquals(2 * FILES, report.convertedIds());
+    assertEquals(FILES, report.internedTagFiles());
+    assertTrue(report.droppedIndexes().contains("metadata.visibility_1"));
+    assertEquals(Set.of("_id_", "archive_candidates_idx", "pack_members_idx"), gridFsIndexNames());
+
+    Document legacy = files.get(42);
+    FileRecord record =
+        fileRecordRepository.findByFilename(legacy.getString("filename")).orElseThrow();
+    assertEquals(legacy.getObjectId("_id").toHexString(), record.getId());
+    assertEquals("owner-0", record.getOwnerId());
+    assertEquals(Visibility.PUBLIC, record.getVisibility());
+    assertEquals(42L, record.getSize());
+    assertEquals(List.of("b", "a"), record.getTags());
+    assertEquals("a", record.getFirstTag());
+    assertEquals("b", record.getLastTag());
+    assertEquals(FilenameSearchKeys.normalize("Legacy-42.TXT"), record.getFilenameKey());
+    assertNotNull(record.getUploadDate());
+    Document stored =
+        mongoTemplate
+            .getCollection(FileRecord.COLLECTION)
+            .find(new Document("_id", legacy.get("_id")))
+            .first();
+    assertEquals(FileIds.toBson(legacy.getString("filename")), stored.get("f"));
+    assertFalse(stored.get("tk") instanceof String);
+    assertEquals(
+        List.of(tagDictionary.find("b"), tagDictionary.find("a")),
+        stored.getList("t", Object.class));
+
+    assertNull(migration.migrate());
+  }
+
+  @Test
+  void restart_keepsTheIndexesAddedToFsFilesSinceTheMigration() {
+    Set<String> before = gridFsIndexNames();
+    assertTrue(before.containsAll(Set.of("archive_candidates_idx", "pack_members_idx")));
+
+    // Both startup listeners run again, in their order, as on the next boot.
+    applicationContext.publishEvent(new ContextRefreshedEvent(applicationContext));
+
+    assertEquals(before, gridFsIndexNames());
+    assertNull(migration.migrate());
+  }
+
+  private Set<String> gridFsIndexNames() {
+    return mongoTemplate.getCollection("fs.files").listIndexes().into(new ArrayList<>()).stream()
+        .map(index -> index.getString("name"))
+        .collect(Collectors.toSet());
+  }
+}
@@ -0,0 +1,81 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.util.FileIds;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Supplier;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Benchmark of the id layout: random UUID strings against time-ordered binary UUIDs, by unique
+ * index size after the same number of inserts and by insert throughput. Only the index size is
+ * asserted; the throughput is logged, since it depends on the machine. Id generation itself is
+ * measured by {@code IdGenerationBenchmark} under {@code src/jmh}.
+ */
+@SpringBootTest(properties = "storage.derivatives.enabled=false")
+@Import(TestcontainersConfiguration.class)
+class FileStorageIdLayoutIntegrationTest {
+  private static final Logger log =
+      LoggerFactory.getLogger(FileStorageIdLayoutIntegrationTest.class);
+  private static final int FILES = 100_000;
+  private static final int BATCH = 1000;
+
+  @Autowired private MongoTemplate mongoTemplate;
+
+  @Test
+  void timeOrderedBinaryIds_keepTheIndexSmallerThanRandomStrings() {
+    long randomStrings = insert("ids_random_string", () -> UUID.randomUUID().toString());
+    long timeOrderedBinary =
+        insert("ids_time_ordered_binary", () -> FileIds.toBson(FileIds.timeOrdered().toString()));
+
+    assertTrue(
+        timeOrderedBinary < randomStrings,
+        "index bytes: time-ordered binary "
+            + timeOrderedBinary
+            + ", random strings "
+            + randomStrings);
+  }
+
+  /** Inserts {@link #FILES} ids under a unique index and returns that index's size in bytes. */
+  private long insert(String collectionName, Supplier<Object> ids) {
+    mongoTemplate.dropCollection(collectionName);
+    MongoCollection<Document> collection = mongoTemplate.getCollection(collectionName);
+    collection.createIndex(new Document("f", 1), new IndexOptions().name("f").unique(true));
+    long started = System.nanoTime();
+    for (int i = 0; i < FILES; i += BATCH) {
+      List<Document> batch = new ArrayList<>(BATCH);
+      for (int j = 0; j < BATCH; j++) {
+        batch.add(new Document("f", ids.get()));
+      }
+      collection.insertMany(batch);
+    }
+    long insertNanos = System.nanoTime() - started;
+    mongoTemplate.getDb().runCommand(new Document("fsync", 1));
+    Document stats =
+        collection
+            .aggregate(
+                List.of(new Document("$collStats", new Document("storageStats", new Document()))))
+            .first()
+            .get("storageStats", Document.class);
+    long indexBytes = ((Number) stats.get("indexSizes", Document.class).get("f")).longValue();
+    log.info(
+        "{}: {} inserts/s, id index {} bytes ({} per file)",
+        collectionName,
+        FILES * 1_000_000_000L / insertNanos,
+        indexBytes,
+        indexBytes / FILES);
+    return indexBytes;
+  }
+}
@@ -0,0 +1,276 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.example.storage_app.config.FileCatalogueMigration;
+import com.example.storage_app.controller.dto.CursorPagedResponse;
+import com.example.storage_app.controller.dto.FileResponse;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.FilenameMatch;
+import com.example.storage_app.model.TotalMode;
+import com.example.storage_app.service.FileService;
+import com.example.storage_app.util.FilenameSearchKeys;
+import com.example.storage_app.util.RangeFilter;
+import com.mongodb.event.CommandListener;
+import com.mongodb.event.CommandStartedEvent;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.mongo.MongoClientSettingsBuilderCustomizer;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Explain-plan regression harness for the listing indexes. Seeds {@code fs.files} as earlier
+ * versions wrote it, migrates it into the file catalogue, runs every listing variant for every
+ * scope, tag filter, range filter, sort field and direction, captures the commands the service
+ * actually sends, and fails unless each one is planned as an index scan without a blocking SORT or
+ * a collection scan.
+ */
+@SpringBootTest(properties = "storage.derivatives.enabled=false")
+@Import({
+  TestcontainersConfiguration.class,
+  FileStorageIndexPlanIntegrationTest.CaptureConfig.class
+})
+class FileStorageIndexPlanIntegrationTest {
+  private static final List<String> OWNERS = List.of("alice", "bob", "carol", "dave");
+  private static final List<String> TAGS =
+      List.of("t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7", "t8", "t9");
+  private static final List<String> SORTS =
+      List.of("filename", "uploadDate", "contentType", "size", "tag");
+  private static final Set<String> LISTING_COMMANDS = Set.of("find", "aggregate", "count");
+  private static final Set<String> ENVELOPE_FIELDS =
+      Set.of("lsid", "txnNumber", "readConcern", "writeConcern", "apiVersion");
+  private static final List<BsonDocument> captured = new CopyOnWriteArrayList<>();
+
+  @Autowired private FileService fileService;
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private FileCatalogueMigration catalogueMigration;
+
+  @TestConfiguration(proxyBeanMethods = false)
+  static class CaptureConfig {
+    @Bean
+    MongoClientSettingsBuilderCustomizer captureListingCommands() {
+      return settings ->
+          settings.addCommandListener(
+              new CommandListener() {
+                @Override
+                public void commandStarted(CommandStartedEvent event) {
+                  BsonDocument command = event.getCommand();
+                  if (LISTING_COMMANDS.contains(event.getCommandName())
+                      && command.isString(event.getCommandName())
+                      && command
+                          .getString(event.getCommandName())
+                          .getValue()
+                          .equals(FileRecord.COLLECTION)) {
+                    captured.add(explainable(command));
+                  }
+                }
+              });
+    }
+  }
+
+  /** The command without its session, cluster time and other envelope fields. */
+  private static BsonDocument explainable(BsonDocument command) {
+    BsonDocument copy = new BsonDocument();
+    // Deep copy: the event's document is only valid during the callback.
+    for (Map.Entry<String, BsonValue> field : command.clone().entrySet()) {
+      if (!field.getKey().startsWith("$") && !ENVELOPE_FIELDS.contains(field.getKey())) {
+        copy.append(field.getKey(), field.getValue());
+      }
+    }
+    return copy;
+  }
+
+  private void seed() {
+    Random random = new Random(7);
+    List<Document> files = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      String owner = OWNERS.get(i % OWNERS.size());
+      List<String> tags =
+          random.ints(3, 0, TAGS.size()).distinct().mapToObj(TAGS::get).sorted().toList();
+      Date uploaded = new Date(1_700_000_000_000L + random.nextInt(1_000_000_000));
+      long length = random.nextInt(10_000_000);
+      files.add(
+          new Document("_id", new ObjectId())
+              .append("filename", UUID.randomUUID().toString())
+              .append("length", length)
+              .append("chunkSize", 261120)
+              .append("uploadDate", uploaded)
+              .append(
+                  "metadata",
+                  new Document("ownerId", owner)
+                      .append("originalFilename", "File-" + i + ".bin")
+                      .append("filenameKey", "file-" + i + ".bin")
+                      .append("filenameGrams", FilenameSearchKeys.grams("file-" + i + ".bin"))
+                      .append("visibility", i % 3 == 0 ? "PUBLIC" : "PRIVATE")
+                      .append("tags", tags)
+                      .append("firstTag", tags.get(0))
+                      .append("lastTag", tags.get(tags.size() - 1))
+                      .append("uploadDate", uploaded)
+                      .append("contentType", i % 5 == 0 ? null : "type/" + (i % 13))
+                      .append("token", UUID.randomUUID().toString())
+                      .append("sha256", UUID.randomUUID().toString())
+                      .append("size", length)));
+    }
+    mongoTemplate.getCollection("fs.files").insertMany(files);
+    catalogueMigration.migrate();
+  }
+
+  @Test
+  void everyListingShape_isAnIndexScanWithoutBlockingSort() throws Exception {
+    seed();
+    List<String> failures = new ArrayList<>();
+
+    for (String userId : Arrays.asList("alice", null)) {
+      for (String tag : Arrays.asList(null, "t1", "t1 AND t2 AND NOT t3", "t1 OR t2")) {
+        for (String sortBy : SORTS) {
+          for (String sortDir : List.of("asc", "desc")) {
+            String shape =
+                "user=%s tag=%s sortBy=%s sortDir=%s".formatted(userId, tag, sortBy, sortDir);
+
+            captured.clear();
+            fileService.listFiles(userId, tag, null, sortBy, sortDir, 1, 10);
+            check(shape + " [page]", failures);
+
+            captured.clear();
+            fileService.listFiles(userId, tag, null, sortBy, sortDir, 1, 10, TotalMode.EXACT);
+            check(shape + " [totals=exact]", failures);
+
+            captured.clear();
+            fileService.listFiles(userId, tag, null, sortBy, sortDir, 1, 10, TotalMode.NONE);
+            check(shape + " [totals=none]", failures);
+
+            captured.clear();
+            CursorPagedResponse<FileResponse> first =
+                fileService.listFiles(userId, tag, null, sortBy, sortDir, "", 10);
+            if (first.nextCursor() != null) {
+              fileService.listFiles(userId, tag, null, sortBy, sortDir, first.nextCursor(), 10);
+            }
+            check(shape + " [cursor]", failures);
+
+            captured.clear();
+            fileService
+                .streamFiles(userId, tag, null, sortBy, sortDir, 1, 10, TotalMode.EXACT)
+                .writeTo(new ByteArrayOutputStream());
+            check(shape + " [stream]", failures);
+          }
+        }
+      }
+    }
+
+    List<RangeFilter> ranges =
+        List.of(
+            RangeFilter.of(1_000L, 5_000_000L, null, null, null),
+            RangeFilter.of(null, null, "2023-11-20", "2023-12-31", null),
+            RangeFilter.of(null, 100_000L, null, null, "type/*"),
+            RangeFilter.of(null, null, null, null, "type/3"));
+    for (String userId : Arrays.asList("alice", null)) {
+      for (String tag : Arrays.asList(null, "t1", "t1 OR t2")) {
+        for (RangeFilter range : ranges) {
+          for (String sortBy : SORTS) {
+            String shape =
+                "user=%s tag=%s ranges=%s sortBy=%s".formatted(userId, tag, range, sortBy);
+
+            captured.clear();
+            fileService.listFiles(userId, tag, range, sortBy, "desc", 1, 10);
+            check(shape + " [page]", failures);
+
+            captured.clear();
+            CursorPagedResponse<FileResponse> first =
+                fileService.listFiles(userId, tag, range, sortBy, "asc", "", 10);
+            if (first.nextCursor() != null) {
+              fileService.listFiles(userId, tag, range, sortBy, "asc", first.nextCursor(), 10);
+            }
+            check(shape + " [cursor]", failures);
+          }
+        }
+      }
+    }
+
+    captured.clear();
+    fileService.exportFiles("alice", new ByteArrayOutputStream());
+    check("export user=alice", failures);
+
+    for (String userId : Arrays.asList("alice", null)) {
+      captured.clear();
+      fileService.searchFiles(userId, "FILE-12", FilenameMatch.PREFIX, 20);
+      check("search prefix user=" + userId, failures);
+
+      captured.clear();
+      fileService.searchFiles(userId, "-12", FilenameMatch.CONTAINS, 20);
+      check("search contains user=" + userId, failures);
+    }
+
+    assertTrue(failures.isEmpty(), "Listing queries without a usable index:\n" + failures);
+  }
+
+  private void check(String shape, List<String> failures) {
+    assertTrue(!captured.isEmpty(), "No catalogue command captured for " + shape);
+    for (BsonDocument command : captured) {
+      Document explain =
+          mongoTemplate
+              .getDb()
+              .runCommand(
+                  new BsonDocument("explain", command)
+                      .append("verbosity", new BsonString("queryPlanner")));
+      List<String> stages = new ArrayList<>();
+      collectStages(explain, false, stages);
+      boolean indexed =
+          stages.contains("IXSCAN")
+              || stages.contains("COUNT_SCAN")
+              || stages.contains("EXPRESS_IXSCAN");
+      if (!indexed
+          || stages.contains("SORT")
+          || stages.contains("$sort")
+          || stages.contains("COLLSCAN")) {
+        failures.add(shape + " " + command.toJson() + " -> " + stages);
+      }
+    }
+  }
+
+  /**
+   * Stage names of every winning plan in an explain output, plus {@code $sort} for a sort left in
+   * the aggregation pipeline (which runs in memory). Covers both classic and SBE explain layouts.
+   */
+  private static void collectStages(Object node, boolean inPlan, List<String> stages) {
+    if (node instanceof Document document) {
+      for (var entry : document.entrySet()) {
+        String key = entry.getKey();
+        if (inPlan && key.equals("stage") && entry.getValue() instanceof String stage) {
+          stages.add(stage);
+        } else if (key.equals("stages") && entry.getValue() instanceof List<?> pipeline) {
+          for (Object stage : pipeline) {
+            if (stage instanceof Document d && d.containsKey("$sort")) {
+              stages.add("$sort");
+            }
+          }
+          collectStages(pipeline, inPlan, stages);
+        } else {
+          collectStages(entry.getValue(), inPlan || key.equals("winningPlan"), stages);
+        }
+      }
+    } else if (node instanceof List<?> list) {
+      for (Object item : list) {
+        collectStages(item, inPlan, stages);
+      }
+    }
+  }
+}
@@ -6,18 +6,25 @@ import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
 
+import com.example.storage_app.controller.dto.BulkOperation;
+import com.example.storage_app.controller.dto.BulkUpdateRequest;
 import com.example.storage_app.controller.dto.FileResponse;
 import com.example.storage_app.controller.dto.FileUpdateRequest;
 import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.TrashedFile;
 import com.example.storage_app.model.Visibility;
 import com.example.storage_app.repository.FileRecordRepository;
+import com.example.storage_app.service.TrashService;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 import java.util.UUID;
 import java.util.stream.StreamSupport;
@@ -39,7 +46,9 @@ import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
 import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
 import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.annotation.DirtiesContext;
@@ -65,6 +74,8 @@ public class FileStorageIntegrationTests {
 
   @Autowired private FileRecordRepository fileRecordRepository;
 
+  @Autowired private TrashService trashService;
+
   private final String testUserId = "int-test-user-123";
 
   @BeforeEach
@@ -103,7 +114,8 @@ public class FileStorageIntegrationTests {
     logAllMongoDocuments("Before tearDown drop - fs.chunks");
     mongoTemplate.getDb().getCollection("fs.files").drop();
     mongoTemplate.getDb().getCollection("fs.chunks").drop();
-    log.info("Dropped fs.files and fs.chunks collections.");
+    mongoTemplate.dropCollection(FileRecord.class);
+    log.info("Dropped fs.files, fs.chunks and file catalogue collections.");
     logAllMongoDocuments("After tearDown drop - fs.files (should be empty)");
     logAllMongoDocuments("After tearDown drop - fs.chunks (should be empty)");
     logAllMongoIndexes("After tearDown drop - fs.files (indexes might be gone)");
@@ -213,11 +225,20 @@ public class FileStorageIntegrationTests {
         metadata.getString("contentType"),
         "contentType in metadata should be set correctly");
     assertEquals(testUserId, metadata.getString("ownerId"));
-    assertEquals(visibility.name(), metadata.getString("visibility"));
     assertEquals(uniqueRequestFilename, metadata.getString("originalFilename"));
-    assertTrue(metadata.getList("tags", String.class).contains(tag.toLowerCase()));
-    assertNotNull(metadata.getString("token"));
-    assertNotNull(metadata.getString("sha256"));
+    assertNull(metadata.get("visibility"), "Listing fields belong in the catalogue");
+    assertNull(metadata.get("token"), "Auth fields belong in the catalogue");
+
+    FileRecord catalogued = fileRecordRepository.findByFilename(systemFileUUID).orElseThrow();
+    assertEquals(fileDoc.getObjectId("_id").toHexString(), catalogued.getId());
+    assertEquals(testUserId, catalogued.getOwnerId());
+    assertEquals(visibility, catalogued.getVisibility());
+    assertEquals(uniqueRequestFilename, catalogued.getOriginalFilename());
+    assertEquals(providedContentType, catalogued.getContentType());
+    assertEquals(contentBytes.length, catalogued.getSize());
+    assertTrue(catalogued.getTags().contains(tag.toLowerCase()));
+    assertNotNull(catalogued.getToken());
+    assertNotNull(catalogued.getSha256());
 
     ObjectId actualFileObjectId = fileDoc.getObjectId("_id");
     assertNotNull(actualFileObjectId, "_id not found in retrieved fileDoc");
@@ -285,11 +306,11 @@ public class FileStorageIntegrationTests {
 
     Query filesQuery =
         Query.query(
-            Criteria.where("metadata.originalFilename")
+            Criteria.where("originalFilename")
                 .is(commonOriginalFilename)
-                .and("metadata.ownerId")
+                .and("ownerId")
                 .is(testUserId));
-    long count = mongoTemplate.count(filesQuery, "fs.files");
+    long count = mongoTemplate.count(filesQuery, FileRecord.class);
     assertEquals(
         1,
         count,
@@ -364,13 +385,9 @@ public class FileStorageIntegrationTests {
         "File document for the first upload should still exist, queried by its system UUID.");
 
     Query secondFileQuery =
-        Query.query(
-            Criteria.where("metadata.originalFilename")
-                .is(filename2)
-                .and("metadata.ownerId")
-                .is(testUserId));
+        Query.query(Criteria.where("originalFilename").is(filename2).and("ownerId").is(testUserId));
     assertFalse(
-        mongoTemplate.exists(secondFileQuery, "fs.files"),
+        mongoTemplate.exists(secondFileQuery, FileRecord.class),
         "File with originalFilename \'"
             + filename2
             + "\' for this user should not exist after failed upload.");
@@ -421,6 +438,60 @@ public class FileStorageIntegrationTests {
         metadata.getString("originalFilename"),
         "User-provided filename should be updated in metadata");
     assertEquals(userIdToUse, metadata.getString("ownerId"));
+    assertEquals(
+        newFilename_target,
+        fileRecordRepository.findByFilename(fileId).orElseThrow().getOriginalFilename());
+  }
+
+  @Test
+  void testIfMatch_rejectsUpdatesAndDeletesAgainstAStaleVersion() throws Exception {
+    String user = testUserId + "-ifMatch";
+    FileResponse uploaded =
+        uploadHelper(
+            user,
+            "versioned-" + UUID.randomUUID() + ".txt",
+            "text/plain",
+            "versioned content",
+            Visibility.PRIVATE,
+            List.of());
+    assertEquals(0L, uploaded.version());
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.patch("/api/v1/files/{fileId}", uploaded.id())
+                .header("X-User-Id", user)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new FileUpdateRequest("first.txt"))))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"1\""));
+
+    // A second writer still holding version 0 loses, for renames and deletes alike.
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.patch("/api/v1/files/{fileId}", uploaded.id())
+                .header("X-User-Id", user)
+                .header(HttpHeaders.IF_MATCH, "\"0\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(new FileUpdateRequest("second.txt"))))
+        .andExpect(status().isPreconditionFailed());
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", uploaded.id())
+                .header("X-User-Id", user)
+                .header(HttpHeaders.IF_MATCH, "\"0\""))
+        .andExpect(status().isPreconditionFailed());
+    assertEquals(
+        "first.txt",
+        fileRecordRepository.findByFilename(uploaded.id()).orElseThrow().getOriginalFilename());
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", uploaded.id())
+                .header("X-User-Id", user)
+                .header(HttpHeaders.IF_MATCH, "\"1\""))
+        .andExpect(status().isNoContent());
+    assertTrue(fileRecordRepository.findByFilename(uploaded.id()).isEmpty());
   }
 
   @Test
@@ -465,6 +536,60 @@ public class FileStorageIntegrationTests {
                         + "' already exists for this user (filename conflict during update)."));
   }
 
+  @Test
+  void testBulkUpdate_appliesEachOperationAndReportsConflicts() throws Exception {
+    String user = testUserId + "-bulk";
+    FileResponse first =
+        uploadHelper(user, "bulk-a.txt", "text/plain", "a", Visibility.PRIVATE, List.of("old"));
+    FileResponse second =
+        uploadHelper(user, "bulk-b.txt", "text/plain", "b", Visibility.PRIVATE, List.of());
+    FileResponse foreign =
+        uploadHelper("someone-else", "bulk-c.txt", "text/plain", "c", Visibility.PRIVATE, null);
+
+    BulkUpdateRequest request =
+        new BulkUpdateRequest(
+            List.of(
+                new BulkOperation(
+                    first.id(),
+                    "bulk-renamed.txt",
+                    Visibility.PUBLIC,
+                    List.of("New"),
+                    List.of("old"),
+                    null),
+                new BulkOperation(second.id(), "bulk-renamed.txt", null, null, null, null),
+                new BulkOperation(foreign.id(), null, Visibility.PUBLIC, null, null, null)));
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post("/api/v1/files/bulk")
+                .header("X-User-Id", user)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.updated").value(1))
+        .andExpect(jsonPath("$.results[0].status").value("UPDATED"))
+        .andExpect(jsonPath("$.results[1].status").value("CONFLICT"))
+        .andExpect(jsonPath("$.results[2].status").value("FORBIDDEN"));
+
+    FileRecord renamed = fileRecordRepository.findByFilename(first.id()).orElseThrow();
+    assertEquals("bulk-renamed.txt", renamed.getOriginalFilename());
+    assertEquals(Visibility.PUBLIC, renamed.getVisibility());
+    assertEquals(List.of("new"), renamed.getTags());
+    assertEquals("new", renamed.getFirstTag());
+    assertEquals(
+        "bulk-b.txt",
+        fileRecordRepository.findByFilename(second.id()).orElseThrow().getOriginalFilename());
+    assertEquals(
+        Visibility.PRIVATE,
+        fileRecordRepository.findByFilename(foreign.id()).orElseThrow().getVisibility());
+    Document gridFsMetadata =
+        mongoTemplate
+            .getCollection("fs.files")
+            .find(new Document("filename", first.id()))
+            .first()
+            .get("metadata", Document.class);
+    assertEquals("bulk-renamed.txt", gridFsMetadata.getString("originalFilename"));
+  }
+
   @Test
   void testDeleteFile_success_removesFromDB() throws Exception {
     String filename_setup = "to-be-deleted-" + UUID.randomUUID() + ".txt";
@@ -485,14 +610,93 @@ public class FileStorageIntegrationTests {
                 .header("X-User-Id", userIdForDelete)) // Use the owner's ID
         .andExpect(status().isNoContent()); // Expect 204 No Content
 
+    assertFalse(
+        fileRecordRepository.findByFilename(fileId_systemUUID).isPresent(),
+        "FileRecord should be gone from the catalogue at once");
+    TrashedFile trashed = trashService.find(fileId_systemUUID).orElseThrow();
     Query fileQuery = Query.query(Criteria.where("filename").is(fileId_systemUUID));
+    Document gridFsFile = mongoTemplate.findOne(fileQuery, Document.class, "fs.files");
+    assertNotNull(
+        gridFsFile.get("metadata", Document.class).get(TrashService.GRIDFS_DELETED_AT),
+        "Content stays until the reaper runs, marked as deleted");
+
+    // Past its retention the reaper purges the content.
+    mongoTemplate.updateFirst(
+        Query.query(Criteria.where("_id").is(new ObjectId(trashed.getId()))),
+        Update.update("purgeAt", new Date(0)),
+        TrashedFile.class);
+    assertEquals(1, trashService.reap());
     assertFalse(
         mongoTemplate.exists(fileQuery, "fs.files"),
         "File document should be deleted from fs.files (queried by system UUID in filename field)");
-    // Also check FileRecord repository if it's supposed to be in sync
     assertFalse(
-        fileRecordRepository.findByFilename(fileId_systemUUID).isPresent(),
-        "FileRecord should also be deleted");
+        mongoTemplate.exists(
+            Query.query(Criteria.where("files_id").is(gridFsFile.get("_id"))), "fs.chunks"));
+    assertTrue(trashService.find(fileId_systemUUID).isEmpty());
+  }
+
+  @Test
+  void testRestoreFile_bringsADeletedFileBackUnlessItsNameWasReused() throws Exception {
+    String user = testUserId + "-restore";
+    FileResponse uploaded =
+        uploadHelper(user, "restore-me.txt", "text/plain", "restore", Visibility.PRIVATE, null);
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", uploaded.id())
+                .header("X-User-Id", user))
+        .andExpect(status().isNoContent());
+    mockMvc
+        .perform(MockMvcRequestBuilders.get(uploaded.downloadLink()))
+        .andExpect(status().isNotFound());
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post("/api/v1/files/{fileId}/restore", uploaded.id())
+                .header("X-User-Id", user))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.filename").value("restore-me.txt"));
+    mockMvc.perform(MockMvcRequestBuilders.get(uploaded.downloadLink())).andExpect(status().isOk());
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", uploaded.id())
+                .header("X-User-Id", user))
+        .andExpect(status().isNoContent());
+    uploadHelper(user, "restore-me.txt", "text/plain", "reused", Visibility.PRIVATE, null);
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post("/api/v1/files/{fileId}/restore", uploaded.id())
+                .header("X-User-Id", user))
+        .andExpect(status().isConflict());
+    assertTrue(trashService.find(uploaded.id()).isPresent());
+  }
+
+  @Test
+  void testDeleteFilesByFilter_trashesOnlyTheCallersMatchingFiles() throws Exception {
+    String user = testUserId + "-deleteByFilter";
+    FileResponse tmp =
+        uploadHelper(user, "tmp-1.txt", "text/plain", "1", Visibility.PUBLIC, List.of("tmp"));
+    FileResponse kept =
+        uploadHelper(user, "keep.txt", "text/plain", "2", Visibility.PRIVATE, List.of("keep"));
+    FileResponse foreign =
+        uploadHelper(
+            "someone-else", "tmp-2.txt", "text/plain", "3", Visibility.PRIVATE, List.of("tmp"));
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files")
+                .header("X-User-Id", user)
+                .param("tag", "tmp"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.deleted").value(1));
+
+    assertTrue(fileRecordRepository.findByFilename(tmp.id()).isEmpty());
+    assertTrue(fileRecordRepository.findByFilename(kept.id()).isPresent());
+    assertTrue(fileRecordRepository.findByFilename(foreign.id()).isPresent());
+    assertTrue(trashService.find(tmp.id()).isPresent());
+    mockMvc
+        .perform(MockMvcRequestBuilders.delete("/api/v1/files").header("X-User-Id", user))
+        .andExpect(status().isBadRequest());
   }
 
   @Test
@@ -0,0 +1,222 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.controller.dto.FileResponse;
+import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.exception.ResourceNotFoundException;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.service.FileService;
+import com.example.storage_app.service.PublicListingCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.testcontainers.containers.FixedHostPortGenericContainer;
+import org.testcontainers.containers.GenericContainer;
+import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+
+/**
+ * Read routing against a three-member replica set: listings and download content of an owner
+ * without recent writes must be served by the secondaries, an owner's upload must be visible to
+ * that owner's next listing and download, a deleted file must not be downloadable, and the public
+ * listing cache must not be refilled with a listing from before the change that invalidated it. All
+ * members run in one container on fixed ports, so the member addresses in the replica set config
+ * resolve the same from the test JVM.
+ */
+@SpringBootTest(
+    webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+    properties = "storage.derivatives.enabled=false")
+@Testcontainers
+class FileStorageReadRoutingIntegrationTest {
+  private static final Logger log =
+      LoggerFactory.getLogger(FileStorageReadRoutingIntegrationTest.class);
+  private static final List<Integer> PORTS = List.of(27020, 27021, 27022);
+  private static final int READS = 200;
+
+  @Container
+  @SuppressWarnings({"deprecation", "resource"})
+  static GenericContainer<?> replicaSet =
+      new FixedHostPortGenericContainer<>("mongo:8.0")
+          .withFixedExposedPort(PORTS.get(0), PORTS.get(0))
+          .withFixedExposedPort(PORTS.get(1), PORTS.get(1))
+          .withFixedExposedPort(PORTS.get(2), PORTS.get(2))
+          .withCommand(
+              "bash",
+              "-c",
+              "for i in 0 1 2; do mkdir -p /data/m$i && mongod --replSet rs0 --bind_ip_all"
+                  + " --port $((27020 + i)) --dbpath /data/m$i --fork --logpath /data/m$i.log;"
+                  + " done && mongosh --port 27020 --quiet --eval \"rs.initiate({_id: 'rs0',"
+                  + " members: [{_id: 0, host: 'localhost:27020', priority: 2},"
+                  + " {_id: 1, host: 'localhost:27021'}, {_id: 2, host: 'localhost:27022'}]})\""
+                  + " && tail -f /data/m0.log")
+          .waitingFor(
+              Wait.forSuccessfulCommand(
+                      "mongosh --port 27020 --quiet --eval \"quit(rs.status().members.filter(m =>"
+                          + " m.stateStr === 'PRIMARY' || m.stateStr === 'SECONDARY').length === 3"
+                          + " && db.hello().isWritablePrimary ? 0 : 1)\"")
+                  .withStartupTimeout(Duration.ofMinutes(2)));
+
+  @DynamicPropertySource
+  static void setProperties(DynamicPropertyRegistry registry) {
+    registry.add(
+        "spring.data.mongodb.uri",
+        () ->
+            "mongodb://localhost:27020,localhost:27021,localhost:27022/storage-db?replicaSet=rs0");
+  }
+
+  @Autowired private FileService fileService;
+  @Autowired private PublicListingCache publicListingCache;
+  @LocalServerPort private int port;
+
+  @Test
+  void listingsAndDownloads_ofAnOwnerWithoutRecentWrites_offloadThePrimary() throws Exception {
+    List<String> tokens = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      tokens.add(token(upload("seeder", "seed-" + i + ".txt")));
+    }
+    // The causal window only covers the uploader; a reader without writes goes to secondaries.
+    Thread.sleep(1000);
+
+    long[] before = queryCounters();
+    for (int i = 0; i < READS; i++) {
+      fileService.listFiles("reader", null, null, "uploadDate", "desc", 1, 10);
+      try (InputStream content =
+          fileService.downloadFile(tokens.get(i % tokens.size())).getBody().getInputStream()) {
+        content.readAllBytes();
+      }
+    }
+    long[] after = queryCounters();
+
+    long primary = after[0] - before[0];
+    long secondaries = (after[1] - before[1]) + (after[2] - before[2]);
+    log.info(
+        "find commands: primary={} secondaries={} (offload {}%)",
+        primary,
+        secondaries,
+        String.format("%.1f", 100.0 * secondaries / Math.max(1, primary + secondaries)));
+    // The primary serves only each download's token and file lookups.
+    assertTrue(secondaries >= 2L * READS, "secondaries served " + secondaries);
+    assertTrue(primary < 2L * READS + READS / 10, "primary served " + primary);
+  }
+
+  @Test
+  void ownUpload_isVisibleToTheOwnersNextListingAndDownload() throws Exception {
+    for (int i = 0; i < 50; i++) {
+      String userId = "writer-" + i;
+      FileResponse uploaded = upload(userId, "own-" + i + ".txt");
+
+      List<FileResponse> listed =
+          fileService.listFiles(userId, null, null, "uploadDate", "desc", 1, 10).getContent();
+      assertEquals(uploaded.id(), listed.get(0).id());
+      try (InputStream content =
+          fileService.downloadFile(token(uploaded)).getBody().getInputStream()) {
+        assertEquals("own-" + i + ".txt", new String(content.readAllBytes()));
+      }
+    }
+  }
+
+  @Test
+  void deletedFile_isNotDownloadedFromALaggingSecondary() throws Exception {
+    for (int i = 0; i < 50; i++) {
+      FileResponse uploaded = upload("deleter-" + i, "gone-" + i + ".txt");
+      String token = token(uploaded);
+      fileService.deleteFile("deleter-" + i, uploaded.id(), null);
+
+      assertThrows(ResourceNotFoundException.class, () -> fileService.downloadFile(token));
+    }
+  }
+
+  @Test
+  void publicListingCache_refilledAfterADelete_doesNotListTheDeletedFile() throws Exception {
+    HttpClient http = HttpClient.newHttpClient();
+    awaitTrue(publicListingCache::isServing);
+    for (int i = 0; i < 20; i++) {
+      String tag = "cached-" + i;
+      long generation = publicListingCache.generation();
+      FileResponse uploaded =
+          fileService.uploadFile(
+              "publisher",
+              new MockMultipartFile("file", tag + ".txt", MediaType.TEXT_PLAIN_VALUE, new byte[1]),
+              new FileUploadRequest(tag + ".txt", Visibility.PUBLIC, List.of(tag)));
+      awaitTrue(() -> publicListingCache.generation() != generation);
+      assertEquals(List.of(uploaded.id()), publicIds(http, tag));
+
+      long beforeDelete = publicListingCache.generation();
+      fileService.deleteFile("publisher", uploaded.id(), null);
+      awaitTrue(() -> publicListingCache.generation() != beforeDelete);
+      // The first listing fills the cache, the second is served from it.
+      assertEquals(List.of(), publicIds(http, tag));
+      assertEquals(List.of(), publicIds(http, tag));
+    }
+  }
+
+  private List<String> publicIds(HttpClient http, String tag) throws Exception {
+    HttpResponse<String> response =
+        http.send(
+            HttpRequest.newBuilder(
+                    URI.create("http://localhost:" + port + "/api/v1/files?tag=" + tag))
+                .build(),
+            HttpResponse.BodyHandlers.ofString());
+    assertEquals(200, response.statusCode());
+    List<String> ids = new ArrayList<>();
+    for (JsonNode file : new ObjectMapper().readTree(response.body()).get("content")) {
+      ids.add(file.get("id").asText());
+    }
+    return ids;
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "timed out");
+      Thread.sleep(10);
+    }
+  }
+
+  private FileResponse upload(String userId, String filename) throws Exception {
+    return fileService.uploadFile(
+        userId,
+        new MockMultipartFile("file", filename, MediaType.TEXT_PLAIN_VALUE, filename.getBytes()),
+        new FileUploadRequest(filename, Visibility.PUBLIC, List.of("routing")));
+  }
+
+  private static String token(FileResponse file) {
+    return file.downloadLink().substring(file.downloadLink().lastIndexOf('/') + 1);
+  }
+
+  /** {@code opcounters.query} of each member, in {@link #PORTS} order. */
+  private static long[] queryCounters() {
+    long[] counters = new long[PORTS.size()];
+    for (int i = 0; i < PORTS.size(); i++) {
+      try (MongoClient member =
+          MongoClients.create("mongodb://localhost:" + PORTS.get(i) + "/?directConnection=true")) {
+        Document status = member.getDatabase("admin").runCommand(new Document("serverStatus", 1));
+        counters[i] = ((Number) status.get("opcounters", Document.class).get("query")).longValue();
+      }
+    }
+    return counters;
+  }
+}
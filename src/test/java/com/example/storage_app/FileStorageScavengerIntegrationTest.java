@@ -0,0 +1,120 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.controller.dto.ScavengeReport;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.service.ConsistencyScavenger;
+import com.example.storage_app.service.DerivativeService;
+import com.example.storage_app.service.TrashService;
+import java.io.ByteArrayInputStream;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+
+/**
+ * One of each kind of orphan next to a catalogued and a trashed file: the scavenger removes the
+ * orphans, reports their bytes and leaves both files alone. The grace period is negative so the
+ * content just written counts as old.
+ */
+@SpringBootTest(
+    properties = {
+      "storage.derivatives.enabled=false",
+      "storage.scavenger.grace-period=-1m",
+      "storage.scavenger.purge-batch-pause=0s"
+    })
+@Import(TestcontainersConfiguration.class)
+class FileStorageScavengerIntegrationTest {
+
+  @Autowired private ConsistencyScavenger scavenger;
+  @Autowired private TrashService trashService;
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private GridFsTemplate gridFsTemplate;
+  @Autowired private MongoDatabaseFactory mongoDatabaseFactory;
+
+  @Test
+  void scavenge_removesEachKindOfOrphanAndKeepsLiveAndTrashedFiles() {
+    FileRecord live = catalogued("live.txt");
+    FileRecord trashed = catalogued("trashed.txt");
+    trashService.trash(List.of(trashed));
+
+    ObjectId orphanUpload = store(gridFsTemplate, "never-catalogued", 100, null);
+    ObjectId orphanChunks = new ObjectId();
+    mongoTemplate
+        .getCollection("fs.chunks")
+        .insertOne(
+            new Document("files_id", orphanChunks)
+                .append("n", 0)
+                .append("data", new Binary(new byte[40])));
+    FileRecord dangling =
+        FileRecord.builder()
+            .id(new ObjectId().toHexString())
+            .filename(UUID.randomUUID().toString())
+            .token(UUID.randomUUID().toString())
+            .ownerId("scavenger-user")
+            .originalFilename("dangling.txt")
+            .visibility(Visibility.PRIVATE)
+            .uploadDate(new Date())
+            .build();
+    mongoTemplate.insert(dangling);
+    GridFsTemplate derivatives =
+        new GridFsTemplate(
+            mongoDatabaseFactory, mongoTemplate.getConverter(), DerivativeService.BUCKET);
+    store(derivatives, "thumbnail", 7, new Document("sourceId", new ObjectId()));
+
+    ScavengeReport report = scavenger.scavenge();
+
+    assertEquals(new ScavengeReport(1, 1, 1, 1, 100 + 40 + 7), report);
+    assertFalse(exists("fs.files", "_id", orphanUpload));
+    assertFalse(exists("fs.chunks", "files_id", orphanUpload));
+    assertFalse(exists("fs.chunks", "files_id", orphanChunks));
+    assertFalse(
+        mongoTemplate.exists(
+            Query.query(Criteria.where("id").is(dangling.getId())), FileRecord.class));
+    assertEquals(
+        0, mongoTemplate.getCollection(DerivativeService.BUCKET + ".files").countDocuments());
+    assertTrue(exists("fs.files", "_id", new ObjectId(live.getId())));
+    assertTrue(exists("fs.files", "_id", new ObjectId(trashed.getId())));
+    assertTrue(trashService.find(trashed.getFilename()).isPresent());
+
+    assertEquals(new ScavengeReport(0, 0, 0, 0, 0), scavenger.scavenge());
+  }
+
+  private FileRecord catalogued(String name) {
+    ObjectId id = store(gridFsTemplate, name, 10, null);
+    FileRecord record =
+        FileRecord.builder()
+            .id(id.toHexString())
+            .filename(UUID.randomUUID().toString())
+            .token(UUID.randomUUID().toString())
+            .ownerId("scavenger-user")
+            .originalFilename(name)
+            .visibility(Visibility.PRIVATE)
+            .size(10)
+            .uploadDate(new Date())
+            .build();
+    mongoTemplate.insert(record);
+    return record;
+  }
+
+  private static ObjectId store(GridFsTemplate bucket, String name, int size, Document metadata) {
+    return bucket.store(new ByteArrayInputStream(new byte[size]), name, metadata);
+  }
+
+  private boolean exists(String collection, String field, ObjectId id) {
+    return mongoTemplate.getCollection(collection).find(new Document(field, id)).first() != null;
+  }
+}
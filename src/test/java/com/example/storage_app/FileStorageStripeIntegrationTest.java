@@ -0,0 +1,248 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import com.example.storage_app.blob.GridFsBlobStore;
+import com.example.storage_app.blob.GridFsStripes;
+import com.example.storage_app.config.BlobStoreProperties;
+import com.example.storage_app.controller.dto.FileResponse;
+import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.controller.dto.ScavengeReport;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.service.ConsistencyScavenger;
+import com.example.storage_app.service.TrashService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Striped GridFS uploads: files are spread over the {@code fs_<n>} buckets and go through upload,
+ * download, delete and reap from there, and the scavenger finds content a stripe holds without a
+ * descriptor. Then a benchmark of ingest throughput as the stripe count grows: {@code stripe.puts}
+ * files of {@code stripe.size} bytes (2,000 of 64 KiB by default) from {@code stripe.threads}
+ * threads, for 1, 2, 4 and 8 stripes.
+ */
+@SpringBootTest(
+    properties = {
+      "storage.derivatives.enabled=false",
+      "storage.blob.store=striped",
+      "storage.blob.stripes=4",
+      "storage.trash.retention=0s",
+      "storage.scavenger.purge-batch-pause=0s"
+    })
+@AutoConfigureMockMvc
+@Import(TestcontainersConfiguration.class)
+class FileStorageStripeIntegrationTest {
+  private static final Logger log = LoggerFactory.getLogger(FileStorageStripeIntegrationTest.class);
+  private static final int PUTS = Integer.getInteger("stripe.puts", 2000);
+  private static final int SIZE = Integer.getInteger("stripe.size", 64 << 10);
+  private static final int THREADS = Integer.getInteger("stripe.threads", 8);
+
+  @Autowired private MockMvc mockMvc;
+  @Autowired private ObjectMapper objectMapper;
+  @Autowired private MongoTemplate mongoTemplate;
+  @Autowired private MongoDatabaseFactory mongoDatabaseFactory;
+  @Autowired private TrashService trashService;
+  @Autowired private ConsistencyScavenger scavenger;
+  @Autowired private GridFsStripes stripes;
+
+  @Test
+  void stripedUploads_spreadOverBucketsAndServeDownloadDeleteAndReap() throws Exception {
+    Set<String> used = new HashSet<>();
+    for (int i = 0; i < 8; i++) {
+      byte[] content = bytes(100_000 + i);
+      FileResponse uploaded = upload("striped-" + i + ".bin", content);
+      FileRecord record =
+          mongoTemplate.findOne(
+              Query.query(Criteria.where("filename").is(uploaded.id())), FileRecord.class);
+      ObjectId id = new ObjectId(record.getId());
+      String bucket = stripes.named(record.getBlobStore()).bucket();
+      used.add(bucket);
+
+      assertTrue(record.getBlobStore().startsWith(GridFsStripes.NAME_PREFIX));
+      assertEquals(
+          record.getBlobStore(), descriptor(id).get("metadata", Document.class).getString("store"));
+      assertEquals(
+          0, mongoTemplate.getCollection("fs.chunks").countDocuments(new Document("files_id", id)));
+      assertTrue(
+          mongoTemplate
+                  .getCollection(bucket + ".chunks")
+                  .countDocuments(new Document("files_id", id))
+              > 0);
+
+      byte[] downloaded =
+          mockMvc
+              .perform(MockMvcRequestBuilders.get(uploaded.downloadLink()))
+              .andExpect(status().isOk())
+              .andReturn()
+              .getResponse()
+              .getContentAsByteArray();
+      assertArrayEquals(content, downloaded);
+
+      mockMvc
+          .perform(
+              MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", uploaded.id())
+                  .header("X-User-Id", "stripe-user"))
+          .andExpect(status().isNoContent());
+      trashService.reap();
+
+      assertNull(descriptor(id));
+      assertEquals(
+          0,
+          mongoTemplate
+              .getCollection(bucket + ".chunks")
+              .countDocuments(new Document("files_id", id)));
+    }
+    assertTrue(used.size() > 1, "buckets used: " + used);
+  }
+
+  @Test
+  void scavenge_removesStripeContentWithoutADescriptor() throws Exception {
+    GridFsBlobStore stripe = stripes.named(GridFsStripes.NAME_PREFIX + 7);
+    ObjectId orphan = new ObjectId(new Date(System.currentTimeMillis() - 86_400_000L));
+    stripe.put(orphan, "orphan", null, new Document(), new ByteArrayInputStream(bytes(1000)));
+
+    ScavengeReport report = scavenger.scavenge();
+
+    assertTrue(report.orphanedFiles() >= 1);
+    assertTrue(stripe.stat(orphan).isEmpty());
+    assertEquals(
+        0,
+        mongoTemplate
+            .getCollection(stripe.bucket() + ".chunks")
+            .countDocuments(new Document("files_id", orphan)));
+  }
+
+  @Test
+  void benchmark_ingestThroughputByStripeCount() throws Exception {
+    for (int count : new int[] {1, 2, 4, 8}) {
+      GridFsStripes striped = stripes(count);
+      ingest(striped, Math.max(1, PUTS / 10)); // warm-up
+      double throughput = ingest(striped, PUTS);
+      log.info(
+          "{} stripes: {} files/s, {} MB/s ({} x {} bytes, {} threads)",
+          count,
+          String.format("%.0f", throughput),
+          String.format("%.1f", throughput * SIZE / (1 << 20)),
+          PUTS,
+          SIZE,
+          THREADS);
+    }
+  }
+
+  private GridFsStripes stripes(int count) {
+    for (String bucket : stripes.buckets()) {
+      mongoTemplate.dropCollection(bucket + ".files");
+      mongoTemplate.dropCollection(bucket + ".chunks");
+    }
+    return new GridFsStripes(
+        mongoDatabaseFactory,
+        mongoTemplate,
+        new BlobStoreProperties(
+            "striped",
+            Path.of("data/blobs"),
+            true,
+            256,
+            DataSize.ofKilobytes(256),
+            "",
+            DataSize.ofMegabytes(8),
+            count));
+  }
+
+  /** Writes {@code puts} files through {@code striped}; returns files per second. */
+  private static double ingest(GridFsStripes striped, int puts) throws Exception {
+    byte[] content = bytes(SIZE);
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      long start = System.nanoTime();
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < puts; i++) {
+        int index = i;
+        futures.add(
+            executor.submit(
+                () -> {
+                  ObjectId id = new ObjectId();
+                  striped
+                      .forUpload(id)
+                      .put(
+                          id,
+                          "bench-" + index,
+                          "application/octet-stream",
+                          new Document(),
+                          new ByteArrayInputStream(content));
+                  return null;
+                }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+      return puts / ((System.nanoTime() - start) / 1e9);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  private Document descriptor(ObjectId id) {
+    return mongoTemplate.findOne(
+        Query.query(Criteria.where("_id").is(id)), Document.class, "fs.files");
+  }
+
+  private FileResponse upload(String name, byte[] content) throws Exception {
+    MockMultipartFile file =
+        new MockMultipartFile("file", name, MediaType.APPLICATION_OCTET_STREAM_VALUE, content);
+    MockMultipartFile properties =
+        new MockMultipartFile(
+            "properties",
+            null,
+            MediaType.APPLICATION_JSON_VALUE,
+            objectMapper.writeValueAsBytes(
+                new FileUploadRequest(name, Visibility.PRIVATE, List.of())));
+    String body =
+        mockMvc
+            .perform(
+                MockMvcRequestBuilders.multipart("/api/v1/files")
+                    .file(file)
+                    .file(properties)
+                    .header("X-User-Id", "stripe-user"))
+            .andExpect(status().isCreated())
+            .andReturn()
+            .getResponse()
+            .getContentAsString();
+    return objectMapper.readValue(body, FileResponse.class);
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,85 @@
+package com.example.storage_app;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.IndexOptions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntFunction;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+/**
+ * Benchmark of the tag layout: tag names against dictionary ids, by the size of a tagged listing
+ * index and by average document size over the same files. Runs {@code tags.files} files (100,000 by
+ * default; {@code -Dtags.files=10000000} for the full-size report), each with three tags out of
+ * {@link #VOCABULARY} distinct ones.
+ */
+@SpringBootTest(properties = "storage.derivatives.enabled=false")
+@Import(TestcontainersConfiguration.class)
+class FileStorageTagLayoutIntegrationTest {
+  private static final Logger log =
+      LoggerFactory.getLogger(FileStorageTagLayoutIntegrationTest.class);
+  private static final int FILES = Integer.getInteger("tags.files", 100_000);
+  private static final int VOCABULARY = 500;
+  private static final int BATCH = 1000;
+
+  @Autowired private MongoTemplate mongoTemplate;
+
+  @Test
+  void tagIds_keepDocumentsAndTagIndexesSmallerThanNames() {
+    long[] names = insert("tags_names", i -> "project-" + i + "-archive");
+    long[] ids = insert("tags_ids", i -> i + 1);
+
+    assertTrue(ids[0] < names[0], "index bytes: ids " + ids[0] + ", names " + names[0]);
+    assertTrue(ids[1] < names[1], "average document bytes: ids " + ids[1] + ", names " + names[1]);
+  }
+
+  /**
+   * Inserts {@link #FILES} files tagged through {@code tag} and returns the size of their tagged
+   * listing index and their average document size, in bytes.
+   */
+  private long[] insert(String collectionName, IntFunction<Object> tag) {
+    mongoTemplate.dropCollection(collectionName);
+    MongoCollection<Document> collection = mongoTemplate.getCollection(collectionName);
+    collection.createIndex(
+        new Document("o", 1).append("t", 1).append("_id", 1), new IndexOptions().name("list"));
+    for (int i = 0; i < FILES; i += BATCH) {
+      List<Document> batch = new ArrayList<>(BATCH);
+      for (int j = i; j < i + BATCH; j++) {
+        batch.add(
+            new Document("o", "owner-" + j % 1000)
+                .append(
+                    "t",
+                    List.of(
+                        tag.apply(j % VOCABULARY),
+                        tag.apply(j * 7 % VOCABULARY),
+                        tag.apply(j * 13 % VOCABULARY))));
+      }
+      collection.insertMany(batch);
+    }
+    mongoTemplate.getDb().runCommand(new Document("fsync", 1));
+    Document stats =
+        collection
+            .aggregate(
+                List.of(new Document("$collStats", new Document("storageStats", new Document()))))
+            .first()
+            .get("storageStats", Document.class);
+    long indexBytes = ((Number) stats.get("indexSizes", Document.class).get("list")).longValue();
+    long avgDocumentBytes = ((Number) stats.get("avgObjSize")).longValue();
+    log.info(
+        "{}: tag index {} bytes ({} per file), average document {} bytes",
+        collectionName,
+        indexBytes,
+        indexBytes / FILES,
+        avgDocumentBytes);
+    return new long[] {indexBytes, avgDocumentBytes};
+  }
+}
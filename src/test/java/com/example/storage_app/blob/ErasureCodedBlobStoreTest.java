@@ -0,0 +1,202 @@
+package com.example.storage_app.blob;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.config.ErasureCodingProperties;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.unit.DataSize;
+
+/** Four data and two parity shards over six directories, with 1 KiB cells. */
+class ErasureCodedBlobStoreTest {
+  private static final int CELL = 1024;
+
+  @TempDir Path root;
+  private List<Path> directories;
+  private ErasureCodedBlobStore store;
+
+  @BeforeEach
+  void setUp() {
+    directories = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      directories.add(root.resolve("disk" + i));
+    }
+    store =
+        new ErasureCodedBlobStore(
+            new ErasureCodingProperties(directories, 4, 2, DataSize.ofBytes(CELL), true));
+  }
+
+  @Test
+  void put_thenGet_returnsTheContentFromOneShardPerDirectory() throws IOException {
+    ObjectId id = new ObjectId();
+    // Three full stripes and a partial one.
+    byte[] content = bytes(3 * 4 * CELL + 1500);
+
+    put(id, content);
+
+    assertArrayEquals(content, read(id, 0, -1));
+    assertEquals(content.length, store.stat(id).orElseThrow().length());
+    for (Path directory : directories) {
+      try (Stream<Path> files = Files.walk(directory)) {
+        assertEquals(1, files.filter(Files::isRegularFile).count());
+      }
+    }
+  }
+
+  @Test
+  void get_withOffsetAndLength_returnsThatRangeAcrossStripes() throws IOException {
+    ObjectId id = new ObjectId();
+    byte[] content = bytes(5 * 4 * CELL);
+    put(id, content);
+
+    byte[] range = read(id, 4 * CELL - 10, 3000);
+
+    assertEquals(3000, range.length);
+    for (int i = 0; i < range.length; i++) {
+      assertEquals(content[4 * CELL - 10 + i], range[i]);
+    }
+  }
+
+  @Test
+  void get_withTwoShardDirectoriesDeleted_reconstructsTheFile() throws IOException {
+    ObjectId id = new ObjectId();
+    byte[] content = bytes(10 * 4 * CELL + 7);
+    put(id, content);
+
+    // Two data shards' directories, wherever the rotation put them.
+    FileSystemUtils.deleteRecursively(directoryOf(id, 0));
+    FileSystemUtils.deleteRecursively(directoryOf(id, 2));
+
+    assertArrayEquals(content, read(id, 0, -1));
+    assertEquals(content.length, store.stat(id).orElseThrow().length());
+  }
+
+  @Test
+  void get_withThreeShardDirectoriesDeleted_fails() throws IOException {
+    ObjectId id = new ObjectId();
+    put(id, bytes(4 * CELL));
+
+    for (int shard : new int[] {1, 3, 5}) {
+      FileSystemUtils.deleteRecursively(directoryOf(id, shard));
+    }
+
+    assertThrows(IOException.class, () -> store.get(id, 0, -1));
+  }
+
+  @Test
+  void get_withACorruptedDataCell_decodesAroundIt() throws IOException {
+    ObjectId id = new ObjectId();
+    byte[] content = bytes(2 * 4 * CELL);
+    put(id, content);
+
+    try (FileChannel shard = FileChannel.open(store.shardPath(id, 1), StandardOpenOption.WRITE)) {
+      shard.write(ByteBuffer.wrap(new byte[] {42}), ErasureCodedBlobStore.HEADER_SIZE + 100);
+    }
+
+    assertArrayEquals(content, read(id, 0, -1));
+  }
+
+  @Test
+  void emptyFile_roundTripsAndDeletesEveryShard() throws IOException {
+    ObjectId id = new ObjectId();
+    put(id, new byte[0]);
+
+    assertArrayEquals(new byte[0], read(id, 0, -1));
+
+    store.delete(id);
+
+    assertTrue(store.stat(id).isEmpty());
+    try (Stream<Path> files = Files.walk(root)) {
+      assertTrue(files.noneMatch(Files::isRegularFile));
+    }
+  }
+
+  @Test
+  void filesWrittenBeforeTheShardCountsChanged_areReadAndDeletedByTheirOwnCounts()
+      throws IOException {
+    ObjectId id = new ObjectId();
+    byte[] content = bytes(3 * 4 * CELL + 99);
+    put(id, content);
+    ErasureCodedBlobStore fewerShards =
+        new ErasureCodedBlobStore(
+            new ErasureCodingProperties(directories, 3, 1, DataSize.ofBytes(CELL), true));
+
+    // Shards 4 and 5 are past the new counts and are needed once 0 and 1 are gone.
+    for (int shard : new int[] {0, 1}) {
+      Files.delete(store.shardPath(id, shard));
+    }
+    try (InputStream in = fewerShards.get(id, 0, -1)) {
+      assertArrayEquals(content, in.readAllBytes());
+    }
+
+    fewerShards.delete(id);
+
+    try (Stream<Path> files = Files.walk(root)) {
+      assertTrue(files.noneMatch(Files::isRegularFile));
+    }
+  }
+
+  @Test
+  void put_whenARenameFails_removesTheShardsAlreadyMovedIntoPlace() throws IOException {
+    ObjectId id = new ObjectId();
+    // A non-empty directory where shard 3 goes makes its rename fail.
+    Files.createDirectories(store.shardPath(id, 3).resolve("blocker"));
+
+    assertThrows(IOException.class, () -> put(id, bytes(4 * CELL)));
+
+    for (int shard = 0; shard < 6; shard++) {
+      assertFalse(Files.isRegularFile(store.shardPath(id, shard)), "shard " + shard);
+    }
+    try (Stream<Path> files = Files.walk(root)) {
+      assertTrue(files.noneMatch(Files::isRegularFile));
+    }
+  }
+
+  @Test
+  void tooFewDirectories_isRejected() {
+    assertThrows(
+        IllegalStateException.class,
+        () ->
+            new ErasureCodedBlobStore(
+                new ErasureCodingProperties(
+                    directories.subList(0, 5), 4, 2, DataSize.ofBytes(CELL), true)));
+  }
+
+  private Path directoryOf(ObjectId id, int shard) {
+    Path path = store.shardPath(id, shard);
+    return directories.stream().filter(path::startsWith).findFirst().orElseThrow();
+  }
+
+  private void put(ObjectId id, byte[] content) throws IOException {
+    store.put(
+        id, "f", "application/octet-stream", new Document(), new ByteArrayInputStream(content));
+  }
+
+  private byte[] read(ObjectId id, long offset, long length) throws IOException {
+    try (InputStream in = store.get(id, offset, length)) {
+      return in.readAllBytes();
+    }
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,78 @@
+package com.example.storage_app.blob;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.config.BlobStoreProperties;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.util.unit.DataSize;
+
+class GridFsStripesTest {
+  private final MongoDatabaseFactory factory = mock(MongoDatabaseFactory.class);
+  private final MongoTemplate template = mock(MongoTemplate.class);
+
+  @BeforeEach
+  void setUp() {
+    when(template.getConverter())
+        .thenReturn(
+            new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+  }
+
+  @Test
+  void forUpload_spreadsIdsOverEveryStripe() {
+    GridFsStripes stripes = stripes(4);
+    Map<String, Integer> uploads = new HashMap<>();
+    for (int i = 0; i < 4000; i++) {
+      uploads.merge(stripes.forUpload(new ObjectId()).bucket(), 1, Integer::sum);
+    }
+
+    assertEquals(Set.of("fs_0", "fs_1", "fs_2", "fs_3"), uploads.keySet());
+    uploads.values().forEach(n -> assertTrue(n > 500, "uploads per stripe: " + uploads));
+  }
+
+  @Test
+  void named_resolvesStripesBeyondTheCurrentCount() {
+    GridFsStripes stripes = stripes(2);
+
+    GridFsBlobStore stripe = stripes.named("gridfs-5");
+
+    assertEquals("gridfs-5", stripe.name());
+    assertEquals("fs_5", stripe.bucket());
+    assertSame(stripe, stripes.named("gridfs-5"));
+    assertNull(stripes.named(GridFsBlobStore.NAME));
+    assertNull(stripes.named(LocalFsBlobStore.NAME));
+    assertNull(stripes.named("gridfs-99999999999"));
+    assertNull(stripes.named(null));
+  }
+
+  @Test
+  void constructor_rejectsFewerThanOneStripe() {
+    assertThrows(IllegalStateException.class, () -> stripes(0));
+  }
+
+  private GridFsStripes stripes(int count) {
+    return new GridFsStripes(
+        factory,
+        template,
+        new BlobStoreProperties(
+            "striped",
+            Path.of("data/blobs"),
+            true,
+            256,
+            DataSize.ofKilobytes(256),
+            "",
+            DataSize.ofMegabytes(8),
+            count));
+  }
+}
@@ -0,0 +1,158 @@
+package com.example.storage_app.blob;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.config.BlobStoreProperties;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.util.unit.DataSize;
+
+class LocalFsBlobStoreTest {
+
+  @TempDir Path root;
+  private LocalFsBlobStore store;
+
+  @BeforeEach
+  void setUp() {
+    // A write buffer smaller than the content, so uploads take several positional writes.
+    store =
+        new LocalFsBlobStore(
+            new BlobStoreProperties(
+                "local", root, true, 8, DataSize.ofKilobytes(4), "", DataSize.ofMegabytes(8), 8));
+  }
+
+  @AfterEach
+  void tearDown() {
+    store.close();
+  }
+
+  @Test
+  void put_thenGet_returnsTheContentFromAShardedPath() throws IOException {
+    ObjectId id = new ObjectId();
+    byte[] content = bytes(10_000);
+
+    put(id, content);
+
+    try (InputStream in = store.get(id, 0, -1)) {
+      assertArrayEquals(content, in.readAllBytes());
+    }
+    String hex = id.toHexString();
+    assertTrue(
+        Files.isRegularFile(
+            root.resolve(hex.substring(22)).resolve(hex.substring(20, 22)).resolve(hex)));
+    assertEquals(10_000, store.stat(id).orElseThrow().length());
+  }
+
+  @Test
+  void get_withOffsetAndLength_returnsThatRange() throws IOException {
+    ObjectId id = new ObjectId();
+    byte[] content = bytes(10_000);
+    put(id, content);
+
+    try (InputStream in = store.get(id, 4095, 3000)) {
+      byte[] range = in.readAllBytes();
+      assertEquals(3000, range.length);
+      assertEquals(content[4095], range[0]);
+      assertEquals(content[7094], range[2999]);
+    }
+    try (InputStream in = store.get(id, 9_990, 100)) {
+      assertEquals(10, in.readAllBytes().length);
+    }
+  }
+
+  @Test
+  void delete_removesTheContent() throws IOException {
+    ObjectId id = new ObjectId();
+    put(id, bytes(100));
+
+    store.delete(id);
+    store.delete(id);
+
+    assertTrue(store.stat(id).isEmpty());
+    assertThrows(IOException.class, () -> store.get(id, 0, -1));
+  }
+
+  @Test
+  void concurrentPuts_shareSyncBatchesAndLeaveNoPartialFiles() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<ObjectId> ids = new ArrayList<>();
+    List<Future<?>> puts = new ArrayList<>();
+    try {
+      for (int i = 0; i < 64; i++) {
+        ObjectId id = new ObjectId();
+        ids.add(id);
+        byte[] content = bytes(1000 + i);
+        puts.add(
+            executor.submit(
+                () -> {
+                  put(id, content);
+                  return null;
+                }));
+      }
+      for (Future<?> put : puts) {
+        put.get();
+      }
+    } finally {
+      executor.shutdown();
+    }
+
+    for (int i = 0; i < ids.size(); i++) {
+      assertEquals(1000 + i, store.stat(ids.get(i)).orElseThrow().length());
+    }
+    try (Stream<Path> files = Files.walk(root)) {
+      assertTrue(files.noneMatch(p -> p.toString().endsWith(LocalFsBlobStore.PARTIAL_SUFFIX)));
+    }
+  }
+
+  @Test
+  void put_failingMidStream_leavesNothingBehind() throws IOException {
+    ObjectId id = new ObjectId();
+    InputStream failing =
+        new InputStream() {
+          private int read;
+
+          @Override
+          public int read() throws IOException {
+            if (++read > 5000) {
+              throw new IOException("client went away");
+            }
+            return 1;
+          }
+        };
+
+    assertThrows(
+        IOException.class, () -> store.put(id, "f", "text/plain", new Document(), failing));
+
+    assertTrue(store.stat(id).isEmpty());
+    try (Stream<Path> files = Files.walk(root)) {
+      assertTrue(files.noneMatch(Files::isRegularFile));
+    }
+  }
+
+  private void put(ObjectId id, byte[] content) throws IOException {
+    store.put(
+        id, "f", "application/octet-stream", new Document(), new ByteArrayInputStream(content));
+  }
+
+  private static byte[] bytes(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+}
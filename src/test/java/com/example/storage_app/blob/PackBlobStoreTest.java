@@ -0,0 +1,85 @@
+package com.example.storage_app.blob;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.config.ArchiveProperties;
+import com.example.storage_app.model.Pack;
+import java.time.Duration;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.util.unit.DataSize;
+
+class PackBlobStoreTest {
+  private final MongoTemplate template = mock(MongoTemplate.class);
+  private PackBlobStore store;
+
+  @BeforeEach
+  void setUp() {
+    when(template.getConverter())
+        .thenReturn(
+            new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+    store =
+        new PackBlobStore(
+            mock(MongoDatabaseFactory.class),
+            template,
+            mock(LocalFsBlobStore.class),
+            new ArchiveProperties(
+                true,
+                Duration.ofHours(24),
+                Duration.ofDays(90),
+                DataSize.ofKilobytes(64),
+                DataSize.ofMegabytes(64),
+                "gridfs",
+                1000,
+                0.5,
+                Duration.ofDays(1),
+                Duration.ofMinutes(10)));
+  }
+
+  @Test
+  void delete_countsTheMemberOutOfThePackItWasUnsetFrom() {
+    ObjectId id = new ObjectId();
+    ObjectId pack = new ObjectId();
+    when(template.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(Document.class),
+            eq("fs.files")))
+        .thenReturn(
+            new Document("_id", id)
+                .append("length", 12L)
+                .append("metadata", new Document(PackBlobStore.METADATA_PACK, pack)));
+
+    store.delete(id);
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(template).updateFirst(query.capture(), update.capture(), eq(Pack.class));
+    assertEquals(pack, query.getValue().getQueryObject().get("_id"));
+    assertEquals(
+        new Document("liveMembers", -1).append("liveBytes", -12L),
+        update.getValue().getUpdateObject().get("$inc"));
+  }
+
+  @Test
+  void delete_ofAMemberNoLongerInAPack_countsNothing() {
+    store.delete(new ObjectId());
+
+    verify(template, never()).updateFirst(any(Query.class), any(Update.class), eq(Pack.class));
+  }
+}
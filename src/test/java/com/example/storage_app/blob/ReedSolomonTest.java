@@ -0,0 +1,64 @@
+package com.example.storage_app.blob;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ReedSolomonTest {
+
+  @Test
+  void decodeData_recoversTheDataFromEveryChoiceOfSurvivingShards() {
+    ReedSolomon codec = new ReedSolomon(4, 2);
+    byte[][] original = new byte[6][1000];
+    Random random = new Random(42);
+    for (int d = 0; d < 4; d++) {
+      random.nextBytes(original[d]);
+    }
+    codec.encodeParity(original, 0, 1000);
+
+    // Every pair of lost shards, data and parity alike.
+    for (int lost1 = 0; lost1 < 6; lost1++) {
+      for (int lost2 = lost1 + 1; lost2 < 6; lost2++) {
+        byte[][] shards = new byte[6][];
+        boolean[] present = new boolean[6];
+        for (int i = 0; i < 6; i++) {
+          shards[i] = original[i].clone();
+          present[i] = i != lost1 && i != lost2;
+          if (!present[i]) {
+            shards[i] = new byte[1000];
+          }
+        }
+
+        codec.decodeData(shards, present, 0, 1000);
+
+        for (int d = 0; d < 4; d++) {
+          assertArrayEquals(original[d], shards[d], "lost " + lost1 + " and " + lost2);
+        }
+      }
+    }
+  }
+
+  @Test
+  void encodeParity_onlyTouchesTheGivenRange() {
+    ReedSolomon codec = new ReedSolomon(3, 1);
+    byte[][] shards = {{1, 2, 3, 4}, {5, 6, 7, 8}, {9, 10, 11, 12}, {0, 0, 0, 0}};
+
+    codec.encodeParity(shards, 1, 2);
+
+    assertEquals(0, shards[3][0]);
+    assertEquals(0, shards[3][3]);
+    assertNotEquals(0, shards[3][1] | shards[3][2]);
+  }
+
+  @Test
+  void decodeData_tooFewShards_isRejected() {
+    ReedSolomon codec = new ReedSolomon(4, 2);
+    byte[][] shards = new byte[6][10];
+
+    assertThrows(
+        IllegalArgumentException.class,
+        () ->
+            codec.decodeData(shards, new boolean[] {true, false, false, true, false, true}, 0, 10));
+  }
+}
@@ -0,0 +1,68 @@
+package com.example.storage_app.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.service.DownloadBandwidthScheduler;
+import jakarta.servlet.ServletException;
+import java.io.IOException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class DownloadBandwidthFilterTest {
+  private final DownloadBandwidthScheduler scheduler = mock(DownloadBandwidthScheduler.class);
+  private final DownloadBandwidthScheduler.Lease lease =
+      mock(DownloadBandwidthScheduler.Lease.class);
+  private final DownloadBandwidthFilter filter = new DownloadBandwidthFilter(scheduler);
+  private MockHttpServletRequest request;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    request = new MockHttpServletRequest("GET", "/api/v1/files/download/abc");
+    request.addHeader("X-User-Id", "alice");
+    request.setRemoteAddr("10.0.0.1");
+    when(scheduler.open("alice", "10.0.0.1")).thenReturn(lease);
+    // Grants at most 3 bytes a time, as a scheduler short of credits does.
+    when(lease.acquire(anyInt())).thenAnswer(call -> Math.min(3, (int) call.getArgument(0)));
+  }
+
+  @Test
+  void download_writesEveryByteInTheGrantsTheSchedulerHandsOut() throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    filter.doFilter(
+        request,
+        response,
+        (req, res) -> {
+          res.getOutputStream().write("abcdefgh".getBytes());
+          res.getOutputStream().write('!');
+        });
+
+    assertEquals("abcdefgh!", response.getContentAsString());
+    verify(lease).acquire(8);
+    verify(lease).acquire(5);
+    verify(lease).acquire(2);
+    verify(lease).acquire(1);
+    verify(lease).close();
+  }
+
+  @Test
+  void failedDownload_stillClosesItsStream() {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+
+    assertThrows(
+        ServletException.class,
+        () ->
+            filter.doFilter(
+                request,
+                response,
+                (req, res) -> {
+                  throw new ServletException("broken");
+                }));
+
+    verify(lease).close();
+  }
+}
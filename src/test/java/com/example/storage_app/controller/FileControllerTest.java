@@ -1,21 +1,35 @@
 package com.example.storage_app.controller;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
 import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
 
+import com.example.storage_app.controller.dto.BulkDeleteResponse;
+import com.example.storage_app.controller.dto.BulkOperation;
+import com.example.storage_app.controller.dto.BulkOperationResult;
+import com.example.storage_app.controller.dto.BulkUpdateRequest;
+import com.example.storage_app.controller.dto.BulkUpdateResponse;
+import com.example.storage_app.controller.dto.CursorPagedResponse;
 import com.example.storage_app.controller.dto.FileResponse;
 import com.example.storage_app.controller.dto.FileUpdateRequest;
 import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.controller.dto.PagedResponse;
 import com.example.storage_app.exception.InvalidRequestArgumentException;
+import com.example.storage_app.exception.PreconditionFailedException;
 import com.example.storage_app.exception.ResourceNotFoundException;
 import com.example.storage_app.exception.StorageException;
 import com.example.storage_app.exception.UnauthorizedOperationException;
+import com.example.storage_app.model.BulkOperationStatus;
+import com.example.storage_app.model.FilenameMatch;
+import com.example.storage_app.model.TotalMode;
 import com.example.storage_app.model.Visibility;
 import com.example.storage_app.service.FileService;
+import com.example.storage_app.util.RangeFilter;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -99,7 +113,8 @@ public class FileControllerTest {
             new Date(),
             MediaType.TEXT_PLAIN_VALUE,
             filePart.getSize(),
-            downloadLink);
+            downloadLink,
+            0L);
 
     when(fileService.uploadFile(
             eq(testUserId), any(MultipartFile.class), eq(currentUploadRequestDto)))
@@ -207,7 +222,8 @@ public class FileControllerTest {
             new Date(),
             MediaType.TEXT_PLAIN_VALUE,
             100L,
-            "/api/v1/files/download/a bad uri with spaces");
+            "/api/v1/files/download/a bad uri with spaces",
+            0L);
 
     when(fileService.uploadFile(
             eq(testUserId), any(MultipartFile.class), any(FileUploadRequest.class)))
@@ -228,6 +244,101 @@ public class FileControllerTest {
                     "Error creating location URI from download link: Illegal character in path at index 24: /api/v1/files/download/a bad uri with spaces"));
   }
 
+  @Test
+  void updateFiles_returnsOneResultPerOperation() throws Exception {
+    BulkUpdateRequest request =
+        new BulkUpdateRequest(
+            List.of(
+                new BulkOperation("id-1", "renamed.txt", null, List.of("q3"), null, null),
+                new BulkOperation("id-2", null, Visibility.PUBLIC, null, null, null)));
+    when(fileService.updateFiles(eq(testUserId), eq(request)))
+        .thenReturn(
+            new BulkUpdateResponse(
+                1,
+                1,
+                List.of(
+                    new BulkOperationResult("id-1", BulkOperationStatus.UPDATED, null),
+                    new BulkOperationResult(
+                        "id-2", BulkOperationStatus.CONFLICT, "Filename taken"))));
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post("/api/v1/files/bulk")
+                .header("X-User-Id", testUserId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(request)))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.updated").value(1))
+        .andExpect(jsonPath("$.results[1].fileId").value("id-2"))
+        .andExpect(jsonPath("$.results[1].status").value("CONFLICT"));
+  }
+
+  @Test
+  void updateFiles_invalidOperations_return400() throws Exception {
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post("/api/v1/files/bulk")
+                .header("X-User-Id", testUserId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(
+                    "{\"operations\":[{\"fileId\":\"\",\"addTags\":[\"%s\"]}]}"
+                        .formatted("t".repeat(21))))
+        .andExpect(status().isBadRequest());
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post("/api/v1/files/bulk")
+                .header("X-User-Id", testUserId)
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"operations\":[]}"))
+        .andExpect(status().isBadRequest());
+    verify(fileService, never()).updateFiles(any(), any());
+  }
+
+  @Test
+  void deleteFiles_passesTheListingFiltersAndReportsTheCount() throws Exception {
+    when(fileService.deleteFiles(eq(testUserId), eq("tmp"), any(RangeFilter.class)))
+        .thenReturn(new BulkDeleteResponse(3, new Date()));
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files")
+                .header("X-User-Id", testUserId)
+                .param("tag", "tmp")
+                .param("maxSize", "100"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.deleted").value(3))
+        .andExpect(jsonPath("$.restorableUntil").exists());
+    verify(fileService)
+        .deleteFiles(
+            eq(testUserId),
+            eq("tmp"),
+            argThat(ranges -> ranges.maxSize() == 100L && ranges.minSize() == null));
+  }
+
+  @Test
+  void restoreFile_returnsTheRestoredFile() throws Exception {
+    String fileId = UUID.randomUUID().toString();
+    when(fileService.restoreFile(testUserId, fileId))
+        .thenReturn(
+            new FileResponse(
+                fileId,
+                "a.txt",
+                Visibility.PRIVATE,
+                List.of(),
+                new Date(),
+                "text/plain",
+                1L,
+                "/api/v1/files/download/some-token",
+                0L));
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.post("/api/v1/files/" + fileId + "/restore")
+                .header("X-User-Id", testUserId))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.filename").value("a.txt"));
+  }
+
   @Test
   void updateFileDetails_whenValidInput_shouldReturn200AndUpdatedResponse() throws Exception {
     String fileToUpdateId = new ObjectId().toHexString();
@@ -241,10 +352,11 @@ public class FileControllerTest {
             new Date(),
             "text/plain",
             1234L,
-            "/api/v1/files/download/some-token");
+            "/api/v1/files/download/some-token",
+            0L);
 
     when(fileService.updateFileDetails(
-            eq(testUserId), eq(fileToUpdateId), any(FileUpdateRequest.class)))
+            eq(testUserId), eq(fileToUpdateId), any(FileUpdateRequest.class), isNull()))
         .thenReturn(expectedServiceResponse);
 
     mockMvc
@@ -259,6 +371,63 @@ public class FileControllerTest {
         .andExpect(jsonPath("$.filename").value(updateRequestDto.newFilename()));
   }
 
+  @Test
+  void updateFileDetails_withIfMatch_passesTheVersionAndReturnsTheNewETag() throws Exception {
+    String fileId = new ObjectId().toHexString();
+    FileUpdateRequest updateRequestDto = new FileUpdateRequest("updated-filename.txt");
+    when(fileService.updateFileDetails(
+            eq(testUserId), eq(fileId), any(FileUpdateRequest.class), eq(3L)))
+        .thenReturn(
+            new FileResponse(
+                fileId,
+                "updated-filename.txt",
+                Visibility.PRIVATE,
+                List.of(),
+                new Date(),
+                "text/plain",
+                1L,
+                "/api/v1/files/download/some-token",
+                4L));
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.patch("/api/v1/files/{fileId}", fileId)
+                .header("X-User-Id", testUserId)
+                .header(HttpHeaders.IF_MATCH, "\"3\"")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(objectMapper.writeValueAsString(updateRequestDto)))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.ETAG, "\"4\""))
+        .andExpect(jsonPath("$.version").value(4));
+  }
+
+  @Test
+  void deleteFile_withStaleIfMatch_returns412() throws Exception {
+    String fileId = new ObjectId().toHexString();
+    doThrow(new PreconditionFailedException("File is at version 5"))
+        .when(fileService)
+        .deleteFile(testUserId, fileId, 4L);
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", fileId)
+                .header("X-User-Id", testUserId)
+                .header(HttpHeaders.IF_MATCH, "\"4\""))
+        .andExpect(status().isPreconditionFailed())
+        .andExpect(jsonPath("$.status").value(412));
+  }
+
+  @Test
+  void deleteFile_withMalformedIfMatch_returns400() throws Exception {
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.delete("/api/v1/files/{fileId}", "some-id")
+                .header("X-User-Id", testUserId)
+                .header(HttpHeaders.IF_MATCH, "\"abc\""))
+        .andExpect(status().isBadRequest());
+    verifyNoInteractions(fileService);
+  }
+
   @Test
   void updateFileDetails_whenServiceThrowsResourceNotFound_shouldReturn404() throws Exception {
     String fileToUpdateId = "non-existent-id-for-update";
@@ -266,7 +435,7 @@ public class FileControllerTest {
     String exceptionMessage = "File not found with id: " + fileToUpdateId;
 
     when(fileService.updateFileDetails(
-            eq(testUserId), eq(fileToUpdateId), any(FileUpdateRequest.class)))
+            eq(testUserId), eq(fileToUpdateId), any(FileUpdateRequest.class), isNull()))
         .thenThrow(new ResourceNotFoundException(exceptionMessage));
 
     mockMvc
@@ -352,6 +521,27 @@ public class FileControllerTest {
         .andExpect(content().bytes(content));
   }
 
+  @Test
+  void downloadFile_withSizeParam_servesDerivative() throws Exception {
+    String downloadToken = "test-token-789";
+    byte[] content = "thumbnail-bytes".getBytes();
+    GridFsResource mockResource = mock(GridFsResource.class);
+    when(mockResource.contentLength()).thenReturn((long) content.length);
+    when(mockResource.getInputStream()).thenReturn(new ByteArrayInputStream(content));
+    when(fileService.downloadDerivative(eq(downloadToken), eq("thumbnail")))
+        .thenReturn(ResponseEntity.ok().contentType(MediaType.IMAGE_JPEG).body(mockResource));
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.get("/api/v1/files/download/{token}", downloadToken)
+                .param("size", "thumbnail")
+                .accept(MediaType.ALL))
+        .andExpect(status().isOk())
+        .andExpect(header().string(HttpHeaders.CONTENT_TYPE, MediaType.IMAGE_JPEG_VALUE))
+        .andExpect(content().bytes(content));
+    verify(fileService, never()).downloadFile(any());
+  }
+
   @Test
   void downloadFile_whenServiceThrowsResourceNotFound_shouldReturn404() throws Exception {
     String downloadToken = "non-existent-token";
@@ -400,7 +590,7 @@ public class FileControllerTest {
     String exceptionMessage = "User not authorized to update fileId: " + fileToUpdateId;
 
     when(fileService.updateFileDetails(
-            eq(testUserId), eq(fileToUpdateId), any(FileUpdateRequest.class)))
+            eq(testUserId), eq(fileToUpdateId), any(FileUpdateRequest.class), isNull()))
         .thenThrow(new UnauthorizedOperationException(exceptionMessage));
 
     mockMvc
@@ -518,7 +708,8 @@ public class FileControllerTest {
     String invalidSortBy = "invalidSortField";
     String exceptionMessage = "Invalid sortBy field: " + invalidSortBy;
 
-    when(fileService.listFiles(isNull(), isNull(), eq(invalidSortBy), eq("desc"), eq(0), eq(10)))
+    when(fileService.listFiles(
+            isNull(), isNull(), isNull(), eq(invalidSortBy), eq("desc"), eq(0), eq(10)))
         .thenThrow(new IllegalArgumentException(exceptionMessage));
 
     mockMvc
@@ -549,7 +740,8 @@ public class FileControllerTest {
             new Date(),
             "app/doc",
             100L,
-            "/dl/t1");
+            "/dl/t1",
+            0L);
     FileResponse file2 =
         new FileResponse(
             "id2",
@@ -559,7 +751,8 @@ public class FileControllerTest {
             new Date(),
             "app/doc",
             200L,
-            "/dl/t2");
+            "/dl/t2",
+            0L);
     List<FileResponse> responseList = Arrays.asList(file1, file2);
     Page<FileResponse> serviceResponsePage =
         new PageImpl<>(
@@ -570,6 +763,7 @@ public class FileControllerTest {
     when(fileService.listFiles(
             eq(specificUserId),
             eq(specificTag),
+            isNull(),
             eq(sortByField),
             eq(sortDir),
             eq(pageNum),
@@ -602,7 +796,7 @@ public class FileControllerTest {
             + ". Zero documents modified despite expecting a change.";
 
     when(fileService.updateFileDetails(
-            eq(testUserId), eq(fileToUpdateId), any(FileUpdateRequest.class)))
+            eq(testUserId), eq(fileToUpdateId), any(FileUpdateRequest.class), isNull()))
         .thenThrow(new StorageException(exceptionMessage));
 
     mockMvc
@@ -628,10 +822,12 @@ public class FileControllerTest {
             new Date(),
             "text/plain",
             100L,
-            "/dl/token1");
+            "/dl/token1",
+            0L);
     Page<FileResponse> mockPage = new PageImpl<>(List.of(mockResponse1));
 
-    when(fileService.listFiles(isNull(), isNull(), eq("uploadDate"), eq("desc"), eq(0), eq(10)))
+    when(fileService.listFiles(
+            isNull(), isNull(), isNull(), eq("uploadDate"), eq("desc"), eq(0), eq(10)))
         .thenReturn(mockPage);
 
     mockMvc
@@ -640,6 +836,161 @@ public class FileControllerTest {
         .andExpect(jsonPath("$.content[0].id").value("uuid1"))
         .andExpect(jsonPath("$.totalElements").value(1));
 
-    verify(fileService).listFiles(isNull(), isNull(), eq("uploadDate"), eq("desc"), eq(0), eq(10));
+    verify(fileService)
+        .listFiles(isNull(), isNull(), isNull(), eq("uploadDate"), eq("desc"), eq(0), eq(10));
+  }
+
+  @Test
+  void listFiles_withCursorParam_usesKeysetPagination() throws Exception {
+    FileResponse file =
+        new FileResponse(
+            "id1",
+            "a.txt",
+            Visibility.PUBLIC,
+            List.of(),
+            new Date(),
+            "text/plain",
+            1L,
+            "/dl/t1",
+            0L);
+    when(fileService.listFiles(
+            isNull(), isNull(), isNull(), eq("uploadDate"), eq("desc"), eq(""), eq(1)))
+        .thenReturn(new CursorPagedResponse<>(List.of(file), 1, 1, true, "next-token"));
+
+    mockMvc
+        .perform(get("/api/v1/files").param("cursor", "").param("size", "1"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.content[0].id").value("id1"))
+        .andExpect(jsonPath("$.hasNext").value(true))
+        .andExpect(jsonPath("$.nextCursor").value("next-token"))
+        .andExpect(jsonPath("$.totalElements").doesNotExist());
+
+    verify(fileService, never()).listFiles(any(), any(), any(), any(), any(), anyInt(), anyInt());
+  }
+
+  @Test
+  void listFiles_withRangeParams_passesParsedRangeFilter() throws Exception {
+    when(fileService.listFiles(
+            isNull(), isNull(), any(), eq("uploadDate"), eq("desc"), eq(0), eq(10)))
+        .thenReturn(new PageImpl<>(List.of()));
+
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.get("/api/v1/files")
+                .param("minSize", "1024")
+                .param("from", "2025-09-01")
+                .param("contentType", "image/*"))
+        .andExpect(status().isOk());
+
+    verify(fileService)
+        .listFiles(
+            isNull(),
+            isNull(),
+            eq(RangeFilter.of(1024L, null, "2025-09-01", null, "image/*")),
+            eq("uploadDate"),
+            eq("desc"),
+            eq(0),
+            eq(10));
+  }
+
+  @Test
+  void listFiles_withInvalidRange_returns400() throws Exception {
+    mockMvc
+        .perform(
+            MockMvcRequestBuilders.get("/api/v1/files")
+                .param("minSize", "10")
+                .param("maxSize", "5"))
+        .andExpect(status().isBadRequest());
+
+    verify(fileService, never()).listFiles(any(), any(), any(), any(), any(), anyInt(), anyInt());
+  }
+
+  @Test
+  void listFiles_withTotalsParam_usesSingleRoundTripListing() throws Exception {
+    when(fileService.listFiles(
+            isNull(),
+            isNull(),
+            isNull(),
+            eq("uploadDate"),
+            eq("desc"),
+            eq(0),
+            eq(10),
+            eq(TotalMode.NONE)))
+        .thenReturn(new PagedResponse<>(List.of(), 0, 10, null, null, true, true, 0, "none"));
+
+    mockMvc
+        .perform(get("/api/v1/files").param("totals", "none"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.totalType").value("none"))
+        .andExpect(jsonPath("$.totalElements").isEmpty());
+  }
+
+  @Test
+  void listFiles_withStreamParam_writesStreamingBody() throws Exception {
+    when(fileService.streamFiles(
+            isNull(),
+            isNull(),
+            isNull(),
+            eq("uploadDate"),
+            eq("desc"),
+            eq(0),
+            eq(10),
+            eq(TotalMode.EXACT)))
+        .thenReturn(out -> out.write("{\"content\":[]}".getBytes()));
+
+    var result =
+        mockMvc
+            .perform(get("/api/v1/files").param("stream", "true"))
+            .andExpect(request().asyncStarted())
+            .andReturn();
+
+    mockMvc
+        .perform(asyncDispatch(result))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType(MediaType.APPLICATION_JSON))
+        .andExpect(jsonPath("$.content").isArray());
+  }
+
+  @Test
+  void exportFiles_writesNdjsonForCaller() throws Exception {
+    when(fileService.exportFiles(eq("user1"), any()))
+        .thenAnswer(
+            inv -> {
+              inv.getArgument(1, java.io.OutputStream.class).write("{\"id\":\"a\"}\n".getBytes());
+              return 1L;
+            });
+
+    mockMvc
+        .perform(get("/api/v1/files/export").header("X-User-Id", "user1"))
+        .andExpect(status().isOk())
+        .andExpect(content().contentType("application/x-ndjson"))
+        .andExpect(content().string("{\"id\":\"a\"}\n"));
+  }
+
+  @Test
+  void searchFiles_passesQueryAndMatchMode() throws Exception {
+    FileResponse file =
+        new FileResponse(
+            "id1",
+            "Report.pdf",
+            Visibility.PRIVATE,
+            List.of(),
+            new Date(),
+            "text/plain",
+            1L,
+            "/t",
+            0L);
+    when(fileService.searchFiles("user1", "port", FilenameMatch.CONTAINS, 5))
+        .thenReturn(List.of(file));
+
+    mockMvc
+        .perform(
+            get("/api/v1/files/search")
+                .header("X-User-Id", "user1")
+                .param("q", "port")
+                .param("match", "contains")
+                .param("limit", "5"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$[0].filename").value("Report.pdf"));
   }
 }
@@ -0,0 +1,90 @@
+package com.example.storage_app.controller;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.config.ListingProperties;
+import com.example.storage_app.service.PublicListingCache;
+import com.example.storage_app.util.DownloadLinkSigner;
+import jakarta.servlet.http.HttpServletResponse;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+class PublicListingCacheFilterTest {
+  private final AtomicInteger listings = new AtomicInteger();
+  private final DownloadLinkSigner signer = mock(DownloadLinkSigner.class);
+  private PublicListingCache cache;
+  private PublicListingCacheFilter filter;
+
+  @BeforeEach
+  void setUp() {
+    cache =
+        spy(
+            new PublicListingCache(
+                mock(MongoTemplate.class),
+                new ListingProperties(
+                    Duration.ofSeconds(30), 10, 1000, 1000, true, 100, Duration.ofSeconds(5))));
+    when(cache.isServing()).thenReturn(true);
+    filter = new PublicListingCacheFilter(cache, signer);
+  }
+
+  private MockHttpServletResponse get(MockHttpServletRequest request) throws Exception {
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    filter.doFilter(
+        request,
+        response,
+        (req, res) -> {
+          HttpServletResponse http = (HttpServletResponse) res;
+          http.setContentType("application/json");
+          http.getOutputStream().write(("{\"n\":" + listings.incrementAndGet() + "}").getBytes());
+        });
+    return response;
+  }
+
+  private static MockHttpServletRequest listing(String sortBy) {
+    MockHttpServletRequest request = new MockHttpServletRequest("GET", "/api/v1/files");
+    request.setParameter("sortBy", sortBy);
+    return request;
+  }
+
+  @Test
+  void anonymousListing_isServedFromCacheAfterFirstRequest() throws Exception {
+    MockHttpServletResponse miss = get(listing("size"));
+    MockHttpServletResponse hit = get(listing("size"));
+    MockHttpServletResponse otherKey = get(listing("filename"));
+    MockHttpServletRequest ranged = listing("size");
+    ranged.setParameter("contentType", "image/*");
+    MockHttpServletResponse otherRange = get(ranged);
+
+    assertEquals("{\"n\":1}", miss.getContentAsString());
+    assertEquals("MISS", miss.getHeader(PublicListingCacheFilter.CACHE_HEADER));
+    assertEquals("{\"n\":1}", hit.getContentAsString());
+    assertEquals("HIT", hit.getHeader(PublicListingCacheFilter.CACHE_HEADER));
+    assertEquals("application/json", hit.getContentType());
+    assertEquals("{\"n\":2}", otherKey.getContentAsString());
+    assertEquals("MISS", otherRange.getHeader(PublicListingCacheFilter.CACHE_HEADER));
+    assertEquals("{\"n\":3}", otherRange.getContentAsString());
+  }
+
+  @Test
+  void ownerCursorAndSignedListings_bypassTheCache() throws Exception {
+    MockHttpServletRequest owner = listing("size");
+    owner.addHeader("X-User-Id", "u1");
+    MockHttpServletRequest cursor = listing("size");
+    cursor.setParameter("cursor", "");
+
+    get(owner);
+    get(cursor);
+    when(signer.isEnabled()).thenReturn(true);
+    get(listing("size"));
+    get(listing("size"));
+
+    assertEquals(4, listings.get());
+    verify(cache, never()).put(anyString(), anyLong(), any());
+  }
+}
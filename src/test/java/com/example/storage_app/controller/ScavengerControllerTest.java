@@ -0,0 +1,44 @@
+package com.example.storage_app.controller;
+
+import static org.mockito.Mockito.*;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.*;
+
+import com.example.storage_app.config.AdminConfig;
+import com.example.storage_app.controller.dto.ScavengeReport;
+import com.example.storage_app.service.ConsistencyScavenger;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.web.servlet.MockMvc;
+
+@WebMvcTest(value = ScavengerController.class, properties = "storage.admin.users=ops")
+@Import({AdminConfig.class, AdminAccess.class})
+class ScavengerControllerTest {
+
+  @Autowired private MockMvc mockMvc;
+
+  @MockBean private ConsistencyScavenger consistencyScavenger;
+
+  @Test
+  void scavenge_byAnyoneButAnAdministrator_isForbiddenAndScansNothing() throws Exception {
+    mockMvc.perform(post("/api/v1/admin/scavenge")).andExpect(status().isForbidden());
+    mockMvc
+        .perform(post("/api/v1/admin/scavenge").header("X-User-Id", "someone"))
+        .andExpect(status().isForbidden());
+
+    verifyNoInteractions(consistencyScavenger);
+  }
+
+  @Test
+  void scavenge_byAnAdministrator_returnsTheReport() throws Exception {
+    when(consistencyScavenger.scavenge()).thenReturn(new ScavengeReport(2, 1, 0, 3, 100));
+
+    mockMvc
+        .perform(post("/api/v1/admin/scavenge").header("X-User-Id", "ops"))
+        .andExpect(status().isOk())
+        .andExpect(jsonPath("$.orphanedFiles").value(2));
+  }
+}
@@ -0,0 +1,46 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+class ConsistencyScavengerTest {
+
+  private static List<ObjectId> ascending(int count) {
+    List<ObjectId> ids = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      ids.add(new ObjectId(new Date(1_700_000_000_000L + i * 1000L)));
+    }
+    return ids;
+  }
+
+  private static List<ObjectId> orphans(List<ObjectId> keys, List<ObjectId> members) {
+    List<ObjectId> orphans = new ArrayList<>();
+    ConsistencyScavenger.antiJoin(keys.iterator(), members.iterator(), orphans::add);
+    return orphans;
+  }
+
+  @Test
+  void antiJoin_reportsKeysTheMembersSkipOnceEach() {
+    List<ObjectId> ids = ascending(6);
+    // Chunk-style keys repeat once per chunk.
+    List<ObjectId> keys =
+        List.of(ids.get(0), ids.get(0), ids.get(1), ids.get(3), ids.get(3), ids.get(5));
+    List<ObjectId> members = List.of(ids.get(1), ids.get(2), ids.get(4));
+
+    assertEquals(List.of(ids.get(0), ids.get(3), ids.get(5)), orphans(keys, members));
+  }
+
+  @Test
+  void antiJoin_emptySides() {
+    List<ObjectId> ids = ascending(3);
+
+    assertEquals(ids, orphans(ids, List.of()));
+    assertEquals(List.of(), orphans(List.of(), ids));
+    assertEquals(List.of(), orphans(ids, ids));
+  }
+}
@@ -0,0 +1,80 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.config.DerivativeProperties;
+import com.example.storage_app.model.DerivativeJob;
+import com.example.storage_app.util.DerivativeRenderer;
+import com.mongodb.client.result.UpdateResult;
+import java.time.Duration;
+import java.util.Date;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.util.unit.DataSize;
+
+class DerivativeServiceTest {
+  private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+  private DerivativeService service;
+
+  @BeforeEach
+  void setUp() {
+    when(mongoTemplate.getConverter())
+        .thenReturn(
+            new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+    service =
+        new DerivativeService(
+            mongoTemplate,
+            mock(GridFsTemplate.class),
+            mock(MongoDatabaseFactory.class),
+            mock(DerivativeRenderer.class),
+            new DerivativeProperties(
+                true,
+                1,
+                Duration.ofSeconds(5),
+                Duration.ofMinutes(2),
+                5,
+                Duration.ofSeconds(10),
+                256,
+                1024,
+                DataSize.ofMegabytes(64)),
+            mock(BlobStores.class));
+  }
+
+  @AfterEach
+  void tearDown() {
+    service.shutdown();
+  }
+
+  @Test
+  void failAbandoned_failsOnlyExpiredJobsThatUsedTheirLastAttempt() {
+    when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), eq(DerivativeJob.class)))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+    service.failAbandoned();
+
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate).updateMulti(query.capture(), update.capture(), eq(DerivativeJob.class));
+    Document filter = query.getValue().getQueryObject();
+    assertEquals(DerivativeJob.Status.RUNNING, filter.get("status"));
+    assertEquals(new Document("$gte", 5), filter.get("attempts"));
+    assertInstanceOf(Date.class, filter.get("lockedUntil", Document.class).get("$lte"));
+    Document set = update.getValue().getUpdateObject().get("$set", Document.class);
+    assertEquals(DerivativeJob.Status.FAILED, set.get("status"));
+  }
+}
@@ -0,0 +1,116 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.config.DownloadBandwidthProperties;
+import com.example.storage_app.controller.dto.DownloadTenantStats;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class DownloadBandwidthSchedulerTest {
+  private DownloadBandwidthScheduler scheduler;
+
+  @AfterEach
+  void tearDown() {
+    if (scheduler != null) {
+      scheduler.shutdown();
+    }
+  }
+
+  private static final int QUANTUM = 16 * 1024;
+
+  private DownloadBandwidthProperties props(long bytesPerSecond, Duration tickInterval) {
+    return new DownloadBandwidthProperties(
+        bytesPerSecond, QUANTUM, tickInterval, 1, 1, Map.of("heavy", 3), Duration.ofMinutes(5));
+  }
+
+  @Test
+  void meteringOnly_grantsEverythingAndCountsBytesPerTenant() throws Exception {
+    scheduler = new DownloadBandwidthScheduler(props(0, Duration.ofMillis(5)));
+
+    try (DownloadBandwidthScheduler.Lease lease = scheduler.open("alice", "10.0.0.1")) {
+      assertEquals(1000, lease.acquire(1000));
+      assertEquals(24, lease.acquire(24));
+    }
+    try (DownloadBandwidthScheduler.Lease lease = scheduler.open(null, "10.0.0.2")) {
+      assertEquals(10, lease.acquire(10));
+    }
+
+    List<DownloadTenantStats> stats = scheduler.snapshot();
+    DownloadTenantStats alice =
+        stats.stream().filter(s -> s.tenant().equals("user:alice")).findFirst().orElseThrow();
+    DownloadTenantStats anonymous =
+        stats.stream().filter(s -> s.tenant().startsWith("ip:")).findFirst().orElseThrow();
+    assertFalse(anonymous.tenant().contains("10.0.0.2"), anonymous.tenant());
+    assertEquals(1024, alice.bytesServed());
+    assertEquals(0, alice.activeStreams());
+    assertEquals(10, anonymous.bytesServed());
+  }
+
+  @Test
+  void shaping_splitsEachTicksBudgetByWeight() throws Exception {
+    // One tick's budget is the heavy tenant's quantum, three of the light one's. The ticker only
+    // fires every 4096s, so the test hands out every tick itself.
+    Duration interval = Duration.ofSeconds(4096);
+    scheduler = new DownloadBandwidthScheduler(props(3L * QUANTUM / 4096, interval));
+    AtomicBoolean running = new AtomicBoolean(true);
+    Thread heavy = drain(scheduler.open("heavy", "10.0.0.1"), running);
+    awaitParked("user:heavy");
+    Thread light = drain(scheduler.open("light", "10.0.0.2"), running);
+    awaitParked("user:light");
+
+    // Heavy, light+heavy (overdraft 1), light+heavy (overdraft 2), light: in every four ticks heavy
+    // gets 9 quanta and light 3, 12 in all, the budget of four ticks.
+    for (int i = 0; i < 8; i++) {
+      scheduler.tick();
+      awaitParked("user:heavy");
+      awaitParked("user:light");
+    }
+
+    assertEquals(18L * QUANTUM, served("user:heavy"));
+    assertEquals(6L * QUANTUM, served("user:light"));
+    running.set(false);
+    heavy.interrupt();
+    light.interrupt();
+    heavy.join(2000);
+    light.join(2000);
+  }
+
+  private long served(String tenant) {
+    return scheduler.snapshot().stream()
+        .filter(s -> s.tenant().equals(tenant))
+        .findFirst()
+        .orElseThrow()
+        .bytesServed();
+  }
+
+  /** Waits until the tenant has spent its credits and waits for more. */
+  private void awaitParked(String tenant) throws InterruptedException {
+    long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+    while (!scheduler.isParked(tenant)) {
+      assertTrue(System.nanoTime() < deadline, tenant + " never waited for credits");
+      Thread.sleep(1);
+    }
+  }
+
+  /** Asks for more than any grant, so every grant is spent at once. */
+  private Thread drain(DownloadBandwidthScheduler.Lease lease, AtomicBoolean running) {
+    Thread t =
+        new Thread(
+            () -> {
+              try (lease) {
+                while (running.get()) {
+                  lease.acquire(Integer.MAX_VALUE);
+                }
+              } catch (Exception ignored) {
+              }
+            });
+    t.setDaemon(true);
+    t.start();
+    return t;
+  }
+}
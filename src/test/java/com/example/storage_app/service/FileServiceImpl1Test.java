@@ -10,12 +10,14 @@ import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.config.ListingProperties;
 import com.example.storage_app.controller.dto.FileResponse;
 import com.example.storage_app.controller.dto.FileUpdateRequest;
 import com.example.storage_app.controller.dto.FileUploadRequest;
@@ -26,12 +28,15 @@ import com.example.storage_app.exception.UnauthorizedOperationException;
 import com.example.storage_app.model.FileRecord;
 import com.example.storage_app.model.Visibility;
 import com.example.storage_app.repository.FileRecordRepository;
+import com.example.storage_app.util.DownloadLinkSigner;
 import com.example.storage_app.util.FileMapper;
 import com.example.storage_app.util.FileMetadataBuilder;
 import com.example.storage_app.util.FileStorageResult;
 import com.example.storage_app.util.GridFsHelper;
 import com.example.storage_app.util.MimeUtil;
+import com.example.storage_app.util.RawFileJsonWriter;
 import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
 import com.mongodb.WriteError;
 import com.mongodb.client.gridfs.model.GridFSFile;
@@ -40,6 +45,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
@@ -67,9 +73,10 @@ import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
-import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -81,6 +88,18 @@ class FileServiceImpl1Test {
   @Mock private FileMapper fileMapper;
   @Mock private GridFsHelper gridFsHelper;
   @Mock private MongoTemplate mongoTemplate;
+  @Mock private DownloadLinkSigner downloadLinkSigner;
+  @Mock private DerivativeService derivativeService;
+  @Mock private ListingCountCache listingCountCache;
+  @Mock private OwnerStatsService ownerStatsService;
+  @Mock private RawFileJsonWriter rawFileJsonWriter;
+  @Mock private ListingProperties listingProperties;
+  @Mock private ReadRouting readRouting;
+  @Mock private ReadRouting.Reads downloadReads;
+  @Mock private TrashService trashService;
+
+  @Mock private BlobStores blobStores;
+  @Mock private PackArchiver packArchiver;
 
   @InjectMocks private FileServiceImpl fileService;
 
@@ -222,23 +241,13 @@ class FileServiceImpl1Test {
               return recordToSave;
             });
     lenient().when(fileRecordRepository.findByFilename(anyString())).thenReturn(Optional.empty());
-    lenient().when(fileRecordRepository.findByToken(anyString())).thenReturn(Optional.empty());
     lenient()
-        .when(
-            fileRecordRepository.findByOwnerIdAndTagsContaining(
-                anyString(), anyString(), any(Pageable.class)))
-        .thenReturn(Page.empty());
-    lenient()
-        .when(fileRecordRepository.findByOwnerId(anyString(), any(Pageable.class)))
-        .thenReturn(Page.empty());
-    lenient()
-        .when(fileRecordRepository.findByVisibility(anyString(), any(Pageable.class)))
-        .thenReturn(Page.empty());
-    lenient()
-        .when(
-            fileRecordRepository.findByVisibilityAndTagsContaining(
-                anyString(), anyString(), any(Pageable.class)))
-        .thenReturn(Page.empty());
+        .when(readRouting.listings(any()))
+        .thenAnswer(
+            inv ->
+                new ReadRouting.Reads(
+                    mongoTemplate, ReadPreference.primary(), Duration.ZERO, null));
+    lenient().when(readRouting.downloads()).thenReturn(downloadReads);
 
     lenient()
         .when(fileMapper.fromEntity(any(FileRecord.class)))
@@ -254,16 +263,10 @@ class FileServiceImpl1Test {
                   fr.getUploadDate(),
                   fr.getContentType(),
                   fr.getSize(),
-                  "/api/v1/files/download/" + fr.getToken());
+                  "/api/v1/files/download/" + fr.getToken(),
+                  0L);
             });
 
-    lenient()
-        .when(
-            mongoTemplate.updateFirst(
-                any(Query.class),
-                any(org.springframework.data.mongodb.core.query.Update.class),
-                eq(FileRecord.class)))
-        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
     lenient()
         .when(
             mongoTemplate.updateFirst(
@@ -429,29 +432,29 @@ class FileServiceImpl1Test {
   @Test
   void downloadFile_whenTokenDoesNotExist_shouldThrowException() throws Exception {
     // Use the testToken field directly, FileUploadRequest does not have a token.
-    when(fileRecordRepository.findByToken(eq(testToken))).thenReturn(Optional.empty());
+    when(downloadReads.findByToken(eq(testToken))).thenReturn(Optional.empty());
 
     ResourceNotFoundException exception =
         assertThrows(ResourceNotFoundException.class, () -> fileService.downloadFile(testToken));
     assertTrue(exception.getMessage().contains("File not found for token: " + testToken));
 
-    verify(fileRecordRepository).findByToken(eq(testToken));
-    verify(gridFsTemplate, never()).findOne(any(Query.class));
-    verify(gridFsTemplate, never()).getResource(any(GridFSFile.class));
+    verify(downloadReads).findByToken(eq(testToken));
+    verify(downloadReads, never()).findFile(any());
+    verify(downloadReads, never()).open(any(GridFSFile.class));
+    verify(downloadReads).close();
   }
 
   @Test
   void updateFileDetails_whenFileExistsAndUserOwnsItAndNewNameIsValid_shouldSucceed() {
     String systemFileId = testFileId;
-    String oldOriginalFilename = "old_document.txt";
     String newOriginalFilename = newFilename;
     FileUpdateRequest localUpdateRequest = new FileUpdateRequest(newOriginalFilename);
 
-    FileRecord initialRecord =
+    FileRecord updatedRecord =
         FileRecord.builder()
             .id(systemFileId)
             .filename(systemFileId)
-            .originalFilename(oldOriginalFilename)
+            .originalFilename(newOriginalFilename)
             .ownerId(testUserId)
             .visibility(Visibility.PRIVATE)
             .token("some-token-for-update")
@@ -459,49 +462,47 @@ class FileServiceImpl1Test {
             .contentType("text/plain")
             .size(123L)
             .tags(Collections.singletonList("initial"))
+            .version(3)
             .build();
 
-    when(fileRecordRepository.findByFilename(eq(systemFileId)))
-        .thenReturn(Optional.of(initialRecord));
-
-    when(mongoTemplate.updateFirst(
-            argThat(query -> query.getQueryObject().getString("filename").equals(systemFileId)),
+    when(mongoTemplate.findAndModify(
+            argThat(
+                query ->
+                    query.getQueryObject().getString("filename").equals(systemFileId)
+                        && query.getQueryObject().getString("ownerId").equals(testUserId)),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(newOriginalFilename)),
-            eq("fs.files")))
-        .thenReturn(UpdateResult.acknowledged(1L, 1L, null));
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class)))
+        .thenReturn(updatedRecord);
 
     FileResponse expectedResponseAfterUpdate =
         new FileResponse(
             systemFileId,
             newOriginalFilename,
-            initialRecord.getVisibility(),
-            initialRecord.getTags(),
-            initialRecord.getUploadDate(),
-            initialRecord.getContentType(),
-            initialRecord.getSize(),
-            "/api/v1/files/download/" + initialRecord.getToken());
+            updatedRecord.getVisibility(),
+            updatedRecord.getTags(),
+            updatedRecord.getUploadDate(),
+            updatedRecord.getContentType(),
+            updatedRecord.getSize(),
+            "/api/v1/files/download/" + updatedRecord.getToken(),
+            3L);
 
-    when(fileMapper.fromEntity(
-            argThat(
-                record ->
-                    newOriginalFilename.equals(record.getOriginalFilename())
-                        && systemFileId.equals(record.getId()))))
-        .thenReturn(expectedResponseAfterUpdate);
+    when(fileMapper.fromEntity(updatedRecord)).thenReturn(expectedResponseAfterUpdate);
 
     FileResponse actualResponse =
-        fileService.updateFileDetails(testUserId, systemFileId, localUpdateRequest);
+        fileService.updateFileDetails(testUserId, systemFileId, localUpdateRequest, 2L);
 
     assertNotNull(actualResponse);
     assertEquals(expectedResponseAfterUpdate, actualResponse);
     assertEquals(newOriginalFilename, actualResponse.filename());
 
-    verify(fileRecordRepository).findByFilename(eq(systemFileId));
+    verify(fileRecordRepository, never()).findByFilename(any());
     verify(mongoTemplate)
         .updateFirst(
             argThat(query -> query.getQueryObject().getString("filename").equals(systemFileId)),
@@ -513,8 +514,6 @@ class FileServiceImpl1Test {
                         .getString("metadata.originalFilename")
                         .equals(newOriginalFilename)),
             eq("fs.files"));
-    verify(fileMapper)
-        .fromEntity(argThat(record -> newOriginalFilename.equals(record.getOriginalFilename())));
   }
 
   @Test
@@ -526,7 +525,9 @@ class FileServiceImpl1Test {
     ResourceNotFoundException ex =
         assertThrows(
             ResourceNotFoundException.class,
-            () -> fileService.updateFileDetails(testUserId, nonExistentFileId, localUpdateRequest));
+            () ->
+                fileService.updateFileDetails(
+                    testUserId, nonExistentFileId, localUpdateRequest, null));
 
     assertEquals("File not found with id: " + nonExistentFileId, ex.getMessage());
     verify(fileRecordRepository).findByFilename(eq(nonExistentFileId));
@@ -539,27 +540,17 @@ class FileServiceImpl1Test {
     FileUpdateRequest localUpdateRequest = new FileUpdateRequest(conflictingFilename);
     String systemFileId = testFileId;
 
-    FileRecord initialRecord =
-        FileRecord.builder()
-            .id(systemFileId)
-            .filename(systemFileId)
-            .originalFilename("old_name.txt")
-            .ownerId(testUserId)
-            .visibility(Visibility.PRIVATE)
-            .build();
-
-    when(fileRecordRepository.findByFilename(eq(systemFileId)))
-        .thenReturn(Optional.of(initialRecord));
-    when(mongoTemplate.updateFirst(
+    when(mongoTemplate.findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(conflictingFilename)),
-            eq("fs.files")))
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class)))
         .thenThrow(
             new org.springframework.dao.DuplicateKeyException(
                 "E11000 duplicate key error collection: fs.files index: owner_filename_idx dup key: { ... }"));
@@ -567,76 +558,56 @@ class FileServiceImpl1Test {
     FileAlreadyExistsException exception =
         assertThrows(
             FileAlreadyExistsException.class,
-            () -> fileService.updateFileDetails(testUserId, systemFileId, localUpdateRequest));
+            () ->
+                fileService.updateFileDetails(testUserId, systemFileId, localUpdateRequest, null));
 
     assertTrue(
         exception
             .getMessage()
             .contains("Filename '" + conflictingFilename + "' already exists for this user"));
-    verify(fileRecordRepository).findByFilename(eq(systemFileId));
+    verify(fileRecordRepository, never()).findByFilename(any());
     verify(mongoTemplate)
-        .updateFirst(
+        .findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(conflictingFilename)),
-            eq("fs.files"));
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
   }
 
   @Test
-  void updateFileDetails_whenUpdateOperationReportsNoModification_shouldThrowException() {
+  void updateFileDetails_whenNameIsAlreadySet_shouldReturnTheEntryUnchanged() {
     String fileId = testFileId;
-    FileRecord record =
+    FileRecord current =
         FileRecord.builder()
             .id(fileId)
             .filename(fileId)
             .ownerId(testUserId)
-            .originalFilename("no_change.txt")
+            .originalFilename("some_new_name.txt")
+            .version(5)
             .build();
     FileUpdateRequest localUpdateRequest = new FileUpdateRequest("some_new_name.txt");
+    FileResponse mapped =
+        new FileResponse(fileId, "some_new_name.txt", null, null, null, null, 0L, null, 5L);
 
-    // First call to findByFilename (at the start of the service method) returns the record
-    when(fileRecordRepository.findByFilename(eq(fileId)))
-        .thenReturn(Optional.of(record))
-        // Second call to findByFilename (the re-fetch) returns empty
-        .thenReturn(Optional.empty());
+    // The filter excludes entries that already carry the new name, so nothing matches.
+    when(fileRecordRepository.findByFilename(eq(fileId))).thenReturn(Optional.of(current));
+    when(fileMapper.fromEntity(current)).thenReturn(mapped);
 
-    // Simulate mongoTemplate.updateFirst returning 0 modified documents
-    when(mongoTemplate.updateFirst(
-            any(Query.class),
-            argThat(
-                update ->
-                    update
-                        .getUpdateObject()
-                        .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
-                        .equals("some_new_name.txt")),
-            eq("fs.files")))
-        .thenReturn(UpdateResult.acknowledged(1L, 0L, null)); // Matched 1, Modified 0
-
-    ResourceNotFoundException ex =
-        assertThrows(
-            ResourceNotFoundException.class,
-            () -> fileService.updateFileDetails(testUserId, fileId, localUpdateRequest));
-    assertTrue(ex.getMessage().contains("File not found after update attempt for id: " + fileId));
-
-    // Verify findByFilename was called twice (initial fetch + re-fetch)
-    verify(fileRecordRepository, org.mockito.Mockito.times(2)).findByFilename(eq(fileId));
+    assertEquals(
+        mapped, fileService.updateFileDetails(testUserId, fileId, localUpdateRequest, null));
     verify(mongoTemplate)
-        .updateFirst(
+        .findAndModify(
             any(Query.class),
-            argThat(
-                update ->
-                    update
-                        .getUpdateObject()
-                        .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
-                        .equals("some_new_name.txt")),
-            eq("fs.files"));
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
+    verify(mongoTemplate, never()).updateFirst(any(Query.class), any(Update.class), eq("fs.files"));
   }
 
   @Test
@@ -650,25 +621,22 @@ class FileServiceImpl1Test {
             .originalFilename("user_file_to_delete.txt")
             .build();
 
-    when(fileRecordRepository.findByFilename(eq(systemFileId)))
-        .thenReturn(Optional.of(recordToDelete));
-    // Arrange: mock GridFSFile with known ObjectId
-    ObjectId mockObjectId = new ObjectId("507f1f77bcf86cd799439011");
-    GridFSFile mockGridFSFile = mock(GridFSFile.class);
-    when(mockGridFSFile.getObjectId()).thenReturn(mockObjectId);
-    when(gridFsTemplate.findOne(any(Query.class))).thenReturn(mockGridFSFile);
+    when(mongoTemplate.findAndRemove(
+            argThat(
+                query ->
+                    query.getQueryObject().getString("filename").equals(systemFileId)
+                        && query.getQueryObject().getString("ownerId").equals(testUserId)),
+            eq(FileRecord.class)))
+        .thenReturn(recordToDelete);
 
-    assertDoesNotThrow(() -> fileService.deleteFile(testUserId, systemFileId));
+    assertDoesNotThrow(() -> fileService.deleteFile(testUserId, systemFileId, null));
 
-    verify(fileRecordRepository).findByFilename(eq(systemFileId));
-    // Verify GridFS findOne was called with the correct query (based on record.getFilename())
-    Query expectedGridFsFindQuery =
-        Query.query(Criteria.where("filename").is(recordToDelete.getFilename()));
-    verify(gridFsTemplate).findOne(eq(expectedGridFsFindQuery));
-    // Verify GridFS delete was called with the correct query (based on _id)
-    Query expectedGridFsDeleteQuery = Query.query(Criteria.where("_id").is(mockObjectId));
-    verify(gridFsTemplate).delete(eq(expectedGridFsDeleteQuery));
-    verify(fileRecordRepository).delete(eq(recordToDelete));
+    verify(fileRecordRepository, never()).findByFilename(any());
+    // Only the catalogue entry moves to the trash; the content is left to the reaper.
+    verify(trashService).trashRemoved(eq(List.of(recordToDelete)));
+    verify(gridFsTemplate, never()).delete(any(Query.class));
+    verify(derivativeService, never()).deleteFor(any());
+    verify(ownerStatsService).recordDelete(eq(recordToDelete));
   }
 
   @Test
@@ -681,12 +649,13 @@ class FileServiceImpl1Test {
     ResourceNotFoundException ex =
         assertThrows(
             ResourceNotFoundException.class,
-            () -> fileService.deleteFile(testUserId, invalidOrNonExistentFileId));
+            () -> fileService.deleteFile(testUserId, invalidOrNonExistentFileId, null));
     assertEquals("File not found with id: " + invalidOrNonExistentFileId, ex.getMessage());
 
     verify(fileRecordRepository).findByFilename(eq(invalidOrNonExistentFileId));
     verify(gridFsTemplate, never()).delete(any(Query.class));
     verify(fileRecordRepository, never()).delete(any(FileRecord.class));
+    verify(trashService, never()).trashRemoved(any());
   }
 
   @Test
@@ -709,7 +678,7 @@ class FileServiceImpl1Test {
         assertThrows(
             UnauthorizedOperationException.class,
             () -> {
-              fileService.deleteFile(attackerUserId, systemFileId);
+              fileService.deleteFile(attackerUserId, systemFileId, null);
             });
 
     assertEquals(
@@ -719,6 +688,7 @@ class FileServiceImpl1Test {
     verify(fileRecordRepository).findByFilename(eq(systemFileId));
     verify(gridFsTemplate, never()).delete(any(Query.class));
     verify(fileRecordRepository, never()).delete(any(FileRecord.class));
+    verify(trashService, never()).trashRemoved(any());
   }
 
   @Test
@@ -739,7 +709,7 @@ class FileServiceImpl1Test {
         assertThrows(
             UnauthorizedOperationException.class,
             () -> {
-              fileService.deleteFile(testUserId, systemFileId);
+              fileService.deleteFile(testUserId, systemFileId, null);
             });
     // Message check needs to be consistent with how service handles this specific scenario
     assertEquals(
@@ -776,14 +746,14 @@ class FileServiceImpl1Test {
             new Date(),
             "text/plain",
             100L,
-            "link1");
+            "link1",
+            0L);
 
     List<FileRecord> records = List.of(publicRecord1);
     Page<FileRecord> recordPage = new PageImpl<>(records, expectedPageable, records.size());
 
     // 1. Mock repository to return a page of public FileRecords
-    when(fileRecordRepository.findByVisibility(eq("PUBLIC"), eq(expectedPageable)))
-        .thenReturn(recordPage);
+    stubListing(recordPage);
 
     // 2. Mock mapper to convert FileRecord to FileResponse (already leniently mocked in setUp, but
     // can be specific)
@@ -791,7 +761,7 @@ class FileServiceImpl1Test {
 
     // Act
     Page<FileResponse> resultPage =
-        fileService.listFiles(null, null, null, "asc", pageNum, pageSize);
+        fileService.listFiles(null, null, null, null, "asc", pageNum, pageSize);
 
     // Assert
     assertNotNull(resultPage);
@@ -800,7 +770,7 @@ class FileServiceImpl1Test {
     assertEquals(publicResponse1, resultPage.getContent().get(0));
 
     // Verify repository call
-    verify(fileRecordRepository).findByVisibility(eq("PUBLIC"), eq(expectedPageable));
+    verifyListingQuery(new Document("visibility", "PUBLIC"), expectedPageable);
     verify(fileMapper).fromEntity(publicRecord1);
   }
 
@@ -838,7 +808,8 @@ class FileServiceImpl1Test {
             recordUser1.getUploadDate(),
             recordUser1.getContentType(),
             recordUser1.getSize(),
-            "/api/v1/files/download/" + recordUser1.getToken());
+            "/api/v1/files/download/" + recordUser1.getToken(),
+            0L);
 
     String systemIdUser2 = UUID.randomUUID().toString();
     String originalFilenameUser2 = "userFileB.pdf";
@@ -864,14 +835,14 @@ class FileServiceImpl1Test {
             recordUser2.getUploadDate(),
             recordUser2.getContentType(),
             recordUser2.getSize(),
-            "/api/v1/files/download/" + recordUser2.getToken());
+            "/api/v1/files/download/" + recordUser2.getToken(),
+            0L);
 
     List<FileRecord> userRecords = List.of(recordUser1, recordUser2);
     Page<FileRecord> recordPage = new PageImpl<>(userRecords, expectedPageable, userRecords.size());
 
     // Mock repository to return the page of user's FileRecords
-    when(fileRecordRepository.findByOwnerId(eq(testUserId), eq(expectedPageable)))
-        .thenReturn(recordPage);
+    stubListing(recordPage);
 
     // Mock mapper for each record
     when(fileMapper.fromEntity(eq(recordUser1))).thenReturn(responseUser1);
@@ -879,7 +850,7 @@ class FileServiceImpl1Test {
 
     // Act
     Page<FileResponse> resultPage =
-        fileService.listFiles(testUserId, null, sortByApi, sortDir, pageNum, pageSize);
+        fileService.listFiles(testUserId, null, null, sortByApi, sortDir, pageNum, pageSize);
 
     // Assert
     assertNotNull(resultPage);
@@ -890,13 +861,8 @@ class FileServiceImpl1Test {
     assertEquals(responseUser1, resultPage.getContent().get(0));
     assertEquals(responseUser2, resultPage.getContent().get(1));
 
-    // Verify repository call with correct Pageable
-    ArgumentCaptor<Pageable> pageableCaptor = ArgumentCaptor.forClass(Pageable.class);
-    verify(fileRecordRepository).findByOwnerId(eq(testUserId), pageableCaptor.capture());
-    Pageable capturedPageable = pageableCaptor.getValue();
-    assertEquals(pageNum, capturedPageable.getPageNumber());
-    assertEquals(pageSize, capturedPageable.getPageSize());
-    assertEquals(Sort.by(Sort.Direction.ASC, "originalFilename"), capturedPageable.getSort());
+    // Verify the query's scope, sort and page window
+    verifyListingQuery(new Document("ownerId", testUserId), expectedPageable);
 
     verify(fileMapper).fromEntity(eq(recordUser1));
     verify(fileMapper).fromEntity(eq(recordUser2));
@@ -936,22 +902,21 @@ class FileServiceImpl1Test {
             taggedRecord.getUploadDate(),
             taggedRecord.getContentType(),
             taggedRecord.getSize(),
-            "/api/v1/files/download/" + taggedRecord.getToken());
+            "/api/v1/files/download/" + taggedRecord.getToken(),
+            0L);
 
     List<FileRecord> records = List.of(taggedRecord);
     Page<FileRecord> recordPage = new PageImpl<>(records, expectedPageable, records.size());
 
     // Mock repository to return a page of PUBLIC FileRecords matching the lowercase tag
-    when(fileRecordRepository.findByVisibilityAndTagsContaining(
-            eq("PUBLIC"), eq(filterTagDb), eq(expectedPageable)))
-        .thenReturn(recordPage);
+    stubListing(recordPage);
 
     // Mock mapper
     when(fileMapper.fromEntity(eq(taggedRecord))).thenReturn(taggedResponse);
 
     // Act: userId is null, filterTagApi is "Work"
     Page<FileResponse> resultPage =
-        fileService.listFiles(null, filterTagApi, sortByApi, sortDir, pageNum, pageSize);
+        fileService.listFiles(null, filterTagApi, null, sortByApi, sortDir, pageNum, pageSize);
 
     // Assert
     assertNotNull(resultPage);
@@ -960,8 +925,8 @@ class FileServiceImpl1Test {
     assertEquals(taggedResponse, resultPage.getContent().get(0));
 
     // Verify repository call (service should convert filterTagApi to lowercase)
-    verify(fileRecordRepository)
-        .findByVisibilityAndTagsContaining(eq("PUBLIC"), eq(filterTagDb), eq(expectedPageable));
+    verifyListingQuery(
+        new Document("visibility", "PUBLIC").append("tags", filterTagDb), expectedPageable);
     verify(fileMapper).fromEntity(eq(taggedRecord));
   }
 
@@ -997,7 +962,8 @@ class FileServiceImpl1Test {
             recordA.getUploadDate(),
             "text/plain",
             10L,
-            "/api/v1/files/download/tokenA");
+            "/api/v1/files/download/tokenA",
+            0L);
 
     FileRecord recordG =
         FileRecord.builder()
@@ -1021,7 +987,8 @@ class FileServiceImpl1Test {
             recordG.getUploadDate(),
             "text/plain",
             20L,
-            "/api/v1/files/download/tokenG");
+            "/api/v1/files/download/tokenG",
+            0L);
 
     // Records sorted by originalFilename ASC for the public listing
     List<FileRecord> publicRecords = List.of(recordA, recordG);
@@ -1029,8 +996,7 @@ class FileServiceImpl1Test {
         new PageImpl<>(publicRecords, expectedPageable, publicRecords.size());
 
     // Mock repository to return the sorted page of PUBLIC FileRecords
-    when(fileRecordRepository.findByVisibility(eq("PUBLIC"), eq(expectedPageable)))
-        .thenReturn(recordPage);
+    stubListing(recordPage);
 
     // Mock mapper for each record
     when(fileMapper.fromEntity(eq(recordA))).thenReturn(responseA);
@@ -1038,7 +1004,7 @@ class FileServiceImpl1Test {
 
     // Act: userId and filterTag are null, sorting by filename ASC
     Page<FileResponse> resultPage =
-        fileService.listFiles(null, null, sortByApi, sortDir, pageNum, pageSize);
+        fileService.listFiles(null, null, null, sortByApi, sortDir, pageNum, pageSize);
 
     // Assert
     assertNotNull(resultPage);
@@ -1048,7 +1014,7 @@ class FileServiceImpl1Test {
     assertEquals(responseG, resultPage.getContent().get(1)); // gamma.txt second
 
     // Verify repository call
-    verify(fileRecordRepository).findByVisibility(eq("PUBLIC"), eq(expectedPageable));
+    verifyListingQuery(new Document("visibility", "PUBLIC"), expectedPageable);
     verify(fileMapper).fromEntity(eq(recordA));
     verify(fileMapper).fromEntity(eq(recordG));
   }
@@ -1095,7 +1061,8 @@ class FileServiceImpl1Test {
             new Date(),
             "app/doc",
             5000L,
-            "linkL");
+            "linkL",
+            0L);
     FileResponse responseM =
         new FileResponse(
             "idM",
@@ -1105,7 +1072,8 @@ class FileServiceImpl1Test {
             new Date(),
             "app/pdf",
             500L,
-            "linkM");
+            "linkM",
+            0L);
     FileResponse responseS =
         new FileResponse(
             "idS",
@@ -1115,15 +1083,15 @@ class FileServiceImpl1Test {
             new Date(),
             "text/plain",
             50L,
-            "linkS");
+            "linkS",
+            0L);
 
     // Records sorted by size DESC
     List<FileRecord> records = List.of(recordL, recordM, recordS);
     Page<FileRecord> recordPage = new PageImpl<>(records, expectedPageable, records.size());
 
     // 1. Mock repository to return the sorted page of public FileRecords
-    when(fileRecordRepository.findByVisibility(eq("PUBLIC"), eq(expectedPageable)))
-        .thenReturn(recordPage);
+    stubListing(recordPage);
 
     // 2. Mock mapper for each record
     when(fileMapper.fromEntity(recordL)).thenReturn(responseL);
@@ -1132,7 +1100,7 @@ class FileServiceImpl1Test {
 
     // Act: userId and filterTag are null
     Page<FileResponse> resultPage =
-        fileService.listFiles(null, null, sortByApi, sortDir, pageNum, pageSize);
+        fileService.listFiles(null, null, null, sortByApi, sortDir, pageNum, pageSize);
 
     // Assert
     assertNotNull(resultPage);
@@ -1143,7 +1111,7 @@ class FileServiceImpl1Test {
     assertEquals(responseS, resultPage.getContent().get(2));
 
     // Verify repository call
-    verify(fileRecordRepository).findByVisibility(eq("PUBLIC"), eq(expectedPageable));
+    verifyListingQuery(new Document("visibility", "PUBLIC"), expectedPageable);
     verify(fileMapper).fromEntity(recordL);
     verify(fileMapper).fromEntity(recordM);
     verify(fileMapper).fromEntity(recordS);
@@ -1168,15 +1136,13 @@ class FileServiceImpl1Test {
 
     // Mock repository to return an empty page for the given criteria
     // Assuming public files are being queried as userId is null in the service call below
-    when(fileRecordRepository.findByVisibilityAndTagsContaining(
-            eq("PUBLIC"), eq(filterTagDb), eq(expectedPageable)))
-        .thenReturn(emptyRecordPage);
+    stubListing(emptyRecordPage);
 
     // fileMapper.fromEntity will not be called if the page content is empty.
 
     // Act
     Page<FileResponse> resultPage =
-        fileService.listFiles(null, filterTagApi, sortByApi, sortDir, pageNum, pageSize);
+        fileService.listFiles(null, filterTagApi, null, sortByApi, sortDir, pageNum, pageSize);
 
     // Assert
     assertNotNull(resultPage);
@@ -1186,8 +1152,8 @@ class FileServiceImpl1Test {
     assertEquals(pageSize, resultPage.getSize()); // Pageable's size requested
 
     // Verify repository call
-    verify(fileRecordRepository)
-        .findByVisibilityAndTagsContaining(eq("PUBLIC"), eq(filterTagDb), eq(expectedPageable));
+    verifyListingQuery(
+        new Document("visibility", "PUBLIC").append("tags", filterTagDb), expectedPageable);
     verify(fileMapper, never()).fromEntity(any(FileRecord.class)); // Mapper should not be called
   }
 
@@ -1203,15 +1169,12 @@ class FileServiceImpl1Test {
     IllegalArgumentException exception =
         assertThrows(
             IllegalArgumentException.class,
-            () -> fileService.listFiles(userId, null, invalidSortField, "asc", 0, 10));
+            () -> fileService.listFiles(userId, null, null, invalidSortField, "asc", 0, 10));
 
     assertTrue(exception.getMessage().contains("Invalid sortBy field: " + invalidSortField));
 
-    // Verify no repository interactions occurred
-    verify(fileRecordRepository, never()).findByOwnerId(anyString(), any(Pageable.class));
-    verify(fileRecordRepository, never()).findByVisibility(anyString(), any(Pageable.class));
-    verify(fileRecordRepository, never())
-        .findByVisibilityAndTagsContaining(anyString(), anyString(), any(Pageable.class));
+    // Verify no listing query was sent
+    verify(mongoTemplate, never()).find(any(Query.class), eq(FileRecord.class));
   }
 
   @Test
@@ -1232,7 +1195,7 @@ class FileServiceImpl1Test {
     UnauthorizedOperationException ex =
         assertThrows(
             UnauthorizedOperationException.class,
-            () -> fileService.updateFileDetails(attackerId, fileId, localUpdateRequest));
+            () -> fileService.updateFileDetails(attackerId, fileId, localUpdateRequest, null));
     assertEquals(
         "User '" + attackerId + "' not authorized to update fileId: " + fileId, ex.getMessage());
     verify(fileRecordRepository).findByFilename(eq(fileId));
@@ -1287,7 +1250,8 @@ class FileServiceImpl1Test {
             builtFileRecord.getUploadDate(),
             "text/plain",
             100L,
-            "/api/v1/files/download/" + builtFileRecord.getToken());
+            "/api/v1/files/download/" + builtFileRecord.getToken(),
+            0L);
     when(fileMapper.fromEntity(
             argThat(
                 record ->
@@ -1307,6 +1271,7 @@ class FileServiceImpl1Test {
     verify(fileMetadataBuilder).build(eq(uploadRequest), eq(userId), eq(mockMultipartFile));
     verify(gridFsHelper).storeAndHash(eq(mockMultipartFile), eq(builtFileRecord));
     verify(fileRecordRepository, never()).save(any(FileRecord.class));
+    verify(ownerStatsService).recordUpload(eq(builtFileRecord));
   }
 
   @Test
@@ -1366,7 +1331,8 @@ class FileServiceImpl1Test {
             builtFileRecord.getUploadDate(),
             "text/plain",
             120L,
-            "/api/v1/files/download/" + builtFileRecord.getToken());
+            "/api/v1/files/download/" + builtFileRecord.getToken(),
+            0L);
     when(fileMapper.fromEntity(
             argThat(
                 record ->
@@ -1451,7 +1417,8 @@ class FileServiceImpl1Test {
             builtFileRecord.getUploadDate(),
             "image/png",
             130L,
-            "/api/v1/files/download/" + builtFileRecord.getToken());
+            "/api/v1/files/download/" + builtFileRecord.getToken(),
+            0L);
     when(fileMapper.fromEntity(
             argThat(
                 record ->
@@ -1593,4 +1560,37 @@ class FileServiceImpl1Test {
             });
     assertEquals(rootCause, ex, "The original RuntimeException should be propagated.");
   }
+
+  @Test
+  void listFiles_sortByTag_sortsOnIndexedTagKeyInsteadOfArray() {
+    fileService.listFiles(testUserId, "Work", null, "tag", "desc", 0, 10);
+    fileService.listFiles(null, null, null, "tag", "asc", 0, 10);
+
+    ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate, times(2)).find(queries.capture(), eq(FileRecord.class));
+    Query owner = queries.getAllValues().get(0);
+    assertEquals(
+        new Document("ownerId", testUserId).append("tags", "work"), owner.getQueryObject());
+    assertEquals(new Document("lastTag", -1), owner.getSortObject());
+    Query publicFiles = queries.getAllValues().get(1);
+    assertEquals(new Document("visibility", "PUBLIC"), publicFiles.getQueryObject());
+    assertEquals(new Document("firstTag", 1), publicFiles.getSortObject());
+  }
+
+  private void stubListing(Page<FileRecord> page) {
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(page.getContent());
+    lenient()
+        .when(mongoTemplate.count(any(Query.class), eq(FileRecord.class)))
+        .thenReturn(page.getTotalElements());
+  }
+
+  private void verifyListingQuery(Document criteria, Pageable pageable) {
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(query.capture(), eq(FileRecord.class));
+    Query expected = new Query().with(pageable);
+    assertEquals(criteria, query.getValue().getQueryObject());
+    assertEquals(expected.getSortObject(), query.getValue().getSortObject());
+    assertEquals(expected.getSkip(), query.getValue().getSkip());
+    assertEquals(expected.getLimit(), query.getValue().getLimit());
+  }
 }
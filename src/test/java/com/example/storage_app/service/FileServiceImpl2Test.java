@@ -4,58 +4,99 @@ package com.example.storage_app.service;
 
 // Static JUnit & Mockito
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.argThat;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.isNull;
-import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.RETURNS_SELF;
+import static org.mockito.Mockito.clearInvocations;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 import static org.mockito.Mockito.when;
 
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.config.ListingProperties;
+import com.example.storage_app.config.TrashProperties;
+import com.example.storage_app.controller.dto.BulkDeleteResponse;
+import com.example.storage_app.controller.dto.BulkOperation;
+import com.example.storage_app.controller.dto.BulkOperationResult;
+import com.example.storage_app.controller.dto.BulkUpdateRequest;
+import com.example.storage_app.controller.dto.BulkUpdateResponse;
+import com.example.storage_app.controller.dto.CursorPagedResponse;
 import com.example.storage_app.controller.dto.FileResponse;
 import com.example.storage_app.controller.dto.FileUpdateRequest;
 import com.example.storage_app.controller.dto.FileUploadRequest;
+import com.example.storage_app.controller.dto.PagedResponse;
 import com.example.storage_app.exception.FileAlreadyExistsException;
 import com.example.storage_app.exception.InvalidRequestArgumentException;
+import com.example.storage_app.exception.PreconditionFailedException;
 import com.example.storage_app.exception.ResourceNotFoundException;
 import com.example.storage_app.exception.StorageException;
 import com.example.storage_app.exception.UnauthorizedOperationException;
+import com.example.storage_app.model.BulkOperationStatus;
 import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.FilenameMatch;
+import com.example.storage_app.model.TotalMode;
+import com.example.storage_app.model.TrashedFile;
 import com.example.storage_app.model.Visibility;
 import com.example.storage_app.repository.FileRecordRepository;
+import com.example.storage_app.util.DownloadLinkSigner;
 import com.example.storage_app.util.FileMapper;
 import com.example.storage_app.util.FileMetadataBuilder;
 import com.example.storage_app.util.FileStorageResult;
+import com.example.storage_app.util.FilenameSearchKeys;
 import com.example.storage_app.util.GridFsHelper;
+import com.example.storage_app.util.ListingCursor;
 import com.example.storage_app.util.MimeUtil;
+import com.example.storage_app.util.RangeFilter;
+import com.example.storage_app.util.RawFileJsonWriter;
+import com.example.storage_app.util.TagDictionary;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoWriteException;
+import com.mongodb.ReadPreference;
 import com.mongodb.ServerAddress;
 import com.mongodb.WriteError;
-import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.CountOptions;
 import com.mongodb.client.result.UpdateResult;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import org.apache.tika.io.LookaheadInputStream;
 import org.bson.BsonDocument;
 import org.bson.BsonString;
+import org.bson.RawBsonDocument;
+import org.bson.conversions.Bson;
 import org.bson.types.ObjectId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -73,10 +114,20 @@ import org.springframework.data.domain.PageImpl;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 // import com.mongodb.client.gridfs.model.GridFSFile; // Likely unused now
 // import org.bs.Document; // Likely unused directly
@@ -92,9 +143,22 @@ class FileServiceImpl2Test {
   @Mock private FileMapper fileMapper;
   @Mock private GridFsHelper gridFsHelper;
   @Mock private MongoTemplate mongoTemplate;
+  @Mock private DownloadLinkSigner downloadLinkSigner;
+  @Mock private DerivativeService derivativeService;
+  @Mock private ListingCountCache listingCountCache;
+  @Mock private OwnerStatsService ownerStatsService;
+  @Mock private RawFileJsonWriter rawFileJsonWriter;
+  @Mock private ListingProperties listingProperties;
+  @Mock private ReadRouting readRouting;
+  @Mock private TagDictionary tagDictionary;
+  @Mock private TrashService trashService;
+  @Mock private TrashProperties trashProperties;
 
   @Mock private MultipartFile mockFile;
 
+  @Mock private BlobStores blobStores;
+  @Mock private PackArchiver packArchiver;
+
   @InjectMocks private FileServiceImpl fileService;
 
   private String testUserId;
@@ -210,22 +274,9 @@ class FileServiceImpl2Test {
             });
     lenient().when(fileRecordRepository.findById(anyString())).thenReturn(Optional.empty());
     lenient().when(fileRecordRepository.findByToken(anyString())).thenReturn(Optional.empty());
-    lenient()
-        .when(fileRecordRepository.findByOwnerId(anyString(), any(Pageable.class)))
-        .thenReturn(Page.empty());
-    lenient()
-        .when(fileRecordRepository.findByVisibility(anyString(), any(Pageable.class)))
-        .thenReturn(Page.empty());
-    lenient()
-        .when(
-            fileRecordRepository.findByVisibilityAndTagsContaining(
-                anyString(), anyString(), any(Pageable.class)))
-        .thenReturn(Page.empty());
-    lenient()
-        .when(
-            fileRecordRepository.findByOwnerIdAndTagsContaining(
-                anyString(), anyString(), any(Pageable.class)))
-        .thenReturn(Page.empty());
+    lenient().when(readRouting.listings(any())).thenAnswer(inv -> reads(Duration.ofSeconds(2)));
+    lenient().when(readRouting.search(any())).thenAnswer(inv -> reads(Duration.ofSeconds(2)));
+    lenient().when(readRouting.export(any())).thenAnswer(inv -> reads(Duration.ofMinutes(10)));
 
     lenient()
         .when(fileMapper.fromEntity(any(FileRecord.class)))
@@ -241,16 +292,10 @@ class FileServiceImpl2Test {
                   fr.getUploadDate(),
                   fr.getContentType(),
                   fr.getSize(),
-                  "/api/v1/files/download/" + fr.getToken());
+                  "/api/v1/files/download/" + fr.getToken(),
+                  0L);
             });
 
-    lenient()
-        .when(
-            mongoTemplate.updateFirst(
-                any(Query.class),
-                any(org.springframework.data.mongodb.core.query.Update.class),
-                eq(FileRecord.class)))
-        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
     lenient()
         .when(
             mongoTemplate.updateFirst(
@@ -579,19 +624,22 @@ class FileServiceImpl2Test {
     existingRecord.setOriginalFilename("old_user_filename.txt");
     existingRecord.setToken("existing-token");
 
-    when(fileRecordRepository.findByFilename(testFileId))
-        .thenReturn(Optional.of(existingRecord)); // Changed findById to findByFilename
-    when(mongoTemplate.updateFirst(
+    when(mongoTemplate.findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", org.bson.Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(updateRequest.newFilename())),
-            eq("fs.files")))
-        .thenReturn(UpdateResult.acknowledged(1L, 1L, null));
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class)))
+        .thenReturn(
+            existingRecord.toBuilder()
+                .originalFilename(updateRequest.newFilename())
+                .version(1)
+                .build());
 
     when(fileMapper.fromEntity(any(FileRecord.class)))
         .thenAnswer(
@@ -605,25 +653,28 @@ class FileServiceImpl2Test {
                   fr.getUploadDate(),
                   fr.getContentType(),
                   fr.getSize(),
-                  "/api/v1/files/download/" + fr.getToken());
+                  "/api/v1/files/download/" + fr.getToken(),
+                  0L);
             });
 
-    FileResponse response = fileService.updateFileDetails(testUserId, testFileId, updateRequest);
+    FileResponse response =
+        fileService.updateFileDetails(testUserId, testFileId, updateRequest, null);
 
     assertNotNull(response);
     assertEquals(updateRequest.newFilename(), response.filename());
-    verify(fileRecordRepository).findByFilename(testFileId); // Verify findByFilename
+    verify(fileRecordRepository, never()).findByFilename(testFileId);
     verify(mongoTemplate)
-        .updateFirst(
+        .findAndModify(
             argThat(query -> query.getQueryObject().getString("filename").equals(testFileId)),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", org.bson.Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(updateRequest.newFilename())),
-            eq("fs.files"));
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
     verify(fileMapper)
         .fromEntity(
             argThat(record -> updateRequest.newFilename().equals(record.getOriginalFilename())));
@@ -631,76 +682,72 @@ class FileServiceImpl2Test {
 
   @Test
   void updateFileDetails_NewFilenameConflictsWithExisting() {
-    FileRecord initialRecord =
-        FileRecord.builder().id(testFileId).originalFilename("old.txt").ownerId(testUserId).build();
-    when(fileRecordRepository.findByFilename(eq(testFileId)))
-        .thenReturn(Optional.of(initialRecord));
-    when(mongoTemplate.updateFirst(
+    when(mongoTemplate.findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", org.bson.Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(updateRequest.newFilename())),
-            eq("fs.files")))
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class)))
         .thenThrow(
             new org.springframework.dao.DuplicateKeyException(
                 "E11000 duplicate key error collection: fs.files index: owner_filename_idx dup key: { ... }"));
 
     assertThrows(
         FileAlreadyExistsException.class,
-        () -> fileService.updateFileDetails(testUserId, testFileId, updateRequest));
+        () -> fileService.updateFileDetails(testUserId, testFileId, updateRequest, null));
 
-    verify(fileRecordRepository).findByFilename(eq(testFileId));
+    verify(fileRecordRepository, never()).findByFilename(any());
     verify(mongoTemplate)
-        .updateFirst(
+        .findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", org.bson.Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(updateRequest.newFilename())),
-            eq("fs.files"));
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
   }
 
   @Test
   void updateFileDetails_UpdateOperationFails_ShouldThrowStorageException() {
-    FileRecord initialRecord =
-        FileRecord.builder().id(testFileId).originalFilename("old.txt").ownerId(testUserId).build();
-    when(fileRecordRepository.findByFilename(eq(testFileId)))
-        .thenReturn(Optional.of(initialRecord));
-    when(mongoTemplate.updateFirst(
+    when(mongoTemplate.findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", org.bson.Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(updateRequest.newFilename())),
-            eq("fs.files")))
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class)))
         .thenThrow(new StorageException("Simulated save failure"));
 
     assertThrows(
         StorageException.class,
-        () -> fileService.updateFileDetails(testUserId, testFileId, updateRequest));
+        () -> fileService.updateFileDetails(testUserId, testFileId, updateRequest, null));
 
-    verify(fileRecordRepository).findByFilename(eq(testFileId));
+    verify(fileRecordRepository, never()).findByFilename(any());
     verify(mongoTemplate)
-        .updateFirst(
+        .findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", org.bson.Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(updateRequest.newFilename())),
-            eq("fs.files"));
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
   }
 
   @Test
@@ -712,30 +759,52 @@ class FileServiceImpl2Test {
     record.setOriginalFilename("test_original_delete.txt");
     record.setToken("delete-token");
 
-    when(fileRecordRepository.findByFilename(testFileId))
-        .thenReturn(Optional.of(record)); // Changed findById to findByFilename
+    when(mongoTemplate.findAndRemove(any(Query.class), eq(FileRecord.class))).thenReturn(record);
+
+    fileService.deleteFile(testUserId, testFileId, 0L);
+
+    verify(fileRecordRepository, never()).findByFilename(testFileId);
+    verify(trashService).trashRemoved(List.of(record));
+    verify(ownerStatsService).recordDelete(record);
+    verify(readRouting).recordWrite(testUserId);
+    verifyNoInteractions(gridFsTemplate);
+  }
+
+  @Test
+  void deleteFile_withStaleVersion_isRejectedAndNothingIsTrashed() {
+    FileRecord record =
+        FileRecord.builder()
+            .id(testFileId)
+            .filename(testFileId)
+            .ownerId(testUserId)
+            .originalFilename("renamed.txt")
+            .version(2)
+            .build();
+    when(fileRecordRepository.findByFilename(testFileId)).thenReturn(Optional.of(record));
 
-    GridFSFile mockGridFSFile = mock(GridFSFile.class);
-    // Mock ObjectId for GridFSFile as it's used in logging and potentially by delete query logic
-    ObjectId mockObjectId = new ObjectId();
-    when(mockGridFSFile.getObjectId()).thenReturn(mockObjectId);
-    when(mockGridFSFile.getFilename()).thenReturn(testFileId); // Ensure filename matches
+    assertThrows(
+        PreconditionFailedException.class,
+        () -> fileService.deleteFile(testUserId, testFileId, 1L));
 
-    when(gridFsTemplate.findOne(any(Query.class))).thenReturn(mockGridFSFile);
-    doNothing().when(gridFsTemplate).delete(any(Query.class));
-    doNothing().when(fileRecordRepository).delete(record);
+    verify(mongoTemplate)
+        .findAndRemove(
+            argThat(query -> Long.valueOf(1L).equals(query.getQueryObject().get("version"))),
+            eq(FileRecord.class));
+    verifyNoInteractions(trashService, ownerStatsService);
+  }
 
-    fileService.deleteFile(testUserId, testFileId);
+  @Test
+  void deleteFile_whenTheFilterKeepsMissingAFileThatLooksDeletable_givesUpAfterAFewAttempts() {
+    FileRecord record =
+        FileRecord.builder().id(testFileId).filename(testFileId).ownerId(testUserId).build();
+    when(fileRecordRepository.findByFilename(testFileId)).thenReturn(Optional.of(record));
 
-    verify(fileRecordRepository).findByFilename(testFileId); // Verify findByFilename
-    // Verify that delete on GridFsTemplate uses the ObjectId from the found GridFSFile
-    verify(gridFsTemplate)
-        .delete(
-            argThat(
-                query ->
-                    query.getQueryObject().containsKey("_id")
-                        && query.getQueryObject().get("_id").equals(mockObjectId)));
-    verify(fileRecordRepository).delete(record);
+    assertThrows(
+        StorageException.class, () -> fileService.deleteFile(testUserId, testFileId, null));
+
+    verify(mongoTemplate, times(FileServiceImpl.MAX_WRITE_ATTEMPTS))
+        .findAndRemove(any(Query.class), eq(FileRecord.class));
+    verifyNoInteractions(trashService, ownerStatsService);
   }
 
   @Test
@@ -747,7 +816,7 @@ class FileServiceImpl2Test {
     assertThrows(
         ResourceNotFoundException.class,
         () -> {
-          fileService.deleteFile(testUserId, NON_EXISTENT_ID);
+          fileService.deleteFile(testUserId, NON_EXISTENT_ID, null);
         });
 
     verify(fileRecordRepository).findByFilename(NON_EXISTENT_ID); // Verify findByFilename
@@ -772,7 +841,7 @@ class FileServiceImpl2Test {
         assertThrows(
             UnauthorizedOperationException.class,
             () -> {
-              fileService.deleteFile(testUserId, systemFileId);
+              fileService.deleteFile(testUserId, systemFileId, null);
             });
 
     assertTrue(
@@ -802,7 +871,7 @@ class FileServiceImpl2Test {
     assertThrows(
         UnauthorizedOperationException.class,
         () -> {
-          fileService.deleteFile(testUserId, systemFileId);
+          fileService.deleteFile(testUserId, systemFileId, null);
         });
 
     verify(fileRecordRepository).findByFilename(eq(systemFileId));
@@ -843,17 +912,17 @@ class FileServiceImpl2Test {
             record1.getUploadDate(),
             record1.getContentType(),
             record1.getSize(),
-            "/dl/" + record1.getToken());
+            "/dl/" + record1.getToken(),
+            0L);
 
     List<FileRecord> userRecords = List.of(record1);
     Page<FileRecord> recordPage = new PageImpl<>(userRecords, expectedPageable, userRecords.size());
 
-    when(fileRecordRepository.findByOwnerId(eq(userId), eq(expectedPageable)))
-        .thenReturn(recordPage);
+    stubListing(recordPage);
     when(fileMapper.fromEntity(eq(record1))).thenReturn(response1);
 
     Page<FileResponse> resultPage =
-        fileService.listFiles(userId, null, null, "asc", pageNum, pageSize);
+        fileService.listFiles(userId, null, null, null, "asc", pageNum, pageSize);
 
     assertNotNull(resultPage);
     assertEquals(1, resultPage.getTotalElements());
@@ -862,7 +931,7 @@ class FileServiceImpl2Test {
     assertEquals(response1, actualResponseFile);
     assertEquals(userOriginalFilename1, actualResponseFile.filename());
 
-    verify(fileRecordRepository).findByOwnerId(eq(userId), eq(expectedPageable));
+    verifyListingQuery(new org.bson.Document("ownerId", userId), expectedPageable);
     verify(fileMapper).fromEntity(eq(record1));
   }
 
@@ -897,29 +966,26 @@ class FileServiceImpl2Test {
             publicRecord.getUploadDate(),
             "image/png",
             200L,
-            "/api/v1/files/download/tokenPublic1");
+            "/api/v1/files/download/tokenPublic1",
+            0L);
 
     List<FileRecord> records = List.of(publicRecord);
     Page<FileRecord> recordPage = new PageImpl<>(records, expectedPageable, records.size());
 
-    when(fileRecordRepository.findByVisibility(eq("PUBLIC"), eq(expectedPageable)))
-        .thenReturn(recordPage);
+    stubListing(recordPage);
 
     when(fileMapper.fromEntity(eq(publicRecord))).thenReturn(publicResponse);
 
     Page<FileResponse> resultPage =
-        fileService.listFiles(null, null, null, "asc", pageNum, pageSize);
+        fileService.listFiles(null, null, null, null, "asc", pageNum, pageSize);
 
     assertNotNull(resultPage);
     assertEquals(1, resultPage.getTotalElements());
     assertEquals(1, resultPage.getContent().size());
     assertEquals(publicResponse, resultPage.getContent().get(0));
 
-    verify(fileRecordRepository).findByVisibility(eq("PUBLIC"), eq(expectedPageable));
+    verifyListingQuery(new org.bson.Document("visibility", "PUBLIC"), expectedPageable);
     verify(fileMapper).fromEntity(eq(publicRecord));
-    verify(fileRecordRepository, never()).findByOwnerId(anyString(), any(Pageable.class));
-    verify(fileRecordRepository, never())
-        .findByVisibilityAndTagsContaining(anyString(), anyString(), any(Pageable.class));
   }
 
   @Test
@@ -957,33 +1023,29 @@ class FileServiceImpl2Test {
             record1.getUploadDate(),
             "application/pdf",
             5000L,
-            "/dl/userTokenForTagTest");
+            "/dl/userTokenForTagTest",
+            0L);
 
     List<FileRecord> userRecords = List.of(record1);
     Page<FileRecord> recordPage = new PageImpl<>(userRecords, expectedPageable, userRecords.size());
 
-    when(fileRecordRepository.findByOwnerIdAndTagsContaining(
-            eq(userId), eq(filterTagApi.toLowerCase()), eq(expectedPageable)))
-        .thenReturn(recordPage);
-    when(fileRecordRepository.findByOwnerId(eq(userId), eq(expectedPageable)))
-        .thenReturn(Page.empty());
+    stubListing(recordPage);
 
     when(fileMapper.fromEntity(eq(record1))).thenReturn(response1);
 
     Page<FileResponse> resultPage =
-        fileService.listFiles(userId, filterTagApi, sortByApi, sortOrderApi, pageNum, pageSize);
+        fileService.listFiles(
+            userId, filterTagApi, null, sortByApi, sortOrderApi, pageNum, pageSize);
 
     assertNotNull(resultPage);
     assertEquals(1, resultPage.getTotalElements());
     assertEquals(1, resultPage.getContent().size());
     assertEquals(response1, resultPage.getContent().get(0));
 
-    verify(fileRecordRepository)
-        .findByOwnerIdAndTagsContaining(
-            eq(userId), eq(filterTagApi.toLowerCase()), eq(expectedPageable));
+    verifyListingQuery(
+        new org.bson.Document("ownerId", userId).append("tags", filterTagApi.toLowerCase()),
+        expectedPageable);
     verify(fileMapper).fromEntity(eq(record1));
-    verify(fileRecordRepository, never())
-        .findByVisibilityAndTagsContaining(anyString(), anyString(), any(Pageable.class));
   }
 
   @Test
@@ -996,29 +1058,27 @@ class FileServiceImpl2Test {
     Pageable expectedPageable =
         PageRequest.of(pageNum, pageSize, Sort.by(Sort.Direction.DESC, "uploadDate"));
 
-    when(fileRecordRepository.findByOwnerId(eq(userIdToQuery), eq(expectedPageable)))
-        .thenReturn(new PageImpl<>(Collections.emptyList(), expectedPageable, 0));
+    stubListing(new PageImpl<>(Collections.emptyList(), expectedPageable, 0));
 
     Page<FileResponse> resultPageUser =
-        fileService.listFiles(userIdToQuery, null, sortByApi, sortDir, pageNum, pageSize);
+        fileService.listFiles(userIdToQuery, null, null, sortByApi, sortDir, pageNum, pageSize);
     assertNotNull(resultPageUser);
     assertTrue(resultPageUser.isEmpty());
     assertEquals(0, resultPageUser.getTotalElements());
-    verify(fileRecordRepository).findByOwnerId(eq(userIdToQuery), eq(expectedPageable));
+    verifyListingQuery(new org.bson.Document("ownerId", userIdToQuery), expectedPageable);
     verify(fileMapper, never()).fromEntity(any(FileRecord.class));
 
     String nonExistentTag = "no_such_tag_exists";
     Pageable publicPageable = PageRequest.of(0, 10, Sort.by(Sort.Direction.ASC, "uploadDate"));
-    when(fileRecordRepository.findByVisibilityAndTagsContaining(
-            eq("PUBLIC"), eq(nonExistentTag), eq(publicPageable)))
-        .thenReturn(new PageImpl<>(Collections.emptyList(), publicPageable, 0));
+    clearInvocations(mongoTemplate);
 
     Page<FileResponse> resultPagePublicTag =
-        fileService.listFiles(null, nonExistentTag, null, "asc", 0, 10);
+        fileService.listFiles(null, nonExistentTag, null, null, "asc", 0, 10);
     assertNotNull(resultPagePublicTag);
     assertTrue(resultPagePublicTag.isEmpty());
-    verify(fileRecordRepository)
-        .findByVisibilityAndTagsContaining(eq("PUBLIC"), eq(nonExistentTag), eq(publicPageable));
+    verifyListingQuery(
+        new org.bson.Document("visibility", "PUBLIC").append("tags", nonExistentTag),
+        publicPageable);
   }
 
   @Test
@@ -1051,7 +1111,8 @@ class FileServiceImpl2Test {
             recPublicSizeZero.getUploadDate(),
             "text/plain",
             0L,
-            "/dl/" + id1);
+            "/dl/" + id1,
+            0L);
 
     String id2 = UUID.randomUUID().toString();
     FileRecord recPublicNullTags =
@@ -1076,7 +1137,8 @@ class FileServiceImpl2Test {
             recPublicNullTags.getUploadDate(),
             "app/dat",
             100L,
-            "/dl/" + id2);
+            "/dl/" + id2,
+            0L);
 
     String id3 = UUID.randomUUID().toString();
     FileRecord recPrivate =
@@ -1097,13 +1159,12 @@ class FileServiceImpl2Test {
     Page<FileRecord> recordPage =
         new PageImpl<>(publicRecordsFromRepo, expectedPageable, publicRecordsFromRepo.size());
 
-    when(fileRecordRepository.findByVisibility(eq("PUBLIC"), eq(expectedPageable)))
-        .thenReturn(recordPage);
+    stubListing(recordPage);
     when(fileMapper.fromEntity(eq(recPublicSizeZero))).thenReturn(respPublicSizeZero);
     when(fileMapper.fromEntity(eq(recPublicNullTags))).thenReturn(respPublicNullTags);
 
     Page<FileResponse> resultsPage =
-        fileService.listFiles(null, null, null, "asc", pageNum, pageSize);
+        fileService.listFiles(null, null, null, null, "asc", pageNum, pageSize);
     List<FileResponse> actualResponses = resultsPage.getContent();
 
     assertEquals(2, resultsPage.getTotalElements(), "Should only retrieve 2 public files");
@@ -1111,9 +1172,699 @@ class FileServiceImpl2Test {
     assertTrue(actualResponses.contains(respPublicSizeZero));
     assertTrue(actualResponses.contains(respPublicNullTags));
 
-    verify(fileRecordRepository).findByVisibility(eq("PUBLIC"), eq(expectedPageable));
+    verifyListingQuery(new org.bson.Document("visibility", "PUBLIC"), expectedPageable);
     verify(fileMapper).fromEntity(eq(recPublicSizeZero));
     verify(fileMapper).fromEntity(eq(recPublicNullTags));
     verify(fileMapper, never()).fromEntity(eq(recPrivate));
   }
+
+  @Test
+  void listFilesByCursor_firstPage_returnsNextCursorFromLastRow() {
+    ObjectId firstId = new ObjectId();
+    ObjectId secondId = new ObjectId();
+    FileRecord first =
+        FileRecord.builder().id(firstId.toHexString()).originalFilename("a.txt").build();
+    FileRecord second =
+        FileRecord.builder().id(secondId.toHexString()).originalFilename("b.txt").build();
+    FileRecord extra =
+        FileRecord.builder().id(new ObjectId().toHexString()).originalFilename("c.txt").build();
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class)))
+        .thenReturn(List.of(first, second, extra));
+
+    CursorPagedResponse<FileResponse> page =
+        fileService.listFiles(testUserId, "Work", null, "filename", "asc", "", 2);
+
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(captor.capture(), eq(FileRecord.class));
+    Query query = captor.getValue();
+    assertEquals(3, query.getLimit());
+    assertEquals(testUserId, query.getQueryObject().get("ownerId"));
+    assertEquals("work", query.getQueryObject().get("tags"));
+    assertEquals(1, query.getSortObject().get("originalFilename"));
+    assertEquals(1, query.getSortObject().get("_id"));
+
+    assertEquals(2, page.numberOfElements());
+    assertTrue(page.hasNext());
+    ListingCursor next = ListingCursor.decode(page.nextCursor());
+    assertEquals("originalFilename", next.field());
+    assertEquals("b.txt", next.value());
+    assertEquals(secondId, next.id());
+    verify(fileRecordRepository, never()).findByOwnerId(anyString(), any(Pageable.class));
+  }
+
+  @Test
+  void listFilesByCursor_nextPage_seeksPastCursorOnTagSortKey() {
+    ObjectId lastId = new ObjectId();
+    String cursor = new ListingCursor("lastTag", false, "m", lastId).encode();
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of());
+
+    CursorPagedResponse<FileResponse> page =
+        fileService.listFiles(null, null, null, "tag", "desc", cursor, 10);
+
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(captor.capture(), eq(FileRecord.class));
+    org.bson.Document filter = captor.getValue().getQueryObject();
+    assertEquals("PUBLIC", filter.get("visibility"));
+    assertEquals(new org.bson.Document("$lte", "m"), filter.get("lastTag"));
+    assertEquals(
+        List.of(
+            new org.bson.Document("lastTag", new org.bson.Document("$lt", "m")),
+            new org.bson.Document("_id", new org.bson.Document("$lt", lastId))),
+        filter.get("$or"));
+    assertEquals(-1, captor.getValue().getSortObject().get("lastTag"));
+    assertEquals(0, page.numberOfElements());
+    assertEquals(false, page.hasNext());
+    assertEquals(null, page.nextCursor());
+  }
+
+  @Test
+  void listFilesByCursor_rangesWithTagExpressionAndCursor_combineWithoutClashing() {
+    ObjectId lastId = new ObjectId();
+    String cursor = new ListingCursor("size", false, 500L, lastId).encode();
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of());
+
+    fileService.listFiles(
+        testUserId,
+        "q1 OR q2",
+        RangeFilter.of(100L, 1000L, null, null, "image/*"),
+        "size",
+        "desc",
+        cursor,
+        10);
+
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(captor.capture(), eq(FileRecord.class));
+    org.bson.Document filter = captor.getValue().getQueryObject();
+    assertEquals(testUserId, filter.get("ownerId"));
+    assertEquals(new org.bson.Document("$lte", 500L), filter.get("size"));
+    assertEquals(
+        List.of(
+            new org.bson.Document("tags", new org.bson.Document("$in", List.of("q1", "q2"))),
+            new org.bson.Document(
+                "size", new org.bson.Document("$gte", 100L).append("$lte", 1000L)),
+            new org.bson.Document(
+                "contentType", new org.bson.Document("$gte", "image/").append("$lt", "image0"))),
+        filter.get("$and"));
+    verify(ownerStatsService, never()).estimateCount(any(), any());
+  }
+
+  @Test
+  void listFilesByCursor_cursorForDifferentSort_isRejected() {
+    String cursor = new ListingCursor("uploadDate", false, new Date(), new ObjectId()).encode();
+
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () -> fileService.listFiles(testUserId, null, null, "size", "desc", cursor, 10));
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () ->
+            fileService.listFiles(
+                testUserId, null, null, "uploadDate", "desc", "not-a-cursor", 10));
+  }
+
+  private MappingMongoConverter realConverter() {
+    MappingMongoConverter converter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+    converter.afterPropertiesSet();
+    when(mongoTemplate.getConverter()).thenReturn(converter);
+    return converter;
+  }
+
+  @Test
+  void listFilesWithExactTotals_fetchesPageAndCountInOneFacetAggregation() {
+    realConverter();
+    ObjectId id = new ObjectId();
+    org.bson.Document row =
+        new org.bson.Document("_id", id).append("f", "sys").append("s", 5L).append("n", "a.txt");
+    org.bson.Document facet =
+        new org.bson.Document("page", List.of(row))
+            .append("total", List.of(new org.bson.Document("n", 21)));
+    when(mongoTemplate.aggregate(
+            any(Aggregation.class), eq(FileRecord.COLLECTION), eq(org.bson.Document.class)))
+        .thenReturn(new AggregationResults<>(List.of(facet), new org.bson.Document()));
+    when(fileMapper.fromEntity(any(FileRecord.class)))
+        .thenAnswer(
+            inv -> {
+              FileRecord r = inv.getArgument(0);
+              return new FileResponse(
+                  r.getId(),
+                  r.getOriginalFilename(),
+                  null,
+                  null,
+                  null,
+                  null,
+                  r.getSize(),
+                  null,
+                  0L);
+            });
+
+    PagedResponse<FileResponse> page =
+        fileService.listFiles(testUserId, null, null, "size", "desc", 2, 10, TotalMode.EXACT);
+
+    ArgumentCaptor<Aggregation> captor = ArgumentCaptor.forClass(Aggregation.class);
+    verify(mongoTemplate)
+        .aggregate(captor.capture(), eq(FileRecord.COLLECTION), eq(org.bson.Document.class));
+    List<org.bson.Document> pipeline = captor.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+    assertEquals(
+        new org.bson.Document("$match", new org.bson.Document("o", testUserId)), pipeline.get(0));
+    assertEquals(
+        new org.bson.Document("$sort", new org.bson.Document("s", -1).append("_id", -1)),
+        pipeline.get(1));
+    org.bson.Document facetStage = (org.bson.Document) pipeline.get(2).get("$facet");
+    assertEquals(
+        List.of(new org.bson.Document("$skip", 20L), new org.bson.Document("$limit", 10L)),
+        facetStage.get("page"));
+
+    assertEquals(1, page.numberOfElements());
+    assertEquals(id.toHexString(), page.content().get(0).id());
+    assertEquals("a.txt", page.content().get(0).filename());
+    assertEquals(21L, page.totalElements());
+    assertEquals(3, page.totalPages());
+    assertTrue(page.last());
+    assertEquals("exact", page.totalType());
+    verify(listingCountCache).put(ListingCountCache.key(testUserId, null), 21L);
+    verify(fileRecordRepository, never()).findByOwnerId(anyString(), any(Pageable.class));
+  }
+
+  @Test
+  void listFilesWithoutTotals_skipsCountAndProbesForNextPage() {
+    FileRecord a = FileRecord.builder().id(new ObjectId().toHexString()).build();
+    FileRecord b = FileRecord.builder().id(new ObjectId().toHexString()).build();
+    FileRecord c = FileRecord.builder().id(new ObjectId().toHexString()).build();
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of(a, b, c));
+
+    PagedResponse<FileResponse> page =
+        fileService.listFiles(null, "Tag", null, "filename", "asc", 1, 2, TotalMode.NONE);
+
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(captor.capture(), eq(FileRecord.class));
+    assertEquals(2L, captor.getValue().getSkip());
+    assertEquals(3, captor.getValue().getLimit());
+    assertEquals("tag", captor.getValue().getQueryObject().get("tags"));
+    assertEquals(2, page.numberOfElements());
+    assertEquals(false, page.last());
+    assertEquals(null, page.totalElements());
+    assertEquals(null, page.totalPages());
+    assertEquals("none", page.totalType());
+    verify(mongoTemplate, never())
+        .aggregate(any(Aggregation.class), anyString(), eq(org.bson.Document.class));
+  }
+
+  @Test
+  void listFilesWithEstimatedTotals_usesCachedCountWhenAvailable() {
+    when(listingCountCache.get(ListingCountCache.key(null, null))).thenReturn(95L);
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of());
+
+    PagedResponse<FileResponse> page =
+        fileService.listFiles(null, null, null, null, "desc", 0, 10, TotalMode.ESTIMATED);
+
+    assertEquals(95L, page.totalElements());
+    assertEquals(10, page.totalPages());
+    assertTrue(page.last());
+    assertEquals("estimated", page.totalType());
+    verify(mongoTemplate, never())
+        .aggregate(any(Aggregation.class), anyString(), eq(org.bson.Document.class));
+  }
+
+  @Test
+  void listFilesByCursor_tagExpression_ordersAllByTagStatsAndExcludesNegatedTags() {
+    when(ownerStatsService.tagCounts(testUserId)).thenReturn(Map.of("invoice", 400L, "2025", 9L));
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of());
+
+    fileService.listFiles(
+        testUserId, "Invoice AND 2025 AND NOT draft", null, "filename", "asc", "", 10);
+
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(captor.capture(), eq(FileRecord.class));
+    org.bson.Document filter = captor.getValue().getQueryObject();
+    assertEquals(testUserId, filter.get("ownerId"));
+    assertEquals(
+        List.of(
+            new org.bson.Document(
+                "tags",
+                new org.bson.Document("$all", List.of("2025", "invoice"))
+                    .append("$nin", List.of("draft")))),
+        filter.get("$and"));
+  }
+
+  @Test
+  void listFiles_tagExpression_queriesTemplateAndSkipsStatsEstimate() {
+    FileRecord record = FileRecord.builder().id(new ObjectId().toHexString()).build();
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of(record));
+    when(mongoTemplate.count(any(Query.class), eq(FileRecord.class))).thenReturn(11L);
+
+    Page<FileResponse> page = fileService.listFiles(null, "q1 OR q2", null, "size", "desc", 1, 10);
+
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(captor.capture(), eq(FileRecord.class));
+    assertEquals("PUBLIC", captor.getValue().getQueryObject().get("visibility"));
+    assertEquals(
+        List.of(new org.bson.Document("tags", new org.bson.Document("$in", List.of("q1", "q2")))),
+        captor.getValue().getQueryObject().get("$and"));
+    assertEquals(10, captor.getValue().getLimit());
+    assertEquals(11L, page.getTotalElements());
+    verify(ownerStatsService, never()).tagCounts(any());
+    verify(ownerStatsService, never()).estimateCount(any(), any());
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void streamFiles_countsUpFrontAndStreamsProjectedRawRows() throws Exception {
+    realConverter();
+    MongoCollection<org.bson.Document> collection = mock(MongoCollection.class);
+    MongoCollection<RawBsonDocument> rawCollection = mock(MongoCollection.class);
+    FindIterable<RawBsonDocument> find = mock(FindIterable.class, RETURNS_SELF);
+    MongoCursor<RawBsonDocument> cursor = mock(MongoCursor.class);
+    when(mongoTemplate.getCollection(FileRecord.COLLECTION)).thenReturn(collection);
+    when(collection.withDocumentClass(RawBsonDocument.class)).thenReturn(rawCollection);
+    when(rawCollection.withReadPreference(ReadPreference.primary())).thenReturn(rawCollection);
+    when(rawCollection.countDocuments(any(Bson.class), any(CountOptions.class))).thenReturn(42L);
+    when(rawCollection.find(any(Bson.class))).thenReturn(find);
+    when(find.iterator()).thenReturn(cursor);
+
+    StreamingResponseBody body =
+        fileService.streamFiles(
+            testUserId, "Work", null, "filename", "asc", 1, 20, TotalMode.EXACT);
+
+    org.bson.Document filter = new org.bson.Document("o", testUserId).append("t", "work");
+    ArgumentCaptor<CountOptions> countOptions = ArgumentCaptor.forClass(CountOptions.class);
+    verify(rawCollection).countDocuments(eq(filter), countOptions.capture());
+    assertEquals(2000, countOptions.getValue().getMaxTime(TimeUnit.MILLISECONDS));
+    verify(listingCountCache).put(ListingCountCache.key(testUserId, "work"), 42L);
+    verify(rawCollection, never()).find(any(Bson.class));
+
+    OutputStream out = new java.io.ByteArrayOutputStream();
+    body.writeTo(out);
+
+    verify(rawCollection).find(filter);
+    verify(find).projection(RawFileJsonWriter.PROJECTION);
+    verify(find).sort(new org.bson.Document("n", 1).append("_id", 1));
+    verify(find).skip(20);
+    verify(find).limit(21);
+    verify(find).maxTime(2000, TimeUnit.MILLISECONDS);
+    verify(rawFileJsonWriter).writePage(out, cursor, 1, 20, 42L, TotalMode.EXACT, null);
+    verify(cursor).close();
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void exportFiles_streamsOwnersCatalogueFromOneCursorAndClosesItOnFailedWrite() throws Exception {
+    realConverter();
+    MongoCollection<org.bson.Document> collection = mock(MongoCollection.class);
+    MongoCollection<RawBsonDocument> rawCollection = mock(MongoCollection.class);
+    FindIterable<RawBsonDocument> find = mock(FindIterable.class, RETURNS_SELF);
+    MongoCursor<RawBsonDocument> cursor = mock(MongoCursor.class);
+    when(mongoTemplate.getCollection(FileRecord.COLLECTION)).thenReturn(collection);
+    when(collection.withDocumentClass(RawBsonDocument.class)).thenReturn(rawCollection);
+    when(rawCollection.withReadPreference(ReadPreference.primary())).thenReturn(rawCollection);
+    when(rawCollection.find(any(Bson.class))).thenReturn(find);
+    when(find.iterator()).thenReturn(cursor);
+    when(listingProperties.exportBatchSize()).thenReturn(500);
+    when(listingProperties.exportFlushEvery()).thenReturn(200);
+    OutputStream out = new java.io.ByteArrayOutputStream();
+    when(rawFileJsonWriter.writeNdjson(out, cursor, 200, null))
+        .thenThrow(new IOException("Broken pipe"));
+
+    assertThrows(IOException.class, () -> fileService.exportFiles(testUserId, out));
+
+    verify(rawCollection).find(new org.bson.Document("o", testUserId));
+    verify(find).projection(RawFileJsonWriter.PROJECTION);
+    verify(find).sort(new org.bson.Document("n", 1));
+    verify(find).batchSize(500);
+    verify(find).maxTime(600_000, TimeUnit.MILLISECONDS);
+    verify(find, never()).limit(anyInt());
+    verify(cursor).close();
+  }
+
+  @Test
+  void searchFiles_prefix_scansNormalisedKeyRangeInScope() {
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of());
+
+    fileService.searchFiles(testUserId, "Rep", FilenameMatch.PREFIX, 20);
+
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(captor.capture(), eq(FileRecord.class));
+    org.bson.Document filter = captor.getValue().getQueryObject();
+    assertEquals(testUserId, filter.get("ownerId"));
+    assertEquals(
+        new org.bson.Document("$gte", "rep")
+            .append("$lt", FilenameSearchKeys.prefixUpperBound("rep")),
+        filter.get("filenameKey"));
+    assertEquals(
+        new org.bson.Document("filenameKey", 1).append("_id", 1),
+        captor.getValue().getSortObject());
+    assertEquals(20, captor.getValue().getLimit());
+  }
+
+  @Test
+  void searchFiles_contains_requiresAllGramsAndVerifiesAdjacency() {
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of());
+
+    fileService.searchFiles(null, "PORT.p", FilenameMatch.CONTAINS, 5);
+
+    ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(captor.capture(), eq(FileRecord.class));
+    org.bson.Document filter = captor.getValue().getQueryObject();
+    assertEquals("PUBLIC", filter.get("visibility"));
+    assertEquals(
+        new org.bson.Document("$all", List.of("por", "ort", "rt.", "t.p")),
+        filter.get("filenameGrams"));
+    java.util.regex.Pattern regex = (java.util.regex.Pattern) filter.get("filenameKey");
+    assertTrue(regex.matcher("my-report.pdf").find());
+    assertFalse(regex.matcher("my-reportxpdf").find());
+  }
+
+  @Test
+  void searchFiles_invalidArguments_areRejected() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> fileService.searchFiles(testUserId, "ab", FilenameMatch.CONTAINS, 20));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> fileService.searchFiles(testUserId, "  ", FilenameMatch.PREFIX, 20));
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> fileService.searchFiles(testUserId, "abc", FilenameMatch.PREFIX, 101));
+    verify(mongoTemplate, never()).find(any(Query.class), eq(FileRecord.class));
+  }
+
+  private FileRecord ownedFile(String id, String name, String owner, List<String> tags) {
+    return FileRecord.builder()
+        .id(new ObjectId().toHexString())
+        .filename(id)
+        .originalFilename(name)
+        .ownerId(owner)
+        .visibility(Visibility.PRIVATE)
+        .tags(tags)
+        .size(10)
+        .build();
+  }
+
+  @Test
+  void updateFiles_checksOwnershipInOneQueryAndWritesOneUnorderedBulk() {
+    FileRecord mine = ownedFile("id-1", "a.txt", testUserId, List.of("old", "keep"));
+    FileRecord theirs = ownedFile("id-2", "b.txt", "someone-else", List.of());
+    FileRecord unchanged = ownedFile("id-4", "d.txt", testUserId, List.of("x"));
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class)))
+        .thenReturn(List.of(mine, theirs, unchanged));
+    BulkOperations catalogue = mock(BulkOperations.class);
+    BulkOperations gridFs = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileRecord.class))
+        .thenReturn(catalogue);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "fs.files")).thenReturn(gridFs);
+    when(catalogue.execute())
+        .thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+    BulkUpdateResponse response =
+        fileService.updateFiles(
+            testUserId,
+            new BulkUpdateRequest(
+                List.of(
+                    new BulkOperation(
+                        "id-1",
+                        "renamed.txt",
+                        Visibility.PUBLIC,
+                        List.of("New"),
+                        List.of("old"),
+                        null),
+                    new BulkOperation("id-2", null, Visibility.PUBLIC, null, null, null),
+                    new BulkOperation("id-3", "c.txt", null, null, null, null),
+                    new BulkOperation("id-4", null, null, List.of("X"), null, null))));
+
+    assertEquals(
+        List.of(
+            BulkOperationStatus.UPDATED,
+            BulkOperationStatus.FORBIDDEN,
+            BulkOperationStatus.NOT_FOUND,
+            BulkOperationStatus.UNCHANGED),
+        response.results().stream().map(BulkOperationResult::status).toList());
+    assertEquals(1, response.updated());
+    assertEquals(2, response.failed());
+    ArgumentCaptor<Query> lookup = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(lookup.capture(), eq(FileRecord.class));
+    assertEquals(
+        new org.bson.Document(
+            "filename", new org.bson.Document("$in", List.of("id-1", "id-2", "id-3", "id-4"))),
+        lookup.getValue().getQueryObject());
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(catalogue).updateOne(any(Query.class), update.capture());
+    org.bson.Document set = (org.bson.Document) update.getValue().getUpdateObject().get("$set");
+    assertEquals("renamed.txt", set.get("originalFilename"));
+    assertEquals(Visibility.PUBLIC, set.get("visibility"));
+    assertEquals(List.of("keep", "new"), set.get("tags"));
+    assertEquals("keep", set.get("firstTag"));
+    assertEquals("new", set.get("lastTag"));
+    verify(catalogue).execute();
+    verify(tagDictionary).intern("new");
+    verify(gridFs)
+        .updateOne(
+            any(Query.class), eq(new Update().set("metadata.originalFilename", "renamed.txt")));
+    verify(gridFs).execute();
+    ArgumentCaptor<List<FileRecord>> after = ArgumentCaptor.forClass(List.class);
+    verify(ownerStatsService).recordChanges(eq(List.of(mine)), after.capture());
+    assertEquals(Visibility.PUBLIC, after.getValue().get(0).getVisibility());
+    verify(readRouting).recordWrite(testUserId);
+  }
+
+  @Test
+  void updateFiles_mapsDuplicateKeyErrorsBackToTheirOperations() {
+    FileRecord first = ownedFile("id-1", "a.txt", testUserId, List.of());
+    FileRecord second = ownedFile("id-2", "b.txt", testUserId, List.of());
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class)))
+        .thenReturn(List.of(first, second));
+    BulkOperations catalogue = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileRecord.class))
+        .thenReturn(catalogue);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "fs.files"))
+        .thenReturn(mock(BulkOperations.class));
+    when(catalogue.execute())
+        .thenThrow(
+            new BulkOperationException(
+                "E11000",
+                new MongoBulkWriteException(
+                    BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()),
+                    List.of(new BulkWriteError(11000, "E11000", new BsonDocument(), 1)),
+                    null,
+                    new ServerAddress(),
+                    Set.of())));
+
+    BulkUpdateResponse response =
+        fileService.updateFiles(
+            testUserId,
+            new BulkUpdateRequest(
+                List.of(
+                    new BulkOperation("id-1", "same.txt", null, null, null, null),
+                    new BulkOperation("id-2", "same.txt", null, null, null, null))));
+
+    assertEquals(BulkOperationStatus.UPDATED, response.results().get(0).status());
+    assertEquals(BulkOperationStatus.CONFLICT, response.results().get(1).status());
+    assertEquals(1, response.updated());
+    verify(ownerStatsService).recordChanges(eq(List.of(first)), any());
+  }
+
+  @Test
+  void updateFiles_fileChangedOrDeletedSinceTheRead_isReportedAndLeftOutOfStats() {
+    FileRecord changed = ownedFile("id-1", "a.txt", testUserId, List.of());
+    changed.setVersion(3);
+    FileRecord deleted = ownedFile("id-2", "b.txt", testUserId, List.of());
+    FileRecord applied = ownedFile("id-3", "c.txt", testUserId, List.of());
+    FileRecord changedNow = changed.toBuilder().originalFilename("other.txt").version(4).build();
+    FileRecord appliedNow = applied.toBuilder().visibility(Visibility.PUBLIC).version(1).build();
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class)))
+        .thenReturn(List.of(changed, deleted, applied), List.of(changedNow, appliedNow));
+    BulkOperations catalogue = mock(BulkOperations.class);
+    BulkOperations gridFs = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileRecord.class))
+        .thenReturn(catalogue);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "fs.files")).thenReturn(gridFs);
+    when(catalogue.execute())
+        .thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+    BulkUpdateResponse response =
+        fileService.updateFiles(
+            testUserId,
+            new BulkUpdateRequest(
+                List.of(
+                    new BulkOperation("id-1", "renamed.txt", null, null, null, null),
+                    new BulkOperation("id-2", "renamed-too.txt", null, null, null, null),
+                    new BulkOperation("id-3", null, Visibility.PUBLIC, null, null, null))));
+
+    assertEquals(
+        List.of(
+            BulkOperationStatus.CONFLICT,
+            BulkOperationStatus.NOT_FOUND,
+            BulkOperationStatus.UPDATED),
+        response.results().stream().map(BulkOperationResult::status).toList());
+    assertEquals(1, response.updated());
+    ArgumentCaptor<Query> filters = ArgumentCaptor.forClass(Query.class);
+    verify(catalogue, times(3)).updateOne(filters.capture(), any(Update.class));
+    assertEquals(3L, filters.getAllValues().get(0).getQueryObject().get("version"));
+    assertEquals(
+        new org.bson.Document("$in", Arrays.asList(0L, null)),
+        filters.getAllValues().get(1).getQueryObject().get("version"));
+    verify(gridFs, never()).updateOne(any(Query.class), any(Update.class));
+    verify(ownerStatsService).recordChanges(eq(List.of(applied)), any());
+  }
+
+  @Test
+  void updateFiles_withExpectedVersion_appliesOnlyAtThatVersion() {
+    FileRecord stale = ownedFile("id-1", "a.txt", testUserId, List.of());
+    stale.setVersion(5);
+    FileRecord current = ownedFile("id-2", "b.txt", testUserId, List.of());
+    current.setVersion(7);
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class)))
+        .thenReturn(List.of(stale, current));
+    BulkOperations catalogue = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileRecord.class))
+        .thenReturn(catalogue);
+    when(catalogue.execute())
+        .thenReturn(BulkWriteResult.acknowledged(0, 1, 0, 1, List.of(), List.of()));
+
+    BulkUpdateResponse response =
+        fileService.updateFiles(
+            testUserId,
+            new BulkUpdateRequest(
+                List.of(
+                    new BulkOperation("id-1", null, Visibility.PUBLIC, null, null, 4L),
+                    new BulkOperation("id-2", null, Visibility.PUBLIC, null, null, 7L))));
+
+    assertEquals(
+        List.of(BulkOperationStatus.PRECONDITION_FAILED, BulkOperationStatus.UPDATED),
+        response.results().stream().map(BulkOperationResult::status).toList());
+    ArgumentCaptor<Query> filter = ArgumentCaptor.forClass(Query.class);
+    verify(catalogue).updateOne(filter.capture(), any(Update.class));
+    assertEquals(7L, filter.getValue().getQueryObject().get("version"));
+    verify(ownerStatsService).recordChanges(eq(List.of(current)), any());
+  }
+
+  @Test
+  void updateFiles_rejectsMalformedOperationsBeforeReading() {
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () ->
+            fileService.updateFiles(
+                testUserId,
+                new BulkUpdateRequest(
+                    List.of(
+                        new BulkOperation("id-1", "a.txt", null, null, null, null),
+                        new BulkOperation("id-1", null, Visibility.PUBLIC, null, null, null)))));
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () ->
+            fileService.updateFiles(
+                testUserId,
+                new BulkUpdateRequest(
+                    List.of(new BulkOperation("id-1", null, null, null, null, null)))));
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () ->
+            fileService.updateFiles(
+                testUserId,
+                new BulkUpdateRequest(
+                    List.of(new BulkOperation("id-1", "../etc/passwd", null, null, null, null)))));
+    verify(mongoTemplate, never()).find(any(Query.class), eq(FileRecord.class));
+  }
+
+  @Test
+  void updateFiles_tooManyTagsAfterAdding_isInvalidForThatFileOnly() {
+    FileRecord full = ownedFile("id-1", "a.txt", testUserId, List.of("a", "b", "c", "d", "e"));
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(List.of(full));
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FileRecord.class))
+        .thenReturn(mock(BulkOperations.class));
+
+    BulkUpdateResponse response =
+        fileService.updateFiles(
+            testUserId,
+            new BulkUpdateRequest(
+                List.of(new BulkOperation("id-1", null, null, List.of("f"), null, null))));
+
+    assertEquals(BulkOperationStatus.INVALID, response.results().get(0).status());
+    verify(ownerStatsService, never()).recordChanges(any(), any());
+  }
+
+  @Test
+  void deleteFiles_movesMatchingFilesToTheTrashBatchByBatch() {
+    FileRecord a = ownedFile("id-1", "a.txt", testUserId, List.of("tmp"));
+    FileRecord b = ownedFile("id-2", "b.txt", testUserId, List.of("tmp"));
+    Date purgeAt = new Date();
+    when(trashProperties.bulkDeleteBatchSize()).thenReturn(1);
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class)))
+        .thenReturn(List.of(a), List.of(b), List.of());
+    when(trashService.trash(any())).thenReturn(purgeAt);
+
+    BulkDeleteResponse response = fileService.deleteFiles(testUserId, "tmp", null);
+
+    assertEquals(new BulkDeleteResponse(2, purgeAt), response);
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate, times(3)).find(query.capture(), eq(FileRecord.class));
+    assertEquals(
+        new org.bson.Document("ownerId", testUserId).append("tags", "tmp"),
+        query.getValue().getQueryObject());
+    assertEquals(1, query.getValue().getLimit());
+    verify(trashService).trash(List.of(a));
+    verify(trashService).trash(List.of(b));
+    verify(ownerStatsService).recordDeletes(List.of(a));
+    verify(ownerStatsService).recordDeletes(List.of(b));
+    verify(readRouting).recordWrite(testUserId);
+  }
+
+  @Test
+  void deleteFiles_withoutFilter_isRejected() {
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () -> fileService.deleteFiles(testUserId, " ", null));
+    verifyNoInteractions(trashService);
+  }
+
+  @Test
+  void restoreFile_putsTheOwnersFileBackAndCountsItAgain() {
+    TrashedFile trashed =
+        TrashedFile.builder().id("id-1").filename(testFileId).ownerId(testUserId).build();
+    FileRecord restored = ownedFile("id-1", "a.txt", testUserId, List.of());
+    FileResponse response = mock(FileResponse.class);
+    when(trashService.find(testFileId)).thenReturn(Optional.of(trashed));
+    when(trashService.restore(trashed)).thenReturn(restored);
+    when(fileMapper.fromEntity(restored)).thenReturn(response);
+
+    assertEquals(response, fileService.restoreFile(testUserId, testFileId));
+    verify(ownerStatsService).recordUpload(restored);
+    verify(readRouting).recordWrite(testUserId);
+  }
+
+  @Test
+  void restoreFile_otherOwnersOrMissingFile_isRejected() {
+    TrashedFile trashed =
+        TrashedFile.builder().id("id-1").filename(testFileId).ownerId("someone-else").build();
+    when(trashService.find(testFileId)).thenReturn(Optional.of(trashed));
+    when(trashService.find("missing")).thenReturn(Optional.empty());
+
+    assertThrows(
+        UnauthorizedOperationException.class,
+        () -> fileService.restoreFile(testUserId, testFileId));
+    assertThrows(
+        ResourceNotFoundException.class, () -> fileService.restoreFile(testUserId, "missing"));
+    verify(trashService, never()).restore(any());
+  }
+
+  private ReadRouting.Reads reads(Duration maxTime) {
+    return new ReadRouting.Reads(mongoTemplate, ReadPreference.primary(), maxTime, null);
+  }
+
+  private void stubListing(Page<FileRecord> page) {
+    when(mongoTemplate.find(any(Query.class), eq(FileRecord.class))).thenReturn(page.getContent());
+    when(mongoTemplate.count(any(Query.class), eq(FileRecord.class)))
+        .thenReturn(page.getTotalElements());
+  }
+
+  private void verifyListingQuery(org.bson.Document criteria, Pageable pageable) {
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).find(query.capture(), eq(FileRecord.class));
+    Query expected = new Query().with(pageable);
+    assertEquals(criteria, query.getValue().getQueryObject());
+    assertEquals(expected.getSortObject(), query.getValue().getSortObject());
+    assertEquals(expected.getSkip(), query.getValue().getSkip());
+    assertEquals(expected.getLimit(), query.getValue().getLimit());
+    assertEquals(ReadPreference.primary(), query.getValue().getReadPreference());
+    assertEquals(2000L, query.getValue().getMeta().getMaxTimeMsec());
+  }
 }
@@ -2,8 +2,11 @@ package com.example.storage_app.service;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.config.ListingProperties;
 import com.example.storage_app.controller.dto.FileResponse;
 import com.example.storage_app.controller.dto.FileUpdateRequest;
 import com.example.storage_app.controller.dto.FileUploadRequest;
@@ -11,12 +14,15 @@ import com.example.storage_app.exception.*;
 import com.example.storage_app.model.FileRecord;
 import com.example.storage_app.model.Visibility;
 import com.example.storage_app.repository.FileRecordRepository;
+import com.example.storage_app.util.DownloadLinkSigner;
 import com.example.storage_app.util.FileMapper;
 import com.example.storage_app.util.FileMetadataBuilder;
 import com.example.storage_app.util.GridFsHelper;
+import com.example.storage_app.util.RawFileJsonWriter;
 import com.mongodb.MongoWriteException;
 import com.mongodb.WriteError;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import com.mongodb.client.model.Filters;
 import com.mongodb.client.result.UpdateResult;
 import java.io.IOException;
 import java.util.Date;
@@ -28,12 +34,15 @@ import org.bson.types.ObjectId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.gridfs.GridFsResource;
 import org.springframework.data.mongodb.gridfs.GridFsTemplate;
 import org.springframework.http.HttpHeaders;
@@ -59,6 +68,17 @@ class FileServiceImpl3Test {
   @Mock private FileRecordRepository fileRecordRepository;
 
   @Mock private MongoTemplate mongoTemplate;
+  @Mock private DownloadLinkSigner downloadLinkSigner;
+  @Mock private DerivativeService derivativeService;
+  @Mock private ListingCountCache listingCountCache;
+  @Mock private OwnerStatsService ownerStatsService;
+  @Mock private RawFileJsonWriter rawFileJsonWriter;
+  @Mock private ListingProperties listingProperties;
+  @Mock private ReadRouting readRouting;
+  @Mock private ReadRouting.Reads downloadReads;
+
+  @Mock private BlobStores blobStores;
+  @Mock private PackArchiver packArchiver;
 
   @InjectMocks private FileServiceImpl fileService;
 
@@ -89,14 +109,8 @@ class FileServiceImpl3Test {
 
     // mockGridFsResource is already a mock
 
-    // Leniently mock mongoTemplate.updateFirst to return a successful update by default
-    lenient()
-        .when(
-            mongoTemplate.updateFirst(
-                any(Query.class),
-                any(org.springframework.data.mongodb.core.query.Update.class),
-                eq(FileRecord.class)))
-        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+    lenient().when(readRouting.downloads()).thenReturn(downloadReads);
+
     lenient()
         .when(
             mongoTemplate.updateFirst(
@@ -108,9 +122,9 @@ class FileServiceImpl3Test {
 
   @Test
   void testDownloadFile_success() throws IOException {
-    when(fileRecordRepository.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
-    when(gridFsTemplate.findOne(any(Query.class))).thenReturn(mockGridFSFile);
-    when(gridFsTemplate.getResource((com.mongodb.client.gridfs.model.GridFSFile) mockGridFSFile))
+    when(downloadReads.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
+    when(downloadReads.findFile(any())).thenReturn(mockGridFSFile);
+    when(downloadReads.open((com.mongodb.client.gridfs.model.GridFSFile) mockGridFSFile))
         .thenReturn(mockGridFsResource);
     when(mockGridFsResource.exists()).thenReturn(true);
     when(mockGridFsResource.isReadable()).thenReturn(true);
@@ -125,14 +139,15 @@ class FileServiceImpl3Test {
         response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
     assertEquals(MediaType.TEXT_PLAIN, response.getHeaders().getContentType());
 
-    verify(fileRecordRepository).findByToken("test-token");
-    verify(gridFsTemplate).findOne(any(Query.class));
-    verify(gridFsTemplate).getResource((com.mongodb.client.gridfs.model.GridFSFile) mockGridFSFile);
+    verify(downloadReads).findByToken("test-token");
+    verify(downloadReads).findFile(eq(Filters.eq("filename", "system-uuid-filename")));
+    verify(downloadReads).open((com.mongodb.client.gridfs.model.GridFSFile) mockGridFSFile);
+    verify(downloadReads).close();
   }
 
   @Test
   void testDownloadFile_whenTokenNotFound_throwsResourceNotFoundException() {
-    when(fileRecordRepository.findByToken("non-existent-token")).thenReturn(Optional.empty());
+    when(downloadReads.findByToken("non-existent-token")).thenReturn(Optional.empty());
 
     Exception exception =
         assertThrows(
@@ -142,15 +157,16 @@ class FileServiceImpl3Test {
             });
 
     assertEquals("File not found for token: non-existent-token", exception.getMessage());
-    verify(fileRecordRepository).findByToken("non-existent-token");
+    verify(downloadReads).findByToken("non-existent-token");
+    verify(downloadReads, never()).findFile(any());
     verifyNoInteractions(gridFsTemplate);
   }
 
   @Test
   void testDownloadFile_whenGridFsResourceIsNull_throwsStorageException() {
-    when(fileRecordRepository.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
-    when(gridFsTemplate.findOne(any(Query.class))).thenReturn(mockGridFSFile);
-    when(gridFsTemplate.getResource(mockGridFSFile)).thenReturn(null);
+    when(downloadReads.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
+    when(downloadReads.findFile(any())).thenReturn(mockGridFSFile);
+    when(downloadReads.open(mockGridFSFile)).thenReturn(null);
 
     Exception exception =
         assertThrows(
@@ -167,9 +183,9 @@ class FileServiceImpl3Test {
 
   @Test
   void testDownloadFile_whenGridFsResourceNotExists_throwsStorageException() {
-    when(fileRecordRepository.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
-    when(gridFsTemplate.findOne(any(Query.class))).thenReturn(mockGridFSFile);
-    when(gridFsTemplate.getResource(mockGridFSFile)).thenReturn(mockGridFsResource);
+    when(downloadReads.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
+    when(downloadReads.findFile(any())).thenReturn(mockGridFSFile);
+    when(downloadReads.open(mockGridFSFile)).thenReturn(mockGridFsResource);
     when(mockGridFsResource.exists()).thenReturn(false);
 
     Exception exception =
@@ -186,9 +202,9 @@ class FileServiceImpl3Test {
 
   @Test
   void testDownloadFile_whenGridFsResourceNotReadable_throwsStorageException() {
-    when(fileRecordRepository.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
-    when(gridFsTemplate.findOne(any(Query.class))).thenReturn(mockGridFSFile);
-    when(gridFsTemplate.getResource(mockGridFSFile)).thenReturn(mockGridFsResource);
+    when(downloadReads.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
+    when(downloadReads.findFile(any())).thenReturn(mockGridFSFile);
+    when(downloadReads.open(mockGridFSFile)).thenReturn(mockGridFsResource);
     when(mockGridFsResource.exists()).thenReturn(true);
     when(mockGridFsResource.isReadable()).thenReturn(false);
 
@@ -208,9 +224,9 @@ class FileServiceImpl3Test {
   void testDownloadFile_whenInvalidContentType_usesOctetStream() throws IOException {
     String invalidContentTypeString = "utterly/invalidMediaTypeStringWhichShouldCauseException";
     mockFileRecord.setContentType(invalidContentTypeString);
-    when(fileRecordRepository.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
-    when(gridFsTemplate.findOne(any(Query.class))).thenReturn(mockGridFSFile);
-    when(gridFsTemplate.getResource((com.mongodb.client.gridfs.model.GridFSFile) mockGridFSFile))
+    when(downloadReads.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
+    when(downloadReads.findFile(any())).thenReturn(mockGridFSFile);
+    when(downloadReads.open((com.mongodb.client.gridfs.model.GridFSFile) mockGridFSFile))
         .thenReturn(mockGridFsResource);
     when(mockGridFsResource.exists()).thenReturn(true);
     when(mockGridFsResource.isReadable()).thenReturn(true);
@@ -222,6 +238,110 @@ class FileServiceImpl3Test {
         MediaType.parseMediaType(invalidContentTypeString), response.getHeaders().getContentType());
   }
 
+  @Test
+  void testDownloadFile_withSignedToken_resolvesByObjectIdWithoutTokenLookup() throws IOException {
+    ObjectId gridFsId = new ObjectId();
+    String signedToken = "s1.k1." + gridFsId.toHexString() + ".4102444800.sig";
+    GridFSFile signedFile =
+        new GridFSFile(
+            new BsonObjectId(gridFsId),
+            "system-uuid-filename",
+            11L,
+            255,
+            new Date(),
+            new Document("originalFilename", "report.pdf")
+                .append("contentType", "application/pdf"));
+    when(downloadLinkSigner.verify(signedToken)).thenReturn(gridFsId);
+    when(downloadReads.findFile(any())).thenReturn(signedFile);
+    when(downloadReads.open(signedFile)).thenReturn(mockGridFsResource);
+    when(mockGridFsResource.exists()).thenReturn(true);
+    when(mockGridFsResource.isReadable()).thenReturn(true);
+
+    ResponseEntity<GridFsResource> response = fileService.downloadFile(signedToken);
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(
+        "attachment; filename=\"report.pdf\"",
+        response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION));
+    assertEquals(MediaType.APPLICATION_PDF, response.getHeaders().getContentType());
+    verify(downloadReads).findFile(eq(Filters.eq("_id", gridFsId)));
+    verifyNoInteractions(fileRecordRepository);
+  }
+
+  @Test
+  void testDownloadFile_withSignedTokenForDeletedFile_throwsResourceNotFound() {
+    ObjectId gridFsId = new ObjectId();
+    String signedToken = "s1.k1." + gridFsId.toHexString() + ".4102444800.sig";
+    when(downloadLinkSigner.verify(signedToken)).thenReturn(gridFsId);
+    when(downloadReads.findFile(any())).thenReturn(null);
+
+    assertThrows(ResourceNotFoundException.class, () -> fileService.downloadFile(signedToken));
+    verifyNoInteractions(fileRecordRepository);
+  }
+
+  @Test
+  void testDownloadFile_withSignedTokenForTrashedFile_throwsResourceNotFound() {
+    ObjectId gridFsId = new ObjectId();
+    String signedToken = "s1.k1." + gridFsId.toHexString() + ".4102444800.sig";
+    GridFSFile trashedFile =
+        new GridFSFile(
+            new BsonObjectId(gridFsId),
+            "system-uuid-filename",
+            3L,
+            255 * 1024,
+            new Date(),
+            new Document("originalFilename", "report.pdf")
+                .append(TrashService.GRIDFS_DELETED_AT, new Date()));
+    when(downloadLinkSigner.verify(signedToken)).thenReturn(gridFsId);
+    when(downloadReads.findFile(any())).thenReturn(trashedFile);
+
+    assertThrows(ResourceNotFoundException.class, () -> fileService.downloadFile(signedToken));
+    verify(downloadReads, never()).open(any());
+  }
+
+  @Test
+  void testDownloadDerivative_servesLinkedThumbnailInline() throws IOException {
+    String derivativeId = new ObjectId().toHexString();
+    GridFSFile content =
+        new GridFSFile(
+            new BsonObjectId(new ObjectId()),
+            "system-uuid-filename",
+            0L,
+            0,
+            new Date(),
+            new Document("derivatives", new Document("thumbnail", derivativeId)));
+    when(fileRecordRepository.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
+    when(gridFsTemplate.findOne(any(Query.class))).thenReturn(content);
+    when(derivativeService.openDerivative(derivativeId)).thenReturn(mockGridFsResource);
+    when(mockGridFsResource.getContentType()).thenReturn("image/jpeg");
+
+    ResponseEntity<GridFsResource> response =
+        fileService.downloadDerivative("test-token", "thumbnail");
+
+    assertEquals(HttpStatus.OK, response.getStatusCode());
+    assertEquals(mockGridFsResource, response.getBody());
+    assertEquals(MediaType.IMAGE_JPEG, response.getHeaders().getContentType());
+    assertTrue(
+        response.getHeaders().getFirst(HttpHeaders.CONTENT_DISPOSITION).startsWith("inline;"));
+  }
+
+  @Test
+  void testDownloadDerivative_notGeneratedYet_throwsResourceNotFound() {
+    when(fileRecordRepository.findByToken("test-token")).thenReturn(Optional.of(mockFileRecord));
+
+    assertThrows(
+        ResourceNotFoundException.class,
+        () -> fileService.downloadDerivative("test-token", "preview"));
+  }
+
+  @Test
+  void testDownloadDerivative_invalidSize_throwsIllegalArgument() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> fileService.downloadDerivative("test-token", "gigantic"));
+    verifyNoInteractions(fileRecordRepository);
+  }
+
   // Tests for updateFileDetails
   @Test
   void testUpdateFileDetails_success() {
@@ -229,58 +349,78 @@ class FileServiceImpl3Test {
     String fileId = "system-uuid-for-update";
     FileUpdateRequest updateRequest = new FileUpdateRequest("new_updated_filename.txt");
 
-    FileRecord existingRecord = new FileRecord();
-    existingRecord.setId(fileId);
-    existingRecord.setFilename(fileId); // system UUID is stored as filename in FileRecord
-    existingRecord.setOwnerId(userId);
-    existingRecord.setOriginalFilename("old_filename.txt");
-
-    FileRecord savedRecord = new FileRecord(); // Simulates the record after saving
+    FileRecord savedRecord = new FileRecord(); // The entry as findAndModify returns it
     savedRecord.setId(fileId);
     savedRecord.setFilename(fileId);
     savedRecord.setOwnerId(userId);
     savedRecord.setOriginalFilename("new_updated_filename.txt"); // updated name
+    savedRecord.setVersion(1);
 
     FileResponse expectedResponse =
         new FileResponse(
-            fileId, "new_updated_filename.txt", Visibility.PUBLIC, null, null, null, 0L, null);
+            fileId, "new_updated_filename.txt", Visibility.PUBLIC, null, null, null, 0L, null, 1L);
 
-    when(fileRecordRepository.findByFilename(fileId)).thenReturn(Optional.of(existingRecord));
-    // Mock mongoTemplate.updateFirst for success
-    when(mongoTemplate.updateFirst(
+    when(mongoTemplate.findAndModify(
             any(Query.class),
-            argThat(
-                update ->
-                    update
-                        .getUpdateObject()
-                        .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
-                        .equals("new_updated_filename.txt")),
-            eq("fs.files")))
-        .thenReturn(UpdateResult.acknowledged(1L, 1L, null));
-    when(fileMapper.fromEntity(
-            argThat(record -> record.getOriginalFilename().equals("new_updated_filename.txt"))))
-        .thenReturn(expectedResponse);
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class)))
+        .thenReturn(savedRecord);
+    when(fileMapper.fromEntity(savedRecord)).thenReturn(expectedResponse);
 
-    FileResponse actualResponse = fileService.updateFileDetails(userId, fileId, updateRequest);
+    FileResponse actualResponse = fileService.updateFileDetails(userId, fileId, updateRequest, 0L);
 
     assertEquals(expectedResponse, actualResponse);
-    verify(fileRecordRepository).findByFilename(fileId);
-    // Verify mongoTemplate.updateFirst was called
+    // One atomic write; no read before it.
+    verifyNoInteractions(fileRecordRepository);
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
     verify(mongoTemplate)
-        .updateFirst(
-            any(Query.class),
-            argThat(
-                update ->
-                    update
-                        .getUpdateObject()
-                        .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
-                        .equals("new_updated_filename.txt")),
-            eq("fs.files"));
-    verify(fileMapper)
-        .fromEntity(
-            argThat(record -> record.getOriginalFilename().equals("new_updated_filename.txt")));
+        .findAndModify(
+            query.capture(),
+            update.capture(),
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
+    Document filter = query.getValue().getQueryObject();
+    assertEquals(fileId, filter.get("filename"));
+    assertEquals(userId, filter.get("ownerId"));
+    assertEquals(new Document("$in", java.util.Arrays.asList(0L, null)), filter.get("version"));
+    assertEquals(new Document("$ne", "new_updated_filename.txt"), filter.get("originalFilename"));
+    assertEquals(
+        new Document("version", 1),
+        update.getValue().getUpdateObject().get("$inc", Document.class));
+  }
+
+  @Test
+  void testUpdateFileDetails_whenVersionIsStale_throwsPreconditionFailedException() {
+    String userId = "user-123";
+    String fileId = "file-id-stale";
+    FileUpdateRequest updateRequest = new FileUpdateRequest("new_name.txt");
+
+    FileRecord existingRecord = new FileRecord();
+    existingRecord.setId(fileId);
+    existingRecord.setFilename(fileId);
+    existingRecord.setOwnerId(userId);
+    existingRecord.setOriginalFilename("renamed_meanwhile.txt");
+    existingRecord.setVersion(4);
+
+    when(fileRecordRepository.findByFilename(fileId)).thenReturn(Optional.of(existingRecord));
+
+    PreconditionFailedException exception =
+        assertThrows(
+            PreconditionFailedException.class,
+            () -> fileService.updateFileDetails(userId, fileId, updateRequest, 3L));
+
+    assertTrue(exception.getMessage().contains("version 4"));
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate)
+        .findAndModify(
+            query.capture(),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
+    assertEquals(3L, query.getValue().getQueryObject().get("version"));
+    verifyNoInteractions(fileMapper);
   }
 
   @Test
@@ -295,7 +435,7 @@ class FileServiceImpl3Test {
         assertThrows(
             ResourceNotFoundException.class,
             () -> {
-              fileService.updateFileDetails(userId, fileId, updateRequest);
+              fileService.updateFileDetails(userId, fileId, updateRequest, null);
             });
 
     assertEquals("File not found with id: " + fileId, exception.getMessage());
@@ -321,7 +461,7 @@ class FileServiceImpl3Test {
         assertThrows(
             UnauthorizedOperationException.class,
             () -> {
-              fileService.updateFileDetails(userId, fileId, updateRequest);
+              fileService.updateFileDetails(userId, fileId, updateRequest, null);
             });
 
     assertEquals(
@@ -344,12 +484,13 @@ class FileServiceImpl3Test {
 
     FileResponse mappedResponse =
         new FileResponse(
-            fileId, "original_name.txt", Visibility.PRIVATE, null, null, null, 0L, null);
+            fileId, "original_name.txt", Visibility.PRIVATE, null, null, null, 0L, null, 0L);
     when(fileMapper.fromEntity(existingRecord)).thenReturn(mappedResponse);
 
     when(fileRecordRepository.findByFilename(fileId)).thenReturn(Optional.of(existingRecord));
 
-    FileResponse actualResponse = fileService.updateFileDetails(userId, fileId, updateRequest);
+    FileResponse actualResponse =
+        fileService.updateFileDetails(userId, fileId, updateRequest, null);
 
     assertEquals(existingRecord.getOriginalFilename(), actualResponse.filename());
     verify(fileRecordRepository).findByFilename(fileId);
@@ -371,11 +512,12 @@ class FileServiceImpl3Test {
 
     FileResponse mappedResponse =
         new FileResponse(
-            fileId, "original_name.txt", Visibility.PRIVATE, null, null, null, 0L, null);
+            fileId, "original_name.txt", Visibility.PRIVATE, null, null, null, 0L, null, 0L);
     when(fileMapper.fromEntity(existingRecord)).thenReturn(mappedResponse);
     when(fileRecordRepository.findByFilename(fileId)).thenReturn(Optional.of(existingRecord));
 
-    FileResponse actualResponse = fileService.updateFileDetails(userId, fileId, updateRequest);
+    FileResponse actualResponse =
+        fileService.updateFileDetails(userId, fileId, updateRequest, null);
 
     assertEquals(existingRecord.getOriginalFilename(), actualResponse.filename());
     verify(fileRecordRepository).findByFilename(fileId);
@@ -397,11 +539,12 @@ class FileServiceImpl3Test {
     existingRecord.setOriginalFilename(originalName);
 
     FileResponse mappedResponse =
-        new FileResponse(fileId, originalName, Visibility.PRIVATE, null, null, null, 0L, null);
+        new FileResponse(fileId, originalName, Visibility.PRIVATE, null, null, null, 0L, null, 0L);
     when(fileMapper.fromEntity(existingRecord)).thenReturn(mappedResponse);
     when(fileRecordRepository.findByFilename(fileId)).thenReturn(Optional.of(existingRecord));
 
-    FileResponse actualResponse = fileService.updateFileDetails(userId, fileId, updateRequest);
+    FileResponse actualResponse =
+        fileService.updateFileDetails(userId, fileId, updateRequest, null);
 
     assertEquals(originalName, actualResponse.filename());
     verify(fileRecordRepository).findByFilename(fileId);
@@ -416,50 +559,45 @@ class FileServiceImpl3Test {
     String newConflictingName = "conflicting_name.txt";
     FileUpdateRequest updateRequest = new FileUpdateRequest(newConflictingName);
 
-    FileRecord existingRecord = new FileRecord();
-    existingRecord.setId(fileId);
-    existingRecord.setFilename(fileId);
-    existingRecord.setOwnerId(userId);
-    existingRecord.setOriginalFilename("old_name.txt");
-
-    when(fileRecordRepository.findByFilename(fileId)).thenReturn(Optional.of(existingRecord));
-    // Simulate DuplicateKeyException when mongoTemplate.updateFirst is called
-    when(mongoTemplate.updateFirst(
+    // Simulate DuplicateKeyException when mongoTemplate.findAndModify is called
+    when(mongoTemplate.findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(newConflictingName)),
-            eq("fs.files")))
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class)))
         .thenThrow(new DuplicateKeyException("Simulated DKE for owner_filename_idx"));
 
     Exception exception =
         assertThrows(
             FileAlreadyExistsException.class,
             () -> {
-              fileService.updateFileDetails(userId, fileId, updateRequest);
+              fileService.updateFileDetails(userId, fileId, updateRequest, null);
             });
 
     assertTrue(
         exception
             .getMessage()
             .contains("Filename '" + newConflictingName + "' already exists for this user"));
-    verify(fileRecordRepository).findByFilename(fileId);
-    // Verify mongoTemplate.updateFirst was called
+    verifyNoInteractions(fileRecordRepository);
+    // Verify mongoTemplate.findAndModify was called
     verify(mongoTemplate)
-        .updateFirst(
+        .findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(newConflictingName)),
-            eq("fs.files"));
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
   }
 
   @Test
@@ -470,24 +608,18 @@ class FileServiceImpl3Test {
     String newName = "new_name_for_data_access_ex.txt";
     FileUpdateRequest updateRequest = new FileUpdateRequest(newName);
 
-    FileRecord existingRecord = new FileRecord();
-    existingRecord.setId(fileId);
-    existingRecord.setFilename(fileId);
-    existingRecord.setOwnerId(userId);
-    existingRecord.setOriginalFilename("old_name.txt");
-
-    when(fileRecordRepository.findByFilename(fileId)).thenReturn(Optional.of(existingRecord));
-    // Simulate DataAccessException from mongoTemplate.updateFirst
-    when(mongoTemplate.updateFirst(
+    // Simulate DataAccessException from mongoTemplate.findAndModify
+    when(mongoTemplate.findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(newName)),
-            eq("fs.files")))
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class)))
         .thenThrow(
             new org.springframework.dao.DataAccessException("Simulated DataAccessException") {});
 
@@ -495,23 +627,24 @@ class FileServiceImpl3Test {
         assertThrows(
             StorageException.class,
             () -> {
-              fileService.updateFileDetails(userId, fileId, updateRequest);
+              fileService.updateFileDetails(userId, fileId, updateRequest, null);
             });
 
     assertTrue(exception.getMessage().contains("Failed to update file metadata"));
-    verify(fileRecordRepository).findByFilename(fileId);
-    // Verify mongoTemplate.updateFirst was called
+    verifyNoInteractions(fileRecordRepository);
+    // Verify mongoTemplate.findAndModify was called
     verify(mongoTemplate)
-        .updateFirst(
+        .findAndModify(
             any(Query.class),
             argThat(
                 update ->
                     update
                         .getUpdateObject()
                         .get("$set", Document.class)
-                        .getString("metadata.originalFilename")
+                        .getString("originalFilename")
                         .equals(newName)),
-            eq("fs.files"));
+            any(FindAndModifyOptions.class),
+            eq(FileRecord.class));
   }
 
   // Tests for uploadFile method
@@ -0,0 +1,44 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.config.ListingProperties;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.jupiter.api.Test;
+
+class ListingCountCacheTest {
+  private final AtomicLong now = new AtomicLong();
+
+  private ListingCountCache cache(int maxEntries) {
+    return new ListingCountCache(
+        new ListingProperties(
+            Duration.ofSeconds(30), maxEntries, 1000, 1000, true, 1000, Duration.ofSeconds(5)),
+        now::get);
+  }
+
+  @Test
+  void cachedCount_expiresAfterTtl() {
+    ListingCountCache cache = cache(10);
+    cache.put(ListingCountCache.key("u1", "work"), 42);
+
+    now.addAndGet(Duration.ofSeconds(29).toNanos());
+    assertEquals(42L, cache.get(ListingCountCache.key("u1", "work")));
+    assertNull(cache.get(ListingCountCache.key("u1", null)));
+    assertNull(cache.get(ListingCountCache.key(null, "work")));
+
+    now.addAndGet(Duration.ofSeconds(2).toNanos());
+    assertNull(cache.get(ListingCountCache.key("u1", "work")));
+  }
+
+  @Test
+  void put_staysWithinMaxEntries() {
+    ListingCountCache cache = cache(2);
+    cache.put("a", 1);
+    cache.put("b", 2);
+    cache.put("c", 3);
+
+    assertEquals(3L, cache.get("c"));
+    assertNull(cache.get("a"));
+  }
+}
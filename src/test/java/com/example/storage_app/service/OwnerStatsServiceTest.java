@@ -0,0 +1,224 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.config.StatsProperties;
+import com.example.storage_app.controller.dto.FacetCount;
+import com.example.storage_app.controller.dto.OwnerStatsResponse;
+import com.example.storage_app.controller.dto.StatsDrift;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.OwnerStats;
+import com.example.storage_app.model.Visibility;
+import com.example.storage_app.util.TagDictionary;
+import com.mongodb.client.result.UpdateResult;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+@ExtendWith(MockitoExtension.class)
+class OwnerStatsServiceTest {
+
+  @Mock private MongoTemplate mongoTemplate;
+  @Mock private TagDictionary tagDictionary;
+
+  private OwnerStatsService service() {
+    return new OwnerStatsService(
+        mongoTemplate, new StatsProperties(true, Duration.ofHours(6)), tagDictionary);
+  }
+
+  @Test
+  void recordUpload_publicFile_incrementsOwnerAndPublicScopes() {
+    FileRecord record =
+        FileRecord.builder()
+            .ownerId("u1")
+            .visibility(Visibility.PUBLIC)
+            .size(100)
+            .contentType("application/vnd.ms-excel")
+            .tags(List.of("work", "v1.2", "work"))
+            .build();
+
+    service().recordUpload(record);
+
+    ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate, times(2))
+        .upsert(queries.capture(), updates.capture(), eq(OwnerStats.class));
+    assertEquals("owner:u1", queries.getAllValues().get(0).getQueryObject().get("_id"));
+    assertEquals("public", queries.getAllValues().get(1).getQueryObject().get("_id"));
+    Document inc = (Document) updates.getValue().getUpdateObject().get("$inc");
+    assertEquals(1, inc.get("fileCount"));
+    assertEquals(100L, inc.get("totalBytes"));
+    assertEquals(1, inc.get("tags.work"));
+    assertEquals(1, inc.get("tags.v1%2E2"));
+    assertEquals(1, inc.get("contentTypes.application/vnd%2Ems-excel"));
+  }
+
+  @Test
+  void recordChanges_sumsTheBatchIntoOneUpsertPerScope() {
+    BulkOperations bulk = mock(BulkOperations.class);
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, OwnerStats.class))
+        .thenReturn(bulk);
+    FileRecord a =
+        FileRecord.builder().ownerId("u1").visibility(Visibility.PRIVATE).size(5).build();
+    FileRecord b =
+        FileRecord.builder()
+            .ownerId("u1")
+            .visibility(Visibility.PRIVATE)
+            .size(7)
+            .tags(List.of("x"))
+            .build();
+
+    service()
+        .recordChanges(
+            List.of(a, b),
+            List.of(
+                a.toBuilder().visibility(Visibility.PUBLIC).build(),
+                b.toBuilder().visibility(Visibility.PUBLIC).tags(List.of("y")).build()));
+
+    ArgumentCaptor<Query> queries = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> updates = ArgumentCaptor.forClass(Update.class);
+    verify(bulk, times(2)).upsert(queries.capture(), updates.capture());
+    assertEquals("owner:u1", queries.getAllValues().get(0).getQueryObject().get("_id"));
+    assertEquals(
+        new Document("tags.x", -1L).append("tags.y", 1L).append("revision", 1),
+        updates.getAllValues().get(0).getUpdateObject().get("$inc"));
+    assertEquals("public", queries.getAllValues().get(1).getQueryObject().get("_id"));
+    assertEquals(
+        new Document("fileCount", 2L)
+            .append("totalBytes", 12L)
+            .append("tags.y", 1L)
+            .append("revision", 1),
+        updates.getAllValues().get(1).getUpdateObject().get("$inc"));
+    verify(bulk).execute();
+    verify(mongoTemplate, never())
+        .upsert(any(Query.class), any(Update.class), eq(OwnerStats.class));
+  }
+
+  @Test
+  void recordDelete_privateFile_decrementsOwnerScopeOnly() {
+    FileRecord record =
+        FileRecord.builder().ownerId("u1").visibility(Visibility.PRIVATE).size(7).build();
+
+    service().recordDelete(record);
+
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate).upsert(any(Query.class), update.capture(), eq(OwnerStats.class));
+    Document inc = (Document) update.getValue().getUpdateObject().get("$inc");
+    assertEquals(-1, inc.get("fileCount"));
+    assertEquals(-7L, inc.get("totalBytes"));
+  }
+
+  @Test
+  void recordChange_renameOnly_writesNothing() {
+    FileRecord before =
+        FileRecord.builder().ownerId("u1").originalFilename("a").tags(List.of("x")).build();
+    FileRecord after =
+        FileRecord.builder().ownerId("u1").originalFilename("b").tags(List.of("x")).build();
+
+    service().recordChange(before, after);
+
+    verifyNoInteractions(mongoTemplate);
+  }
+
+  @Test
+  void stats_decodesKeysAndSortsFacetsByCount() {
+    when(mongoTemplate.findById("owner:u1", OwnerStats.class))
+        .thenReturn(
+            OwnerStats.builder()
+                .id("owner:u1")
+                .fileCount(3)
+                .totalBytes(30)
+                .tags(Map.of("a", 1L, "v1%2E2", 2L, "gone", 0L))
+                .contentTypes(Map.of("text/plain", 3L))
+                .build());
+
+    OwnerStatsResponse stats = service().stats("u1");
+
+    assertEquals(3, stats.fileCount());
+    assertEquals(List.of(new FacetCount("v1.2", 2), new FacetCount("a", 1)), stats.tags());
+    assertEquals(List.of(new FacetCount("text/plain", 3)), stats.contentTypes());
+  }
+
+  @Test
+  void tagCounts_decodesKeysAndDropsZeroes() {
+    when(mongoTemplate.findById("public", OwnerStats.class))
+        .thenReturn(
+            OwnerStats.builder().id("public").tags(Map.of("v1%2E2", 2L, "gone", 0L)).build());
+
+    assertEquals(Map.of("v1.2", 2L), service().tagCounts(null));
+    assertEquals(Map.of(), service().tagCounts("nobody"));
+  }
+
+  @Test
+  void reconcile_correctsDriftGuardedByRevisionAndResolvesTagIds() {
+    when(mongoTemplate.findById("owner:u1", OwnerStats.class))
+        .thenReturn(
+            OwnerStats.builder()
+                .id("owner:u1")
+                .fileCount(5)
+                .totalBytes(50)
+                .tags(Map.of("a", 5L))
+                .contentTypes(Map.of("text/plain", 5L))
+                .revision(17)
+                .build());
+    Document facet =
+        new Document("totals", List.of(new Document("n", 4).append("bytes", 40L)))
+            .append(
+                "tags",
+                // Interned and not yet migrated files with the same tag.
+                List.of(
+                    new Document("_id", 3).append("n", 3), new Document("_id", "a").append("n", 1)))
+            .append("contentTypes", List.of(new Document("_id", "text/plain").append("n", 4)));
+    when(mongoTemplate.aggregate(
+            any(Aggregation.class), eq(FileRecord.COLLECTION), eq(Document.class)))
+        .thenReturn(new AggregationResults<>(List.of(facet), new Document()));
+    when(tagDictionary.name(3)).thenReturn("a");
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(OwnerStats.class)))
+        .thenReturn(UpdateResult.acknowledged(1, 1L, null));
+
+    StatsDrift drift = service().reconcile("owner:u1");
+
+    assertEquals(new StatsDrift("owner:u1", 5, 4, 50, 40, true), drift);
+    ArgumentCaptor<Query> guard = ArgumentCaptor.forClass(Query.class);
+    ArgumentCaptor<Update> update = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate).updateFirst(guard.capture(), update.capture(), eq(OwnerStats.class));
+    assertEquals(17L, guard.getValue().getQueryObject().get("revision"));
+    assertEquals(
+        Map.of("a", 4L), ((Document) update.getValue().getUpdateObject().get("$set")).get("tags"));
+  }
+
+  @Test
+  void reconcile_concurrentIncrement_skipsWithoutReporting() {
+    when(mongoTemplate.findById("public", OwnerStats.class))
+        .thenReturn(OwnerStats.builder().id("public").fileCount(1).revision(3).build());
+    when(mongoTemplate.aggregate(
+            any(Aggregation.class), eq(FileRecord.COLLECTION), eq(Document.class)))
+        .thenReturn(new AggregationResults<>(List.of(), new Document()));
+    when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(OwnerStats.class)))
+        .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+    assertNull(service().reconcile("public"));
+  }
+
+  @Test
+  void keyEncoding_roundTrips() {
+    String key = "50%.$x";
+    assertFalse(OwnerStatsService.encodeKey(key).contains("."));
+    assertEquals(key, OwnerStatsService.decodeKey(OwnerStatsService.encodeKey(key)));
+  }
+}
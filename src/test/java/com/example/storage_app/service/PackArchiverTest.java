@@ -0,0 +1,119 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.blob.BlobStore;
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.blob.PackBlobStore;
+import com.example.storage_app.config.ArchiveProperties;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import org.bson.BsonObjectId;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.util.unit.DataSize;
+
+@ExtendWith(MockitoExtension.class)
+class PackArchiverTest {
+
+  @Mock private MongoTemplate mongoTemplate;
+  @Mock private BlobStores blobStores;
+  @Mock private PackBlobStore packBlobStore;
+  @Mock private BlobStore source;
+
+  private PackArchiver archiver() {
+    return new PackArchiver(
+        mongoTemplate,
+        blobStores,
+        packBlobStore,
+        new ArchiveProperties(
+            true,
+            Duration.ofHours(24),
+            Duration.ofDays(90),
+            DataSize.ofKilobytes(64),
+            DataSize.ofMegabytes(64),
+            "gridfs",
+            1000,
+            0.5,
+            Duration.ofDays(1),
+            Duration.ofMinutes(10)));
+  }
+
+  @Test
+  void recordAccess_writesAtMostOncePerResolution() {
+    ObjectId id = new ObjectId();
+    Date anHourAgo = new Date(System.currentTimeMillis() - Duration.ofHours(1).toMillis());
+    Date twoDaysAgo = new Date(System.currentTimeMillis() - Duration.ofDays(2).toMillis());
+
+    archiver().recordAccess(file(id, new Document("accessedAt", anHourAgo)));
+    verifyNoInteractions(mongoTemplate);
+
+    archiver().recordAccess(file(id, new Document("accessedAt", twoDaysAgo)));
+    archiver().recordAccess(file(id, new Document()));
+    verify(mongoTemplate, times(2))
+        .updateFirst(any(Query.class), any(Update.class), eq("fs.files"));
+  }
+
+  @Test
+  void archive_whileAnotherRunHoldsTheLease_doesNothing() {
+    when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq(PackArchiver.LEASES)))
+        .thenThrow(new DuplicateKeyException("E11000 duplicate key error"));
+
+    assertNull(archiver().archive());
+    assertFalse(archiver().archiveInBackground());
+    verify(mongoTemplate, times(2))
+        .upsert(any(Query.class), any(Update.class), eq(PackArchiver.LEASES));
+    verifyNoMoreInteractions(mongoTemplate);
+    verifyNoInteractions(blobStores, packBlobStore);
+  }
+
+  @Test
+  void packInputStream_concatenatesMembersReadFromTheirPackOffsets() throws IOException {
+    ObjectId oldPack = new ObjectId();
+    when(source.get(oldPack, 100, 3)).thenReturn(new ByteArrayInputStream("abc".getBytes()));
+    when(source.get(oldPack, 0, 0)).thenReturn(InputStream.nullInputStream());
+    when(source.get(oldPack, 500, 2)).thenReturn(new ByteArrayInputStream("de".getBytes()));
+    List<PackArchiver.Member> members =
+        List.of(
+            new PackArchiver.Member(new ObjectId(), 3, 100),
+            new PackArchiver.Member(new ObjectId(), 0, 0),
+            new PackArchiver.Member(new ObjectId(), 2, 500));
+
+    try (InputStream pack = new PackArchiver.PackInputStream(members, source, oldPack)) {
+      assertEquals("abcde", new String(pack.readAllBytes()));
+    }
+  }
+
+  @Test
+  void packInputStream_memberShorterThanRecorded_failsThePack() throws IOException {
+    ObjectId id = new ObjectId();
+    when(source.get(id, 0, 5)).thenReturn(new ByteArrayInputStream("abc".getBytes()));
+
+    try (InputStream pack =
+        new PackArchiver.PackInputStream(
+            List.of(new PackArchiver.Member(id, 5, 0)), source, null)) {
+      IOException e = assertThrows(IOException.class, pack::readAllBytes);
+      assertTrue(e.getMessage().contains(id.toHexString()));
+    }
+  }
+
+  private static GridFSFile file(ObjectId id, Document metadata) {
+    return new GridFSFile(new BsonObjectId(id), "f", 1, 255 * 1024, new Date(0), metadata);
+  }
+}
@@ -0,0 +1,117 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.config.ListingProperties;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.OperationType;
+import com.mongodb.client.model.changestream.UpdateDescription;
+import java.time.Duration;
+import java.util.List;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+class PublicListingCacheTest {
+  private static final PublicListingCache.Entry BODY =
+      new PublicListingCache.Entry(new byte[] {'{', '}'}, "application/json");
+
+  private final PublicListingCache cache =
+      new PublicListingCache(
+          mock(MongoTemplate.class),
+          new ListingProperties(
+              Duration.ofSeconds(30), 10, 1000, 1000, true, 2, Duration.ofSeconds(5)));
+
+  @Test
+  void entries_areOnlyServedWhileTheChangeStreamIsOpen() {
+    cache.put("k", cache.generation(), BODY);
+    assertNull(cache.get("k"));
+
+    cache.opened();
+    cache.put("k", cache.generation(), BODY);
+    assertSame(BODY, cache.get("k"));
+
+    cache.closed();
+    assertFalse(cache.isServing());
+    assertNull(cache.get("k"));
+  }
+
+  @Test
+  void put_afterAnInvalidation_isDropped() {
+    cache.opened();
+    long generation = cache.generation();
+
+    cache.onChange(event(OperationType.DELETE, null, null));
+    cache.put("k", generation, BODY);
+
+    assertNull(cache.get("k"));
+    cache.put("k", cache.generation(), BODY);
+    assertSame(BODY, cache.get("k"));
+  }
+
+  @Test
+  void onChange_invalidateEvent_stopsServingUntilReopened() {
+    cache.opened();
+    cache.put("k", cache.generation(), BODY);
+
+    assertFalse(cache.onChange(event(OperationType.INVALIDATE, null, null)));
+
+    assertFalse(cache.isServing());
+    cache.opened();
+    assertNull(cache.get("k"));
+  }
+
+  @Test
+  void put_staysWithinMaxEntries() {
+    cache.opened();
+    cache.put("a", cache.generation(), BODY);
+    cache.put("b", cache.generation(), BODY);
+    cache.put("c", cache.generation(), BODY);
+
+    assertNull(cache.get("a"));
+    assertSame(BODY, cache.get("c"));
+  }
+
+  @Test
+  void affectsPublicListings_ignoresOnlyChangesConfinedToPrivateFiles() {
+    Document privateFile = file("PRIVATE");
+    Document publicFile = file("PUBLIC");
+    UpdateDescription rename =
+        new UpdateDescription(List.of(), new BsonDocument("n", new BsonString("b.txt")));
+    UpdateDescription visibilityChange =
+        new UpdateDescription(List.of(), new BsonDocument("v", new BsonString("PRIVATE")));
+
+    assertFalse(
+        PublicListingCache.affectsPublicListings(event(OperationType.INSERT, privateFile, null)));
+    assertFalse(
+        PublicListingCache.affectsPublicListings(event(OperationType.UPDATE, privateFile, rename)));
+    assertTrue(
+        PublicListingCache.affectsPublicListings(event(OperationType.INSERT, publicFile, null)));
+    assertTrue(
+        PublicListingCache.affectsPublicListings(event(OperationType.UPDATE, publicFile, rename)));
+    assertTrue(
+        PublicListingCache.affectsPublicListings(
+            event(OperationType.UPDATE, privateFile, visibilityChange)));
+    assertTrue(PublicListingCache.affectsPublicListings(event(OperationType.UPDATE, null, rename)));
+    assertTrue(PublicListingCache.affectsPublicListings(event(OperationType.DELETE, null, null)));
+    assertTrue(
+        PublicListingCache.affectsPublicListings(event(OperationType.REPLACE, privateFile, null)));
+  }
+
+  private static Document file(String visibility) {
+    return new Document("_id", 1).append("v", visibility);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ChangeStreamDocument<Document> event(
+      OperationType type, Document fullDocument, UpdateDescription update) {
+    ChangeStreamDocument<Document> event = mock(ChangeStreamDocument.class);
+    when(event.getOperationType()).thenReturn(type);
+    when(event.getFullDocument()).thenReturn(fullDocument);
+    when(event.getUpdateDescription()).thenReturn(update);
+    return event;
+  }
+}
@@ -0,0 +1,166 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.config.OperationTimeListener;
+import com.example.storage_app.config.OperationTimeListener.WriteTime;
+import com.example.storage_app.config.ReadRoutingProperties;
+import com.example.storage_app.model.FileRecord;
+import com.mongodb.ReadPreference;
+import com.mongodb.TaggableReadPreference;
+import com.mongodb.client.ClientSession;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.bson.BsonDocument;
+import org.bson.BsonTimestamp;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+
+class ReadRoutingTest {
+  private static final WriteTime WRITE =
+      new WriteTime(
+          new BsonTimestamp(7, 1), new BsonDocument("clusterTime", new BsonTimestamp(7, 1)));
+
+  private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+  private final MongoDatabaseFactory factory = mock(MongoDatabaseFactory.class);
+  private final ClientSession session = mock(ClientSession.class);
+  private final OperationTimeListener operationTimes = mock(OperationTimeListener.class);
+  private final PublicListingCache publicListingCache = mock(PublicListingCache.class);
+  private final AtomicLong now = new AtomicLong();
+
+  @BeforeEach
+  void setUp() {
+    when(mongoTemplate.getMongoDatabaseFactory()).thenReturn(factory);
+    when(factory.getSession(any())).thenReturn(session);
+  }
+
+  private ReadRouting routing(String downloadReadPreference) {
+    return new ReadRouting(
+        mongoTemplate,
+        new ReadRoutingProperties(
+            "secondaryPreferred",
+            downloadReadPreference,
+            Duration.ZERO,
+            Duration.ofMinutes(5),
+            2,
+            Duration.ofSeconds(2),
+            Duration.ofSeconds(2),
+            Duration.ofSeconds(1),
+            Duration.ofMinutes(10)),
+        operationTimes,
+        publicListingCache,
+        now::get);
+  }
+
+  @Test
+  void listings_afterTheOwnersWrite_runInASessionAdvancedToThatWrite() {
+    ReadRouting routing = routing("secondaryPreferred");
+    when(operationTimes.lastWrite()).thenReturn(WRITE);
+    routing.recordWrite("alice");
+
+    try (ReadRouting.Reads reads = routing.listings("alice")) {
+      assertNotNull(reads);
+    }
+    verify(session).advanceClusterTime(WRITE.clusterTime());
+    verify(session).advanceOperationTime(WRITE.operationTime());
+    verify(session).close();
+    verify(mongoTemplate).withSession(session);
+  }
+
+  @Test
+  void listings_ofOtherOwnersOrAfterTheWindow_useNoSession() {
+    ReadRouting routing = routing("secondaryPreferred");
+    when(operationTimes.lastWrite()).thenReturn(WRITE);
+    routing.recordWrite("alice");
+
+    Query query;
+    try (ReadRouting.Reads reads = routing.listings("bob")) {
+      assertSame(mongoTemplate, reads.operations());
+      query = reads.query(new Query());
+    }
+    assertEquals(ReadPreference.secondaryPreferred(), query.getReadPreference());
+    assertEquals(2000L, query.getMeta().getMaxTimeMsec());
+
+    now.addAndGet(Duration.ofMinutes(6).toNanos());
+    routing.listings("alice").close();
+    routing.listings(null).close();
+    verify(factory, never()).getSession(any());
+  }
+
+  @Test
+  void anonymousListings_whileThePublicCacheIsServing_readThePrimary() {
+    ReadRouting routing = routing("secondaryPreferred");
+    when(publicListingCache.isServing()).thenReturn(true);
+
+    Query query;
+    try (ReadRouting.Reads reads = routing.listings(null)) {
+      query = reads.query(new Query());
+    }
+    assertEquals(ReadPreference.primary(), query.getReadPreference());
+    assertEquals(2000L, query.getMeta().getMaxTimeMsec());
+    try (ReadRouting.Reads reads = routing.listings("bob")) {
+      query = reads.query(new Query());
+    }
+    assertEquals(ReadPreference.secondaryPreferred(), query.getReadPreference());
+
+    when(publicListingCache.isServing()).thenReturn(false);
+    try (ReadRouting.Reads reads = routing.listings(null)) {
+      query = reads.query(new Query());
+    }
+    assertEquals(ReadPreference.secondaryPreferred(), query.getReadPreference());
+    verify(factory, never()).getSession(any());
+  }
+
+  @Test
+  void recordWrite_withoutAReplicaSetWrite_isIgnored() {
+    ReadRouting routing = routing("secondaryPreferred");
+    routing.recordWrite("alice");
+
+    routing.search("alice").close();
+    verify(factory, never()).getSession(any());
+  }
+
+  @Test
+  void downloads_shareACausalSessionUnlessReadFromThePrimary() {
+    routing("nearest").downloads().close();
+    verify(session).close();
+
+    clearInvocations(factory);
+    routing("primary").downloads().close();
+    verify(factory, never()).getSession(any());
+  }
+
+  @Test
+  void downloadLookups_readThePrimaryInTheDownloadSession() {
+    MongoTemplate sessionTemplate = mock(MongoTemplate.class);
+    when(mongoTemplate.withSession(session)).thenReturn(sessionTemplate);
+
+    try (ReadRouting.Reads reads = routing("secondaryPreferred").downloads()) {
+      assertTrue(reads.findByToken("t").isEmpty());
+    }
+    ArgumentCaptor<Query> query = ArgumentCaptor.forClass(Query.class);
+    verify(sessionTemplate).findOne(query.capture(), eq(FileRecord.class));
+    assertEquals(ReadPreference.primary(), query.getValue().getReadPreference());
+    assertEquals(1000L, query.getValue().getMeta().getMaxTimeMsec());
+    verify(mongoTemplate, never()).findOne(any(), any());
+  }
+
+  @Test
+  void readPreference_appliesMaxStalenessToSecondaryReads() {
+    ReadPreference bounded = ReadRouting.readPreference("nearest", Duration.ofSeconds(120));
+
+    assertEquals(
+        120_000L, ((TaggableReadPreference) bounded).getMaxStaleness(TimeUnit.MILLISECONDS));
+    assertEquals(
+        ReadPreference.primary(), ReadRouting.readPreference("primary", Duration.ofSeconds(120)));
+    assertEquals(ReadPreference.nearest(), ReadRouting.readPreference("nearest", Duration.ZERO));
+  }
+}
@@ -0,0 +1,165 @@
+package com.example.storage_app.service;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.blob.BlobStore;
+import com.example.storage_app.blob.BlobStores;
+import com.example.storage_app.config.TrashProperties;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.TrashedFile;
+import java.time.Duration;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+@ExtendWith(MockitoExtension.class)
+class TrashServiceTest {
+
+  @Mock private MongoTemplate mongoTemplate;
+  @Mock private DerivativeService derivativeService;
+  @Mock private BlobStores blobStores;
+
+  private TrashService service() {
+    return new TrashService(
+        mongoTemplate,
+        derivativeService,
+        new TrashProperties(Duration.ofDays(7), Duration.ofMinutes(1), 100, 2, Duration.ZERO, 1000),
+        blobStores);
+  }
+
+  @Test
+  void trash_movesTheCatalogueEntriesAndMarksTheContentInAFewWrites() {
+    ObjectId id = new ObjectId();
+    FileRecord record =
+        FileRecord.builder().id(id.toHexString()).ownerId("u1").originalFilename("a.txt").build();
+    BulkOperations entries = mock(BulkOperations.class);
+    when(mongoTemplate.getConverter())
+        .thenReturn(
+            new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext()));
+    when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, TrashedFile.COLLECTION))
+        .thenReturn(entries);
+
+    Date purgeAt = service().trash(List.of(record));
+
+    long retention = purgeAt.getTime() - System.currentTimeMillis();
+    assertTrue(retention > Duration.ofDays(7).minusMinutes(1).toMillis());
+    ArgumentCaptor<Document> entry = ArgumentCaptor.forClass(Document.class);
+    verify(entries).replaceOne(any(Query.class), entry.capture(), any(FindAndReplaceOptions.class));
+    verify(entries).execute();
+    assertEquals(id, entry.getValue().get("_id"));
+    assertEquals("a.txt", entry.getValue().get("n"));
+    assertEquals(purgeAt, entry.getValue().get("p"));
+    assertEquals(false, entry.getValue().get("r"));
+    ArgumentCaptor<Update> marker = ArgumentCaptor.forClass(Update.class);
+    verify(mongoTemplate).updateMulti(any(Query.class), marker.capture(), eq("fs.files"));
+    assertTrue(
+        marker
+            .getValue()
+            .getUpdateObject()
+            .get("$set", Document.class)
+            .containsKey("metadata.deletedAt"));
+    ArgumentCaptor<Query> removed = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate).remove(removed.capture(), eq(FileRecord.class));
+    assertEquals(
+        new Document("_id", new Document("$in", List.of(id))), removed.getValue().getQueryObject());
+  }
+
+  @Test
+  void reap_deletesChunksInRangesOfChunkNumbersThenTheFile() {
+    ObjectId id = new ObjectId();
+    TrashedFile claimed = TrashedFile.builder().id(id.toHexString()).filename("f-1").build();
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(TrashedFile.class)))
+        .thenReturn(claimed, (TrashedFile) null);
+    when(mongoTemplate.exists(any(Query.class), eq(FileRecord.class))).thenReturn(false);
+    // Five chunks, purged two at a time.
+    when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("fs.files")))
+        .thenReturn(new Document("_id", id).append("length", 9L).append("chunkSize", 2));
+
+    assertEquals(1, service().reap());
+
+    ArgumentCaptor<Query> chunkDeletes = ArgumentCaptor.forClass(Query.class);
+    verify(mongoTemplate, times(4)).remove(chunkDeletes.capture(), eq("fs.chunks"));
+    List<Document> ranges =
+        chunkDeletes.getAllValues().stream()
+            .map(q -> q.getQueryObject().get("n", Document.class))
+            .toList();
+    assertEquals(new Document("$gte", 0L).append("$lt", 2L), ranges.get(0));
+    assertEquals(new Document("$gte", 2L).append("$lt", 4L), ranges.get(1));
+    assertEquals(new Document("$gte", 4L).append("$lt", 6L), ranges.get(2));
+    assertNull(ranges.get(3));
+    verify(mongoTemplate).remove(any(Query.class), eq("fs.files"));
+    verify(derivativeService).deleteFor(id);
+    verify(mongoTemplate).remove(any(Query.class), eq(TrashedFile.class));
+  }
+
+  @Test
+  void reap_contentInAnotherStore_deletesItThereInsteadOfByChunkRanges() {
+    ObjectId id = new ObjectId();
+    TrashedFile claimed = TrashedFile.builder().id(id.toHexString()).filename("f-1").build();
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(TrashedFile.class)))
+        .thenReturn(claimed, (TrashedFile) null);
+    when(mongoTemplate.exists(any(Query.class), eq(FileRecord.class))).thenReturn(false);
+    Document metadata = new Document("store", "local");
+    when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("fs.files")))
+        .thenReturn(
+            new Document("_id", id)
+                .append("length", 9L)
+                .append("chunkSize", 0)
+                .append("metadata", metadata));
+    BlobStore local = mock(BlobStore.class);
+    when(blobStores.external(metadata)).thenReturn(local);
+
+    assertEquals(1, service().reap());
+
+    verify(local).delete(id);
+    verify(mongoTemplate, times(1)).remove(any(Query.class), eq("fs.chunks"));
+    verify(mongoTemplate).remove(any(Query.class), eq("fs.files"));
+    verify(derivativeService).deleteFor(id);
+  }
+
+  @Test
+  void reap_fileStillCatalogued_dropsTheTrashEntryAndKeepsTheContent() {
+    ObjectId id = new ObjectId();
+    TrashedFile claimed = TrashedFile.builder().id(id.toHexString()).filename("f-1").build();
+    when(mongoTemplate.findAndModify(
+            any(Query.class),
+            any(Update.class),
+            any(FindAndModifyOptions.class),
+            eq(TrashedFile.class)))
+        .thenReturn(claimed, (TrashedFile) null);
+    when(mongoTemplate.exists(any(Query.class), eq(FileRecord.class))).thenReturn(true);
+
+    assertEquals(1, service().reap());
+
+    verify(mongoTemplate).remove(any(Query.class), eq(TrashedFile.class));
+    verify(mongoTemplate).updateFirst(any(Query.class), any(Update.class), eq("fs.files"));
+    verify(mongoTemplate, never()).remove(any(Query.class), eq("fs.chunks"));
+    verifyNoInteractions(derivativeService);
+  }
+}
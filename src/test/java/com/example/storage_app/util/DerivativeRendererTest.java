@@ -0,0 +1,80 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import javax.imageio.ImageIO;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.junit.jupiter.api.Test;
+
+class DerivativeRendererTest {
+  private final DerivativeRenderer renderer = new DerivativeRenderer();
+
+  private byte[] png(int width, int height, int type) throws Exception {
+    BufferedImage image = new BufferedImage(width, height, type);
+    Graphics2D g = image.createGraphics();
+    g.setColor(Color.ORANGE);
+    g.fillRect(0, 0, width / 2, height / 2);
+    g.dispose();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ImageIO.write(image, "png", out);
+    return out.toByteArray();
+  }
+
+  @Test
+  void supports_onlyImagesAndPdf() {
+    assertTrue(DerivativeRenderer.supports("image/png"));
+    assertTrue(DerivativeRenderer.supports("application/pdf"));
+    assertFalse(DerivativeRenderer.supports("text/plain"));
+    assertFalse(DerivativeRenderer.supports(null));
+  }
+
+  @Test
+  void largeOpaqueImage_isSubsampledAndEncodedAsJpegWithinBounds() throws Exception {
+    byte[] source = png(4000, 2000, BufferedImage.TYPE_INT_RGB);
+
+    BufferedImage decoded = renderer.decode(new ByteArrayInputStream(source), "image/png", 1024);
+    DerivativeRenderer.Rendered thumb = renderer.encode(decoded, 256);
+
+    assertTrue(decoded.getWidth() < 4000, "decode should subsample");
+    assertTrue(decoded.getWidth() >= 1024, "decode should keep enough pixels for the preview");
+    assertEquals(256, thumb.width());
+    assertEquals(128, thumb.height());
+    assertEquals("image/jpeg", thumb.contentType());
+    assertNotNull(ImageIO.read(new ByteArrayInputStream(thumb.bytes())));
+  }
+
+  @Test
+  void smallImageWithAlpha_isNotUpscaledAndStaysPng() throws Exception {
+    byte[] source = png(100, 50, BufferedImage.TYPE_INT_ARGB);
+
+    DerivativeRenderer.Rendered preview =
+        renderer.encode(renderer.decode(new ByteArrayInputStream(source), "image/png", 1024), 1024);
+
+    assertEquals(100, preview.width());
+    assertEquals(50, preview.height());
+    assertEquals("image/png", preview.contentType());
+  }
+
+  @Test
+  void pdf_rendersFirstPageAtRequestedSize() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (PDDocument document = new PDDocument()) {
+      document.addPage(new PDPage(PDRectangle.A4));
+      document.addPage(new PDPage(PDRectangle.A4));
+      document.save(out);
+    }
+
+    BufferedImage page =
+        renderer.decode(new ByteArrayInputStream(out.toByteArray()), "application/pdf", 512);
+
+    assertEquals(512, Math.max(page.getWidth(), page.getHeight()), 1);
+    assertTrue(page.getHeight() > page.getWidth());
+  }
+}
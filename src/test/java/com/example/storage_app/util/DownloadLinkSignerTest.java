@@ -0,0 +1,83 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.config.DownloadSigningProperties;
+import com.example.storage_app.exception.DownloadLinkExpiredException;
+import com.example.storage_app.exception.ResourceNotFoundException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Map;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+class DownloadLinkSignerTest {
+  private static final String KEY_1 = Base64.getEncoder().encodeToString("first-secret".getBytes());
+  private static final String KEY_2 =
+      Base64.getEncoder().encodeToString("second-secret".getBytes());
+  private static final Instant NOW = Instant.parse("2025-05-12T09:00:00Z");
+
+  private DownloadLinkSigner signer(String activeKey, Map<String, String> keys, Instant now) {
+    return new DownloadLinkSigner(
+        new DownloadSigningProperties(true, activeKey, keys, Duration.ofMinutes(15)),
+        Clock.fixed(now, ZoneOffset.UTC));
+  }
+
+  @Test
+  void signAndVerify_roundTripsObjectId() {
+    DownloadLinkSigner signer = signer("k1", Map.of("k1", KEY_1), NOW);
+    ObjectId id = new ObjectId();
+
+    String token = signer.sign(id);
+
+    assertTrue(DownloadLinkSigner.isSignedToken(token));
+    assertTrue(token.startsWith("s1.k1." + id.toHexString() + "."));
+    assertEquals(id, signer.verify(token));
+  }
+
+  @Test
+  void verify_afterTtl_throwsExpired() {
+    ObjectId id = new ObjectId();
+    String token = signer("k1", Map.of("k1", KEY_1), NOW).sign(id);
+
+    DownloadLinkSigner later = signer("k1", Map.of("k1", KEY_1), NOW.plus(Duration.ofMinutes(16)));
+
+    assertThrows(DownloadLinkExpiredException.class, () -> later.verify(token));
+  }
+
+  @Test
+  void verify_tamperedObjectIdOrExpiry_isNotFound() {
+    DownloadLinkSigner signer = signer("k1", Map.of("k1", KEY_1), NOW);
+    String token = signer.sign(new ObjectId());
+    String[] parts = token.split("\\.");
+
+    String otherFile =
+        String.join(".", parts[0], parts[1], new ObjectId().toHexString(), parts[3], parts[4]);
+    String longerExpiry = String.join(".", parts[0], parts[1], parts[2], parts[3] + "0", parts[4]);
+
+    assertThrows(ResourceNotFoundException.class, () -> signer.verify(otherFile));
+    assertThrows(ResourceNotFoundException.class, () -> signer.verify(longerExpiry));
+    assertThrows(ResourceNotFoundException.class, () -> signer.verify("s1.k1.garbage"));
+  }
+
+  @Test
+  void keyRotation_oldLinksVerifyUntilKeyIsRemoved() {
+    ObjectId id = new ObjectId();
+    String oldToken = signer("k1", Map.of("k1", KEY_1), NOW).sign(id);
+
+    DownloadLinkSigner rotated = signer("k2", Map.of("k1", KEY_1, "k2", KEY_2), NOW);
+    assertEquals(id, rotated.verify(oldToken));
+    assertTrue(rotated.sign(id).startsWith("s1.k2."));
+
+    DownloadLinkSigner retired = signer("k2", Map.of("k2", KEY_2), NOW);
+    assertThrows(ResourceNotFoundException.class, () -> retired.verify(oldToken));
+  }
+
+  @Test
+  void enabledWithoutActiveKey_failsFast() {
+    assertThrows(IllegalStateException.class, () -> signer("missing", Map.of("k1", KEY_1), NOW));
+  }
+}
@@ -0,0 +1,97 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.model.FileRecord;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import org.bson.BsonBinarySubType;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+class FileIdsTest {
+
+  @Test
+  void timeOrdered_isVersion7AndSortsByCreationTime() {
+    List<UUID> ids = new ArrayList<>();
+    for (long millis = 1_700_000_000_000L; millis < 1_700_000_000_100L; millis += 10) {
+      ids.add(FileIds.timeOrdered(millis));
+    }
+
+    for (UUID id : ids) {
+      assertEquals(7, id.version());
+      assertEquals(2, id.variant());
+    }
+    assertEquals(1_700_000_000_000L, ids.get(0).getMostSignificantBits() >>> 16);
+    // Byte order, which is how MongoDB compares binary values.
+    List<String> stored = ids.stream().map(UUID::toString).toList();
+    assertEquals(stored.stream().sorted().toList(), stored);
+  }
+
+  @Test
+  void token_isRandomVersion4() {
+    UUID token = FileIds.token();
+
+    assertEquals(4, token.version());
+    assertEquals(2, token.variant());
+    assertNotEquals(token, FileIds.token());
+  }
+
+  @Test
+  void toBson_storesUuidsAsSixteenByteStandardBinaryAndLeavesOtherIdsAlone() {
+    String id = FileIds.timeOrdered().toString();
+
+    Binary stored = (Binary) FileIds.toBson(id);
+
+    assertEquals(BsonBinarySubType.UUID_STANDARD.getValue(), stored.getType());
+    assertEquals(16, stored.getData().length);
+    assertEquals(id, FileIds.fromBson(stored));
+    assertEquals(id, FileIds.fromBson(UUID.fromString(id)));
+    assertEquals("legacy-id", FileIds.toBson("legacy-id"));
+    assertEquals("1-1-1-1-1", FileIds.toBson("1-1-1-1-1"));
+    assertEquals("legacy-id", FileIds.fromBson("legacy-id"));
+  }
+
+  @Test
+  void fileRecordIds_areBinaryInDocumentsQueriesAndUpdates() {
+    MongoMappingContext context = new MongoMappingContext();
+    MappingMongoConverter converter =
+        new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+    converter.afterPropertiesSet();
+    String id = FileIds.timeOrdered().toString();
+    String token = FileIds.token().toString();
+    Object storedId = FileIds.toBson(id);
+    Object storedToken = FileIds.toBson(token);
+
+    Document document = new Document();
+    converter.write(FileRecord.builder().filename(id).token(token).build(), document);
+    Document query =
+        new QueryMapper(converter)
+            .getMappedObject(
+                Query.query(Criteria.where("token").is(token)).getQueryObject(),
+                context.getPersistentEntity(FileRecord.class));
+    Document update =
+        new UpdateMapper(converter)
+            .getMappedObject(
+                new Update().set("filename", id).getUpdateObject(),
+                context.getPersistentEntity(FileRecord.class));
+
+    assertEquals(storedId, document.get("f"));
+    assertEquals(storedToken, document.get("tk"));
+    assertEquals(new Document("tk", storedToken), query);
+    assertEquals(new Document("$set", new Document("f", storedId)), update);
+    FileRecord read = converter.read(FileRecord.class, document);
+    assertEquals(id, read.getFilename());
+    assertEquals(token, read.getToken());
+  }
+}
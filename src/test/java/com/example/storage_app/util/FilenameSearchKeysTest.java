@@ -0,0 +1,42 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class FilenameSearchKeysTest {
+
+  @Test
+  void normalize_foldsCaseAndCompatibilityForms() {
+    assertEquals("report-q1.pdf", FilenameSearchKeys.normalize("Report-Q1.PDF"));
+    // Full-width letters and the "ﬁ" ligature fold to their plain forms.
+    assertEquals("file.txt", FilenameSearchKeys.normalize("ﬁｌｅ.TXT"));
+    assertEquals("", FilenameSearchKeys.normalize(null));
+  }
+
+  @Test
+  void grams_areDistinctTrigramsByCodePoint() {
+    assertEquals(List.of("aaa"), FilenameSearchKeys.grams("aaaaa"));
+    assertEquals(List.of("a.t", ".tx", "txt"), FilenameSearchKeys.grams("a.txt"));
+    assertEquals(List.of("x😀y"), FilenameSearchKeys.grams("x😀y"));
+    assertEquals(List.of(), FilenameSearchKeys.grams("ab"));
+  }
+
+  @Test
+  void prefixUpperBound_sortsAfterEveryKeyWithThePrefix() {
+    String upper = FilenameSearchKeys.prefixUpperBound("rep");
+
+    for (String key : List.of("rep", "report.pdf", "rep￿", "rep😀")) {
+      assertTrue(compareUtf8(key, upper) < 0, key);
+    }
+    assertTrue(compareUtf8("req", upper) > 0);
+  }
+
+  /** MongoDB's binary string order. */
+  private static int compareUtf8(String a, String b) {
+    return java.util.Arrays.compareUnsigned(
+        a.getBytes(java.nio.charset.StandardCharsets.UTF_8),
+        b.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,40 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.exception.InvalidRequestArgumentException;
+import java.util.Date;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+
+class ListingCursorTest {
+
+  @Test
+  void roundTrip_preservesBsonTypeOfSortKey() {
+    ObjectId id = new ObjectId();
+    Date date = new Date(1_700_000_000_000L);
+
+    ListingCursor byDate =
+        ListingCursor.decode(new ListingCursor("uploadDate", false, date, id).encode());
+    ListingCursor bySize = ListingCursor.decode(new ListingCursor("size", true, 42L, id).encode());
+
+    assertEquals(new ListingCursor("uploadDate", false, date, id), byDate);
+    assertInstanceOf(Long.class, bySize.value());
+    assertEquals(42L, bySize.value());
+    assertTrue(bySize.ascending());
+  }
+
+  @Test
+  void encodedCursor_isUrlSafe() {
+    String token =
+        new ListingCursor("originalFilename", true, "ä/?+&.txt", new ObjectId()).encode();
+
+    assertTrue(token.matches("[A-Za-z0-9_-]+"));
+  }
+
+  @Test
+  void decode_rejectsGarbage() {
+    assertThrows(InvalidRequestArgumentException.class, () -> ListingCursor.decode("%%%"));
+    assertThrows(InvalidRequestArgumentException.class, () -> ListingCursor.decode("AAAA"));
+  }
+}
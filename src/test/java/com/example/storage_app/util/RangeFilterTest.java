@@ -0,0 +1,76 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.exception.InvalidRequestArgumentException;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+class RangeFilterTest {
+
+  @Test
+  void of_withoutParameters_isNull() {
+    assertNull(RangeFilter.of(null, null, null, " ", ""));
+  }
+
+  @Test
+  void of_datesAreUtcDaysWithAnInclusiveEndDay() {
+    RangeFilter filter = RangeFilter.of(null, null, "2025-09-01", "2025-09-30", null);
+
+    assertEquals(Instant.parse("2025-09-01T00:00:00Z"), filter.from());
+    assertEquals(Instant.parse("2025-10-01T00:00:00Z"), filter.to());
+    assertEquals(
+        Instant.parse("2025-09-01T12:30:00Z"),
+        RangeFilter.of(null, null, "2025-09-01T12:30:00Z", null, null).from());
+  }
+
+  @Test
+  void toCriteria_oneBoundedRangePerProperty() {
+    List<Criteria> criteria =
+        RangeFilter.of(10L, 2048L, "2025-09-01", "2025-09-30", "Image/*").toCriteria();
+
+    assertEquals(
+        List.of(
+            new Document("size", new Document("$gte", 10L).append("$lte", 2048L)),
+            new Document(
+                "uploadDate",
+                new Document("$gte", Date.from(Instant.parse("2025-09-01T00:00:00Z")))
+                    .append("$lt", Date.from(Instant.parse("2025-10-01T00:00:00Z")))),
+            new Document("contentType", new Document("$gte", "image/").append("$lt", "image0"))),
+        criteria.stream().map(Criteria::getCriteriaObject).toList());
+  }
+
+  @Test
+  void toCriteria_exactContentTypeAndOpenEndedSize() {
+    List<Criteria> criteria = RangeFilter.of(100L, null, null, null, "image/png").toCriteria();
+
+    assertEquals(
+        List.of(
+            new Document("size", new Document("$gte", 100L)),
+            new Document("contentType", "image/png")),
+        criteria.stream().map(Criteria::getCriteriaObject).toList());
+  }
+
+  @Test
+  void of_invalidParameters_throwInvalidRequestArgument() {
+    assertThrows(
+        InvalidRequestArgumentException.class, () -> RangeFilter.of(-1L, null, null, null, null));
+    assertThrows(
+        InvalidRequestArgumentException.class, () -> RangeFilter.of(10L, 5L, null, null, null));
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () -> RangeFilter.of(null, null, "2025-09-02", "2025-09-01", null));
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () -> RangeFilter.of(null, null, "yesterday", null, null));
+    assertThrows(
+        InvalidRequestArgumentException.class, () -> RangeFilter.of(null, null, null, null, "*/*"));
+    assertThrows(
+        InvalidRequestArgumentException.class,
+        () -> RangeFilter.of(null, null, null, null, "image"));
+  }
+}
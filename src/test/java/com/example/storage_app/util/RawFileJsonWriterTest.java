@@ -0,0 +1,192 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.controller.dto.FileResponse;
+import com.example.storage_app.controller.dto.PagedResponse;
+import com.example.storage_app.model.FileRecord;
+import com.example.storage_app.model.TotalMode;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.util.StdDateFormat;
+import java.io.ByteArrayOutputStream;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+class RawFileJsonWriterTest {
+  // Spring Boot's default: ISO dates rather than epoch millis.
+  private final ObjectMapper objectMapper =
+      Jackson2ObjectMapperBuilder.json()
+          .featuresToDisable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+          .build();
+  private final TagDictionary tagDictionary = mock(TagDictionary.class);
+  private final RawFileJsonWriter writer = new RawFileJsonWriter(objectMapper, tagDictionary);
+  private final FileMapper fileMapper = new FileMapper();
+  private final MappingMongoConverter converter =
+      new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, new MongoMappingContext());
+
+  {
+    when(tagDictionary.name(1)).thenReturn("x");
+    converter.setCustomConversions(TagDictionary.conversions(tagDictionary));
+    converter.afterPropertiesSet();
+  }
+
+  private Document file(String name, List<?> tags, Object length) {
+    Document file =
+        new Document("_id", new ObjectId())
+            .append("f", FileIds.toBson(FileIds.timeOrdered().toString()))
+            .append("s", length)
+            .append("n", name)
+            .append("v", "PUBLIC")
+            .append("d", new Date(1_715_505_361_312L))
+            .append("c", "text/plain")
+            .append("tk", "tok-" + name)
+            .append("h", "ignored");
+    if (tags != null) {
+      file.append("t", tags);
+    }
+    return file;
+  }
+
+  private String raw(List<Document> docs, int page, int size, Long total, TotalMode mode)
+      throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    writer.writePage(
+        out,
+        docs.stream()
+            .map(d -> new RawBsonDocument(d, new org.bson.codecs.DocumentCodec()))
+            .iterator(),
+        page,
+        size,
+        total,
+        mode,
+        null);
+    return out.toString();
+  }
+
+  @Test
+  void writesSameJsonAsMappedListing() throws Exception {
+    List<Document> docs =
+        List.of(
+            // An interned tag and one the migration has not reached yet.
+            file("a \"quoted\".txt", List.of(1, "y"), 46L),
+            file("b.txt", null, 7).append("e", 3L),
+            file("ü.txt", List.of(), 0L));
+    List<FileResponse> mapped =
+        docs.stream().map(d -> fileMapper.fromEntity(converter.read(FileRecord.class, d))).toList();
+    String expected =
+        objectMapper.writeValueAsString(
+            new PagedResponse<>(mapped, 1, 3, 3, 9L, true, false, 3, "exact"));
+
+    String actual = raw(docs, 1, 3, 9L, TotalMode.EXACT);
+
+    assertTrue(actual.contains("\"uploadDate\":\"2024-05-12T09:16:01.312+00:00\""), actual);
+    assertEquals(objectMapper.readTree(expected), objectMapper.readTree(actual));
+  }
+
+  @Test
+  void withoutTotal_usesLookaheadRowForLast() throws Exception {
+    List<Document> docs = List.of(file("a", null, 1L), file("b", null, 1L), file("c", null, 1L));
+
+    JsonNode more = objectMapper.readTree(raw(docs, 0, 2, null, TotalMode.NONE));
+    JsonNode end = objectMapper.readTree(raw(docs.subList(0, 2), 0, 2, null, TotalMode.NONE));
+
+    assertEquals(2, more.get("content").size());
+    assertFalse(more.get("last").asBoolean());
+    assertTrue(more.get("totalElements").isNull());
+    assertEquals("none", more.get("totalType").asText());
+    assertTrue(end.get("last").asBoolean());
+  }
+
+  @Test
+  void writeNdjson_writesOneMappedResponsePerLineAndFlushes() throws Exception {
+    List<Document> docs =
+        List.of(file("a", List.of(1), 1L), file("b", null, 2L), file("c", null, 3L));
+    int[] flushes = {0};
+    ByteArrayOutputStream out =
+        new ByteArrayOutputStream() {
+          @Override
+          public void flush() {
+            flushes[0]++;
+          }
+        };
+
+    long written =
+        writer.writeNdjson(
+            out,
+            docs.stream()
+                .map(d -> new RawBsonDocument(d, new org.bson.codecs.DocumentCodec()))
+                .iterator(),
+            2,
+            null);
+
+    String[] lines = out.toString().split("\n", -1);
+    assertEquals(3, written);
+    assertEquals(4, lines.length);
+    assertEquals("", lines[3]);
+    for (int i = 0; i < docs.size(); i++) {
+      FileResponse mapped = fileMapper.fromEntity(converter.read(FileRecord.class, docs.get(i)));
+      assertEquals(
+          objectMapper.readTree(objectMapper.writeValueAsString(mapped)),
+          objectMapper.readTree(lines[i]));
+    }
+    // After row 2; the rest goes out when the generator closes the stream.
+    assertEquals(1, flushes[0]);
+  }
+
+  @Test
+  void linkForId_receivesGridFsId() throws Exception {
+    Document doc = file("a", null, 1L);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    writer.writePage(
+        out,
+        List.of(new RawBsonDocument(doc, new org.bson.codecs.DocumentCodec())).iterator(),
+        0,
+        10,
+        1L,
+        TotalMode.EXACT,
+        id -> "/signed/" + id.toHexString());
+
+    assertEquals(
+        "/signed/" + doc.getObjectId("_id").toHexString(),
+        objectMapper
+            .readTree(out.toByteArray())
+            .get("content")
+            .get(0)
+            .get("downloadLink")
+            .asText());
+  }
+
+  @Test
+  void formatIsoUtc_matchesStdDateFormat() {
+    StdDateFormat std = new StdDateFormat();
+    char[] buf = new char[64];
+    java.util.Random random = new java.util.Random(7);
+    long[] samples = new long[1000];
+    samples[0] = 0;
+    samples[1] = -1;
+    samples[2] = -12_212_553_600_000L; // 1583-01-01
+    samples[4] = 951_782_400_000L; // 2000-02-29
+    samples[3] = 253_402_300_799_999L; // 9999-12-31T23:59:59.999
+    for (int i = 5; i < samples.length; i++) {
+      samples[i] = random.nextLong(-12_212_553_600_000L, 253_402_300_800_000L);
+    }
+    for (long millis : samples) {
+      int length = RawFileJsonWriter.formatIsoUtc(millis, buf);
+      assertEquals(std.format(new Date(millis)), new String(buf, 0, length), "millis=" + millis);
+    }
+    assertEquals(-1, RawFileJsonWriter.formatIsoUtc(253_402_300_800_000L, buf));
+    assertEquals(-1, RawFileJsonWriter.formatIsoUtc(-12_212_553_600_001L, buf));
+  }
+}
@@ -0,0 +1,89 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+import com.example.storage_app.model.FileRecord;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.convert.QueryMapper;
+import org.springframework.data.mongodb.core.convert.UpdateMapper;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+class TagDictionaryTest {
+  private final TagDictionary dictionary = mock(TagDictionary.class);
+  private MappingMongoConverter converter;
+  private MongoPersistentEntity<?> entity;
+
+  @BeforeEach
+  void setUp() {
+    MongoMappingContext context = new MongoMappingContext();
+    converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, context);
+    converter.setCustomConversions(TagDictionary.conversions(dictionary));
+    converter.afterPropertiesSet();
+    entity = context.getPersistentEntity(FileRecord.class);
+    Map<String, Integer> ids = Map.of("work", 1, "finance", 2);
+    when(dictionary.find(anyString()))
+        .thenAnswer(inv -> ids.getOrDefault(inv.<String>getArgument(0), TagDictionary.UNKNOWN));
+    when(dictionary.name(1)).thenReturn("work");
+    when(dictionary.name(2)).thenReturn("finance");
+  }
+
+  @Test
+  void documents_storeIdsAndReadBackNames() {
+    String id = FileIds.timeOrdered().toString();
+    Document document = new Document();
+    converter.write(
+        FileRecord.builder().filename(id).tags(List.of("work", "finance")).build(), document);
+
+    assertEquals(List.of(1, 2), document.get("t"));
+    // Annotated converters still apply alongside the registered one.
+    assertEquals(FileIds.toBson(id), document.get("f"));
+    assertEquals(List.of("work", "finance"), converter.read(FileRecord.class, document).getTags());
+    // Not migrated yet.
+    assertEquals(
+        List.of("draft"),
+        converter.read(FileRecord.class, new Document("t", List.of("draft"))).getTags());
+  }
+
+  @Test
+  void queries_lookUpIdsWithoutInterning() {
+    Document query =
+        new QueryMapper(converter)
+            .getMappedObject(
+                new Query(TagFilter.parse("work AND NOT finance AND new").toCriteria(Map.of()))
+                    .getQueryObject(),
+                entity);
+    Document any =
+        new QueryMapper(converter)
+            .getMappedObject(
+                new Query(TagFilter.parse("work OR new").toCriteria(Map.of())).getQueryObject(),
+                entity);
+
+    assertEquals(
+        new Document(
+            "t",
+            new Document("$all", List.of(1, TagDictionary.UNKNOWN)).append("$nin", List.of(2))),
+        query);
+    assertEquals(new Document("t", new Document("$in", List.of(1, TagDictionary.UNKNOWN))), any);
+    verify(dictionary, never()).intern(anyString());
+  }
+
+  @Test
+  void updates_mapTagListsToIds() {
+    Document update =
+        new UpdateMapper(converter)
+            .getMappedObject(
+                new Update().set("tags", List.of("work", "finance")).getUpdateObject(), entity);
+
+    assertEquals(new Document("$set", new Document("t", List.of(1, 2))), update);
+  }
+}
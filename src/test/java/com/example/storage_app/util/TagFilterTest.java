@@ -0,0 +1,99 @@
+package com.example.storage_app.util;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.example.storage_app.exception.InvalidRequestArgumentException;
+import java.util.List;
+import java.util.Map;
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+class TagFilterTest {
+
+  @Test
+  void parse_plainValue_isOneLowerCasedTagAsBefore() {
+    TagFilter filter = TagFilter.parse("Work And Play");
+
+    assertEquals("work and play", filter.singleTag());
+    assertEquals("work and play", filter.toString());
+    assertFalse(filter.ranksTags());
+    assertNull(TagFilter.parse("  "));
+    assertNull(TagFilter.parse(null));
+  }
+
+  @Test
+  void parse_normalisesEquivalentSpellings() {
+    assertEquals(
+        "invoice AND 2025 AND NOT draft", TagFilter.parse("invoice 2025 NOT draft").toString());
+    assertEquals(
+        "invoice AND 2025 AND NOT draft",
+        TagFilter.parse("(INVOICE AND 2025) AND NOT NOT NOT Draft").toString());
+    assertEquals(
+        "(q1 OR q2 OR \"tax year\") AND NOT draft",
+        TagFilter.parse("(q1 OR (q2 OR \"Tax Year\")) NOT draft").toString());
+    assertEquals("work", TagFilter.parse("NOT NOT work").singleTag());
+  }
+
+  @Test
+  void toCriteria_conjunction_isOneAllRarestFirstAndOneNin() {
+    TagFilter filter = TagFilter.parse("common AND rare AND unknown AND NOT draft AND NOT old");
+
+    Document query = filter.toCriteria(Map.of("common", 900L, "rare", 3L)).getCriteriaObject();
+
+    assertTrue(filter.ranksTags());
+    assertEquals(
+        new Document(
+            "tags",
+            new Document("$all", List.of("rare", "common", "unknown"))
+                .append("$nin", List.of("draft", "old"))),
+        query);
+  }
+
+  @Test
+  void toCriteria_alternativesAndNegatedGroups() {
+    assertEquals(
+        new Document("tags", new Document("$in", List.of("q1", "q2"))),
+        TagFilter.parse("q1 OR q2").toCriteria(Map.of()).getCriteriaObject());
+    assertEquals(
+        new Document("tags", new Document("$ne", "draft")),
+        TagFilter.parse("NOT draft").toCriteria(Map.of()).getCriteriaObject());
+
+    Document query =
+        TagFilter.parse("invoice AND NOT (q1 AND q2)").toCriteria(Map.of()).getCriteriaObject();
+
+    assertEquals(
+        new Document("tags", new Document("$all", List.of("invoice")))
+            .append(
+                "$and",
+                List.of(
+                    new Document(
+                        "$nor",
+                        List.of(new Document("tags", new Document("$all", List.of("q1", "q2"))))))),
+        query);
+  }
+
+  @Test
+  void parse_rejectsMalformedExpressions() {
+    for (String bad :
+        List.of("a AND", "(a OR b", "a OR OR b", "\"unterminated", "(a) b)", "NOT", "\"\" AND a")) {
+      InvalidRequestArgumentException e =
+          assertThrows(InvalidRequestArgumentException.class, () -> TagFilter.parse(bad), bad);
+      assertTrue(e.getMessage().startsWith("Invalid tag filter: "), bad);
+    }
+    String tooMany =
+        String.join(" OR ", java.util.Collections.nCopies(TagFilter.MAX_TERMS + 1, "t"));
+    assertThrows(InvalidRequestArgumentException.class, () -> TagFilter.parse(tooMany));
+  }
+
+  @Test
+  void parse_deepNesting_isRejectedBeforeItExhaustsTheStack() {
+    for (String deep :
+        List.of("(".repeat(3000) + "a" + ")".repeat(3000), "NOT ".repeat(3000) + "a")) {
+      InvalidRequestArgumentException e =
+          assertThrows(InvalidRequestArgumentException.class, () -> TagFilter.parse(deep));
+      assertEquals("Invalid tag filter: nested too deeply", e.getMessage());
+    }
+    String allowed = "(".repeat(TagFilter.MAX_DEPTH) + "a" + ")".repeat(TagFilter.MAX_DEPTH);
+    assertEquals("a", TagFilter.parse(allowed).singleTag());
+  }
+}